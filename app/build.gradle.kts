@@ -29,6 +29,12 @@ android {
         sourceCompatibility = JavaVersion.VERSION_1_8
         targetCompatibility = JavaVersion.VERSION_1_8
     }
+    sourceSets {
+        // 模拟标签只用于单元测试和基准测试, 不打包进APK
+        getByName("test") {
+            java.srcDir("src/testFixtures/java")
+        }
+    }
 }
 
 dependencies {
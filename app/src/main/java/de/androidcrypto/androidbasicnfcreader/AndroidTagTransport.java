@@ -0,0 +1,227 @@
+package de.androidcrypto.androidbasicnfcreader;
+
+import android.nfc.Tag;
+import android.nfc.TagLostException;
+import android.nfc.tech.MifareClassic;
+import android.nfc.tech.MifareUltralight;
+import android.nfc.tech.NfcA;
+import android.nfc.tech.NfcV;
+import android.nfc.tech.TagTechnology;
+
+import java.io.IOException;
+
+/**
+ * 把android.nfc.tech的对象适配成TagTransport
+ * 平台的TagLostException转换成TagLossException, 读写逻辑不依赖android.nfc
+ * 用法
+ * TagTransport transport = AndroidTagTransport.of(NfcV.get(tag));
+ * transport.connect();
+ */
+public abstract class AndroidTagTransport implements TagTransport {
+
+    private final TagTechnology tech;
+
+    private AndroidTagTransport(TagTechnology tech) {
+        this.tech = tech;
+    }
+
+    public static TagTransport of(final NfcV nfcV) {
+        return new AndroidTagTransport(nfcV) {
+            @Override
+            public byte[] transceive(byte[] data) throws IOException {
+                try {
+                    return nfcV.transceive(data);
+                } catch (TagLostException e) {
+                    throw new TagLossException(e);
+                }
+            }
+
+            @Override
+            public int getMaxTransceiveLength() {
+                return nfcV.getMaxTransceiveLength();
+            }
+        };
+    }
+
+    public static TagTransport of(final NfcA nfcA) {
+        return new AndroidTagTransport(nfcA) {
+            @Override
+            public byte[] transceive(byte[] data) throws IOException {
+                try {
+                    return nfcA.transceive(data);
+                } catch (TagLostException e) {
+                    throw new TagLossException(e);
+                }
+            }
+
+            @Override
+            public int getMaxTransceiveLength() {
+                return nfcA.getMaxTransceiveLength();
+            }
+        };
+    }
+
+    public static TagTransport of(final MifareUltralight mifare) {
+        return new AndroidTagTransport(mifare) {
+            @Override
+            public byte[] transceive(byte[] data) throws IOException {
+                try {
+                    return mifare.transceive(data);
+                } catch (TagLostException e) {
+                    throw new TagLossException(e);
+                }
+            }
+
+            @Override
+            public int getMaxTransceiveLength() {
+                return mifare.getMaxTransceiveLength();
+            }
+        };
+    }
+
+    public static MifareClassicTransport of(MifareClassic mfc) {
+        return new Classic(mfc);
+    }
+
+    /**
+     * 为TagSession按需创建传输层
+     */
+    public static TagSession.Provider provider(final Tag tag) {
+        return tech -> {
+            switch (tech) {
+                case NFC_A:
+                    NfcA nfcA = NfcA.get(tag);
+                    return nfcA == null ? null : of(nfcA);
+                case NFC_V:
+                    NfcV nfcV = NfcV.get(tag);
+                    return nfcV == null ? null : of(nfcV);
+                case MIFARE_ULTRALIGHT:
+                    MifareUltralight mifare = MifareUltralight.get(tag);
+                    return mifare == null ? null : of(mifare);
+                case MIFARE_CLASSIC:
+                    MifareClassic mfc = MifareClassic.get(tag);
+                    return mfc == null ? null : of(mfc);
+                default:
+                    return null;
+            }
+        };
+    }
+
+    @Override
+    public void connect() throws IOException {
+        try {
+            tech.connect();
+        } catch (TagLostException e) {
+            throw new TagLossException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        tech.close();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return tech.isConnected();
+    }
+
+    @Override
+    public byte[] getId() {
+        return tech.getTag().getId();
+    }
+
+    private static class Classic extends AndroidTagTransport implements MifareClassicTransport {
+        private final MifareClassic mfc;
+
+        Classic(MifareClassic mfc) {
+            super(mfc);
+            this.mfc = mfc;
+        }
+
+        @Override
+        public byte[] transceive(byte[] data) throws IOException {
+            try {
+                return mfc.transceive(data);
+            } catch (TagLostException e) {
+                throw new TagLossException(e);
+            }
+        }
+
+        @Override
+        public int getMaxTransceiveLength() {
+            return mfc.getMaxTransceiveLength();
+        }
+
+        @Override
+        public int getType() {
+            return mfc.getType();
+        }
+
+        @Override
+        public int getSize() {
+            return mfc.getSize();
+        }
+
+        @Override
+        public int getSectorCount() {
+            return mfc.getSectorCount();
+        }
+
+        @Override
+        public int getBlockCount() {
+            return mfc.getBlockCount();
+        }
+
+        @Override
+        public int getBlockCountInSector(int sector) {
+            return mfc.getBlockCountInSector(sector);
+        }
+
+        @Override
+        public int sectorToBlock(int sector) {
+            return mfc.sectorToBlock(sector);
+        }
+
+        @Override
+        public int blockToSector(int block) {
+            return mfc.blockToSector(block);
+        }
+
+        @Override
+        public boolean authenticateSectorWithKeyA(int sector, byte[] key) throws IOException {
+            try {
+                return mfc.authenticateSectorWithKeyA(sector, key);
+            } catch (TagLostException e) {
+                throw new TagLossException(e);
+            }
+        }
+
+        @Override
+        public boolean authenticateSectorWithKeyB(int sector, byte[] key) throws IOException {
+            try {
+                return mfc.authenticateSectorWithKeyB(sector, key);
+            } catch (TagLostException e) {
+                throw new TagLossException(e);
+            }
+        }
+
+        @Override
+        public byte[] readBlock(int block) throws IOException {
+            try {
+                return mfc.readBlock(block);
+            } catch (TagLostException e) {
+                throw new TagLossException(e);
+            }
+        }
+
+        @Override
+        public void writeBlock(int block, byte[] data) throws IOException {
+            try {
+                mfc.writeBlock(block, data);
+            } catch (TagLostException e) {
+                throw new TagLossException(e);
+            }
+        }
+    }
+}
@@ -7,19 +7,32 @@ import android.nfc.NfcAdapter;
 import android.nfc.NfcManager;
 import android.nfc.Tag;
 import android.provider.Settings;
+import android.util.Log;
 import android.widget.Toast;
 
 import androidx.appcompat.app.AppCompatActivity;
 
+import java.io.IOException;
+import java.util.Arrays;
+
 /**
  * Created by gyg on 2017/6/5.
  */
 
 public class BaseNfcActivity extends AppCompatActivity {
 
+    private static final String TAG = "BaseNfcActivity";
+
+    //启动页面时传入true, 以读卡器模式扫描标签(需要子类支持)
+    public static final String EXTRA_READER_MODE = "readerMode";
+
     protected NfcAdapter mNfcAdapter;//nfc适配器对象
     protected PendingIntent mPendingIntent;//延迟Intent
     protected Tag mTag;//nfc标签对象
+    protected volatile TagSession mSession;//当前标签的会话, 标签离开前所有操作共用
+    protected TagScanner mScanner;//读卡器模式的扫描, 为null时使用前台调度
+    protected final TapDebouncer mDebouncer = new TapDebouncer(TapDebouncer.DEFAULT_WINDOW_MS);//按UID去除重复刷卡
+    protected boolean mDuplicateTap;//最近一次发现的标签是否为时间窗口内的重复刷卡, 子类据此跳过处理
 
     //启动activity,界面可见时
     @Override
@@ -39,16 +52,77 @@ public class BaseNfcActivity extends AppCompatActivity {
             return;
         }
         mPendingIntent = PendingIntent.getActivity(this, 0, new Intent(this, getClass()), PendingIntent.FLAG_MUTABLE);//创建PendingIntent对象,当检测到一个Tag标签就会执行此Intent
+        TagSession.Tech[] techs = readerModeTechs();
+        if (mScanner == null && techs != null && getIntent().getBooleanExtra(EXTRA_READER_MODE, false)) {
+            mScanner = new TagScanner(new ReaderModeSource(this, mNfcAdapter, techs),
+                    NfcExecutor.getInstance(), session -> {
+                        mSession = session;
+                        if (mDebouncer.accept(session.getId())) {
+                            onTagScanned(session);
+                        }
+                    }, scanCallback);
+        }
+    }
+
+    //读卡器模式下处理标签失败或排队已满被拒绝时提示, 不能静默丢弃; 再次刷同一张卡时不受重复刷卡窗口限制
+    private final NfcExecutor.Callback<Void> scanCallback = new NfcExecutor.Callback<Void>() {
+        @Override
+        public void onSuccess(Void result) {
+        }
+
+        @Override
+        public void onError(Exception e) {
+            TagSession session = mScanner != null ? mScanner.getCurrentSession() : null;
+            if (session != null) {
+                mDebouncer.forget(session.getId());
+            }
+            Log.e(TAG, "处理标签失败", e);
+            Toast.makeText(BaseNfcActivity.this, "处理标签失败: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+        }
+    };
+
+    //支持读卡器模式的子类返回要轮询的技术, 默认不支持
+    protected TagSession.Tech[] readerModeTechs() {
+        return null;
+    }
+
+    //读卡器模式下发现标签, 在NFC线程中调用, 此时mSession已是该标签的会话
+    protected void onTagScanned(TagSession session) throws Exception {
     }
 
     @Override
     protected void onNewIntent(Intent intent) {
         super.onNewIntent(intent);
         mTag = intent.getParcelableExtra(NfcAdapter.EXTRA_TAG);//获取到Tag标签对象
-        String[] techList = mTag.getTechList();
-        System.out.println("标签支持的tachnology类型：");
-        for (String tech : techList) {
-            System.out.println(tech);
+        if (mTag == null) {
+            return;
+        }
+        Log.d(TAG, "标签支持的technology类型: " + Arrays.toString(mTag.getTechList()));
+        mDuplicateTap = !mDebouncer.accept(mTag.getId());
+        openSession(mTag);
+    }
+
+    //每发现一个标签创建一次会话, 之前的会话在NFC线程中断开
+    protected void openSession(Tag tag) {
+        closeSession();
+        mSession = new TagSession(tag.getId(), AndroidTagTransport.provider(tag));
+    }
+
+    protected void closeSession() {
+        final TagSession session = mSession;
+        mSession = null;
+        if (session != null) {
+            //断开连接不能因为排队已满被丢弃
+            NfcExecutor.getInstance().execute(session::disconnect);
+        }
+    }
+
+    //保存读取到的标签内容, 在NFC线程中调用; 保存失败不影响读取结果
+    protected void saveImage(TagSession session, TagSession.Tech tech, byte[] image) {
+        try {
+            TagImageStore.getInstance().append(session.getId(), tech, System.currentTimeMillis(), image);
+        } catch (IOException | IllegalArgumentException e) {
+            Log.e(TAG, "保存标签内容失败", e);
         }
     }
 
@@ -56,7 +130,9 @@ public class BaseNfcActivity extends AppCompatActivity {
     @Override
     protected void onResume() {
         super.onResume();
-        if (mNfcAdapter != null) {
+        if (mScanner != null) {
+            mScanner.start();//读卡器模式, 标签不再经过onNewIntent
+        } else if (mNfcAdapter != null) {
             mNfcAdapter.enableForegroundDispatch(this, mPendingIntent, null, null);//打开前台发布系统，使页面优于其它nfc处理.当检测到一个Tag标签就会执行mPendingItent
         }
     }
@@ -65,9 +141,17 @@ public class BaseNfcActivity extends AppCompatActivity {
     @Override
     protected void onPause() {
         super.onPause();
-        if (mNfcAdapter != null) {
+        if (mScanner != null) {
+            mScanner.stop();
+        } else if (mNfcAdapter != null) {
             mNfcAdapter.disableForegroundDispatch(this);//关闭前台发布系统
         }
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        closeSession();
+    }
+
 }
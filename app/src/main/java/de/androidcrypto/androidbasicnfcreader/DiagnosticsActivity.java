@@ -0,0 +1,109 @@
+package de.androidcrypto.androidbasicnfcreader;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.view.View;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import androidx.appcompat.app.AppCompatActivity;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * 诊断界面
+ * 每500毫秒刷新一次TagMetrics的统计: 各technology各操作的延迟分布, 错误次数和吞吐量,
+ * 收发按命令码分行列出, 可以清零和导出为CSV;
+ * 也可以导出FrameTrace记录的最近命令帧, 用TraceReplay在JVM上回放
+ */
+public class DiagnosticsActivity extends AppCompatActivity implements View.OnClickListener {
+
+    private static final String TAG = "DiagnosticsActivity";
+    private static final long REFRESH_MS = 500;
+
+    private TextView metricsText;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable refresh = new Runnable() {
+        @Override
+        public void run() {
+            show();
+            handler.postDelayed(this, REFRESH_MS);
+        }
+    };
+
+    private void show() {
+        TagCache cache = TagCache.getInstance();
+        metricsText.setText(TagMetrics.getInstance().format()
+                + "\n缓存: " + cache.size() + " 张, " + cache.getBytes() + " 字节, 命中 "
+                + cache.getHitCount() + ", 未命中 " + cache.getMissCount());
+    }
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_diagnostics);
+        metricsText = findViewById(R.id.metrics_text);
+        findViewById(R.id.reset_bn).setOnClickListener(this);
+        findViewById(R.id.export_bn).setOnClickListener(this);
+        findViewById(R.id.trace_bn).setOnClickListener(this);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        handler.post(refresh);
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        handler.removeCallbacks(refresh);
+    }
+
+    @Override
+    public void onClick(View v) {
+        if (v.getId() == R.id.reset_bn) {
+            TagMetrics.getInstance().reset();
+            show();
+        } else if (v.getId() == R.id.export_bn) {
+            export();
+        } else if (v.getId() == R.id.trace_bn) {
+            exportTrace();
+        }
+    }
+
+    //导出到应用的外部文件目录, 不需要存储权限, 可以通过adb pull取出
+    private File exportFile(String name) {
+        File dir = getExternalFilesDir(null);
+        if (dir == null) {
+            dir = getFilesDir();
+        }
+        return new File(dir, name);
+    }
+
+    private void export() {
+        File file = exportFile("tag-metrics-" + System.currentTimeMillis() + ".csv");
+        try {
+            TagMetrics.getInstance().export(file);
+            Toast.makeText(this, "已导出到 " + file.getPath(), Toast.LENGTH_LONG).show();
+        } catch (IOException e) {
+            Log.e(TAG, "导出失败", e);
+            Toast.makeText(this, "导出失败: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    private void exportTrace() {
+        File file = exportFile("tag-trace-" + System.currentTimeMillis() + ".bin");
+        try {
+            FrameTrace.getInstance().dump(file);
+            Toast.makeText(this, "已导出 " + FrameTrace.getInstance().getRecordCount() + " 条记录到 " + file.getPath(),
+                    Toast.LENGTH_LONG).show();
+        } catch (IOException e) {
+            Log.e(TAG, "导出失败", e);
+            Toast.makeText(this, "导出失败: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+        }
+    }
+}
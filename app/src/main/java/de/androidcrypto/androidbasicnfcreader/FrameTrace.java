@@ -0,0 +1,606 @@
+package de.androidcrypto.androidbasicnfcreader;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 标签命令帧记录
+ * 经过TagSession的每个命令和响应(连接, 原始帧, MIFARE Classic认证和块读写)按二进制格式写入固定大小的环形缓冲,
+ * 写满时丢弃最早的记录. 需要时导出为记录文件, 用TraceReplay在JVM上回放
+ * 记录格式(大端): 总长度(2) 操作(1) technology(1) 结果(1) 参数(4) 开始时间纳秒(8) 耗时微秒(4)
+ * 数据1长度(2) 数据1 数据2长度(2) 数据2; 文件为魔数"NFCT", 版本, 记录数, 之后是记录
+ * 认证只记录扇区和结果, 不记录密钥; 记录之前把密钥置0: PWD_AUTH的密码, 写入NTAG / Ultralight的PWD, PACK和
+ * Ultralight C密钥页的数据, 读写MIFARE Classic扇区尾块时的Key A和Key B. 导出的文件中没有这些密钥
+ * 用法
+ * FrameTrace.getInstance().dump(new File(dir, "trace.bin"));
+ * List<FrameTrace.Frame> frames = FrameTrace.read(file);
+ */
+public class FrameTrace {
+
+    public static final int OP_SESSION = 0;
+    public static final int OP_CONNECT = 1;
+    public static final int OP_CLOSE = 2;
+    public static final int OP_TRANSCEIVE = 3;
+    public static final int OP_AUTH_A = 4;
+    public static final int OP_AUTH_B = 5;
+    public static final int OP_READ_BLOCK = 6;
+    public static final int OP_WRITE_BLOCK = 7;
+
+    public static final int STATUS_OK = 0;
+    public static final int STATUS_IO_ERROR = 1;
+    public static final int STATUS_TAG_LOST = 2;
+    /**
+     * 认证返回false
+     */
+    public static final int STATUS_FALSE = 3;
+
+    static final int NO_TECH = 0xFF;
+
+    private static final int MAGIC = 0x4E464354; // "NFCT"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 2 + 1 + 1 + 1 + 4 + 8 + 4;
+    private static final int MAX_RECORD = 0xFFFF;
+    private static final byte[] EMPTY = new byte[0];
+    /**
+     * NTAG / Ultralight EV1的PWD_AUTH, 之后4字节为密码
+     */
+    private static final int PWD_AUTH = 0x1B;
+    private static final int CLASSIC_WRITE = 0xA0;
+    private static final int CLASSIC_READ = 0x30;
+    private static final int ULTRALIGHT_WRITE = 0xA2;
+    /**
+     * 各型号的PWD和PACK页(NTAG210/MF0UL11, NTAG212/MF0UL21, NTAG213, NTAG215, NTAG216)和Ultralight C的密钥页
+     * 记录时不知道型号, 这些页都按密钥处理, 较大的标签上相同页号的用户数据也被置0
+     */
+    private static final int[] SECRET_PAGES = {0x12, 0x13, 0x27, 0x28, 0x2B, 0x2C, 0x2D, 0x2E, 0x2F, 0x85, 0x86, 0xE5, 0xE6};
+
+    private static FrameTrace instance;
+
+    private final byte[] ring;
+    private final long epoch = System.nanoTime();
+    private final byte[] header = new byte[HEADER_SIZE];
+    private int head;
+    private int used;
+    private int records;
+    private long dropped;
+    private volatile boolean enabled = true;
+
+    /**
+     * @param capacity 环形缓冲的字节数
+     */
+    public FrameTrace(int capacity) {
+        this.ring = new byte[capacity];
+    }
+
+    /**
+     * 应用共用的记录, 保留最近256KB
+     */
+    public static synchronized FrameTrace getInstance() {
+        if (instance == null) {
+            instance = new FrameTrace(256 * 1024);
+        }
+        return instance;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * 包装传输层, 记录经过它的每个命令; 关闭记录时直接返回transport
+     */
+    public TagTransport wrap(TagSession.Tech tech, TagTransport transport) {
+        if (transport == null || !enabled) {
+            return transport;
+        }
+        if (transport instanceof MifareClassicTransport) {
+            return new TracingClassicTransport(this, tech, (MifareClassicTransport) transport);
+        }
+        return new TracingTransport(this, tech, transport);
+    }
+
+    /**
+     * 开始一次刷卡, 回放时按此分隔会话
+     */
+    public void beginSession(byte[] uid) {
+        if (enabled) {
+            long now = System.nanoTime();
+            record(OP_SESSION, null, STATUS_OK, 0, now, now, uid, uid.length, null, 0);
+        }
+    }
+
+    /**
+     * 写入一条记录
+     *
+     * @param tech       为null时不属于某个technology
+     * @param startNanos 开始时的System.nanoTime()
+     * @param endNanos   结束时的System.nanoTime()
+     */
+    public synchronized void record(int op, TagSession.Tech tech, int status, int arg, long startNanos, long endNanos,
+                                    byte[] data1, int length1, byte[] data2, int length2) {
+        int length = HEADER_SIZE + 2 + length1 + 2 + length2;
+        if (length > MAX_RECORD || length > ring.length) {
+            dropped++;
+            return;
+        }
+        while (used + length > ring.length) {
+            int oldest = ((ring[head] & 0xFF) << 8) | (ring[(head + 1) % ring.length] & 0xFF);
+            head = (head + oldest) % ring.length;
+            used -= oldest;
+            records--;
+            dropped++;
+        }
+        long micros = (endNanos - startNanos) / 1000;
+        int p = 0;
+        p = putShort(header, p, length);
+        header[p++] = (byte) op;
+        header[p++] = (byte) (tech == null ? NO_TECH : tech.ordinal());
+        header[p++] = (byte) status;
+        p = putInt(header, p, arg);
+        long start = startNanos - epoch;
+        p = putInt(header, p, (int) (start >>> 32));
+        p = putInt(header, p, (int) start);
+        putInt(header, p, (int) Math.min(micros, Integer.MAX_VALUE));
+        int tail = (head + used) % ring.length;
+        tail = append(tail, header, 0, HEADER_SIZE);
+        tail = appendShort(tail, length1);
+        tail = append(tail, data1, 0, length1);
+        tail = appendShort(tail, length2);
+        append(tail, data2, 0, length2);
+        used += length;
+        records++;
+    }
+
+    private int append(int tail, byte[] data, int off, int len) {
+        if (len == 0) {
+            return tail;
+        }
+        int first = Math.min(len, ring.length - tail);
+        System.arraycopy(data, off, ring, tail, first);
+        System.arraycopy(data, off + first, ring, 0, len - first);
+        return (tail + len) % ring.length;
+    }
+
+    private int appendShort(int tail, int value) {
+        ring[tail] = (byte) (value >>> 8);
+        tail = (tail + 1) % ring.length;
+        ring[tail] = (byte) value;
+        return (tail + 1) % ring.length;
+    }
+
+    private static int putShort(byte[] b, int p, int value) {
+        b[p] = (byte) (value >>> 8);
+        b[p + 1] = (byte) value;
+        return p + 2;
+    }
+
+    private static int putInt(byte[] b, int p, int value) {
+        b[p] = (byte) (value >>> 24);
+        b[p + 1] = (byte) (value >>> 16);
+        b[p + 2] = (byte) (value >>> 8);
+        b[p + 3] = (byte) value;
+        return p + 4;
+    }
+
+    public synchronized int getRecordCount() {
+        return records;
+    }
+
+    /**
+     * 缓冲已满或记录过大而丢弃的记录数
+     */
+    public synchronized long getDroppedCount() {
+        return dropped;
+    }
+
+    public synchronized void clear() {
+        head = 0;
+        used = 0;
+        records = 0;
+        dropped = 0;
+    }
+
+    /**
+     * 当前缓冲的内容, 按记录文件格式
+     */
+    public synchronized byte[] toByteArray() {
+        byte[] out = new byte[12 + used];
+        int p = putInt(out, 0, MAGIC);
+        p = putInt(out, p, VERSION);
+        p = putInt(out, p, records);
+        int first = Math.min(used, ring.length - head);
+        System.arraycopy(ring, head, out, p, first);
+        System.arraycopy(ring, 0, out, p + first, used - first);
+        return out;
+    }
+
+    /**
+     * 导出到记录文件
+     */
+    public void dump(File file) throws IOException {
+        byte[] data = toByteArray();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(data);
+        }
+    }
+
+    public static List<Frame> read(File file) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            return read(in);
+        }
+    }
+
+    /**
+     * 读取记录文件
+     *
+     * @throws IOException 格式错误
+     */
+    public static List<Frame> read(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("不是帧记录文件");
+            }
+            int count = in.readInt();
+            List<Frame> frames = new ArrayList<>(Math.max(0, Math.min(count, 1 << 16)));
+            for (int i = 0; i < count; i++) {
+                int length = in.readUnsignedShort();
+                int op = in.readUnsignedByte();
+                int tech = in.readUnsignedByte();
+                int status = in.readUnsignedByte();
+                int arg = in.readInt();
+                long start = in.readLong();
+                int micros = in.readInt();
+                byte[] data1 = new byte[in.readUnsignedShort()];
+                in.readFully(data1);
+                byte[] data2 = new byte[in.readUnsignedShort()];
+                in.readFully(data2);
+                if (length != HEADER_SIZE + 4 + data1.length + data2.length) {
+                    throw new IOException("第" + i + "条记录长度错误");
+                }
+                frames.add(new Frame(op, tech == NO_TECH ? null : TagSession.Tech.values()[tech],
+                        status, arg, start, micros, data1, data2));
+            }
+            return frames;
+        } catch (EOFException | ArrayIndexOutOfBoundsException e) {
+            throw new IOException("帧记录文件不完整", e);
+        }
+    }
+
+    /**
+     * 一条记录
+     */
+    public static class Frame {
+        public final int op;
+        public final TagSession.Tech tech;
+        public final int status;
+        /**
+         * CONNECT为最大帧长, 认证为扇区, 块读写为块号
+         */
+        public final int arg;
+        /**
+         * 相对记录开始的纳秒
+         */
+        public final long startNanos;
+        public final int durationMicros;
+        /**
+         * SESSION为UID, TRANSCEIVE为命令, WRITE_BLOCK为写入的数据, CONNECT MIFARE Classic为类型和容量
+         * 命令, 响应和读写的数据中的密钥已置0
+         */
+        public final byte[] data1;
+        /**
+         * TRANSCEIVE为响应, READ_BLOCK为读到的数据
+         */
+        public final byte[] data2;
+
+        Frame(int op, TagSession.Tech tech, int status, int arg, long startNanos, int durationMicros,
+              byte[] data1, byte[] data2) {
+            this.op = op;
+            this.tech = tech;
+            this.status = status;
+            this.arg = arg;
+            this.startNanos = startNanos;
+            this.durationMicros = durationMicros;
+            this.data1 = data1;
+            this.data2 = data2;
+        }
+
+        @Override
+        public String toString() {
+            return "op=" + op + " tech=" + tech + " status=" + status + " arg=" + arg
+                    + " data1=" + HexUtil.toHexString(data1) + " data2=" + HexUtil.toHexString(data2);
+        }
+    }
+
+    /**
+     * 记录中的命令帧: PWD_AUTH的密码和WRITE(0xA2)写入密钥页的数据置0, 直接发送的MIFARE Classic WRITE(0xA0)按redactBlock处理
+     *
+     * @return 不含密钥时为cmd本身, 否则为置0后的副本
+     */
+    static byte[] redactCommand(TagSession.Tech tech, byte[] cmd) {
+        if (tech == TagSession.Tech.NFC_A || tech == TagSession.Tech.MIFARE_ULTRALIGHT) {
+            int code = cmd.length > 0 ? cmd[0] & 0xFF : -1;
+            if ((code == PWD_AUTH && cmd.length >= 5)
+                    || (code == ULTRALIGHT_WRITE && cmd.length >= 6 && isSecretPage(cmd[1] & 0xFF))) {
+                byte[] copy = cmd.clone();
+                int from = code == PWD_AUTH ? 1 : 2;
+                Arrays.fill(copy, from, from + 4, (byte) 0);
+                return copy;
+            }
+            return cmd;
+        }
+        if (tech == TagSession.Tech.MIFARE_CLASSIC && cmd.length >= 18 && (cmd[0] & 0xFF) == CLASSIC_WRITE) {
+            byte[] data = Arrays.copyOfRange(cmd, 2, 18);
+            byte[] redacted = redactBlock(cmd[1] & 0xFF, data);
+            if (redacted != data) {
+                byte[] copy = cmd.clone();
+                System.arraycopy(redacted, 0, copy, 2, 16);
+                return copy;
+            }
+        }
+        return cmd;
+    }
+
+    /**
+     * 记录中的响应帧: 直接发送的MIFARE Classic READ(0x30)读到扇区尾块时按redactBlock处理
+     *
+     * @return 不含密钥时为res本身, 否则为置0后的副本
+     */
+    static byte[] redactResponse(TagSession.Tech tech, byte[] cmd, byte[] res) {
+        if (tech == TagSession.Tech.MIFARE_CLASSIC && res != null && cmd.length >= 2 && (cmd[0] & 0xFF) == CLASSIC_READ) {
+            return redactBlock(cmd[1] & 0xFF, res);
+        }
+        return res;
+    }
+
+    private static boolean isSecretPage(int page) {
+        for (int secret : SECRET_PAGES) {
+            if (secret == page) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 记录中读写MIFARE Classic块的数据: 扇区尾块的Key A和Key B置0, 保留访问条件
+     *
+     * @return 不是扇区尾块时为data本身, 否则为置0后的副本
+     */
+    static byte[] redactBlock(int block, byte[] data) {
+        // 前32个扇区每扇区4块, 之后(4K)每扇区16块, 扇区128块开始, 都按各自大小对齐
+        int blocksPerSector = block < 32 * 4 ? 4 : 16;
+        if ((block + 1) % blocksPerSector != 0) {
+            return data;
+        }
+        byte[] copy = data.clone();
+        Arrays.fill(copy, 0, Math.min(6, copy.length), (byte) 0);
+        if (copy.length > 10) {
+            Arrays.fill(copy, 10, Math.min(16, copy.length), (byte) 0);
+        }
+        return copy;
+    }
+
+    private static int statusOf(IOException e) {
+        return e instanceof TagLossException ? STATUS_TAG_LOST : STATUS_IO_ERROR;
+    }
+
+    /**
+     * 记录命令帧的传输层
+     */
+    static class TracingTransport implements TagTransport {
+        final FrameTrace trace;
+        final TagSession.Tech tech;
+        private final TagTransport transport;
+
+        TracingTransport(FrameTrace trace, TagSession.Tech tech, TagTransport transport) {
+            this.trace = trace;
+            this.tech = tech;
+            this.transport = transport;
+        }
+
+        /**
+         * 连接记录的附加数据, 回放时用于恢复标签属性
+         */
+        byte[] connectInfo() {
+            return EMPTY;
+        }
+
+        @Override
+        public void connect() throws IOException {
+            long start = System.nanoTime();
+            int status = STATUS_IO_ERROR;
+            try {
+                transport.connect();
+                status = STATUS_OK;
+            } catch (IOException e) {
+                status = statusOf(e);
+                throw e;
+            } finally {
+                byte[] info = status == STATUS_OK ? connectInfo() : EMPTY;
+                trace.record(OP_CONNECT, tech, status, transport.getMaxTransceiveLength(), start, System.nanoTime(),
+                        info, info.length, null, 0);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            long start = System.nanoTime();
+            int status = STATUS_IO_ERROR;
+            try {
+                transport.close();
+                status = STATUS_OK;
+            } catch (IOException e) {
+                status = statusOf(e);
+                throw e;
+            } finally {
+                trace.record(OP_CLOSE, tech, status, 0, start, System.nanoTime(), null, 0, null, 0);
+            }
+        }
+
+        @Override
+        public boolean isConnected() {
+            return transport.isConnected();
+        }
+
+        @Override
+        public byte[] getId() {
+            return transport.getId();
+        }
+
+        @Override
+        public byte[] transceive(byte[] data) throws IOException {
+            long start = System.nanoTime();
+            byte[] res = null;
+            int status = STATUS_IO_ERROR;
+            try {
+                res = transport.transceive(data);
+                status = STATUS_OK;
+                return res;
+            } catch (IOException e) {
+                status = statusOf(e);
+                throw e;
+            } finally {
+                byte[] cmd = redactCommand(tech, data);
+                byte[] response = redactResponse(tech, data, res);
+                trace.record(OP_TRANSCEIVE, tech, status, 0, start, System.nanoTime(),
+                        cmd, cmd.length, response, response == null ? 0 : response.length);
+            }
+        }
+
+        @Override
+        public int getMaxTransceiveLength() {
+            return transport.getMaxTransceiveLength();
+        }
+    }
+
+    /**
+     * 记录MIFARE Classic命令的传输层
+     */
+    static class TracingClassicTransport extends TracingTransport implements MifareClassicTransport {
+        private final MifareClassicTransport mfc;
+
+        TracingClassicTransport(FrameTrace trace, TagSession.Tech tech, MifareClassicTransport mfc) {
+            super(trace, tech, mfc);
+            this.mfc = mfc;
+        }
+
+        @Override
+        byte[] connectInfo() {
+            byte[] info = new byte[8];
+            putInt(info, 0, mfc.getType());
+            putInt(info, 4, mfc.getSize());
+            return info;
+        }
+
+        @Override
+        public int getType() {
+            return mfc.getType();
+        }
+
+        @Override
+        public int getSize() {
+            return mfc.getSize();
+        }
+
+        @Override
+        public int getSectorCount() {
+            return mfc.getSectorCount();
+        }
+
+        @Override
+        public int getBlockCount() {
+            return mfc.getBlockCount();
+        }
+
+        @Override
+        public int getBlockCountInSector(int sector) {
+            return mfc.getBlockCountInSector(sector);
+        }
+
+        @Override
+        public int sectorToBlock(int sector) {
+            return mfc.sectorToBlock(sector);
+        }
+
+        @Override
+        public int blockToSector(int block) {
+            return mfc.blockToSector(block);
+        }
+
+        @Override
+        public boolean authenticateSectorWithKeyA(int sector, byte[] key) throws IOException {
+            return authenticate(OP_AUTH_A, sector, key);
+        }
+
+        @Override
+        public boolean authenticateSectorWithKeyB(int sector, byte[] key) throws IOException {
+            return authenticate(OP_AUTH_B, sector, key);
+        }
+
+        private boolean authenticate(int op, int sector, byte[] key) throws IOException {
+            long start = System.nanoTime();
+            int status = STATUS_IO_ERROR;
+            try {
+                boolean auth = op == OP_AUTH_B ? mfc.authenticateSectorWithKeyB(sector, key)
+                        : mfc.authenticateSectorWithKeyA(sector, key);
+                status = auth ? STATUS_OK : STATUS_FALSE;
+                return auth;
+            } catch (IOException e) {
+                status = statusOf(e);
+                throw e;
+            } finally {
+                trace.record(op, tech, status, sector, start, System.nanoTime(), null, 0, null, 0);
+            }
+        }
+
+        @Override
+        public byte[] readBlock(int block) throws IOException {
+            long start = System.nanoTime();
+            byte[] data = null;
+            int status = STATUS_IO_ERROR;
+            try {
+                data = mfc.readBlock(block);
+                status = STATUS_OK;
+                return data;
+            } catch (IOException e) {
+                status = statusOf(e);
+                throw e;
+            } finally {
+                byte[] read = data == null ? null : redactBlock(block, data);
+                trace.record(OP_READ_BLOCK, tech, status, block, start, System.nanoTime(),
+                        null, 0, read, read == null ? 0 : read.length);
+            }
+        }
+
+        @Override
+        public void writeBlock(int block, byte[] data) throws IOException {
+            long start = System.nanoTime();
+            int status = STATUS_IO_ERROR;
+            try {
+                mfc.writeBlock(block, data);
+                status = STATUS_OK;
+            } catch (IOException e) {
+                status = statusOf(e);
+                throw e;
+            } finally {
+                byte[] written = redactBlock(block, data);
+                trace.record(OP_WRITE_BLOCK, tech, status, block, start, System.nanoTime(),
+                        written, written.length, null, 0);
+            }
+        }
+    }
+}
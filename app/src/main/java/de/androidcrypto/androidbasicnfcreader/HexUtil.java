@@ -0,0 +1,181 @@
+package de.androidcrypto.androidbasicnfcreader;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 十六进制编码和解码
+ * 查表实现, 可以直接写入调用方提供的char[], StringBuilder或ByteBuffer, 不产生中间对象
+ * 用法
+ * HexUtil.toHexString(new byte[]{0x0A, (byte) 0xFF}) 得到 "0AFF"
+ * HexUtil.toHexString(data, 0, data.length, false, ' ') 得到 "0a ff"
+ * HexUtil.decode("0aff") 得到 {0x0A, (byte) 0xFF}
+ */
+public class HexUtil {
+
+    /**
+     * 不使用分隔符
+     */
+    public static final char NO_SEPARATOR = 0;
+
+    private static final char[] UPPER = "0123456789ABCDEF".toCharArray();
+    private static final char[] LOWER = "0123456789abcdef".toCharArray();
+
+    /**
+     * 字符到数值, 非十六进制字符为-1
+     */
+    private static final byte[] DIGITS = new byte[128];
+
+    static {
+        for (int i = 0; i < DIGITS.length; i++) {
+            DIGITS[i] = -1;
+        }
+        for (int i = 0; i < 16; i++) {
+            DIGITS[UPPER[i]] = (byte) i;
+            DIGITS[LOWER[i]] = (byte) i;
+        }
+    }
+
+    private HexUtil() {
+    }
+
+    /**
+     * 编码后的字符数
+     *
+     * @param len       字节数
+     * @param separator 分隔符, NO_SEPARATOR为不分隔
+     */
+    public static int encodedLength(int len, char separator) {
+        if (len <= 0) {
+            return 0;
+        }
+        return separator == NO_SEPARATOR ? len * 2 : len * 3 - 1;
+    }
+
+    /**
+     * 编码为大写, 无分隔符的字符串
+     *
+     * @param src 字节数组, null返回""
+     */
+    public static String toHexString(byte[] src) {
+        if (src == null) {
+            return "";
+        }
+        return toHexString(src, 0, src.length, false, NO_SEPARATOR);
+    }
+
+    /**
+     * 编码为字符串
+     *
+     * @param src       字节数组
+     * @param off       开始位置
+     * @param len       字节数
+     * @param lowerCase 是否小写
+     * @param separator 字节之间的分隔符, NO_SEPARATOR为不分隔
+     */
+    public static String toHexString(byte[] src, int off, int len, boolean lowerCase, char separator) {
+        char[] chars = new char[encodedLength(len, separator)];
+        encode(src, off, len, chars, 0, lowerCase, separator);
+        return new String(chars);
+    }
+
+    /**
+     * 编码到调用方提供的char[]
+     *
+     * @return dst中下一个可写的位置
+     */
+    public static int encode(byte[] src, int off, int len, char[] dst, int dstOff, boolean lowerCase, char separator) {
+        char[] table = lowerCase ? LOWER : UPPER;
+        int p = dstOff;
+        for (int i = 0; i < len; i++) {
+            if (i > 0 && separator != NO_SEPARATOR) {
+                dst[p++] = separator;
+            }
+            int b = src[off + i] & 0xFF;
+            dst[p++] = table[b >>> 4];
+            dst[p++] = table[b & 0x0F];
+        }
+        return p;
+    }
+
+    /**
+     * 追加到调用方提供的StringBuilder
+     *
+     * @return sb
+     */
+    public static StringBuilder append(StringBuilder sb, byte[] src, int off, int len, boolean lowerCase, char separator) {
+        char[] table = lowerCase ? LOWER : UPPER;
+        sb.ensureCapacity(sb.length() + encodedLength(len, separator));
+        for (int i = 0; i < len; i++) {
+            if (i > 0 && separator != NO_SEPARATOR) {
+                sb.append(separator);
+            }
+            int b = src[off + i] & 0xFF;
+            sb.append(table[b >>> 4]).append(table[b & 0x0F]);
+        }
+        return sb;
+    }
+
+    /**
+     * 以ASCII编码写入调用方提供的ByteBuffer
+     *
+     * @return dst
+     */
+    public static ByteBuffer encode(byte[] src, int off, int len, ByteBuffer dst, boolean lowerCase, char separator) {
+        char[] table = lowerCase ? LOWER : UPPER;
+        for (int i = 0; i < len; i++) {
+            if (i > 0 && separator != NO_SEPARATOR) {
+                dst.put((byte) separator);
+            }
+            int b = src[off + i] & 0xFF;
+            dst.put((byte) table[b >>> 4]).put((byte) table[b & 0x0F]);
+        }
+        return dst;
+    }
+
+    /**
+     * 解码十六进制字符串, 大小写均可, 不允许分隔符和"0x"前缀
+     *
+     * @param hex 十六进制字符串
+     * @return 字节数组
+     * @throws IllegalArgumentException 长度为奇数或包含非十六进制字符
+     */
+    public static byte[] decode(CharSequence hex) {
+        if (hex.length() % 2 != 0) {
+            throw new IllegalArgumentException("十六进制字符串长度必须为偶数");
+        }
+        byte[] result = new byte[hex.length() / 2];
+        decode(hex, 0, hex.length(), result, 0);
+        return result;
+    }
+
+    /**
+     * 解码到调用方提供的byte[], 一次遍历同时校验
+     *
+     * @param hex    十六进制字符串
+     * @param off    开始位置
+     * @param len    字符数, 必须为偶数
+     * @param dst    目标数组
+     * @param dstOff 目标开始位置
+     * @return 写入的字节数
+     * @throws IllegalArgumentException 长度为奇数或包含非十六进制字符
+     */
+    public static int decode(CharSequence hex, int off, int len, byte[] dst, int dstOff) {
+        if (len % 2 != 0) {
+            throw new IllegalArgumentException("十六进制字符串长度必须为偶数");
+        }
+        int p = dstOff;
+        for (int i = off; i < off + len; i += 2) {
+            dst[p++] = (byte) ((digit(hex, i) << 4) | digit(hex, i + 1));
+        }
+        return p - dstOff;
+    }
+
+    private static int digit(CharSequence hex, int index) {
+        char c = hex.charAt(index);
+        int d = c < 128 ? DIGITS[c] : -1;
+        if (d < 0) {
+            throw new IllegalArgumentException("无效的十六进制字符: " + c);
+        }
+        return d;
+    }
+}
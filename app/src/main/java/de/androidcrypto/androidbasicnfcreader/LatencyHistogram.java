@@ -0,0 +1,115 @@
+package de.androidcrypto.androidbasicnfcreader;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 固定内存的延迟直方图
+ * 按2的幂分段, 每段再等分为8个子桶, 相对误差不超过12.5%, 可以记录0微秒到约9小时的延迟;
+ * 记录时不分配内存, 不加锁, 读取方可以在其他线程随时读取
+ * 用法
+ * LatencyHistogram histogram = new LatencyHistogram();
+ * histogram.record(elapsedMicros);
+ * long p99 = histogram.getValueAtPercentile(99);
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAGNITUDES = 33;
+    private static final int BUCKETS = MAGNITUDES * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * 值所在的桶; 小于SUB_BUCKETS的值各占一个桶, 之后每个2的幂分成SUB_BUCKETS个桶
+     */
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) Math.max(value, 0);
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS + 1;
+        int sub = (int) (value >>> (magnitude - 1)) - SUB_BUCKETS;
+        return Math.min(magnitude * SUB_BUCKETS + sub, BUCKETS - 1);
+    }
+
+    /**
+     * 桶内的最大值
+     */
+    static long highestValueOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int magnitude = bucket / SUB_BUCKETS;
+        int sub = bucket % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub + 1) << (magnitude - 1)) - 1;
+    }
+
+    /**
+     * 记录一次延迟
+     *
+     * @param micros 微秒
+     */
+    public void record(long micros) {
+        counts.incrementAndGet(bucketOf(micros));
+        count.incrementAndGet();
+        total.addAndGet(micros);
+        long current;
+        while (micros > (current = max.get()) && !max.compareAndSet(current, micros)) {
+            // 其他线程同时更新了最大值, 重新比较
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * 所有记录的延迟之和(微秒)
+     */
+    public long getTotal() {
+        return total.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public long getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : total.get() / n;
+    }
+
+    /**
+     * 百分位数对应的延迟, 返回所在桶的最大值, 不超过记录到的最大值
+     *
+     * @param percentile 0到100
+     */
+    public long getValueAtPercentile(double percentile) {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(n * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(highestValueOf(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        total.set(0);
+        max.set(0);
+    }
+}
@@ -0,0 +1,162 @@
+package de.androidcrypto.androidbasicnfcreader;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+import android.widget.TextView;
+
+/**
+ * 有上限的日志输出
+ * 日志按行保存在环形缓冲中, 超出行数或字符数上限时丢弃最早的行;
+ * 任意线程都可以写入, 新的日志在下一帧一次性刷新到界面, 每帧最多刷新一次
+ * 用法
+ * LogSink sink = LogSink.forTextView(logTextView, 500, 32 * 1024);
+ * sink.log("检测到 NFC 标签");
+ */
+public class LogSink {
+
+    /**
+     * 刷新日志的目标
+     */
+    public interface Target {
+        void show(CharSequence text);
+    }
+
+    /**
+     * 安排在下一帧执行刷新
+     */
+    public interface FrameScheduler {
+        void schedule(Runnable flush);
+    }
+
+    private final String[] lines;
+    private final int maxChars;
+    private final Target target;
+    private final FrameScheduler scheduler;
+    private final Runnable flush = this::flush;
+    private int head;
+    private int count;
+    private int chars;
+    private boolean scheduled;
+    private boolean closed;
+
+    /**
+     * @param maxLines  最多保留的行数
+     * @param maxChars  最多保留的字符数
+     * @param target    显示日志, 在scheduler的线程中调用
+     * @param scheduler 安排刷新
+     */
+    LogSink(int maxLines, int maxChars, Target target, FrameScheduler scheduler) {
+        this.lines = new String[maxLines];
+        this.maxChars = maxChars;
+        this.target = target;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * 输出到TextView, 在主线程的下一帧刷新
+     */
+    public static LogSink forTextView(TextView view, int maxLines, int maxChars) {
+        Handler mainHandler = new Handler(Looper.getMainLooper());
+        return new LogSink(maxLines, maxChars, view::setText,
+                flush -> mainHandler.post(() -> Choreographer.getInstance().postFrameCallback(frameTimeNanos -> flush.run())));
+    }
+
+    /**
+     * 写入日志, 多行文本按换行拆分
+     */
+    public void log(String message) {
+        boolean schedule;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            int start = 0;
+            int end;
+            while ((end = message.indexOf('\n', start)) >= 0) {
+                add(message.substring(start, end));
+                start = end + 1;
+            }
+            if (start < message.length() || start == 0) {
+                add(message.substring(start));
+            }
+            schedule = !scheduled;
+            scheduled = true;
+        }
+        if (schedule) {
+            scheduler.schedule(flush);
+        }
+    }
+
+    private void add(String line) {
+        if (line.length() > maxChars) {
+            line = line.substring(0, maxChars);
+        }
+        if (count == lines.length) {
+            removeOldest();
+        }
+        lines[(head + count) % lines.length] = line;
+        count++;
+        chars += line.length() + 1;
+        while (chars > maxChars && count > 1) {
+            removeOldest();
+        }
+    }
+
+    private void removeOldest() {
+        chars -= lines[head].length() + 1;
+        lines[head] = null;
+        head = (head + 1) % lines.length;
+        count--;
+    }
+
+    /**
+     * 当前保留的日志, 每行以换行结尾
+     */
+    public synchronized String getText() {
+        StringBuilder sb = new StringBuilder(chars);
+        for (int i = 0; i < count; i++) {
+            sb.append(lines[(head + i) % lines.length]).append('\n');
+        }
+        return sb.toString();
+    }
+
+    public synchronized int getLineCount() {
+        return count;
+    }
+
+    private void flush() {
+        String text;
+        synchronized (this) {
+            scheduled = false;
+            if (closed) {
+                return;
+            }
+            text = getText();
+        }
+        target.show(text);
+    }
+
+    /**
+     * 清空日志
+     */
+    public void clear() {
+        synchronized (this) {
+            while (count > 0) {
+                removeOldest();
+            }
+            if (scheduled) {
+                return;
+            }
+            scheduled = true;
+        }
+        scheduler.schedule(flush);
+    }
+
+    /**
+     * 停止刷新, 之后写入的日志被忽略, 在页面销毁时调用
+     */
+    public synchronized void close() {
+        closed = true;
+    }
+}
@@ -18,6 +18,12 @@ public class MainActivity extends BaseNfcActivity implements View.OnClickListene
         findViewById(R.id.button2).setOnClickListener(this);
         findViewById(R.id.button3).setOnClickListener(this);
         findViewById(R.id.button4).setOnClickListener(this);
+        findViewById(R.id.button5).setOnClickListener(this);
+        //长按以读卡器模式打开, 只轮询ISO 15693, 跳过NDEF检查
+        findViewById(R.id.button4).setOnLongClickListener(v -> {
+            startActivity(new Intent(this, NfcVActivity.class).putExtra(EXTRA_READER_MODE, true));
+            return true;
+        });
     }
 
     @Override
@@ -30,6 +36,8 @@ public class MainActivity extends BaseNfcActivity implements View.OnClickListene
             startActivity(new Intent(this, MifareUltralightActivity.class));
         } else if (v.getId() == R.id.button4) {//读写MifareClassic格式
             startActivity(new Intent(this, NfcVActivity.class));
+        } else if (v.getId() == R.id.button5) {//命令耗时统计
+            startActivity(new Intent(this, DiagnosticsActivity.class));
         }
     }
 }
@@ -27,15 +27,7 @@ public class MifareClassicActivity extends BaseNfcActivity implements View.OnCli
     private EditText readData;//读出的数据
     private TextView tvClassic;//标签类型
     private TextView tvCurrentClassic;//当前标签类型
-    //医生
-    private String[] uidStrDr = new String[]{
-            "6EB00ABD",
-            "BEFE07BD",
-            "350B29C9",
-            "D5AC27C9"};
-    //护士
-    private String[] uidStrNurse = new String[]{"AC4EC9A0",
-            "A5F635C9"};
+    private TextView dumpText;//整卡数据
 
     boolean isMafire = false;
     boolean is15693 = false;
@@ -54,6 +46,8 @@ public class MifareClassicActivity extends BaseNfcActivity implements View.OnCli
         tvCurrentClassic = (TextView) findViewById(R.id.tvCurrentClassic);
         findViewById(R.id.write_bn).setOnClickListener(this);
         findViewById(R.id.read_bn).setOnClickListener(this);
+        findViewById(R.id.dump_bn).setOnClickListener(this);
+        dumpText = (TextView) findViewById(R.id.dump_text);
 
     }
 
@@ -72,8 +66,23 @@ public class MifareClassicActivity extends BaseNfcActivity implements View.OnCli
         }
 
         //Get card UID
-        Tag tag = intent.getParcelableExtra(NfcAdapter.EXTRA_TAG);
-        readGuardCard(tag);
+        TagSession session = mSession;
+        if (session == null || mDuplicateTap) {//同一标签在时间窗口内重复发现时不再处理
+            return;
+        }
+        NfcExecutor.getInstance().submit(() -> readGuardCard(session), new NfcExecutor.Callback<String>() {
+            @Override
+            public void onSuccess(String info) {
+                Log.e(TAG, "readGuardCard：" + info);
+            }
+
+            @Override
+            public void onError(Exception e) {
+                //排队已满被拒绝, 再次刷同一张卡时不受重复刷卡窗口限制
+                mDebouncer.forget(session.getId());
+                e.printStackTrace();
+            }
+        });
 //        String id = NFCUtil.byte2HexString(MifareClassic.get(intent.getParcelableExtra(NfcAdapter.EXTRA_TAG)).getTag().getId());
 //        //获取标签类型
 //        tvClassic.setText("");
@@ -98,31 +107,31 @@ public class MifareClassicActivity extends BaseNfcActivity implements View.OnCli
 //
 //        Toast.makeText(this, "(Uid = " + id + ")", Toast.LENGTH_SHORT).show();
 //        Log.e(TAG, "Uid = " + id);
-//
-//        //医生
-//        for (String s : uidStrDr) {
-//            if (s.equals(id)) {
-//                Toast.makeText(this, "医生-跳转医生界面(Uid = " + id + ")", Toast.LENGTH_SHORT).show();
-//                Log.e(TAG, "Uid = " + id);
-//                break;
-//            }
-//        }
-//
-//        //护士
-//        for (String s : uidStrNurse) {
-//            if (s.equals(id)) {
-//                Toast.makeText(this, "护士-跳转护士界面(Uid = " + id + ")", Toast.LENGTH_SHORT).show();
-//                Log.e(TAG, "护士Uid = " + id);
-//                break;
-//            }
-//        }
+
+        //按UID查找工牌角色: 医生/护士
+        int role = UidRoleIndex.getInstance().getRole(mTag.getId());
+        if (role == UidRoleIndex.ROLE_DOCTOR) {
+            String id = HexUtil.toHexString(mTag.getId());
+            Toast.makeText(this, "医生-跳转医生界面(Uid = " + id + ")", Toast.LENGTH_SHORT).show();
+            Log.e(TAG, "Uid = " + id);
+        } else if (role == UidRoleIndex.ROLE_NURSE) {
+            String id = HexUtil.toHexString(mTag.getId());
+            Toast.makeText(this, "护士-跳转护士界面(Uid = " + id + ")", Toast.LENGTH_SHORT).show();
+            Log.e(TAG, "护士Uid = " + id);
+        }
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        //角色文件有更新时在后台重新加载, 不占用NFC线程
+        UidRoleIndex.getInstance().reloadInBackground(UidRoleIndex.defaultFile());
     }
 
-    public String readGuardCard(Tag tag) {
-        MifareClassic classic = MifareClassic.get(tag);
+    public String readGuardCard(TagSession session) {
         String info;
         try {
-            classic.connect(); // 连接卡片数据
+            MifareClassicTransport classic = session.execute(session::mifareClassic); // 连接卡片数据, 会话中保持连接
             int type = classic.getType(); //获取TAG的类型
             String typeDesc;
             if (type == MifareClassic.TYPE_CLASSIC) {
@@ -139,13 +148,6 @@ public class MifareClassicActivity extends BaseNfcActivity implements View.OnCli
         } catch (Exception e) {
             e.printStackTrace();
             info = e.getMessage();
-        } finally { // 无论是否发生异常，都要释放资源
-            try {
-                classic.close(); // 释放卡片数据
-            } catch (Exception e) {
-                e.printStackTrace();
-                info = e.getMessage();
-            }
         }
         return info;
     }
@@ -157,12 +159,14 @@ public class MifareClassicActivity extends BaseNfcActivity implements View.OnCli
             writeBlock();
         } else if (id == R.id.read_bn) {//读块
             readBlock();
+        } else if (id == R.id.dump_bn) {//读全卡
+            dumpCard();
         }
     }
 
     //写块
     private void writeBlock() {
-        if (mTag == null) {
+        if (mSession == null) {
             Toast.makeText(this, "无法识别的标签！", Toast.LENGTH_SHORT).show();
 //            finish();
             return;
@@ -172,40 +176,78 @@ public class MifareClassicActivity extends BaseNfcActivity implements View.OnCli
 //           finish();
             return;
         }
-        MifareClassic mfc = MifareClassic.get(mTag);
+        int sector;
+        int block;
         try {
-            mfc.connect();//打开连接
-            boolean auth;
-            int sector = Integer.parseInt(sectorNum.getText().toString().trim());//写入的扇区
-            int block = Integer.parseInt(blockNum.getText().toString().trim());//写入的块区
-            Log.e(TAG, "onNewIntent支持的sector：" + sector);
-            Log.e(TAG, "onNewIntent支持的block：" + block);
-//            byte[]  authCode=new byte[]{'f','f','f','f','f','f'};
-//            auth=mfc.authenticateSectorWithKeyA(sector,MifareClassic.KEY_NFC_FORUM);//keyA验证扇区
-//            auth=mfc.authenticateSectorWithKeyA(sector,MifareClassic.KEY_MIFARE_APPLICATION_DIRECTORY);//keyA验证扇区
-            auth = mfc.authenticateSectorWithKeyA(sector, MifareClassic.KEY_DEFAULT);//keyA验证扇区
-//            auth=mfc.authenticateSectorWithKeyA(sector,authCode);//keyA验证扇区
+            sector = Integer.parseInt(sectorNum.getText().toString().trim());//写入的扇区
+            block = Integer.parseInt(blockNum.getText().toString().trim());//写入的块区
+        } catch (NumberFormatException e) {
+            Toast.makeText(this, "请输入扇区和块！", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        Log.e(TAG, "onNewIntent支持的sector：" + sector);
+        Log.e(TAG, "onNewIntent支持的block：" + block);
+        TagSession session = mSession;
+        NfcExecutor.getInstance().submit(() -> session.execute(() -> {
+            MifareClassicTransport mfc = session.mifareClassic();//会话中已打开的连接
+            boolean auth = MifareClassicKeyring.getInstance().authenticate(session, sector) != null;//按密钥字典验证扇区, 先试这张卡上次成功的密钥
             String wiroiue = "0123456789012345";
             if (auth) {
                 mfc.writeBlock(block, wiroiue.getBytes());//写入数据
-                Toast.makeText(this, "写块写入成功!", Toast.LENGTH_SHORT).show();
-            } else {
-                Toast.makeText(this, "写块验证密码失败！", Toast.LENGTH_SHORT).show();
             }
-        } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            try {
-                mfc.close();//关闭连接
-            } catch (IOException e) {
+            return auth;
+        }), new NfcExecutor.Callback<Boolean>() {
+            @Override
+            public void onSuccess(Boolean auth) {
+                if (auth) {
+                    Toast.makeText(MifareClassicActivity.this, "写块写入成功!", Toast.LENGTH_SHORT).show();
+                } else {
+                    Toast.makeText(MifareClassicActivity.this, "写块验证密码失败！", Toast.LENGTH_SHORT).show();
+                }
+            }
+
+            @Override
+            public void onError(Exception e) {
                 e.printStackTrace();
             }
+        });
+    }
+
+    //读取整张卡片, 每个扇区只认证一次
+    private void dumpCard() {
+        if (mSession == null) {
+            Toast.makeText(this, "无法识别的标签！", Toast.LENGTH_SHORT).show();
+            return;
         }
+        if (!haveMifareClissic) {
+            Toast.makeText(this, "不支持MifareClassic", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        TagSession session = mSession;
+        NfcExecutor.getInstance().submit(session.key("dump"),
+                () -> session.execute(() -> {
+                    MifareClassicDump dump = MifareClassicDump.read(session, MifareClassicKeyring.getInstance());
+                    saveImage(session, TagSession.Tech.MIFARE_CLASSIC, dump.getImage());
+                    return dump;
+                }),
+                new NfcExecutor.Callback<MifareClassicDump>() {
+                    @Override
+                    public void onSuccess(MifareClassicDump dump) {
+                        Log.e(TAG, "dumpCard 认证次数：" + dump.getAuthentications());
+                        dumpText.setText(dump.format());
+                    }
+
+                    @Override
+                    public void onError(Exception e) {
+                        Log.e(TAG, "dumpCard 读取失败", e);
+                        Toast.makeText(MifareClassicActivity.this, "读取失败: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+                    }
+                });
     }
 
     //读取块
     private void readBlock() {
-        if (mTag == null) {
+        if (mSession == null) {
             Toast.makeText(this, "无法识别的标签！", Toast.LENGTH_SHORT).show();
 //            finish();
             return;
@@ -215,45 +257,36 @@ public class MifareClassicActivity extends BaseNfcActivity implements View.OnCli
 //            finish();
             return;
         }
-        MifareClassic mfc = MifareClassic.get(mTag);
-        byte[] id = mTag.getId();
+        int sector;
+        int block;
         try {
-            mfc.connect();//打开连接
-            boolean auth;
-            int sector = Integer.parseInt(sectorNum.getText().toString().trim());//写入的扇区
-            int block = Integer.parseInt(blockNum.getText().toString().trim());//写入的块区
-            auth = mfc.authenticateSectorWithKeyA(sector, MifareClassic.KEY_DEFAULT);//keyA验证扇区
-            if (auth) {
-                Log.e(TAG, "bytesToHexString(mfc.readBlock(block):" + bytesToHexString(mfc.readBlock(block)));
-                readData.setText(bytesToHexString(mfc.readBlock(block)));
-            } else {
-                Log.e(TAG, "readBlock 读取块验证密码失败");
-                Toast.makeText(this, "读取块验证密码失败！", Toast.LENGTH_SHORT).show();
+            sector = Integer.parseInt(sectorNum.getText().toString().trim());//读取的扇区
+            block = Integer.parseInt(blockNum.getText().toString().trim());//读取的块区
+        } catch (NumberFormatException e) {
+            Toast.makeText(this, "请输入扇区和块！", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        TagSession session = mSession;
+        NfcExecutor.getInstance().submit(() -> session.execute(() -> {
+            boolean auth = MifareClassicKeyring.getInstance().authenticate(session, sector) != null;//按密钥字典验证扇区, 先试这张卡上次成功的密钥
+            return auth ? session.mifareClassic().readBlock(block) : null;
+        }), new NfcExecutor.Callback<byte[]>() {
+            @Override
+            public void onSuccess(byte[] data) {
+                if (data != null) {
+                    String hex = HexUtil.append(new StringBuilder("0x"), data, 0, data.length, true, HexUtil.NO_SEPARATOR).toString();
+                    Log.e(TAG, "readBlock " + block + ": " + hex);
+                    readData.setText(hex);
+                } else {
+                    Log.e(TAG, "readBlock 读取块验证密码失败");
+                    Toast.makeText(MifareClassicActivity.this, "读取块验证密码失败！", Toast.LENGTH_SHORT).show();
+                }
             }
-        } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            try {
-                mfc.close();//关闭连接
-            } catch (IOException e) {
+
+            @Override
+            public void onError(Exception e) {
                 e.printStackTrace();
             }
-        }
-    }
-
-    //字符序列转换为16进制字符串
-    private String bytesToHexString(byte[] src) {
-        StringBuilder stringBuilder = new StringBuilder("0x");
-        if (src == null || src.length <= 0) {
-            return null;
-        }
-        char[] buffer = new char[2];
-        for (int i = 0; i < src.length; i++) {
-            buffer[0] = Character.forDigit((src[i] >>> 4) & 0x0F, 16);
-            buffer[1] = Character.forDigit(src[i] & 0x0F, 16);
-            System.out.println(buffer);
-            stringBuilder.append(buffer);
-        }
-        return stringBuilder.toString();
+        });
     }
 }
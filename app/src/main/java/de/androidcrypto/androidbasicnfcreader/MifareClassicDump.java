@@ -0,0 +1,363 @@
+package de.androidcrypto.androidbasicnfcreader;
+
+import java.io.IOException;
+import java.util.BitSet;
+
+/**
+ * MIFARE Classic整卡读取
+ * 每个扇区只认证一次, 先读扇区尾并解析访问位, 再读取当前密钥有权限读的数据块,
+ * 结果保存在一个与卡片存储布局相同的二进制镜像中(第n块在n * 16), 每个扇区记录读取状态
+ * 用法
+ * MifareClassicDump dump = MifareClassicDump.read(session, MifareClassicKeyring.getInstance());
+ * byte[] image = dump.getImage();
+ * dump.getSectorStatus(1);
+ */
+public class MifareClassicDump {
+
+    public static final int BLOCK_SIZE = 16;
+
+    /**
+     * 扇区所有块都已读取
+     */
+    public static final int SECTOR_OK = 0;
+    /**
+     * 扇区已认证, 但部分块没有读权限或读取失败
+     */
+    public static final int SECTOR_PARTIAL = 1;
+    /**
+     * 字典中没有能认证该扇区的密钥
+     */
+    public static final int SECTOR_AUTH_FAILED = 2;
+
+    private final byte[] uid;
+    private final byte[] image;
+    private final BitSet blocks;
+    private final int[] firstBlock;
+    private final int[] blockCount;
+    private final int[] sectorStatus;
+    private final MifareClassicKeyring.Match[] keys;
+    private int authentications;
+
+    private MifareClassicDump(byte[] uid, MifareClassicTransport mfc) {
+        this.uid = uid;
+        int sectors = mfc.getSectorCount();
+        this.image = new byte[mfc.getSize()];
+        this.blocks = new BitSet(mfc.getBlockCount());
+        this.firstBlock = new int[sectors];
+        this.blockCount = new int[sectors];
+        this.sectorStatus = new int[sectors];
+        this.keys = new MifareClassicKeyring.Match[sectors];
+        for (int sector = 0; sector < sectors; sector++) {
+            firstBlock[sector] = mfc.sectorToBlock(sector);
+            blockCount[sector] = mfc.getBlockCountInSector(sector);
+        }
+    }
+
+    /**
+     * 读取整张卡片
+     *
+     * @param session 标签会话
+     * @param keyring 用于认证扇区的密钥环
+     * @return 读取结果, 认证失败的扇区全为0
+     * @throws IOException 标签离开等无法继续的错误
+     */
+    public static MifareClassicDump read(TagSession session, MifareClassicKeyring keyring) throws IOException {
+        MifareClassicDump dump = new MifareClassicDump(session.getId(), session.mifareClassic());
+        for (int sector = 0; sector < dump.getSectorCount(); sector++) {
+            dump.readSector(session, keyring, sector);
+        }
+        return dump;
+    }
+
+    private void readSector(TagSession session, MifareClassicKeyring keyring, int sector) throws IOException {
+        MifareClassicKeyring.Match match = authenticate(session, keyring, sector);
+        if (match == null) {
+            sectorStatus[sector] = SECTOR_AUTH_FAILED;
+            return;
+        }
+        keys[sector] = match;
+        int first = firstBlock[sector];
+        int trailerBlock = first + blockCount[sector] - 1;
+        Trailer trailer = null;
+        if (readBlock(session, keyring, sector, trailerBlock)) {
+            // 卡片不返回KeyA, KeyB只在可读时返回, 用认证成功的密钥补上
+            System.arraycopy(match.key.getValue(), 0, image, trailerBlock * BLOCK_SIZE + (match.keyB ? 10 : 0), 6);
+            trailer = Trailer.parse(image, trailerBlock * BLOCK_SIZE);
+        }
+        boolean complete = trailer != null;
+        for (int block = first; block < trailerBlock; block++) {
+            // 访问位表明没有读权限时不再尝试, 读取失败会使卡片进入HALT状态
+            if (trailer != null && !trailer.canRead(groupOf(sector, block - first), match.keyB)) {
+                complete = false;
+                continue;
+            }
+            if (!readBlock(session, keyring, sector, block)) {
+                complete = false;
+            }
+        }
+        sectorStatus[sector] = complete ? SECTOR_OK : SECTOR_PARTIAL;
+    }
+
+    private MifareClassicKeyring.Match authenticate(TagSession session, MifareClassicKeyring keyring, int sector) throws IOException {
+        if (session.getAuthenticatedSector() != sector) {
+            authentications++;
+        }
+        return keyring.authenticate(session, sector);
+    }
+
+    private boolean readBlock(TagSession session, MifareClassicKeyring keyring, int sector, int block) throws IOException {
+        if (authenticate(session, keyring, sector) == null) {
+            return false;
+        }
+        byte[] data;
+        try {
+            data = session.mifareClassic().readBlock(block);
+        } catch (TagLossException e) {
+            throw e;
+        } catch (IOException e) {
+            // 卡片已HALT, 断开后下一块重新连接并认证
+            session.disconnect();
+            return false;
+        }
+        if (data == null || data.length < BLOCK_SIZE) {
+            return false;
+        }
+        System.arraycopy(data, 0, image, block * BLOCK_SIZE, BLOCK_SIZE);
+        blocks.set(block);
+        return true;
+    }
+
+    /**
+     * 扇区内第index块对应的访问位组: 4块扇区每块一组, 16块扇区每5块一组, 扇区尾为第3组
+     */
+    static int groupOf(int sector, int index) {
+        return sector < 32 ? index : Math.min(index / 5, 3);
+    }
+
+    public byte[] getUid() {
+        return uid.clone();
+    }
+
+    /**
+     * 整卡的二进制镜像, 第n块在n * 16, 未读取的块为0
+     */
+    public byte[] getImage() {
+        return image;
+    }
+
+    public int getSectorCount() {
+        return sectorStatus.length;
+    }
+
+    public int getSectorStatus(int sector) {
+        return sectorStatus[sector];
+    }
+
+    public int getFirstBlock(int sector) {
+        return firstBlock[sector];
+    }
+
+    public int getBlockCountInSector(int sector) {
+        return blockCount[sector];
+    }
+
+    /**
+     * 第block块是否已读取
+     */
+    public boolean isBlockRead(int block) {
+        return blocks.get(block);
+    }
+
+    /**
+     * 认证该扇区成功的密钥, 认证失败时为null
+     */
+    public MifareClassicKeyring.Match getKey(int sector) {
+        return keys[sector];
+    }
+
+    /**
+     * 解析后的扇区尾, 扇区尾未读取时为null
+     */
+    public Trailer getTrailer(int sector) {
+        int trailerBlock = firstBlock[sector] + blockCount[sector] - 1;
+        return blocks.get(trailerBlock) ? Trailer.parse(image, trailerBlock * BLOCK_SIZE) : null;
+    }
+
+    /**
+     * 读取过程中认证扇区的次数, 同一扇区内已认证时不计, 字典中失败的密钥也不单独计
+     */
+    public int getAuthentications() {
+        return authentications;
+    }
+
+    /**
+     * 生成显示用的文本, 每块一行, 扇区尾后附访问条件
+     */
+    public String format() {
+        StringBuilder sb = new StringBuilder();
+        for (int sector = 0; sector < getSectorCount(); sector++) {
+            sb.append("扇区 ").append(sector).append(": ");
+            MifareClassicKeyring.Match key = keys[sector];
+            switch (sectorStatus[sector]) {
+                case SECTOR_OK:
+                    sb.append("完整");
+                    break;
+                case SECTOR_PARTIAL:
+                    sb.append("部分");
+                    break;
+                default:
+                    sb.append("认证失败\n");
+                    continue;
+            }
+            sb.append(key.keyB ? " KeyB " : " KeyA ");
+            HexUtil.append(sb, key.key.getValue(), 0, 6, false, HexUtil.NO_SEPARATOR).append('\n');
+            for (int block = firstBlock[sector]; block < firstBlock[sector] + blockCount[sector]; block++) {
+                sb.append(block < 10 ? "  " : block < 100 ? " " : "").append(block).append(": ");
+                if (blocks.get(block)) {
+                    HexUtil.append(sb, image, block * BLOCK_SIZE, BLOCK_SIZE, false, ' ');
+                } else {
+                    sb.append("--");
+                }
+                sb.append('\n');
+            }
+            Trailer trailer = getTrailer(sector);
+            if (trailer != null) {
+                sb.append(trailer.describe());
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 扇区尾: KeyA(6) 访问位(3) 通用字节(1) KeyB(6)
+     */
+    public static final class Trailer {
+
+        private static final String[] DATA_CONDITIONS = {
+                "读A|B 写A|B 增值A|B 减值A|B",
+                "读A|B 禁止写 减值A|B",
+                "读A|B 禁止写",
+                "读B 写B",
+                "读A|B 写B",
+                "读B 禁止写",
+                "读A|B 写B 增值B 减值A|B",
+                "禁止读写",
+        };
+
+        private static final String[] TRAILER_CONDITIONS = {
+                "KeyA写A 访问位读A KeyB读写A",
+                "KeyA写A 访问位读写A KeyB读写A",
+                "访问位读A KeyB读A",
+                "KeyA写B 访问位读A|B写B KeyB写B",
+                "KeyA写B 访问位读A|B KeyB写B",
+                "访问位读A|B写B",
+                "访问位读A|B",
+                "访问位读A|B",
+        };
+
+        private final byte[] keyA = new byte[6];
+        private final byte[] keyB = new byte[6];
+        private final int generalPurpose;
+        private final int[] conditions = new int[4];
+        private final boolean valid;
+
+        private Trailer(byte[] src, int off) {
+            System.arraycopy(src, off, keyA, 0, 6);
+            System.arraycopy(src, off + 10, keyB, 0, 6);
+            generalPurpose = src[off + 9] & 0xFF;
+            int b6 = src[off + 6] & 0xFF;
+            int b7 = src[off + 7] & 0xFF;
+            int b8 = src[off + 8] & 0xFF;
+            boolean ok = true;
+            for (int n = 0; n < 4; n++) {
+                int c1 = (b7 >> (4 + n)) & 1;
+                int c2 = (b8 >> n) & 1;
+                int c3 = (b8 >> (4 + n)) & 1;
+                // 每个访问位同时以取反形式保存
+                ok &= c1 != ((b6 >> n) & 1) && c2 != ((b6 >> (4 + n)) & 1) && c3 != ((b7 >> n) & 1);
+                conditions[n] = c1 << 2 | c2 << 1 | c3;
+            }
+            valid = ok;
+        }
+
+        /**
+         * 从src的off位置解析16字节的扇区尾
+         */
+        public static Trailer parse(byte[] src, int off) {
+            return new Trailer(src, off);
+        }
+
+        /**
+         * 由4组访问条件(C1C2C3, 0到7)生成3个访问位字节
+         */
+        public static byte[] encodeAccessBits(int[] conditions) {
+            int b6 = 0;
+            int b7 = 0;
+            int b8 = 0;
+            for (int n = 0; n < 4; n++) {
+                int c1 = (conditions[n] >> 2) & 1;
+                int c2 = (conditions[n] >> 1) & 1;
+                int c3 = conditions[n] & 1;
+                b6 |= (c1 ^ 1) << n | (c2 ^ 1) << (4 + n);
+                b7 |= (c3 ^ 1) << n | c1 << (4 + n);
+                b8 |= c2 << n | c3 << (4 + n);
+            }
+            return new byte[]{(byte) b6, (byte) b7, (byte) b8};
+        }
+
+        public byte[] getKeyA() {
+            return keyA.clone();
+        }
+
+        public byte[] getKeyB() {
+            return keyB.clone();
+        }
+
+        public int getGeneralPurposeByte() {
+            return generalPurpose;
+        }
+
+        /**
+         * 第group组的访问条件C1C2C3, 第3组为扇区尾
+         */
+        public int getCondition(int group) {
+            return conditions[group];
+        }
+
+        /**
+         * 访问位与取反部分是否一致, 不一致时扇区已被锁死
+         */
+        public boolean isValid() {
+            return valid;
+        }
+
+        /**
+         * 使用KeyA或KeyB认证后能否读取第group组的数据块
+         */
+        public boolean canRead(int group, boolean keyB) {
+            if (!valid) {
+                return false;
+            }
+            switch (conditions[group]) {
+                case 0b111:
+                    return false;
+                case 0b011:
+                case 0b101:
+                    return keyB;
+                default:
+                    return true;
+            }
+        }
+
+        public String describe() {
+            StringBuilder sb = new StringBuilder();
+            if (!valid) {
+                return sb.append("  访问位无效\n").toString();
+            }
+            for (int group = 0; group < 3; group++) {
+                sb.append("  数据组").append(group).append(": ").append(DATA_CONDITIONS[conditions[group]]).append('\n');
+            }
+            return sb.append("  扇区尾: ").append(TRAILER_CONDITIONS[conditions[3]]).append('\n').toString();
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package de.androidcrypto.androidbasicnfcreader;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * MIFARE Classic密钥环
+ * 按扇区依次尝试字典中的密钥(先KeyA后KeyB), 记住每张卡每个扇区认证成功的密钥,
+ * 下次先试这个密钥; 字典按所有卡片上的命中率排序, 常用的密钥排在前面.
+ * 每次认证失败都需要重新连接, 所以尝试次数越少越好
+ * 用法
+ * MifareClassicKeyring.Match match = MifareClassicKeyring.getInstance().authenticate(session, sector);
+ * if (match != null) { 已认证 }
+ */
+public class MifareClassicKeyring {
+
+    public static final byte[] KEY_DEFAULT =
+            {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF};
+    public static final byte[] KEY_MIFARE_APPLICATION_DIRECTORY =
+            {(byte) 0xA0, (byte) 0xA1, (byte) 0xA2, (byte) 0xA3, (byte) 0xA4, (byte) 0xA5};
+    public static final byte[] KEY_NFC_FORUM =
+            {(byte) 0xD3, (byte) 0xF7, (byte) 0xD3, (byte) 0xF7, (byte) 0xD3, (byte) 0xF7};
+
+    /**
+     * 最多记住的卡片数量, 超出时淘汰最久未使用的
+     */
+    private static final int MAX_CARDS = 256;
+
+    private static MifareClassicKeyring instance;
+
+    /**
+     * 字典中的一个密钥和它的命中统计
+     */
+    public static final class Key {
+        private final byte[] value;
+        private int hits;
+        private int attempts;
+
+        Key(byte[] value) {
+            this.value = value.clone();
+        }
+
+        public byte[] getValue() {
+            return value.clone();
+        }
+
+        public int getHits() {
+            return hits;
+        }
+
+        public int getAttempts() {
+            return attempts;
+        }
+
+        /**
+         * 平滑后的命中率, 没有尝试过的密钥为0.5
+         */
+        double hitRate() {
+            return (hits + 1.0) / (attempts + 2.0);
+        }
+    }
+
+    /**
+     * 认证成功的密钥
+     */
+    public static final class Match {
+        public final Key key;
+        public final boolean keyB;
+
+        Match(Key key, boolean keyB) {
+            this.key = key;
+            this.keyB = keyB;
+        }
+    }
+
+    private static final Comparator<Key> BY_HIT_RATE = (a, b) -> Double.compare(b.hitRate(), a.hitRate());
+
+    private final List<Key> dictionary = new ArrayList<>();
+    private final Map<String, Match[]> cards = new LinkedHashMap<String, Match[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Match[]> eldest) {
+            return size() > MAX_CARDS;
+        }
+    };
+
+    public MifareClassicKeyring() {
+        addKey(KEY_DEFAULT);
+        addKey(KEY_MIFARE_APPLICATION_DIRECTORY);
+        addKey(KEY_NFC_FORUM);
+    }
+
+    public static synchronized MifareClassicKeyring getInstance() {
+        if (instance == null) {
+            instance = new MifareClassicKeyring();
+        }
+        return instance;
+    }
+
+    /**
+     * 添加一个6字节密钥到字典, 已存在时忽略
+     */
+    public synchronized void addKey(byte[] key) {
+        if (key.length != 6) {
+            throw new IllegalArgumentException("密钥必须为6字节");
+        }
+        for (Key k : dictionary) {
+            if (Arrays.equals(k.value, key)) {
+                return;
+            }
+        }
+        dictionary.add(new Key(key));
+    }
+
+    /**
+     * 当前的字典, 按命中率排序
+     */
+    public synchronized List<Key> getDictionary() {
+        return Collections.unmodifiableList(new ArrayList<>(dictionary));
+    }
+
+    /**
+     * 认证扇区: 先试这张卡上次成功的密钥, 再按命中率依次试字典中的KeyA和KeyB
+     *
+     * @return 认证成功的密钥, 全部失败返回null
+     */
+    public synchronized Match authenticate(TagSession session, int sector) throws IOException {
+        String uid = HexUtil.toHexString(session.getId());
+        Match[] sectors = cards.get(uid);
+        Match cached = sectors != null && sector < sectors.length ? sectors[sector] : null;
+        if (cached != null && session.authenticate(sector, cached.key.value, cached.keyB)) {
+            return cached;
+        }
+        Match match = null;
+        for (int pass = 0; pass < 2 && match == null; pass++) {
+            boolean keyB = pass == 1;
+            for (Key key : dictionary) {
+                if (cached != null && cached.key == key && cached.keyB == keyB) {
+                    continue;
+                }
+                key.attempts++;
+                if (session.authenticate(sector, key.value, keyB)) {
+                    key.hits++;
+                    match = new Match(key, keyB);
+                    break;
+                }
+            }
+        }
+        if (match != null) {
+            if (sectors == null || sector >= sectors.length) {
+                Match[] grown = new Match[Math.max(sector + 1, 40)];
+                if (sectors != null) {
+                    System.arraycopy(sectors, 0, grown, 0, sectors.length);
+                }
+                sectors = grown;
+                cards.put(uid, sectors);
+            }
+            sectors[sector] = match;
+            Collections.sort(dictionary, BY_HIT_RATE);
+        } else if (sectors != null && sector < sectors.length) {
+            sectors[sector] = null;
+        }
+        return match;
+    }
+
+    /**
+     * 忘记所有卡片的扇区密钥, 字典的统计保留
+     */
+    public synchronized void clearCards() {
+        cards.clear();
+    }
+}
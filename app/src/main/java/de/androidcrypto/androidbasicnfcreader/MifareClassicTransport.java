@@ -0,0 +1,41 @@
+package de.androidcrypto.androidbasicnfcreader;
+
+import java.io.IOException;
+
+/**
+ * MIFARE Classic传输层
+ * Crypto1认证由NFC控制器完成, 不能用原始帧表示, 所以单独提供认证和块读写
+ */
+public interface MifareClassicTransport extends TagTransport {
+
+    /**
+     * 标签类型, 与MifareClassic.TYPE_CLASSIC/TYPE_PLUS/TYPE_PRO相同
+     */
+    int getType();
+
+    int getSize();
+
+    int getSectorCount();
+
+    int getBlockCount();
+
+    int getBlockCountInSector(int sector);
+
+    int sectorToBlock(int sector);
+
+    int blockToSector(int block);
+
+    boolean authenticateSectorWithKeyA(int sector, byte[] key) throws IOException;
+
+    boolean authenticateSectorWithKeyB(int sector, byte[] key) throws IOException;
+
+    /**
+     * 读取一个块(16字节), 需要先认证所在扇区
+     */
+    byte[] readBlock(int block) throws IOException;
+
+    /**
+     * 写入一个块(16字节), 需要先认证所在扇区
+     */
+    void writeBlock(int block, byte[] data) throws IOException;
+}
@@ -1,6 +1,5 @@
 package de.androidcrypto.androidbasicnfcreader;
 
-import android.app.PendingIntent;
 import android.content.Intent;
 import android.nfc.NfcAdapter;
 import android.nfc.Tag;
@@ -14,19 +13,20 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
-import androidx.appcompat.app.AppCompatActivity;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 
-public class MifareUltralightActivity extends AppCompatActivity {
+public class MifareUltralightActivity extends BaseNfcActivity {
     private static final String TAG = "MifareActivity";
-    private NfcAdapter nfcAdapter;
-    private Tag tag;
     private TextView textView;
     private EditText editTextAddress, editTextValue;
     private Button button;
+    /**
+     * 当前标签内容的写回缓冲, 只在NFC线程中使用
+     */
+    private MifareUltralightBuffer memory;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -37,155 +37,124 @@ public class MifareUltralightActivity extends AppCompatActivity {
         editTextValue = findViewById(R.id.edit_text_value);
         button = findViewById(R.id.button);
 
-        // 获取NFC适配器
-        nfcAdapter = NfcAdapter.getDefaultAdapter(this);
-        if (nfcAdapter == null) {
-            Toast.makeText(this, "设备不支持NFC", Toast.LENGTH_SHORT).show();
-            finish();
-            return;
-        }
-
-        if (!nfcAdapter.isEnabled()) {
-            Toast.makeText(this, "请开启NFC", Toast.LENGTH_SHORT).show();
-        }
-
         button.setOnClickListener(view -> {
-            if (tag == null) {
+            if (mSession == null || mSession.isLost()) {
                 Toast.makeText(MifareUltralightActivity.this, "NFC已断开", Toast.LENGTH_SHORT).show();
             } else if (TextUtils.isEmpty(editTextAddress.getText())) {
                 Toast.makeText(MifareUltralightActivity.this, "输入地址", Toast.LENGTH_SHORT).show();
             } else if (TextUtils.isEmpty(editTextValue.getText())) {
                 Toast.makeText(MifareUltralightActivity.this, "输入值", Toast.LENGTH_SHORT).show();
+            } else {
+                writeToTag(mSession, Integer.parseInt(editTextAddress.getText().toString()), editTextValue.getText().toString());
             }
-            writeToTag(tag, Integer.parseInt(editTextAddress.getText().toString()), editTextValue.getText().toString());
         });
     }
 
-    @Override
-    protected void onResume() {
-        super.onResume();
-        // 设置NFC前台调度系统
-        setupForegroundDispatch();
-    }
-
-    @Override
-    protected void onPause() {
-        super.onPause();
-        // 停止NFC前台调度系统
-        stopForegroundDispatch();
-    }
-
     @Override
     protected void onNewIntent(@NonNull Intent intent) {
         super.onNewIntent(intent);
         handleNfcIntent(intent);
     }
 
-    private void setupForegroundDispatch() {
-        Intent intent = new Intent(this, getClass());
-        intent.addFlags(Intent.FLAG_RECEIVER_REPLACE_PENDING);
-        PendingIntent pendingIntent = PendingIntent.getActivity(
-                this,
-                0,
-                intent,
-                PendingIntent.FLAG_MUTABLE // Android 12+ 需要使用FLAG_MUTABLE
-        );
-        nfcAdapter.enableForegroundDispatch(
-                this,
-//                nfcAdapter.createPendingIntent(this, 0, intent, 0)
-                pendingIntent,
-                null,
-                null
-        );
-    }
-
-    private void stopForegroundDispatch() {
-        nfcAdapter.disableForegroundDispatch(this);
-    }
-
     private void handleNfcIntent(Intent intent) {
         String action = intent.getAction();
         if (NfcAdapter.ACTION_TAG_DISCOVERED.equals(action) ||
                 NfcAdapter.ACTION_NDEF_DISCOVERED.equals(action) ||
                 NfcAdapter.ACTION_TECH_DISCOVERED.equals(action)) {
 
-            tag = intent.getParcelableExtra(NfcAdapter.EXTRA_TAG);
-            if (tag != null) {
-                readMifareUltralight(tag);
+            if (mTag != null && !mDuplicateTap) {//同一标签在时间窗口内重复发现时不再读取
+                readMifareUltralight(mSession, mTag);
             }
         }
     }
 
-    private void readMifareUltralight(Tag tag) {
-        new Thread(() -> {
-            MifareUltralight mifare = MifareUltralight.get(tag);
-            try {
-                mifare.connect();
-
-                // 读取UID
-                byte[] uid = tag.getId();
-                String uidString = bytesToHex(uid);
+    private void readMifareUltralight(TagSession session, Tag tag) {
+        NfcExecutor.getInstance().submit(session.key("read"), () -> session.execute(() -> {
+            MifareUltralightUtil util = session.ultralight();
 
-                // 读取标签类型
-                int type = mifare.getType();
-                String typeString = getTypeString(type);
+            // 读取UID
+            byte[] uid = tag.getId();
+            String uidString = HexUtil.toHexString(uid, 0, uid.length, false, ' ');
 
-                // 读取页数（实际容量可能因标签而异）
-                int pageCount = 20; // Mifare Ultralight通常有16页
-                StringBuilder dataBuilder = new StringBuilder();
+            // 同一张卡内容未变时使用缓存, 探测代替整卡读取; 先于型号和页数检查,
+            // 缓存中的GET_VERSION应答和页数已由session.ultralight()恢复, 不再发送GET_VERSION或探测页数
+            TagCache.Entry cached = TagCache.getInstance().validate(session, TagSession.Tech.MIFARE_ULTRALIGHT);
 
-                // 读取数据（从第4页开始，前3页通常是只读的厂商数据）
-                for (int i = 0; i < pageCount; i += 4) {
-                    try {
-                        byte[] pageData = mifare.readPages(i);
-                        for (int j = 0; j < pageData.length; j += 4) {
-                            byte[] sub = Arrays.copyOfRange(pageData, j, j + 4);
-                            int iplusj = i * 4 + j;
-                            if (iplusj < 10) {
-                                dataBuilder.append("地址   ").append(iplusj).append(": ");
-                            } else if (iplusj > 99) {
-                                dataBuilder.append("地址 ").append(iplusj).append(": ");
-                            } else {
-                                dataBuilder.append("地址  ").append(iplusj).append(": ");
-                            }
-                            dataBuilder.append(bytesToHex(sub)).append("\n");
-//                            dataBuilder.append(bytesToHex(pageData)).append("\n");
-                        }
+            // 读取标签类型, NTAG等支持GET_VERSION的标签可以识别具体型号
+            String typeString = util.getProductName();
+            if (typeString == null) {
+                typeString = getTypeString(MifareUltralight.get(tag).getType());
+            }
 
-                        // 尝试将数据解析为文本
-                        String textData = new String(pageData, StandardCharsets.UTF_8).trim();
-                        if (!textData.isEmpty()) {
-                            dataBuilder.append("文本: ").append(textData).append("\n\n");
-                        } else {
-                            dataBuilder.append("\n");
-                        }
-                    } catch (Exception e) {
-                        dataBuilder.append("地址 ").append(i * 4).append(": 读取失败\n");
+            // 按实际容量读取整个标签, 支持FAST_READ时只需几帧
+            int pageCount = cached != null ? cached.getImageLength() / MifareUltralightUtil.PAGE_SIZE : util.getPageCount();
+            byte[] image;
+            if (cached != null) {
+                image = cached.getImage();
+                // 缓存只用于显示, 探测只覆盖数据区开头; 写回缓冲在第一次写入时由memory()重新读取标签建立
+                memory = null;
+            } else {
+                memory = MifareUltralightBuffer.load(session.getId(), util);
+                image = memory.getImage();
+                TagCache.getInstance().put(session.getId(), TagSession.Tech.MIFARE_ULTRALIGHT, image,
+                        MifareUltralightUtil.PAGE_SIZE, util.getVersion(), util.readNfcCounter());
+                saveImage(session, TagSession.Tech.MIFARE_ULTRALIGHT, image);
+            }
+            StringBuilder dataBuilder = new StringBuilder();
+
+            // 前4页是UID, 锁定字节和CC
+            for (int i = 0; i < image.length; i += 16) {
+                int length = Math.min(16, image.length - i);
+                for (int j = 0; j < length; j += 4) {
+                    int iplusj = i + j;
+                    if (iplusj < 10) {
+                        dataBuilder.append("地址   ").append(iplusj).append(": ");
+                    } else if (iplusj > 99) {
+                        dataBuilder.append("地址 ").append(iplusj).append(": ");
+                    } else {
+                        dataBuilder.append("地址  ").append(iplusj).append(": ");
                     }
+                    HexUtil.append(dataBuilder, image, iplusj, 4, false, ' ').append("\n");
+                }
+
+                // 尝试将数据解析为文本
+                String textData = new String(image, i, length, StandardCharsets.UTF_8).trim();
+                if (!textData.isEmpty()) {
+                    dataBuilder.append("文本: ").append(textData).append("\n\n");
+                } else {
+                    dataBuilder.append("\n");
                 }
+            }
 
-                final String result = "UID: " + uidString + "\n" +
-                        "类型: " + typeString + "\n\n" +
-                        "数据:\n" + dataBuilder.toString();
+            // 从已读取的内容解析NDEF, 不再访问标签
+            String ndefString;
+            try {
+                Type2Ndef ndef = Type2Ndef.parse(image);
+                ndefString = ndef == null ? "未格式化" : ndef.hasMessage() ? NdefActivity.describe(ndef.getMessage()) : "无消息";
+            } catch (IOException | IllegalArgumentException e) {
+                ndefString = "格式错误: " + e.getMessage();
+            }
 
-                runOnUiThread(() -> {
-                    textView.setText(result);
-                    Toast.makeText(MifareUltralightActivity.this, "读取成功", Toast.LENGTH_SHORT).show();
-                });
+            return "UID: " + uidString + "\n" +
+                    "类型: " + typeString + "\n" +
+                    "页数: " + pageCount + "\n" +
+                    "NDEF: " + ndefString + "\n\n" +
+                    "数据:\n" + dataBuilder.toString();
+        }), new NfcExecutor.Callback<String>() {
+            @Override
+            public void onSuccess(String result) {
+                textView.setText(result);
+                Toast.makeText(MifareUltralightActivity.this, "读取成功", Toast.LENGTH_SHORT).show();
+            }
 
-            } catch (IOException e) {
+            @Override
+            public void onError(Exception e) {
+                //读取失败或排队已满被拒绝, 再次刷同一张卡时不受重复刷卡窗口限制
+                mDebouncer.forget(session.getId());
                 Log.e(TAG, "读取标签失败", e);
-                runOnUiThread(() -> {
-                    Toast.makeText(MifareUltralightActivity.this, "读取标签失败: " + e.getMessage(), Toast.LENGTH_SHORT).show();
-                });
-            } finally {
-                try {
-                    mifare.close();
-                } catch (IOException e) {
-                    Log.e(TAG, "关闭连接失败", e);
-                }
+                Toast.makeText(MifareUltralightActivity.this, "读取标签失败: " + e.getMessage(), Toast.LENGTH_SHORT).show();
             }
-        }).start();
+        });
     }
 
     private String getTypeString(int type) {
@@ -199,138 +168,61 @@ public class MifareUltralightActivity extends AppCompatActivity {
         }
     }
 
-    private String bytesToHex(byte[] bytes) {
-        StringBuilder result = new StringBuilder();
-        for (byte b : bytes) {
-            result.append(String.format("%02X ", b));
+    private final NfcExecutor.Callback<Void> writeCallback = new NfcExecutor.Callback<Void>() {
+        @Override
+        public void onSuccess(Void result) {
+            Toast.makeText(MifareUltralightActivity.this, "写入成功", Toast.LENGTH_SHORT).show();
         }
-        return result.toString();
-    }
-
-    // 写入示例方法（需要在适当的地方调用）
-    private void writeToTag(Tag tag, int address, String message) {
-        new Thread(() -> {
-            MifareUltralight mifare = MifareUltralight.get(tag);
-            try {
-                mifare.connect();
-
-                // 准备数据（每4字节一页）
-                byte[] data = message.getBytes(StandardCharsets.UTF_8);
-                int page = address / 4;
-                int index = address % 4;
-                byte[] pageData = mifare.readPages(page);
-                int intMessage = Integer.parseInt(message);
-                byte hexByte = (byte) (intMessage & 0xFF);
-//                pageData[index] = hexByte;
-                pageData[index] = (byte) intMessage;
-                byte[] sub = Arrays.copyOfRange(pageData, 0, 4);
-                String hexString = bytesToHex(sub);
-//                System.arraycopy(data, 0, pageData, index, 1);
-
-                byte[] writeData =
-                        hexToByte("03000000");
-//                        Arrays.copyOfRange(pageData,0,4);
-
-                mifare.writePage(page, sub);
-
-                runOnUiThread(() -> {
-                    Toast.makeText(MifareUltralightActivity.this, "写入成功", Toast.LENGTH_SHORT).show();
-                });
 
-            } catch (IOException e) {
-                Log.e(TAG, "写入标签失败", e);
-                runOnUiThread(() -> {
-                    Toast.makeText(MifareUltralightActivity.this, "写入标签失败: " + e.getMessage(), Toast.LENGTH_SHORT).show();
-                });
-            } finally {
-                try {
-                    mifare.close();
-                } catch (IOException e) {
-                    Log.e(TAG, "关闭连接失败", e);
-                }
-            }
-        }).start();
-    }
+        @Override
+        public void onError(Exception e) {
+            Log.e(TAG, "写入标签失败", e);
+            Toast.makeText(MifareUltralightActivity.this, "写入标签失败: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+        }
+    };
 
     /**
-     * 将十六进制字符串转换为字节数组
-     * @param hex 十六进制字符串（如："0123ABCD"）
-     * @return 对应的字节数组
-     * @throws IllegalArgumentException 如果输入不是有效的十六进制字符串
+     * 取得当前标签的写回缓冲, 换了标签或还没有读取时重新读取
      */
-    public static byte[] hexToByte(String hex) {
-        if (hex == null || hex.isEmpty()) {
-            return new byte[0];
-        }
-
-        // 检查长度是否为偶数
-        if (hex.length() % 2 != 0) {
-            throw new IllegalArgumentException("十六进制字符串长度必须为偶数");
-        }
-
-        // 验证是否为合法十六进制字符
-        for (char c : hex.toCharArray()) {
-            if (!((c >= '0' && c <= '9') ||
-                    (c >= 'A' && c <= 'F') ||
-                    (c >= 'a' && c <= 'f'))) {
-                throw new IllegalArgumentException("无效的十六进制字符: " + c);
-            }
-        }
-
-        // 转换逻辑
-        byte[] result = new byte[hex.length() / 2];
-        for (int i = 0; i < hex.length(); i += 2) {
-            int high = Character.digit(hex.charAt(i), 16);
-            int low = Character.digit(hex.charAt(i + 1), 16);
-            result[i / 2] = (byte) ((high << 4) | low);
+    private MifareUltralightBuffer memory(TagSession session, MifareUltralightUtil util) throws IOException {
+        if (memory == null || !Arrays.equals(memory.getId(), session.getId())) {
+            memory = MifareUltralightBuffer.load(session.getId(), util);
         }
-        return result;
+        return memory;
     }
 
-    // 辅助方法：将16进制字符串转换为字节数组
-    public static byte[] hexStringToByteArray(String s) {
-        int len = s.length();
-        byte[] data = new byte[len / 2];
-        for (int i = 0; i < len; i += 2) {
-            data[i / 2] = (byte) ((Character.digit(s.charAt(i), 16) << 4)
-                    + Character.digit(s.charAt(i+1), 16));
-        }
-        return data;
+    // 修改一个字节, 只写入所在的页, 内容没变时不写入
+    private void writeToTag(TagSession session, int address, String message) {
+        NfcExecutor.getInstance().submit(() -> session.execute(() -> {
+            MifareUltralightUtil util = session.ultralight();
+            MifareUltralightBuffer buffer = memory(session, util);
+            TagCache.getInstance().invalidate(session.getId());
+            try {
+                buffer.set(address, (byte) Integer.parseInt(message));
+                buffer.flush(util);
+            } catch (IOException | RuntimeException e) {
+                buffer.discard();
+                throw e;
+            }
+            return null;
+        }), writeCallback);
     }
 
-    private void writeToTag(Tag tag, String message) {
-        new Thread(() -> {
-            MifareUltralight mifare = MifareUltralight.get(tag);
+    // 从第4页开始写入文本, 与标签内容相同的页不写入
+    private void writeToTag(TagSession session, String message) {
+        NfcExecutor.getInstance().submit(() -> session.execute(() -> {
+            MifareUltralightUtil util = session.ultralight();
+            MifareUltralightBuffer buffer = memory(session, util);
+            TagCache.getInstance().invalidate(session.getId());
+            byte[] data = message.getBytes(StandardCharsets.UTF_8);
             try {
-                mifare.connect();
-
-                // 准备数据（每4字节一页）
-                byte[] data = message.getBytes(StandardCharsets.UTF_8);
-                int page = 4; // 从第4页开始写入
-
-                for (int i = 0; i < data.length; i += 4) {
-                    byte[] pageData = new byte[4];
-                    System.arraycopy(data, i, pageData, 0, Math.min(4, data.length - i));
-
-                    mifare.writePage(page++, pageData);
-                }
-
-                runOnUiThread(() -> {
-                    Toast.makeText(MifareUltralightActivity.this, "写入成功", Toast.LENGTH_SHORT).show();
-                });
-
-            } catch (IOException e) {
-                Log.e(TAG, "写入标签失败", e);
-                runOnUiThread(() -> {
-                    Toast.makeText(MifareUltralightActivity.this, "写入标签失败: " + e.getMessage(), Toast.LENGTH_SHORT).show();
-                });
-            } finally {
-                try {
-                    mifare.close();
-                } catch (IOException e) {
-                    Log.e(TAG, "关闭连接失败", e);
-                }
+                buffer.put(MifareUltralightBuffer.FIRST_USER_PAGE * MifareUltralightBuffer.PAGE_SIZE, data, 0, data.length);
+                buffer.flush(util);
+            } catch (IOException | RuntimeException e) {
+                buffer.discard();
+                throw e;
             }
-        }).start();
+            return null;
+        }), writeCallback);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,167 @@
+package de.androidcrypto.androidbasicnfcreader;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * MIFARE Ultralight / NTAG 的按字节寻址的写回缓冲
+ * 修改只保存在内存中, flush时合并为最少的writePage调用, 内容没有变化的页不写入;
+ * 写入UID/锁定字节/OTP(第0-3页)和用户区之后的锁定/配置页会直接被拒绝
+ * 用法
+ * MifareUltralightBuffer buffer = MifareUltralightBuffer.load(session.getId(), util);
+ * buffer.set(16, (byte) 0x01);
+ * buffer.put(20, data, 0, data.length);
+ * buffer.flush(util);
+ */
+public class MifareUltralightBuffer {
+
+    public static final int PAGE_SIZE = MifareUltralightUtil.PAGE_SIZE;
+    /**
+     * 用户数据区开始页
+     */
+    public static final int FIRST_USER_PAGE = 4;
+
+    private final byte[] id;
+    /**
+     * 标签上已有的内容
+     */
+    private final byte[] committed;
+    /**
+     * 修改后的内容
+     */
+    private final byte[] buffer;
+    private final int userPageEnd;
+
+    /**
+     * @param id          标签UID
+     * @param image       从第0页开始的标签内容
+     * @param userPageEnd 用户数据区结束页(不含)
+     */
+    public MifareUltralightBuffer(byte[] id, byte[] image, int userPageEnd) {
+        this.id = id.clone();
+        this.committed = image.clone();
+        this.buffer = image.clone();
+        this.userPageEnd = Math.min(userPageEnd, image.length / PAGE_SIZE);
+    }
+
+    /**
+     * 读取整个标签, 建立缓冲
+     */
+    public static MifareUltralightBuffer load(byte[] id, MifareUltralightUtil util) throws IOException {
+        byte[] image = util.readPages(0, util.getPageCount());
+        return new MifareUltralightBuffer(id, image, util.getUserPageEnd());
+    }
+
+    public byte[] getId() {
+        return id.clone();
+    }
+
+    /**
+     * 缓冲的字节数, 包括不可写的页
+     */
+    public int size() {
+        return buffer.length;
+    }
+
+    /**
+     * 第page页是否在用户数据区内, 可以写入
+     */
+    public boolean isWritable(int page) {
+        return page >= FIRST_USER_PAGE && page < userPageEnd;
+    }
+
+    public byte get(int address) {
+        return buffer[address];
+    }
+
+    /**
+     * 修改一个字节
+     *
+     * @throws IllegalArgumentException 地址不在用户数据区内
+     */
+    public void set(int address, byte value) {
+        checkWritable(address, 1);
+        buffer[address] = value;
+    }
+
+    /**
+     * 从address开始修改len个字节, 有任何一个字节不可写时不做修改
+     *
+     * @throws IllegalArgumentException 范围不在用户数据区内
+     */
+    public void put(int address, byte[] src, int off, int len) {
+        checkWritable(address, len);
+        System.arraycopy(src, off, buffer, address, len);
+    }
+
+    private void checkWritable(int address, int len) {
+        if (len <= 0) {
+            return;
+        }
+        int first = address / PAGE_SIZE;
+        int last = (address + len - 1) / PAGE_SIZE;
+        if (address < 0 || !isWritable(first) || !isWritable(last)) {
+            throw new IllegalArgumentException("地址" + address + "到" + (address + len - 1)
+                    + "不在用户数据区(第" + FIRST_USER_PAGE + "到" + (userPageEnd - 1) + "页)内");
+        }
+    }
+
+    /**
+     * 内容与标签不同, flush时需要写入的页数
+     */
+    public int getDirtyPageCount() {
+        int dirty = 0;
+        for (int page = FIRST_USER_PAGE; page < userPageEnd; page++) {
+            if (isDirty(page)) {
+                dirty++;
+            }
+        }
+        return dirty;
+    }
+
+    private boolean isDirty(int page) {
+        int off = page * PAGE_SIZE;
+        for (int i = off; i < off + PAGE_SIZE; i++) {
+            if (buffer[i] != committed[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 把修改过的页写入标签
+     * 写入失败时之前已写入的页保持为已提交, 之后的页仍然保留在缓冲中, 可以再次flush
+     *
+     * @return 写入的页数
+     * @throws IOException
+     */
+    public int flush(MifareUltralightUtil util) throws IOException {
+        int written = 0;
+        byte[] page = new byte[PAGE_SIZE];
+        for (int p = FIRST_USER_PAGE; p < userPageEnd; p++) {
+            if (!isDirty(p)) {
+                continue;
+            }
+            System.arraycopy(buffer, p * PAGE_SIZE, page, 0, PAGE_SIZE);
+            util.writePage(p, page);
+            System.arraycopy(page, 0, committed, p * PAGE_SIZE, PAGE_SIZE);
+            written++;
+        }
+        return written;
+    }
+
+    /**
+     * 放弃没有写入的修改
+     */
+    public void discard() {
+        System.arraycopy(committed, 0, buffer, 0, buffer.length);
+    }
+
+    /**
+     * 当前缓冲内容的副本
+     */
+    public byte[] getImage() {
+        return Arrays.copyOf(buffer, buffer.length);
+    }
+}
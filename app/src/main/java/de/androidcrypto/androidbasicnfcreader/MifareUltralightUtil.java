@@ -0,0 +1,294 @@
+package de.androidcrypto.androidbasicnfcreader;
+
+import java.io.IOException;
+
+/**
+ * MIFARE Ultralight / NTAG (NFC Forum Type 2) 读写工具
+ * 用法
+ * MifareUltralight mifare = MifareUltralight.get(tag);
+ * MifareUltralightUtil util = new MifareUltralightUtil(AndroidTagTransport.of(mifare));
+ * util.connect();
+ * 从第4页开始读4页
+ * util.readPages(4);
+ * 读取整个标签, 按GET_VERSION得到的大小用FAST_READ分帧读取
+ * util.readPages(0, util.getPageCount());
+ * 往第4页写内容
+ * util.writePage(4, new byte[]{0, 0, 0, 0});
+ */
+public class MifareUltralightUtil {
+    /**
+     * 每页字节数
+     */
+    public static final int PAGE_SIZE = 4;
+
+    private final TagTransport transport;
+    /**
+     * GET_VERSION的应答, 不支持时为null
+     */
+    private byte[] version;
+    private boolean versionRead;
+    private boolean fastReadSupported;
+    private int pageCount;
+
+    public MifareUltralightUtil(TagTransport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * 恢复上次读取同一标签得到的GET_VERSION应答和总页数, 不再发送GET_VERSION或探测页数
+     *
+     * @param version   GET_VERSION的应答, 标签不支持时为null
+     * @param pageCount 总页数
+     */
+    void restore(byte[] version, int pageCount) {
+        this.version = version == null ? null : version.clone();
+        this.fastReadSupported = version != null;
+        this.versionRead = true;
+        this.pageCount = pageCount;
+    }
+
+    public TagTransport getTransport() {
+        return transport;
+    }
+
+    public void connect() throws IOException {
+        transport.connect();
+    }
+
+    public void close() throws IOException {
+        transport.close();
+    }
+
+    /**
+     * 读取从pageOffset开始的4页(16字节), 超出末尾时从第0页继续
+     *
+     * @param pageOffset 开始页
+     * @return 16字节
+     * @throws IOException
+     */
+    public byte[] readPages(int pageOffset) throws IOException {
+        byte[] res = transport.transceive(new byte[]{0x30, (byte) pageOffset});
+        if (res == null || res.length != 16) {
+            throw new IOException("Read failed on page " + pageOffset);
+        }
+        return res;
+    }
+
+    /**
+     * 读取从firstPage开始的count页
+     * 支持FAST_READ(0x3A)时按getMaxTransceiveLength()一次读取尽量多的页, 否则每帧READ 4页
+     *
+     * @param firstPage 开始页
+     * @param count     页数
+     * @return count * 4字节
+     * @throws IOException
+     */
+    public byte[] readPages(int firstPage, int count) throws IOException {
+        byte[] data = new byte[count * PAGE_SIZE];
+        int maxPages = Math.max(1, transport.getMaxTransceiveLength() / PAGE_SIZE);
+        boolean fastRead = supportsFastRead();
+        int done = 0;
+        while (done < count) {
+            int page = firstPage + done;
+            int n = Math.min(maxPages, count - done);
+            byte[] res = null;
+            if (fastRead) {
+                res = command(new byte[]{0x3A, (byte) page, (byte) (page + n - 1)});
+                if (res == null || res.length != n * PAGE_SIZE) {
+                    fastRead = fastReadSupported = false;
+                    res = null;
+                }
+            }
+            if (res == null) {
+                // READ总是返回4页, 超出末尾时会从第0页继续, 只取需要的部分
+                n = Math.min(4, count - done);
+                res = readPages(page);
+            }
+            System.arraycopy(res, 0, data, done * PAGE_SIZE, n * PAGE_SIZE);
+            done += n;
+        }
+        TagMetrics.getInstance().addBlocks(TagSession.Tech.MIFARE_ULTRALIGHT, count);
+        return data;
+    }
+
+    /**
+     * GET_VERSION(0x60)的8字节应答, 标签不支持时(如MIFARE Ultralight, Ultralight C)返回null
+     */
+    public byte[] getVersion() throws IOException {
+        if (!versionRead) {
+            byte[] res = command(new byte[]{0x60});
+            version = res != null && res.length == 8 ? res : null;
+            fastReadSupported = version != null;
+            versionRead = true;
+        }
+        return version == null ? null : version.clone();
+    }
+
+    /**
+     * 标签是否支持FAST_READ, 支持GET_VERSION的NXP标签(NTAG21x, Ultralight EV1)都支持
+     */
+    public boolean supportsFastRead() throws IOException {
+        getVersion();
+        return fastReadSupported;
+    }
+
+    /**
+     * NTAG21x的NFC计数器(READ_CNT 0x39, 地址02)
+     * 标签上电后第一次READ或FAST_READ时加一, 其他读卡器读取过标签后计数器会变化
+     *
+     * @return 24位计数值, 不是NTAG或计数器未启用时返回-1
+     */
+    public int readNfcCounter() throws IOException {
+        byte[] v = getVersion();
+        if (v == null || v[2] != 0x04) {
+            return -1;
+        }
+        byte[] res = command(new byte[]{0x39, 0x02});
+        if (res == null || res.length != 3) {
+            return -1;
+        }
+        return (res[0] & 0xFF) | (res[1] & 0xFF) << 8 | (res[2] & 0xFF) << 16;
+    }
+
+    /**
+     * 标签总页数(可读取的部分)
+     * 优先由GET_VERSION中的存储大小得到, 不支持时用READ探测最后一个可读的页
+     */
+    public int getPageCount() throws IOException {
+        if (pageCount == 0) {
+            byte[] v = getVersion();
+            pageCount = v != null ? pageCountOf(v[6] & 0xFF) : 0;
+            if (pageCount == 0) {
+                pageCount = probePageCount();
+            }
+        }
+        return pageCount;
+    }
+
+    /**
+     * 用户数据区的结束页(不含), 用户数据区从第4页开始
+     * 之后是动态锁定字节和配置页(NTAG21x和Ultralight EV1最后5页, Ultralight C第40页起);
+     * 20页的NTAG210/MF0UL11没有动态锁定页, 只有最后4页是配置页
+     */
+    public int getUserPageEnd() throws IOException {
+        int pages = getPageCount();
+        byte[] v = getVersion();
+        if (v == null) {
+            // MIFARE Ultralight没有配置页; Ultralight C可读的44页中最后4页为锁定字节和计数器
+            return pages <= 16 ? pages : 40;
+        }
+        return pages == 20 ? 16 : pages - 5;
+    }
+
+    /**
+     * GET_VERSION中的存储大小字节对应的总页数, 未知时返回0
+     */
+    static int pageCountOf(int storageSize) {
+        switch (storageSize) {
+            case 0x0B: // NTAG210, Ultralight EV1 MF0UL11
+                return 20;
+            case 0x0E: // NTAG212, Ultralight EV1 MF0UL21
+                return 41;
+            case 0x0F: // NTAG213
+                return 45;
+            case 0x11: // NTAG215
+                return 135;
+            case 0x13: // NTAG216
+                return 231;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * 型号名称, 只能由GET_VERSION识别, 未知时返回null
+     */
+    public String getProductName() throws IOException {
+        byte[] v = getVersion();
+        if (v == null || v[1] != 0x04) {
+            return null;
+        }
+        if (v[2] == 0x03) {
+            return "MIFARE Ultralight EV1";
+        }
+        if (v[2] != 0x04) {
+            return null;
+        }
+        switch (v[6]) {
+            case 0x0B:
+                return "NTAG210";
+            case 0x0E:
+                return "NTAG212";
+            case 0x0F:
+                return "NTAG213";
+            case 0x11:
+                return "NTAG215";
+            case 0x13:
+                return "NTAG216";
+            default:
+                return "NTAG";
+        }
+    }
+
+    /**
+     * 二分查找最后一个能READ的页, 所有Type 2标签至少有16页
+     * MIFARE Ultralight只需一帧; Ultralight C的密钥页不可读, 得到44页
+     */
+    private int probePageCount() throws IOException {
+        if (command(new byte[]{0x30, 16}) == null) {
+            return 16;
+        }
+        int readable = 16;
+        int unreadable = 256;
+        while (unreadable - readable > 1) {
+            int mid = (readable + unreadable) >>> 1;
+            if (command(new byte[]{0x30, (byte) mid}) != null) {
+                readable = mid;
+            } else {
+                unreadable = mid;
+            }
+        }
+        return readable + 1;
+    }
+
+    /**
+     * 发送读取类命令, 标签回NAK时返回null
+     * NAK在部分设备上是transceive失败, 在部分设备上是1字节的应答;
+     * NAK后标签回到IDLE状态, 重新连接后才能继续
+     */
+    private byte[] command(byte[] cmd) throws IOException {
+        byte[] res;
+        try {
+            res = transport.transceive(cmd);
+        } catch (TagLossException e) {
+            throw e;
+        } catch (IOException e) {
+            res = null;
+        }
+        if (res == null || res.length <= 1) {
+            transport.close();
+            transport.connect();
+            return null;
+        }
+        return res;
+    }
+
+    /**
+     * 写入一页
+     *
+     * @param pageOffset 页
+     * @param data       4字节
+     * @throws IOException 标签回NAK时抛出
+     */
+    public void writePage(int pageOffset, byte[] data) throws IOException {
+        byte[] cmd = new byte[2 + PAGE_SIZE];
+        cmd[0] = (byte) 0xA2;
+        cmd[1] = (byte) pageOffset;
+        System.arraycopy(data, 0, cmd, 2, PAGE_SIZE);
+        byte[] res = transport.transceive(cmd);
+        if (res != null && res.length == 1 && (res[0] & 0x0F) != 0x0A) {
+            throw new IOException("Write failed on page " + pageOffset);
+        }
+        TagMetrics.getInstance().addBlocks(TagSession.Tech.MIFARE_ULTRALIGHT, 1);
+    }
+}
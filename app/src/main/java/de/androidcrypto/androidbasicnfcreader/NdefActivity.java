@@ -15,7 +15,7 @@ import android.widget.Toast;
 import androidx.annotation.Nullable;
 
 import java.io.IOException;
-import java.nio.charset.Charset;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Locale;
 
@@ -40,6 +40,9 @@ public class NdefActivity extends BaseNfcActivity implements View.OnClickListene
     @Override
     protected void onNewIntent(Intent intent) {
         super.onNewIntent(intent);
+        if (mDuplicateTap) {//同一标签在时间窗口内重复发现时不再处理
+            return;
+        }
         if (NfcAdapter.ACTION_NDEF_DISCOVERED.equals(intent.getAction())) {
             Parcelable[] rawMessages = intent.getParcelableArrayExtra(NfcAdapter.EXTRA_NDEF_MESSAGES);
             if (rawMessages != null) {
@@ -55,14 +58,63 @@ public class NdefActivity extends BaseNfcActivity implements View.OnClickListene
 
     private void processNdefMessages(NdefMessage[] messages) {
         for (NdefMessage message : messages) {
-            for (NdefRecord record : message.getRecords()) {
-                if (record.getTnf() == NdefRecord.TNF_WELL_KNOWN && Arrays.equals(record.getType(), NdefRecord.RTD_TEXT)) {
-                    // 处理文本记录
-                    String text = new String(record.getPayload());
-                    Toast.makeText(this, "NFC 数据: " + text, Toast.LENGTH_SHORT).show();
+            NdefParser parser = new NdefParser(ByteBuffer.wrap(message.toByteArray()));
+            try {
+                while (parser.next()) {
+                    if (parser.isText()) {
+                        // 处理文本记录, 按状态字节解码并跳过语言编码
+                        Toast.makeText(this, "NFC 数据: " + recordText(parser), Toast.LENGTH_SHORT).show();
+                    }
+                }
+            } catch (IllegalArgumentException e) {
+                // 标签上的数据不可信, 格式错误时不能让页面崩溃
+                Toast.makeText(this, "NDEF 格式错误: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+            }
+        }
+    }
+
+    /**
+     * 当前记录的显示文本, 负载格式错误时显示占位文字
+     */
+    private static String recordText(NdefParser parser) {
+        try {
+            if (parser.isText()) {
+                return parser.getText();
+            }
+            if (parser.isUri() || parser.getTnf() == NdefParser.TNF_ABSOLUTE_URI) {
+                return parser.getUri();
+            }
+        } catch (IllegalArgumentException e) {
+            return "[格式错误的记录: " + e.getMessage() + "]";
+        }
+        return "TNF " + parser.getTnf() + ", " + parser.getPayloadLength() + " 字节";
+    }
+
+    /**
+     * 消息中所有记录的内容, 每条一行: 文本和URI解码显示, 其他记录显示TNF和负载长度
+     * 不会因标签上的错误数据抛出异常: 负载格式错误的记录显示占位文字, 消息结构错误时在末尾说明
+     */
+    static String describe(NdefMessage message) {
+        return describe(ByteBuffer.wrap(message.toByteArray()));
+    }
+
+    static String describe(ByteBuffer message) {
+        NdefParser parser = new NdefParser(message);
+        StringBuilder sb = new StringBuilder();
+        try {
+            while (parser.next()) {
+                if (sb.length() > 0) {
+                    sb.append('\n');
                 }
+                sb.append(recordText(parser));
             }
+        } catch (IllegalArgumentException e) {
+            if (sb.length() > 0) {
+                sb.append('\n');
+            }
+            sb.append("[NDEF 格式错误: ").append(e.getMessage()).append(']');
         }
+        return sb.toString();
     }
 
     @Override
@@ -82,6 +134,11 @@ public class NdefActivity extends BaseNfcActivity implements View.OnClickListene
 //            finish();
             return;
         }
+        TagSession session = mSession;
+        if (session != null && hasTech("android.nfc.tech.NfcV")) {
+            writeType5(session);
+            return;
+        }
         Ndef ndef=Ndef.get(mTag);//获取ndef对象
         if (ndef == null){
             Toast.makeText(this,"该标签不能写入数据!",Toast.LENGTH_SHORT).show();
@@ -92,28 +149,72 @@ public class NdefActivity extends BaseNfcActivity implements View.OnClickListene
             Toast.makeText(this,"该标签不能写入数据2!",Toast.LENGTH_SHORT).show();
             return;
         }
-        NdefRecord ndefRecord=createTextRecord(writeEdt.getText().toString());//创建一个NdefRecord对象
-        NdefMessage ndefMessage=new NdefMessage(new NdefRecord[]{ndefRecord});//根据NdefRecord数组，创建一个NdefMessage对象
-        int size=ndefMessage.getByteArrayLength();
-        if (ndef.getMaxSize()<size){
+        //先算出消息的准确长度, 容量不足时不必构建
+        NdefBuilder builder=new NdefBuilder().addText(writeEdt.getText().toString(), Locale.getDefault().getLanguage());
+        if (ndef.getMaxSize()<builder.getEncodedSize()){
             Toast.makeText(this,"标签容量不足！",Toast.LENGTH_SHORT).show();
             return;
         }
+        NdefMessage ndefMessage;
         try {
-            ndef.connect();//连接
-            ndef.writeNdefMessage(ndefMessage);
-            Toast.makeText(this,"数据写入成功！",Toast.LENGTH_SHORT).show();
-        } catch (IOException e) {
-            e.printStackTrace();
+            ndefMessage=new NdefMessage(builder.build());
         } catch (FormatException e) {
             e.printStackTrace();
-        }finally {
+            return;
+        }
+        NfcExecutor.getInstance().submit(() -> {
+            //Ndef不经过会话, 先断开会话中的连接
+            if (session != null) {
+                session.disconnect();
+            }
+            TagCache.getInstance().invalidate(ndef.getTag().getId());
             try {
-                ndef.close();//关闭连接
-            } catch (IOException e) {
+                ndef.connect();//连接
+                ndef.writeNdefMessage(ndefMessage);
+                return null;
+            } finally {
+                try {
+                    ndef.close();//关闭连接
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }, new NfcExecutor.Callback<Void>() {
+            @Override
+            public void onSuccess(Void result) {
+                Toast.makeText(NdefActivity.this, "数据写入成功！", Toast.LENGTH_SHORT).show();
+            }
+
+            @Override
+            public void onError(Exception e) {
                 e.printStackTrace();
             }
-        }
+        });
+    }
+
+    //Type 5标签按CC和TLV写入, 只写入覆盖消息的block
+    private void writeType5(TagSession session){
+        byte[] message=new NdefBuilder().addText(writeEdt.getText().toString(), Locale.getDefault().getLanguage()).build();
+        NfcExecutor.getInstance().submit(() -> session.execute(() -> {
+            NfcVUtil util = session.nfcV();
+            Type5Ndef ndef = Type5Ndef.read(util);
+            if (ndef == null) {
+                throw new IOException("标签没有NDEF格式化");
+            }
+            TagCache.getInstance().invalidate(session.getId());
+            return ndef.write(util, message);
+        }), new NfcExecutor.Callback<Integer>() {
+            @Override
+            public void onSuccess(Integer blocks) {
+                Toast.makeText(NdefActivity.this, "数据写入成功！", Toast.LENGTH_SHORT).show();
+            }
+
+            @Override
+            public void onError(Exception e) {
+                e.printStackTrace();
+                Toast.makeText(NdefActivity.this, "写入失败: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+            }
+        });
     }
 
     /**
@@ -122,22 +223,7 @@ public class NdefActivity extends BaseNfcActivity implements View.OnClickListene
      * @return
      */
     public static NdefRecord createTextRecord(String text) {
-        byte[] langBytes = Locale.CHINA.getLanguage().getBytes(Charset.forName("US-ASCII"));
-        Charset utfEncoding = Charset.forName("UTF-8");
-        //将文本转换为UTF-8格式
-        byte[] textBytes = text.getBytes(utfEncoding);
-        //设置状态字节编码最高位数为0
-        int utfBit = 0;
-        //定义状态字节
-        char status = (char) (utfBit + langBytes.length);
-        byte[] data = new byte[1 + langBytes.length + textBytes.length];
-        //设置第一个状态字节，先将状态码转换成字节
-        data[0] = (byte) status;
-        //设置语言编码，使用数组拷贝方法，从0开始拷贝到data中，拷贝到data的1到langBytes.length的位置
-        System.arraycopy(langBytes, 0, data, 1, langBytes.length);
-        //设置文本字节，使用数组拷贝方法，从0开始拷贝到data中，拷贝到data的1 + langBytes.length
-        //到textBytes.length的位置
-        System.arraycopy(textBytes, 0, data, 1 + langBytes.length, textBytes.length);
+        byte[] data = NdefText.encode(text, Locale.getDefault().getLanguage());
         //通过字节传入NdefRecord对象
         //NdefRecord.RTD_TEXT：传入类型 读写
         NdefRecord ndefRecord = new NdefRecord(NdefRecord.TNF_WELL_KNOWN,
@@ -152,24 +238,78 @@ public class NdefActivity extends BaseNfcActivity implements View.OnClickListene
 //            finish();
             return;
         }
+        TagSession session = mSession;
+        boolean type2 = hasTech("android.nfc.tech.MifareUltralight");
+        if (session != null && (type2 || hasTech("android.nfc.tech.NfcV"))) {
+            //Type 2和Type 5标签直接按TLV读取, 只读取消息所在的页或block, 不经过Ndef
+            NfcExecutor.getInstance().submit(() -> session.execute(() -> {
+                //同一张卡内容未变时使用缓存中已解析的消息
+                TagCache.Entry cached = TagCache.getInstance().validate(session,
+                        type2 ? TagSession.Tech.MIFARE_ULTRALIGHT : TagSession.Tech.NFC_V);
+                ByteBuffer message;
+                if (cached != null) {
+                    message = cached.getNdefMessage();
+                } else if (type2) {
+                    Type2Ndef ndef = Type2Ndef.read(session.ultralight());
+                    message = ndef != null ? ndef.getMessage() : null;
+                } else {
+                    Type5Ndef ndef = Type5Ndef.read(session.nfcV());
+                    message = ndef != null ? ndef.getMessage() : null;
+                }
+                return message != null ? describe(message) : null;
+            }), new NfcExecutor.Callback<String>() {
+                @Override
+                public void onSuccess(String text) {
+                    if (text != null)
+                        readEdt.setText(text);
+                    Toast.makeText(NdefActivity.this,"数据读取成功！",Toast.LENGTH_SHORT).show();
+                }
+
+                @Override
+                public void onError(Exception e) {
+                    e.printStackTrace();
+                }
+            });
+            return;
+        }
         Ndef ndef=Ndef.get(mTag);//获取ndef对象
-        try {
-            ndef.connect();
-            NdefMessage ndefMessage=ndef.getNdefMessage();
-            if (ndefMessage!=null)
-                readEdt.setText(parseTextRecord(ndefMessage.getRecords()[0]));
-            Toast.makeText(this,"数据读取成功！",Toast.LENGTH_SHORT).show();
-        } catch (IOException e) {
-            e.printStackTrace();
-        } catch (FormatException e) {
-            e.printStackTrace();
-        }finally {
+        NfcExecutor.getInstance().submit(() -> {
+            //Ndef不经过会话, 先断开会话中的连接
+            if (session != null) {
+                session.disconnect();
+            }
             try {
-                ndef.close();//关闭链接
-            } catch (IOException e) {
+                ndef.connect();
+                return ndef.getNdefMessage();
+            } finally {
+                try {
+                    ndef.close();//关闭链接
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }, new NfcExecutor.Callback<NdefMessage>() {
+            @Override
+            public void onSuccess(NdefMessage ndefMessage) {
+                if (ndefMessage!=null)
+                    readEdt.setText(describe(ndefMessage));//显示所有记录, 不只是第一条
+                Toast.makeText(NdefActivity.this,"数据读取成功！",Toast.LENGTH_SHORT).show();
+            }
+
+            @Override
+            public void onError(Exception e) {
                 e.printStackTrace();
             }
+        });
+    }
+
+    private boolean hasTech(String tech) {
+        for (String t : mTag.getTechList()) {
+            if (tech.equals(t)) {
+                return true;
+            }
         }
+        return false;
     }
 
     /**
@@ -189,24 +329,7 @@ public class NdefActivity extends BaseNfcActivity implements View.OnClickListene
         if (!Arrays.equals(ndefRecord.getType(), NdefRecord.RTD_TEXT)) {
             return null;
         }
-        try {
-            //获得字节数组，然后进行分析
-            byte[] payload = ndefRecord.getPayload();
-            //下面开始NDEF文本数据第一个字节，状态字节
-            //判断文本是基于UTF-8还是UTF-16的，取第一个字节"位与"上16进制的80，16进制的80也就是最高位是1，
-            //其他位都是0，所以进行"位与"运算后就会保留最高位
-            String textEncoding = ((payload[0] & 0x80) == 0) ? "UTF-8" : "UTF-16";
-            //3f最高两位是0，第六位是1，所以进行"位与"运算后获得第六位
-            int languageCodeLength = payload[0] & 0x3f;
-            //下面开始NDEF文本数据第二个字节，语言编码
-            //获得语言编码
-            String languageCode = new String(payload, 1, languageCodeLength, "US-ASCII");
-            //下面开始NDEF文本数据后面的字节，解析出文本
-            String textRecord = new String(payload, languageCodeLength + 1,
-                    payload.length - languageCodeLength - 1, textEncoding);
-            return textRecord;
-        } catch (Exception e) {
-            throw new IllegalArgumentException();
-        }
+        //获得字节数组，然后进行分析
+        return NdefText.decode(ndefRecord.getPayload());
     }
 }
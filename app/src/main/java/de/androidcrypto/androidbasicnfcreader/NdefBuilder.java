@@ -0,0 +1,247 @@
+package de.androidcrypto.androidbasicnfcreader;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * NDEF消息构建
+ * 添加记录时就计算出各记录的编码长度, 写入前即可知道整个消息的准确字节数;
+ * 负载不超过255字节时使用短记录, 没有ID时不写ID长度, URI使用前缀压缩;
+ * 文本在序列化时直接按UTF-8写入一个预先分配好的缓冲, 不产生中间数组
+ * 用法
+ * NdefBuilder builder = new NdefBuilder().addText("你好", "zh").addUri("https://www.example.com");
+ * if (builder.getEncodedSize() <= ndef.getMaxSize()) {
+ *     byte[] message = builder.build();
+ * }
+ */
+public class NdefBuilder {
+
+    private static final int KIND_RAW = 0;
+    private static final int KIND_TEXT = 1;
+    private static final int KIND_URI = 2;
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final List<Record> records = new ArrayList<>();
+    private int encodedSize;
+
+    private static class Record {
+        final int tnf;
+        final byte[] type;
+        final byte[] id;
+        final int kind;
+        final byte[] data;
+        final String text;
+        final int prefix;
+        final int payloadLength;
+
+        Record(int tnf, byte[] type, byte[] id, int kind, byte[] data, String text, int prefix, int payloadLength) {
+            this.tnf = tnf;
+            this.type = type;
+            this.id = id;
+            this.kind = kind;
+            this.data = data;
+            this.text = text;
+            this.prefix = prefix;
+            this.payloadLength = payloadLength;
+        }
+
+        int encodedSize() {
+            return 2 + (payloadLength <= 0xFF ? 1 : 4) + (id.length > 0 ? 1 : 0)
+                    + type.length + id.length + payloadLength;
+        }
+    }
+
+    /**
+     * 添加任意记录
+     *
+     * @param tnf     NdefParser.TNF_*, 不能为TNF_UNCHANGED
+     * @param type    类型, 可以为null
+     * @param id      ID, 可以为null
+     * @param payload 负载, 可以为null
+     */
+    public NdefBuilder addRecord(int tnf, byte[] type, byte[] id, byte[] payload) {
+        if (tnf < NdefParser.TNF_EMPTY || tnf > NdefParser.TNF_UNKNOWN) {
+            throw new IllegalArgumentException("不支持的TNF " + tnf);
+        }
+        type = type == null ? EMPTY : type;
+        id = id == null ? EMPTY : id;
+        payload = payload == null ? EMPTY : payload;
+        if (type.length > 0xFF || id.length > 0xFF) {
+            throw new IllegalArgumentException("类型和ID最长255字节");
+        }
+        if (tnf == NdefParser.TNF_EMPTY && (type.length > 0 || id.length > 0 || payload.length > 0)) {
+            throw new IllegalArgumentException("TNF_EMPTY记录不能有类型, ID或负载");
+        }
+        return add(new Record(tnf, type, id, KIND_RAW, payload, null, 0, payload.length));
+    }
+
+    /**
+     * 添加文本记录(UTF-8)
+     *
+     * @param languageCode 语言编码, 如"zh", 最长63字节
+     */
+    public NdefBuilder addText(String text, String languageCode) {
+        byte[] language = languageCode.getBytes(StandardCharsets.US_ASCII);
+        if (language.length > 0x3F) {
+            throw new IllegalArgumentException("语言编码最长63字节");
+        }
+        int payloadLength = 1 + language.length + utf8Length(text);
+        return add(new Record(NdefParser.TNF_WELL_KNOWN, NdefParser.RTD_TEXT, EMPTY, KIND_TEXT,
+                language, text, 0, payloadLength));
+    }
+
+    /**
+     * 添加URI记录, 自动选择最长的前缀缩写
+     */
+    public NdefBuilder addUri(String uri) {
+        int prefix = NdefUri.prefixCode(uri);
+        String rest = uri.substring(NdefUri.PREFIXES[prefix].length());
+        return add(new Record(NdefParser.TNF_WELL_KNOWN, NdefParser.RTD_URI, EMPTY, KIND_URI,
+                null, rest, prefix, 1 + utf8Length(rest)));
+    }
+
+    /**
+     * 添加MIME类型记录
+     */
+    public NdefBuilder addMime(String mimeType, byte[] payload) {
+        return addRecord(NdefParser.TNF_MIME_MEDIA, mimeType.getBytes(StandardCharsets.US_ASCII), null, payload);
+    }
+
+    private NdefBuilder add(Record record) {
+        records.add(record);
+        encodedSize += record.encodedSize();
+        return this;
+    }
+
+    public int getRecordCount() {
+        return records.size();
+    }
+
+    /**
+     * 编码后的消息字节数; 没有记录时为空消息(一条TNF_EMPTY记录)的3字节
+     */
+    public int getEncodedSize() {
+        return records.isEmpty() ? 3 : encodedSize;
+    }
+
+    /**
+     * 编码为一个数组, 长度正好为getEncodedSize()
+     */
+    public byte[] build() {
+        byte[] message = new byte[getEncodedSize()];
+        writeTo(ByteBuffer.wrap(message));
+        return message;
+    }
+
+    /**
+     * 编码写入dst的当前位置, 完成后position前进getEncodedSize()
+     *
+     * @throws BufferOverflowException dst剩余空间不足
+     */
+    public void writeTo(ByteBuffer dst) {
+        if (dst.remaining() < getEncodedSize()) {
+            throw new BufferOverflowException();
+        }
+        if (records.isEmpty()) {
+            dst.put((byte) (NdefParser.FLAG_MB | NdefParser.FLAG_ME | NdefParser.FLAG_SR | NdefParser.TNF_EMPTY));
+            dst.put((byte) 0).put((byte) 0);
+            return;
+        }
+        for (int i = 0; i < records.size(); i++) {
+            Record r = records.get(i);
+            int header = r.tnf;
+            if (i == 0) {
+                header |= NdefParser.FLAG_MB;
+            }
+            if (i == records.size() - 1) {
+                header |= NdefParser.FLAG_ME;
+            }
+            boolean shortRecord = r.payloadLength <= 0xFF;
+            if (shortRecord) {
+                header |= NdefParser.FLAG_SR;
+            }
+            if (r.id.length > 0) {
+                header |= NdefParser.FLAG_IL;
+            }
+            dst.put((byte) header);
+            dst.put((byte) r.type.length);
+            if (shortRecord) {
+                dst.put((byte) r.payloadLength);
+            } else {
+                dst.put((byte) (r.payloadLength >>> 24)).put((byte) (r.payloadLength >>> 16))
+                        .put((byte) (r.payloadLength >>> 8)).put((byte) r.payloadLength);
+            }
+            if (r.id.length > 0) {
+                dst.put((byte) r.id.length);
+            }
+            dst.put(r.type);
+            dst.put(r.id);
+            switch (r.kind) {
+                case KIND_TEXT:
+                    // 状态字节: UTF-8, 语言编码长度
+                    dst.put((byte) r.data.length);
+                    dst.put(r.data);
+                    putUtf8(dst, r.text);
+                    break;
+                case KIND_URI:
+                    dst.put((byte) r.prefix);
+                    putUtf8(dst, r.text);
+                    break;
+                default:
+                    dst.put(r.data);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * 字符串按UTF-8编码的字节数, 不合法的代理字符按'?'计算, 与String.getBytes()一致
+     */
+    static int utf8Length(String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private static void putUtf8(ByteBuffer dst, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                dst.put((byte) c);
+            } else if (c < 0x800) {
+                dst.put((byte) (0xC0 | (c >> 6)));
+                dst.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                dst.put((byte) (0xF0 | (cp >> 18)));
+                dst.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                dst.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                dst.put((byte) (0x80 | (cp & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                dst.put((byte) '?');
+            } else {
+                dst.put((byte) (0xE0 | (c >> 12)));
+                dst.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                dst.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package de.androidcrypto.androidbasicnfcreader;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 流式NDEF消息解析
+ * 直接在ByteBuffer上逐条遍历记录, 不复制负载, 遍历时不为每条记录分配对象: 解析器本身就是当前记录的视图,
+ * 类型, ID和负载以在缓冲中的位置给出, 文本和URI只在调用getText()/getUri()时才解码.
+ * 支持短记录和长记录, ID字段, 所有TNF, 以及分块记录: 分块记录作为一条逻辑记录返回, 负载长度为各块之和
+ * 用法
+ * NdefParser parser = new NdefParser(ByteBuffer.wrap(ndefMessage.toByteArray()));
+ * while (parser.next()) {
+ *     if (parser.isText()) {
+ *         String text = parser.getText();
+ *     }
+ * }
+ */
+public class NdefParser {
+
+    public static final int TNF_EMPTY = 0x00;
+    public static final int TNF_WELL_KNOWN = 0x01;
+    public static final int TNF_MIME_MEDIA = 0x02;
+    public static final int TNF_ABSOLUTE_URI = 0x03;
+    public static final int TNF_EXTERNAL_TYPE = 0x04;
+    public static final int TNF_UNKNOWN = 0x05;
+    public static final int TNF_UNCHANGED = 0x06;
+    public static final int TNF_RESERVED = 0x07;
+
+    static final int FLAG_MB = 0x80;
+    static final int FLAG_ME = 0x40;
+    static final int FLAG_CF = 0x20;
+    static final int FLAG_SR = 0x10;
+    static final int FLAG_IL = 0x08;
+
+    static final byte[] RTD_TEXT = {'T'};
+    static final byte[] RTD_URI = {'U'};
+
+    private final ByteBuffer buffer;
+    private final int limit;
+    private int position;
+    private boolean ended;
+    private int index = -1;
+
+    private int flags;
+    private int typeOffset;
+    private int typeLength;
+    private int idOffset;
+    private int idLength;
+    private int payloadOffset;
+    private int payloadLength;
+    private int chunkCount;
+
+    // 当前块的解析结果
+    private int chunkFlags;
+    private int chunkTypeLength;
+    private int chunkIdLength;
+    private int chunkPayloadOffset;
+    private int chunkPayloadLength;
+
+    /**
+     * @param message 从position到limit为NDEF消息, 解析时不改变它的position
+     */
+    public NdefParser(ByteBuffer message) {
+        this.buffer = message;
+        this.position = message.position();
+        this.limit = message.limit();
+    }
+
+    /**
+     * 移到下一条记录
+     *
+     * @return false为消息已结束
+     * @throws IllegalArgumentException 消息格式错误
+     */
+    public boolean next() {
+        if (ended || position >= limit) {
+            if (!ended && index >= 0) {
+                throw new IllegalArgumentException("消息缺少结束标志(ME)");
+            }
+            ended = true;
+            return false;
+        }
+        int start = position;
+        readChunk(start);
+        int tnf = chunkFlags & 0x07;
+        boolean first = index < 0;
+        if (((chunkFlags & FLAG_MB) != 0) != first) {
+            throw new IllegalArgumentException("第" + (index + 1) + "条记录的开始标志(MB)错误");
+        }
+        if (tnf == TNF_UNCHANGED) {
+            throw new IllegalArgumentException("TNF_UNCHANGED只能用于分块记录的后续块");
+        }
+        if (tnf == TNF_EMPTY && (chunkTypeLength != 0 || chunkIdLength != 0 || chunkPayloadLength != 0)) {
+            throw new IllegalArgumentException("TNF_EMPTY记录不能有类型, ID或负载");
+        }
+        flags = chunkFlags;
+        typeOffset = start + headerLength(chunkFlags);
+        typeLength = chunkTypeLength;
+        idOffset = typeOffset + typeLength;
+        idLength = chunkIdLength;
+        payloadOffset = chunkPayloadOffset;
+        payloadLength = chunkPayloadLength;
+        chunkCount = 1;
+        position = chunkPayloadOffset + chunkPayloadLength;
+        // 分块记录: 后续块为TNF_UNCHANGED, 没有类型和ID, 最后一块CF为0
+        while ((chunkFlags & FLAG_CF) != 0) {
+            if ((chunkFlags & FLAG_ME) != 0) {
+                throw new IllegalArgumentException("分块记录没有结束块");
+            }
+            readChunk(position);
+            if ((chunkFlags & 0x07) != TNF_UNCHANGED || chunkTypeLength != 0 || chunkIdLength != 0
+                    || (chunkFlags & FLAG_MB) != 0) {
+                throw new IllegalArgumentException("分块记录的后续块格式错误");
+            }
+            payloadLength += chunkPayloadLength;
+            chunkCount++;
+            position = chunkPayloadOffset + chunkPayloadLength;
+        }
+        flags = (flags & ~(FLAG_ME | FLAG_CF)) | (chunkFlags & FLAG_ME);
+        ended = (flags & FLAG_ME) != 0;
+        index++;
+        return true;
+    }
+
+    private static int headerLength(int flags) {
+        return 2 + ((flags & FLAG_SR) != 0 ? 1 : 4) + ((flags & FLAG_IL) != 0 ? 1 : 0);
+    }
+
+    private void readChunk(int start) {
+        if (limit - start < 3) {
+            throw new IllegalArgumentException("记录头不完整");
+        }
+        chunkFlags = buffer.get(start) & 0xFF;
+        chunkTypeLength = buffer.get(start + 1) & 0xFF;
+        int p = start + 2;
+        long length;
+        if ((chunkFlags & FLAG_SR) != 0) {
+            length = buffer.get(p++) & 0xFF;
+        } else {
+            if (limit - p < 4) {
+                throw new IllegalArgumentException("记录头不完整");
+            }
+            length = ((buffer.get(p) & 0xFFL) << 24) | ((buffer.get(p + 1) & 0xFF) << 16)
+                    | ((buffer.get(p + 2) & 0xFF) << 8) | (buffer.get(p + 3) & 0xFF);
+            p += 4;
+        }
+        if ((chunkFlags & FLAG_IL) != 0) {
+            if (p >= limit) {
+                throw new IllegalArgumentException("记录头不完整");
+            }
+            chunkIdLength = buffer.get(p++) & 0xFF;
+        } else {
+            chunkIdLength = 0;
+        }
+        long end = (long) p + chunkTypeLength + chunkIdLength + length;
+        if (end > limit) {
+            throw new IllegalArgumentException("记录长度超出消息");
+        }
+        chunkPayloadOffset = p + chunkTypeLength + chunkIdLength;
+        chunkPayloadLength = (int) length;
+    }
+
+    /**
+     * 当前是第几条记录, 从0开始
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    public int getTnf() {
+        return flags & 0x07;
+    }
+
+    public boolean isMessageBegin() {
+        return (flags & FLAG_MB) != 0;
+    }
+
+    public boolean isMessageEnd() {
+        return (flags & FLAG_ME) != 0;
+    }
+
+    /**
+     * 是否为分块记录(由多个块组成)
+     */
+    public boolean isChunked() {
+        return chunkCount > 1;
+    }
+
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    /**
+     * 类型在缓冲中的位置
+     */
+    public int getTypeOffset() {
+        return typeOffset;
+    }
+
+    public int getTypeLength() {
+        return typeLength;
+    }
+
+    public int getIdOffset() {
+        return idOffset;
+    }
+
+    public int getIdLength() {
+        return idLength;
+    }
+
+    /**
+     * 负载在缓冲中的位置; 分块记录为第一块的负载, 需要用copyPayload()或payload()取得完整负载
+     */
+    public int getPayloadOffset() {
+        return payloadOffset;
+    }
+
+    /**
+     * 负载长度, 分块记录为各块之和
+     */
+    public int getPayloadLength() {
+        return payloadLength;
+    }
+
+    /**
+     * 比较类型, 不分配内存
+     */
+    public boolean typeEquals(byte[] type) {
+        return rangeEquals(typeOffset, typeLength, type);
+    }
+
+    public boolean idEquals(byte[] id) {
+        return rangeEquals(idOffset, idLength, id);
+    }
+
+    private boolean rangeEquals(int offset, int length, byte[] value) {
+        if (value.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer.get(offset + i) != value[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean isText() {
+        return getTnf() == TNF_WELL_KNOWN && typeEquals(RTD_TEXT);
+    }
+
+    public boolean isUri() {
+        return getTnf() == TNF_WELL_KNOWN && typeEquals(RTD_URI);
+    }
+
+    /**
+     * 负载的只读视图, 不复制; 分块记录时复制各块拼接
+     */
+    public ByteBuffer payload() {
+        if (chunkCount == 1) {
+            ByteBuffer view = buffer.duplicate();
+            view.limit(payloadOffset + payloadLength).position(payloadOffset);
+            return view.slice().asReadOnlyBuffer();
+        }
+        byte[] data = new byte[payloadLength];
+        copyPayload(data, 0);
+        return ByteBuffer.wrap(data).asReadOnlyBuffer();
+    }
+
+    /**
+     * 把完整负载复制到dst, 分块记录时拼接各块
+     */
+    public void copyPayload(byte[] dst, int dstOff) {
+        ByteBuffer src = buffer.duplicate();
+        int p = typeOffset - headerLength(flags);
+        int copied = 0;
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            readChunk(p);
+            src.limit(chunkPayloadOffset + chunkPayloadLength).position(chunkPayloadOffset);
+            src.get(dst, dstOff + copied, chunkPayloadLength);
+            copied += chunkPayloadLength;
+            p = chunkPayloadOffset + chunkPayloadLength;
+        }
+    }
+
+    /**
+     * 解码文本记录, 只在调用时才分配字符串
+     */
+    public String getText() {
+        if (!isText()) {
+            throw new IllegalStateException("不是文本记录");
+        }
+        if (chunkCount == 1 && buffer.hasArray()) {
+            return NdefText.decode(buffer.array(), buffer.arrayOffset() + payloadOffset, payloadLength);
+        }
+        byte[] data = new byte[payloadLength];
+        copyPayload(data, 0);
+        return NdefText.decode(data);
+    }
+
+    /**
+     * 文本记录的语言编码
+     */
+    public String getLanguage() {
+        if (!isText()) {
+            throw new IllegalStateException("不是文本记录");
+        }
+        if (chunkCount == 1 && buffer.hasArray()) {
+            return NdefText.language(buffer.array(), buffer.arrayOffset() + payloadOffset, payloadLength);
+        }
+        byte[] data = new byte[payloadLength];
+        copyPayload(data, 0);
+        return NdefText.language(data, 0, data.length);
+    }
+
+    /**
+     * 解码URI记录, TNF_ABSOLUTE_URI时返回类型字段
+     */
+    public String getUri() {
+        if (getTnf() == TNF_ABSOLUTE_URI) {
+            byte[] type = new byte[typeLength];
+            for (int i = 0; i < typeLength; i++) {
+                type[i] = buffer.get(typeOffset + i);
+            }
+            return new String(type, StandardCharsets.UTF_8);
+        }
+        if (!isUri()) {
+            throw new IllegalStateException("不是URI记录");
+        }
+        if (chunkCount == 1 && buffer.hasArray()) {
+            return NdefUri.decode(buffer.array(), buffer.arrayOffset() + payloadOffset, payloadLength);
+        }
+        byte[] data = new byte[payloadLength];
+        copyPayload(data, 0);
+        return NdefUri.decode(data, 0, data.length);
+    }
+}
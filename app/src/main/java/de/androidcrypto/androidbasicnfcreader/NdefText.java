@@ -0,0 +1,79 @@
+package de.androidcrypto.androidbasicnfcreader;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * NDEF文本记录(RTD_TEXT)负载的编码和解析, 不依赖android.nfc, 可在JVM上测试
+ * 负载格式: 状态字节(最高位为编码, 低6位为语言编码长度) + 语言编码 + 文本
+ */
+public class NdefText {
+
+    /**
+     * 创建文本记录的负载
+     *
+     * @param text         文本
+     * @param languageCode 语言编码, 如"zh"
+     * @return 负载字节
+     */
+    public static byte[] encode(String text, String languageCode) {
+        byte[] langBytes = languageCode.getBytes(StandardCharsets.US_ASCII);
+        //将文本转换为UTF-8格式
+        byte[] textBytes = text.getBytes(StandardCharsets.UTF_8);
+        //设置状态字节编码最高位数为0
+        int utfBit = 0;
+        //定义状态字节
+        char status = (char) (utfBit + langBytes.length);
+        byte[] data = new byte[1 + langBytes.length + textBytes.length];
+        //设置第一个状态字节，先将状态码转换成字节
+        data[0] = (byte) status;
+        //设置语言编码，使用数组拷贝方法，从0开始拷贝到data中，拷贝到data的1到langBytes.length的位置
+        System.arraycopy(langBytes, 0, data, 1, langBytes.length);
+        //设置文本字节，使用数组拷贝方法，从0开始拷贝到data中，拷贝到data的1 + langBytes.length
+        //到textBytes.length的位置
+        System.arraycopy(textBytes, 0, data, 1 + langBytes.length, textBytes.length);
+        return data;
+    }
+
+    /**
+     * 解析文本记录的负载
+     *
+     * @param payload 负载字节
+     * @return 文本
+     */
+    public static String decode(byte[] payload) {
+        return decode(payload, 0, payload.length);
+    }
+
+    /**
+     * 解析数组中一段文本记录的负载, 不复制负载
+     *
+     * @param payload 负载所在的数组
+     * @param off     负载开始位置
+     * @param len     负载长度
+     * @return 文本
+     */
+    public static String decode(byte[] payload, int off, int len) {
+        if (len < 1) {
+            throw new IllegalArgumentException("文本记录负载为空");
+        }
+        //状态字节: 最高位为0是UTF-8, 为1是UTF-16; 低6位为语言编码长度
+        Charset textEncoding = (payload[off] & 0x80) == 0 ? StandardCharsets.UTF_8 : StandardCharsets.UTF_16;
+        int languageCodeLength = payload[off] & 0x3f;
+        if (languageCodeLength > len - 1) {
+            throw new IllegalArgumentException("语言编码长度超出负载");
+        }
+        //语言编码之后为文本
+        return new String(payload, off + 1 + languageCodeLength, len - 1 - languageCodeLength, textEncoding);
+    }
+
+    /**
+     * 文本记录的语言编码, 如"zh"
+     */
+    public static String language(byte[] payload, int off, int len) {
+        if (len < 1 || (payload[off] & 0x3f) > len - 1) {
+            throw new IllegalArgumentException("文本记录格式错误");
+        }
+        return new String(payload, off + 1, payload[off] & 0x3f, StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,87 @@
+package de.androidcrypto.androidbasicnfcreader;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * NDEF URI记录(RTD_URI)负载的编码和解析, 不依赖android.nfc
+ * 负载格式: 前缀编号(1字节) + URI的其余部分(UTF-8), 编号对应NFC Forum URI RTD中的前缀表
+ */
+public class NdefUri {
+
+    /**
+     * 前缀表, 下标为负载第一个字节
+     */
+    static final String[] PREFIXES = {
+            "",
+            "http://www.",
+            "https://www.",
+            "http://",
+            "https://",
+            "tel:",
+            "mailto:",
+            "ftp://anonymous:anonymous@",
+            "ftp://ftp.",
+            "ftps://",
+            "sftp://",
+            "smb://",
+            "nfs://",
+            "ftp://",
+            "dav://",
+            "news:",
+            "telnet://",
+            "imap:",
+            "rtsp://",
+            "urn:",
+            "pop:",
+            "sip:",
+            "sips:",
+            "tftp:",
+            "btspp://",
+            "btl2cap://",
+            "btgoep://",
+            "tcpobex://",
+            "irdaobex://",
+            "file://",
+            "urn:epc:id:",
+            "urn:epc:tag:",
+            "urn:epc:pat:",
+            "urn:epc:raw:",
+            "urn:epc:",
+            "urn:nfc:",
+    };
+
+    private NdefUri() {
+    }
+
+    /**
+     * URI可以使用的最长前缀
+     *
+     * @return 前缀编号, 没有匹配的前缀时为0
+     */
+    public static int prefixCode(String uri) {
+        int best = 0;
+        for (int i = 1; i < PREFIXES.length; i++) {
+            if (PREFIXES[i].length() > PREFIXES[best].length() && uri.startsWith(PREFIXES[i])) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 解析URI记录的负载
+     *
+     * @param payload 负载所在的数组
+     * @param off     负载开始位置
+     * @param len     负载长度
+     * @return 完整的URI, 未定义的前缀编号按无前缀处理
+     */
+    public static String decode(byte[] payload, int off, int len) {
+        if (len < 1) {
+            throw new IllegalArgumentException("URI记录负载为空");
+        }
+        int code = payload[off] & 0xFF;
+        String prefix = code < PREFIXES.length ? PREFIXES[code] : "";
+        return prefix + new String(payload, off + 1, len - 1, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,224 @@
+package de.androidcrypto.androidbasicnfcreader;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 所有标签读写共用的单线程执行器
+ * 同一时刻只有一个操作访问标签, 排队的操作有上限, 超出时直接回调失败;
+ * 相同key的操作正在排队或执行时不会重复提交, 而是共享同一个结果.
+ * 断开会话等生命周期操作通过execute(Runnable)提交, 不受排队上限限制, 在排队的标签操作之前执行.
+ * 回调在主线程执行; 没有回调的操作失败或被拒绝时写入日志, 不会被静默丢弃
+ * 用法
+ * NfcExecutor.getInstance().submit(session.key("read"), () -> readTag(session), new NfcExecutor.Callback<String>() {...});
+ */
+public class NfcExecutor {
+    /**
+     * 最多排队的操作数, 连续快速刷卡时多余的操作直接失败
+     */
+    private static final int QUEUE_CAPACITY = 4;
+
+    private static NfcExecutor instance;
+
+    private final ThreadPoolExecutor executor;
+    private final Executor callbackExecutor;
+    private final Map<String, Call<?>> inFlight = new HashMap<>();
+    private final ConcurrentLinkedQueue<Runnable> lifecycle = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean lifecycleScheduled = new AtomicBoolean();
+    private final Runnable runLifecycle = this::runLifecycle;
+
+    public interface Task<T> {
+        T run() throws Exception;
+    }
+
+    public interface Callback<T> {
+        void onSuccess(T result);
+
+        void onError(Exception e);
+    }
+
+    /**
+     * @param callbackExecutor 执行回调的线程
+     */
+    NfcExecutor(Executor callbackExecutor) {
+        this.callbackExecutor = callbackExecutor;
+        this.executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(QUEUE_CAPACITY), runnable -> {
+            Thread thread = new Thread(runnable, "nfc-io");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static synchronized NfcExecutor getInstance() {
+        if (instance == null) {
+            Handler mainHandler = new Handler(Looper.getMainLooper());
+            instance = new NfcExecutor(mainHandler::post);
+        }
+        return instance;
+    }
+
+    /**
+     * 提交一个标签操作
+     *
+     * @param task     在NFC线程执行的操作
+     * @param callback 在主线程接收结果, 可以为null
+     */
+    public <T> Future<T> submit(Task<T> task, Callback<T> callback) {
+        return submit(null, task, callback);
+    }
+
+    /**
+     * 提交一个标签操作, 相同key的操作未完成时共享它的结果
+     *
+     * @param key      操作的标识, null为不合并; 访问标签的操作应使用TagSession.key(), 不要只用UID
+     * @param task     在NFC线程执行的操作
+     * @param callback 在主线程接收结果, 可以为null
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Future<T> submit(String key, Task<T> task, Callback<T> callback) {
+        Call<T> call;
+        synchronized (inFlight) {
+            if (key != null) {
+                call = (Call<T>) inFlight.get(key);
+                if (call != null) {
+                    call.addCallback(callback);
+                    return call;
+                }
+            }
+            call = new Call<>(key, task);
+            call.addCallback(callback);
+            if (key != null) {
+                inFlight.put(key, call);
+            }
+        }
+        try {
+            executor.execute(call);
+        } catch (RejectedExecutionException e) {
+            call.reject(e);
+        }
+        return call;
+    }
+
+    /**
+     * 提交生命周期操作(如断开会话), 不会被拒绝
+     * 在NFC线程中, 排在已排队的标签操作之前执行; 队列已满时由下一个开始执行的操作先执行它
+     */
+    public void execute(Runnable task) {
+        lifecycle.add(task);
+        if (lifecycleScheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(runLifecycle);
+            } catch (RejectedExecutionException e) {
+                // 队列中的每个操作执行前都会先执行生命周期操作
+                lifecycleScheduled.set(false);
+            }
+        }
+    }
+
+    /**
+     * 没有回调的操作失败或被拒绝, 在NFC线程或提交操作的线程中调用
+     */
+    void onUnhandledError(String key, Exception e) {
+        System.err.println("NfcExecutor: 操作" + (key != null ? " " + key : "") + " 失败, 没有回调");
+        e.printStackTrace();
+    }
+
+    private void runLifecycle() {
+        lifecycleScheduled.set(false);
+        Runnable task;
+        while ((task = lifecycle.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private class Call<T> extends FutureTask<T> {
+        private final String key;
+        private final List<Callback<T>> callbacks = new ArrayList<>(1);
+        private RejectedExecutionException rejected;
+
+        Call(String key, final Task<T> task) {
+            super(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    return task.run();
+                }
+            });
+            this.key = key;
+        }
+
+        void addCallback(Callback<T> callback) {
+            if (callback != null) {
+                callbacks.add(callback);
+            }
+        }
+
+        @Override
+        public void run() {
+            runLifecycle();
+            super.run();
+        }
+
+        void reject(RejectedExecutionException e) {
+            rejected = e;
+            cancel(false);
+        }
+
+        @Override
+        protected void done() {
+            final List<Callback<T>> targets;
+            synchronized (inFlight) {
+                if (key != null && inFlight.get(key) == this) {
+                    inFlight.remove(key);
+                }
+                targets = new ArrayList<>(callbacks);
+            }
+            T result = null;
+            Exception error = null;
+            try {
+                result = get();
+            } catch (ExecutionException e) {
+                error = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            } catch (Exception e) {
+                error = rejected != null ? rejected : e;
+            }
+            if (targets.isEmpty()) {
+                if (error != null) {
+                    onUnhandledError(key, error);
+                }
+                return;
+            }
+            final T value = result;
+            final Exception failure = error;
+            callbackExecutor.execute(() -> {
+                for (Callback<T> callback : targets) {
+                    if (failure == null) {
+                        callback.onSuccess(value);
+                    } else {
+                        callback.onError(failure);
+                    }
+                }
+            });
+        }
+    }
+}
@@ -3,8 +3,6 @@ package de.androidcrypto.androidbasicnfcreader;
 import android.content.Intent;
 import android.nfc.NfcAdapter;
 import android.nfc.Tag;
-import android.nfc.tech.IsoDep;
-import android.nfc.tech.MifareUltralight;
 import android.nfc.tech.NfcV;
 import android.os.Bundle;
 import android.os.Handler;
@@ -17,19 +15,16 @@ import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
-import androidx.appcompat.app.AppCompatActivity;
 
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
 
-public class NfcVActivity extends AppCompatActivity {
+public class NfcVActivity extends BaseNfcActivity {
     private static final String TAG = "NfcVActivity";
-    private NfcAdapter nfcAdapter;
     private TextView logTextView;
     private Handler mainHandler;
-    private Tag tag;
-    private Boolean isProcess = false;
+    private LogSink logSink;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -38,33 +33,17 @@ public class NfcVActivity extends AppCompatActivity {
 
         logTextView = findViewById(R.id.logTextView);
         mainHandler = new Handler(Looper.getMainLooper());
-
-        // 获取 NFC 适配器
-        nfcAdapter = NfcAdapter.getDefaultAdapter(this);
-
-        // 检查设备是否支持 NFC
-        if (nfcAdapter == null) {
-            showToast("此设备不支持 NFC");
-            finish();
-            return;
-        }
-
-        // 检查 NFC 是否已启用
-        if (!nfcAdapter.isEnabled()) {
-            showToast("请在设置中启用 NFC");
-        }
+        // 最多保留500行, 32K字符
+        logSink = LogSink.forTextView(logTextView, 500, 32 * 1024);
 
         TextView textAddress = findViewById(R.id.edit_text_address);
         TextView textValue = findViewById(R.id.edit_text_value);
         findViewById(R.id.button).setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                if (tag == null) {
+                if (mSession == null || mSession.isLost()) {
                     showToast("连接已断开");
                     return;
-                } else if (isProcess) {
-                    showToast("正在处理其他任务，请稍后再试");
-                    return;
                 } else if (TextUtils.isEmpty(textAddress.getText())) {
                     showToast("输入地址");
                     return;
@@ -72,31 +51,26 @@ public class NfcVActivity extends AppCompatActivity {
                     showToast("输入值");
                     return;
                 }
-                int address = Integer.parseInt(textAddress.getText().toString());
-                String message = textValue.getText().toString();
-                new Thread(() -> writeToTag(address, message)).start();
+                int address;
+                byte value;
+                try {
+                    address = Integer.parseInt(textAddress.getText().toString());
+                    value = (byte) Integer.parseInt(textValue.getText().toString());
+                } catch (NumberFormatException e) {
+                    showToast("地址和值必须是数字");
+                    return;
+                }
+                TagSession session = mSession;
+                NfcExecutor.getInstance().submit(() -> writeToTag(session, address, value), writeCallback);
             }
         });
     }
 
-    @Override
-    protected void onResume() {
-        super.onResume();
-        // 启用前台调度系统，确保本应用优先处理 NFC 标签
-        enableNfcForegroundDispatch();
-    }
-
-    @Override
-    protected void onPause() {
-        super.onPause();
-        // 禁用前台调度系统
-        disableNfcForegroundDispatch();
-    }
-
     @Override
     protected void onDestroy() {
         super.onDestroy();
         //在页面结束时 清空队列消息
+        logSink.close();
         if (mainHandler != null) {
             mainHandler.removeCallbacksAndMessages(null);
             mainHandler = null;
@@ -110,21 +84,10 @@ public class NfcVActivity extends AppCompatActivity {
         handleNfcIntent(intent);
     }
 
-    private void enableNfcForegroundDispatch() {
-        Intent intent = new Intent(this, getClass());
-        intent.addFlags(Intent.FLAG_RECEIVER_REPLACE_PENDING);
-        android.app.PendingIntent pendingIntent = android.app.PendingIntent.getActivity(this, 0, intent, android.app.PendingIntent.FLAG_MUTABLE);
-        nfcAdapter.enableForegroundDispatch(this, pendingIntent, null, null);
-    }
-
-    private void disableNfcForegroundDispatch() {
-        nfcAdapter.disableForegroundDispatch(this);
-    }
-
     private void handleNfcIntent(Intent intent) {
         String action = intent.getAction();
         if (NfcAdapter.ACTION_TAG_DISCOVERED.equals(action) || NfcAdapter.ACTION_TECH_DISCOVERED.equals(action) || NfcAdapter.ACTION_NDEF_DISCOVERED.equals(action)) {
-            tag = intent.getParcelableExtra(NfcAdapter.EXTRA_TAG);
+            Tag tag = mTag;
             if (tag != null) {
                 // 检查标签是否支持 NfcV 技术
                 String[] techList = tag.getTechList();
@@ -138,12 +101,13 @@ public class NfcVActivity extends AppCompatActivity {
 
                 if (hasNfcV) {
                     logMessage("发现 NFCV (ISO 15693) 标签");
-                    if (isProcess) {
-                        showToast("操作太频繁，请稍后再试");
+                    if (mDuplicateTap) {
+                        // 同一标签在时间窗口内重复发现, 其他标签不受影响
+                        logMessage("重复刷卡, 已忽略 (累计 " + mDebouncer.getSuppressedCount() + " 次)");
                         return;
                     }
-                    // 在后台线程处理 NFC 操作，避免阻塞 UI
-                    new Thread(() -> handleNfcVTag(0)).start();
+                    // 在NFC线程处理 NFC 操作，避免阻塞 UI
+                    submitNfcVTag();
                 } else {
                     logMessage("发现不支持的标签类型");
                     showToast("不支持的标签类型，需要 NFCV (ISO 15693) 标签");
@@ -152,17 +116,57 @@ public class NfcVActivity extends AppCompatActivity {
         }
     }
 
-    private static final int MAX_RETRIES = 3;
+    @Override
+    protected TagSession.Tech[] readerModeTechs() {
+        return new TagSession.Tech[]{TagSession.Tech.NFC_V};
+    }
 
-    private void handleNfcVTag(int retries) {
-        if (retries >= MAX_RETRIES) return;
-        try (NfcV nfcv = NfcV.get(tag)) {
-            // 连接标签
-            nfcv.connect();
-            isProcess = true;
-            logMessage("已连接到标签");
+    //读卡器模式只轮询NfcV, 已在NFC线程中, 直接读取
+    @Override
+    protected void onTagScanned(TagSession session) {
+        logMessage("发现 NFCV (ISO 15693) 标签");
+        handleNfcVTag(session);
+    }
+
+    // 传输错误时在NFC线程中退避重试: 50ms, 100ms, 200ms
+    private static final RetryPolicy RETRY = new RetryPolicy(4, 50, 400);
+    // 每段的block数, 断点按段内实际读到的block记录
+    private static final int CHUNK_BLOCKS = 64;
+
+    private void submitNfcVTag() {
+        TagSession session = mSession;
+        if (session == null) {
+            return;
+        }
+        NfcExecutor.getInstance().submit(session.key("nfcv"), () -> {
+            handleNfcVTag(session);
+            return null;
+        }, readCallback(session));
+    }
+
+    // 读取中的IO错误已在handleNfcVTag中处理, 这里报告其他异常和排队已满被拒绝的情况
+    private NfcExecutor.Callback<Void> readCallback(TagSession session) {
+        return new NfcExecutor.Callback<Void>() {
+            @Override
+            public void onSuccess(Void result) {
+            }
+
+            @Override
+            public void onError(Exception e) {
+                mDebouncer.forget(session.getId());
+                Log.e(TAG, "读取标签失败", e);
+                logMessage("NFC 操作错误: " + e.getMessage());
+            }
+        };
+    }
 
-            NfcVUtil nfcVUtil = new NfcVUtil(nfcv);
+    private void handleNfcVTag(TagSession session) {
+        if (session.isLost()) return;
+        ReadCheckpoint.Progress progress = null;
+        try {
+            // 连接标签, 同一标签只连接并读取系统信息一次
+            NfcVUtil nfcVUtil = RETRY.execute(session, session::nfcV);
+            logMessage("已连接到标签");
 
             // 读取标签 UID
             String uid = nfcVUtil.getUID();
@@ -171,148 +175,132 @@ public class NfcVActivity extends AppCompatActivity {
             }
 
             // 读取标签信息
-            logMessage("标签信息: " + bytesToHex(nfcVUtil.getInfoRmation()));
+            byte[] info = nfcVUtil.getInfoRmation();
+            logMessage("标签信息: " + HexUtil.toHexString(info, 0, info.length, false, ' '));
             logMessage("标签容量: " + nfcVUtil.getBlockNumber() + " 块, 每块 " + nfcVUtil.getOneBlockSize() + " 字节");
             logMessage("系统信息: " + nfcVUtil.getAFI());
 
-            // 读取数据块
-            int blockAddress = 0; // 从块 0 开始
-            int blockCount = blockAddress + 1030/*nfcVUtil.getBlockNumber()*/;   // 读取 4 个块
-            StringBuilder msg = new StringBuilder();
-            for (int i = blockAddress; i < blockCount; i++) {
-                String blockMsg = nfcVUtil.readOneBlock(blockAddress + i);
-                msg.append("地址 ").append((blockAddress + i) * 4).append(" 数据: ").append(blockMsg).append("/n");
-//                logMessage("地址 " + (blockAddress + i) * 4 + " 数据: " + blockMsg);
+            // 同一张卡内容未变时使用缓存, 一帧探测代替整卡读取
+            TagCache.Entry cached = RETRY.execute(session, () -> TagCache.getInstance().validate(session, TagSession.Tech.NFC_V));
+            if (cached != null) {
+                logMessage("标签内容未变, 使用缓存");
+                byte[] image = cached.getImage();
+                logMessage(formatBlocks(image, image.length / cached.getBlockSize(), cached.getBlockSize(), null));
+                ByteBuffer ndef = cached.getNdefMessage();
+                if (ndef != null) {
+                    logMessage("NDEF: " + NdefActivity.describe(ndef));
+                }
+                return;
             }
-            logMessage(msg.toString());
 
+            // 读取数据块, 同一张卡上次没读完时从断点继续
+            // 按系统信息中的实际block数读取, 不存在的block只会得到错误帧, 地址超过255还会回绕到实际的block
+            int blockCount = nfcVUtil.getBlockNumber();
+            int blockSize = nfcVUtil.getOneBlockSize();
+            progress = ReadCheckpoint.getInstance().resume(session.getId(), TagSession.Tech.NFC_V, blockCount, blockSize);
+            if (progress.getNextBlock() > 0) {
+                logMessage("从 block " + progress.getNextBlock() + " 继续读取");
+            }
+            byte[] image = progress.getImage();
+            // 重试时会话已重新连接, 需要重新取得NfcVUtil
+            progress.readRemaining(CHUNK_BLOCKS, (first, count, status) -> RETRY.execute(session,
+                    () -> session.nfcV().readBlocks(first, count, image, first * blockSize, status)));
+            ReadCheckpoint.getInstance().complete(session.getId());
+            if (progress.getFailedCount() > 0) {
+                logMessage(progress.getFailedCount() + " 个 block 重读后仍然失败");
+            }
+            saveImage(session, TagSession.Tech.NFC_V, image);
+            // 所有block都读取成功时缓存, 下次刷卡只需探测
+            boolean allRead = true;
+            for (int i = 0; i < blockCount; i++) {
+                allRead &= progress.isRead(i);
+            }
+            if (allRead) {
+                TagCache.getInstance().put(session.getId(), TagSession.Tech.NFC_V, image, blockSize,
+                        nfcVUtil.getInfoRmation(), -1);
+            }
+            // 从已读取的内容解析NDEF, 不再访问标签
+            try {
+                Type5Ndef ndef = Type5Ndef.parse(image, blockSize);
+                if (ndef != null && ndef.hasMessage()) {
+                    logMessage("NDEF: " + NdefActivity.describe(ndef.getMessage()));
+                }
+            } catch (IOException | IllegalArgumentException e) {
+                logMessage("NDEF 格式错误: " + e.getMessage());
+            }
+            logMessage(formatBlocks(image, blockCount, blockSize, progress));
+
+        } catch (TagLossException e) {
+            // 再次刷同一张卡时从断点继续, 不受重复刷卡窗口限制
+            mDebouncer.forget(session.getId());
+            logMessage(progress != null
+                    ? "标签已离开, 已读取到 block " + progress.getNextBlock() + ", 请重新刷卡继续读取"
+                    : "标签已离开");
         } catch (IOException e) {
+            mDebouncer.forget(session.getId());
             logMessage("NFC 操作错误: " + e.getMessage());
             e.printStackTrace();
-            Handler handler = new Handler(Looper.getMainLooper());
-            handler.postDelayed(() -> handleNfcVTag(retries + 1), 500);
         } finally {
-            isProcess = false;
-            logMessage("已断开与标签的连接");
+            logMessage("操作结束");
         }
     }
 
-    private void writeToTag(int address, String message) {
-        NfcV nfcv = NfcV.get(tag);
-        try {
-            nfcv.connect();
-            isProcess = true;
-            logMessage("已连接到标签");
-
-            NfcVUtil nfcVUtil = new NfcVUtil(nfcv);
-
-            byte[] cmd = new byte[4];
-            int position = address / 4;
-            int index = address % 4;
-            cmd[index] = (byte) Integer.parseInt(message);
-            nfcVUtil.writeBlock((byte) position, cmd);
-
-            showToast("写入成功");
-
-        } catch (IOException e) {
-            Log.e(TAG, "写入标签失败", e);
-            showToast("写入标签失败: " + e.getMessage());
-        } finally {
-            try {
-                nfcv.close();
-                isProcess = false;
-                logMessage("已断开与标签的连接");
-            } catch (IOException e) {
-                Log.e(TAG, "关闭连接失败", e);
+    // 显示时才转换成16进制, progress为null时所有block都已读取
+    private static String formatBlocks(byte[] image, int blockCount, int blockSize, ReadCheckpoint.Progress progress) {
+        StringBuilder msg = new StringBuilder();
+        for (int i = 0; i < blockCount; i++) {
+            msg.append("地址 ").append(i * blockSize).append(" 数据: ");
+            if (progress == null || progress.isRead(i)) {
+                HexUtil.append(msg, image, i * blockSize, blockSize, true, HexUtil.NO_SEPARATOR);
+            } else {
+                msg.append("null");
             }
+            msg.append('\n');
         }
+        return msg.toString();
     }
 
-    private byte[] readTagUID(NfcV nfcv) throws IOException {
-        // ISO 15693 标准命令: 读取 UID
-        byte[] cmd = new byte[]{0, 43}; // 标志位 + 命令码 0x2B (Get UID)
-        byte[] response = nfcv.transceive(cmd);
-
-        if (response != null && response.length > 0 && response[0] == 0) {
-            // 成功响应: 状态码 (0x00) + UID 数据
-            return Arrays.copyOfRange(response, 1, response.length);
+    private final NfcExecutor.Callback<Integer> writeCallback = new NfcExecutor.Callback<Integer>() {
+        @Override
+        public void onSuccess(Integer written) {
+            showToast(written > 0 ? "写入成功" : "内容相同, 无需写入");
+            logMessage("操作结束");
         }
-        return null;
-    }
-
-    private byte[] getTagInfo(NfcV nfcv) throws IOException {
-        // ISO 15693 标准命令: 获取标签信息
-//        byte[] cmd = new byte[]{0, 42}; // 标志位 + 命令码 0x2A (Get System Information)
-        byte[] cmd = new byte[10];
-        cmd[0] = (byte) 0x22;
-        cmd[1] = (byte) 0x2B;
-        NfcVUtil nfcVUtil = new NfcVUtil(nfcv);
-        System.arraycopy(nfcVUtil.getID(), 0, cmd, 2, nfcVUtil.getID().length);
-        byte[] response = nfcv.transceive(cmd);
 
-        if (response != null && response.length > 0 && response[0] == 0) {
-            // 成功响应: 状态码 (0x00) + 标签信息
-            return Arrays.copyOfRange(response, 1, response.length);
-        }
-        return null;
-    }
-
-    private void parseTagInfo(byte[] info) {
-        if (info == null || info.length < 7) return;
-
-        // 解析标签信息 (格式取决于具体标签类型)
-        // 通常格式: 块数, 块大小, 访问条件, 可选信息...
-        int blockCount = info[0] & 0xFF;
-        int blockSize = (info[1] & 0xFF) + 1; // 块大小 = 值 + 1
-        int systemInfo = info[2] & 0xFF;
-
-        logMessage("标签容量: " + blockCount + " 块, 每块 " + blockSize + " 字节");
-        logMessage("系统信息: " + Integer.toHexString(systemInfo));
-    }
-
-    private byte[] readBlock(NfcV nfcv, int blockAddress) throws IOException {
-        // ISO 15693 标准命令: 读取单个块
-        byte[] cmd = new byte[]{0, 32, (byte) blockAddress}; // 标志位 + 命令码 0x20 + 块地址
-        byte[] response = nfcv.transceive(cmd);
-
-        if (response != null && response.length > 0 && response[0] == 0) {
-            // 成功响应: 状态码 (0x00) + 块数据
-            return Arrays.copyOfRange(response, 1, response.length);
-        }
-        return null;
-    }
-
-    private boolean writeBlock(NfcV nfcv, int blockAddress, byte[] data) throws IOException {
-        if (data == null || data.length != 4) { // 假设块大小为 4 字节
-            return false;
-        }
-
-        // ISO 15693 标准命令: 写入单个块
-        byte[] cmd = new byte[6];
-        cmd[0] = 0x00;           // 标志位
-        cmd[1] = (byte) 0x21;     // 命令码 0x21 (Write Single Block)
-        cmd[2] = (byte) blockAddress; // 块地址
-        System.arraycopy(data, 0, cmd, 3, 4); // 数据
-
-        byte[] response = nfcv.transceive(cmd);
-        // 成功响应: 0x00
-        return response != null && response.length == 1 && response[0] == 0x00;
-    }
-
-    private String bytesToHex(byte[] bytes) {
-        StringBuilder result = new StringBuilder();
-        for (byte b : bytes) {
-            result.append(String.format("%02X ", b));
+        @Override
+        public void onError(Exception e) {
+            Log.e(TAG, "写入标签失败", e);
+            showToast("写入标签失败: " + e.getMessage());
+            logMessage("操作结束");
         }
-        return result.toString();
+    };
+
+    // 修改一个字节, 在NFC线程中调用, 返回写入的block数
+    private int writeToTag(TagSession session, int address, byte value) throws IOException {
+        return session.execute(() -> {
+            NfcVUtil nfcVUtil = session.nfcV();
+            int blockSize = nfcVUtil.getOneBlockSize();
+            int position = address / blockSize;
+            // 先读出整个block, 只修改一个字节, 内容没变时不写入
+            byte[] known = new byte[blockSize];
+            BitSet status = new BitSet(1);
+            if (nfcVUtil.readBlocks(position, 1, known, 0, status) == 0) {
+                throw new IOException("block " + position + " 读取失败");
+            }
+            byte[] desired = known.clone();
+            desired[address % blockSize] = value;
+            BitSet failed = new BitSet(1);
+            TagCache.getInstance().invalidate(session.getId());
+            int count = nfcVUtil.syncBlocks(position, desired, known, failed);
+            if (!failed.isEmpty()) {
+                throw new IOException("block " + position + " 写入失败");
+            }
+            return count;
+        });
     }
 
     private void logMessage(final String message) {
-        mainHandler.post(() -> {
-            logTextView.append(message + "\n");
-            // 滚动到底部
-//            logTextView.setSelection(logTextView.getText().length());
-        });
+        logSink.log(message);
     }
 
     private void showToast(final String message) {
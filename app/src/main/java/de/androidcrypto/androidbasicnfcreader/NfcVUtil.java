@@ -2,30 +2,40 @@ package de.androidcrypto.androidbasicnfcreader;
 
 
 import java.io.IOException;
-
-import android.nfc.tech.NfcV;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
 
 /**
  * @author cloin
  * 用法
  * NfcV mNfcV = NfcV.get(tag);
  * mNfcV.connect();
- * NfcVUtil mNfcVutil = new NfcVUtil(mNfcV);
+ * NfcVUtil mNfcVutil = new NfcVUtil(AndroidTagTransport.of(mNfcV));
+ * 也可以使用任意TagTransport, 如测试中的SimulatedNfcVTag
+ * NfcVUtil mNfcVutil = new NfcVUtil(transport);
  * 取得UID
  * mNfcVutil.getUID();
  * 读取block在1位置的内容
  * mNfcVutil.readOneBlock(1);
  * 从位置7开始读2个block的内容
  * mNfcVutil.readBlocks(7, 2);
+ * 从位置0开始读16个block, 每个元素对应一个block
+ * mNfcVutil.readBlockArray(0, 16);
+ * 从位置0开始读16个block的原始数据到image, status中记录读取成功的block
+ * byte[] image = new byte[16 * mNfcVutil.getOneBlockSize()];
+ * BitSet status = new BitSet();
+ * mNfcVutil.readBlocks(0, 16, image, 0, status);
  * 取得block的个数
  * mNfcVutil.getBlockNumber();
  * 取得1个block的长度
  * mNfcVutil.getOneBlockSize();
  * 往位置1的block写内容
  * mNfcVutil.writeBlock(1, new byte[]{0, 0, 0, 0})
+ * 把image同步到从位置0开始的block, known为标签当前内容, 只写入变化的block
+ * mNfcVutil.syncBlocks(0, image, known, failed)
  */
 public class NfcVUtil {
-    private NfcV mNfcV;
+    private TagTransport mNfcV;
     /**
      * UID数组行式
      */
@@ -45,24 +55,51 @@ public class NfcVUtil {
      * 信息
      */
     private byte[] infoRmation;
+    /**
+     * 标签是否支持Read Multiple Blocks(0x23), 被拒绝后不再尝试
+     */
+    private boolean readMultipleSupported = true;
+    /**
+     * 标签是否支持Write Multiple Blocks(0x24), 被拒绝后不再尝试
+     */
+    private boolean writeMultipleSupported = true;
+    /**
+     * 一帧Write Multiple Blocks最多写入的block数, 多数支持0x24的IC限制为4
+     */
+    private int maxBlocksPerWrite = 4;
 
     /**
      * 初始化
      *
-     * @param mNfcV NfcV对象
+     * @param transport 已连接的ISO 15693标签
      * @throws IOException
      */
-    public NfcVUtil(NfcV mNfcV) throws IOException {
-        this.mNfcV = mNfcV;
-        ID = this.mNfcV.getTag().getId();
+    public NfcVUtil(TagTransport transport) throws IOException {
+        this(transport, null);
+    }
+
+    /**
+     * 初始化, 使用上次读取的系统信息, 不再发送Get System Information
+     *
+     * @param transport         已连接的ISO 15693标签
+     * @param systemInformation getInfoRmation()的结果, null时从标签读取
+     * @throws IOException
+     */
+    public NfcVUtil(TagTransport transport, byte[] systemInformation) throws IOException {
+        this.mNfcV = transport;
+        ID = this.mNfcV.getId();
         byte[] uid = new byte[ID.length];
         int j = 0;
         for (int i = ID.length - 1; i >= 0; i--) {
             uid[j] = ID[i];
             j++;
         }
-        this.UID = printHexString(uid);
-        _getInfoRmation();
+        this.UID = HexUtil.toHexString(uid, 0, uid.length, true, HexUtil.NO_SEPARATOR);
+        if (systemInformation != null) {
+            parseInfoRmation(systemInformation.clone());
+        } else {
+            _getInfoRmation();
+        }
     }
 
     public String getUID() {
@@ -85,11 +122,24 @@ public class NfcVUtil {
         cmd[0] = (byte) 0x22; // flag
         cmd[1] = (byte) 0x2B; // command
         System.arraycopy(ID, 0, cmd, 2, ID.length); // UID
-        infoRmation = mNfcV.transceive(cmd);
-        blockNumber = infoRmation[12];
-        oneBlockSize = infoRmation[1];;
-        AFI = printHexString(new byte[]{infoRmation[11]});
-        DSFID = printHexString(new byte[]{infoRmation[10]});
+        parseInfoRmation(mNfcV.transceive(cmd));
+    }
+
+    private void parseInfoRmation(byte[] info) {
+        infoRmation = info;
+        // flags(1) + info flags(1) + UID(8), 之后的字段由info flags决定是否存在
+        int infoFlags = infoRmation[1];
+        int index = 10;
+        if ((infoFlags & 0x01) != 0) {
+            DSFID = HexUtil.toHexString(infoRmation, index++, 1, true, HexUtil.NO_SEPARATOR);
+        }
+        if ((infoFlags & 0x02) != 0) {
+            AFI = HexUtil.toHexString(infoRmation, index++, 1, true, HexUtil.NO_SEPARATOR);
+        }
+        if ((infoFlags & 0x04) != 0) {
+            blockNumber = infoRmation[index] & 0xFF;
+            oneBlockSize = infoRmation[index + 1] & 0x1F;
+        }
     }
 
     public String getDSFID() {
@@ -116,18 +166,20 @@ public class NfcVUtil {
      * @throws IOException
      */
     public String readOneBlock(int position) throws IOException {
+        byte[] res = readSingleBlockFrame(position);
+        if (res[0] == 0x00) {
+            return HexUtil.toHexString(res, 1, res.length - 1, true, HexUtil.NO_SEPARATOR);
+        }
+        return null;
+    }
+
+    private byte[] readSingleBlockFrame(int position) throws IOException {
         byte[] cmd = new byte[11];
         cmd[0] = (byte) 0x22;
         cmd[1] = (byte) 0x20;
         System.arraycopy(ID, 0, cmd, 2, ID.length); // UID
         cmd[10] = (byte) position;
-        byte[] res = mNfcV.transceive(cmd);
-        if (res[0] == 0x00) {
-            byte[] block = new byte[res.length - 1];
-            System.arraycopy(res, 1, block, 0, res.length - 1);
-            return printHexString(block);
-        }
-        return null;
+        return mNfcV.transceive(cmd);
     }
 
     /**
@@ -144,51 +196,347 @@ public class NfcVUtil {
             count = blockNumber - begin;
         }
         StringBuffer data = new StringBuffer();
-        for (int i = begin; i < count + begin; i++) {
-            data.append(readOneBlock(i));
+        for (String block : readBlockArray(begin, count)) {
+            data.append(block);
         }
         return data.toString();
     }
 
     /**
-     * 将byte[]转换成16进制字符串
+     * 读取从begin开始count个block, 每个block单独返回
+     * 结果与逐个调用readOneBlock相同(读取失败的block为null)
+     *
+     * @param begin block开始位置
+     * @param count 读取block数量
+     * @return 每个block的内容字符串
+     * @throws IOException
+     */
+    public String[] readBlockArray(int begin, int count) throws IOException {
+        String[] blocks = new String[Math.max(count, 0)];
+        int blockSize = getOneBlockSize();
+        byte[] image = new byte[blocks.length * blockSize];
+        BitSet status = new BitSet(blocks.length);
+        readBlocks(begin, blocks.length, image, 0, status);
+        for (int i = 0; i < blocks.length; i++) {
+            if (status.get(i)) {
+                blocks[i] = HexUtil.toHexString(image, i * blockSize, blockSize, true, HexUtil.NO_SEPARATOR);
+            }
+        }
+        return blocks;
+    }
+
+    /**
+     * 读取从begin开始count个block的原始数据到dst
      *
-     * @param data 要转换成字符串的字节数组
-     * @return 16进制字符串
-     */
-    private String printHexString(byte[] data) {
-        StringBuffer s = new StringBuffer();
-        ;
-        for (int i = 0; i < data.length; i++) {
-            String hex = Integer.toHexString(data[i] & 0xFF);
-            if (hex.length() == 1) {
-                hex = '0' + hex;
+     * @param begin  block开始位置
+     * @param count  读取block数量
+     * @param dst    目标数组, 第i个block写在dstOff + i * getOneBlockSize()
+     * @param dstOff 目标开始位置
+     * @param status 第i位表示第i个block是否读取成功, 失败的block填0
+     * @return 读取成功的block数量
+     * @throws IOException
+     */
+    public int readBlocks(int begin, int count, byte[] dst, int dstOff, BitSet status) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(dst);
+        buffer.position(dstOff);
+        return readBlocks(begin, count, buffer, status);
+    }
+
+    /**
+     * 读取从begin开始count个block的原始数据到dst
+     * 优先使用Read Multiple Blocks一次读取多个block, 标签不支持时逐个读取
+     *
+     * @param begin  block开始位置
+     * @param count  读取block数量
+     * @param dst    从当前position开始写入, 完成后position前进count * getOneBlockSize()
+     * @param status 第i位表示第i个block是否读取成功, 失败的block填0
+     * @return 读取成功的block数量
+     * @throws IOException
+     */
+    public int readBlocks(int begin, int count, ByteBuffer dst, BitSet status) throws IOException {
+        int blockSize = getOneBlockSize();
+        if (dst.remaining() < count * blockSize) {
+            throw new IllegalArgumentException("dst太小, 需要" + count * blockSize + "字节");
+        }
+        int base = dst.position();
+        status.clear(0, count);
+        int maxBlocks = getMaxBlocksPerRead();
+        int read = 0;
+        int i = 0;
+        while (i < count) {
+            int position = (begin + i) & 0xFF;
+            // 地址只有一个字节, 一帧不能跨过255
+            int n = Math.min(Math.min(maxBlocks, count - i), 256 - position);
+            byte[] res = n > 1 ? readMultipleBlocksFrame(position, n) : null;
+            if (res != null) {
+                dst.position(base + i * blockSize);
+                dst.put(res, 1, n * blockSize);
+                status.set(i, i + n);
+                read += n;
+            } else {
+                for (int j = 0; j < n; j++) {
+                    dst.position(base + (i + j) * blockSize);
+                    res = readSingleBlockFrame(position + j);
+                    int length = res[0] == 0x00 ? Math.min(res.length - 1, blockSize) : 0;
+                    dst.put(res, 1, length);
+                    for (int k = length; k < blockSize; k++) {
+                        dst.put((byte) 0);
+                    }
+                    if (length > 0) {
+                        status.set(i + j);
+                        read++;
+                    }
+                }
             }
-            s.append(hex);
+            i += n;
+        }
+        dst.position(base + count * blockSize);
+        TagMetrics.getInstance().addBlocks(TagSession.Tech.NFC_V, read);
+        return read;
+    }
+
+    /**
+     * 一帧Read Multiple Blocks最多能读取的block数量
+     * 受响应帧长度(状态字节 + 数据)和命令中一个字节的块数限制
+     */
+    public int getMaxBlocksPerRead() {
+        if (!readMultipleSupported) {
+            return 1;
         }
-        return s.toString();
+        int blocks = (mNfcV.getMaxTransceiveLength() - 1) / getOneBlockSize();
+        return Math.max(1, Math.min(blocks, 256));
+    }
+
+    /**
+     * 使用Read Multiple Blocks(0x23)读取从first开始的count个block
+     *
+     * @param first 开始的block位置
+     * @param count 读取block数量, 1到256
+     * @return 去掉状态字节的数据, 标签返回错误或长度不符时返回null
+     * @throws IOException
+     */
+    public byte[] readMultipleBlocks(int first, int count) throws IOException {
+        byte[] res = readMultipleBlocksFrame(first, count);
+        if (res == null) {
+            return null;
+        }
+        byte[] data = new byte[res.length - 1];
+        System.arraycopy(res, 1, data, 0, data.length);
+        return data;
+    }
+
+    /**
+     * @return 包含状态字节的完整响应, 失败时返回null
+     */
+    private byte[] readMultipleBlocksFrame(int first, int count) throws IOException {
+        if (!readMultipleSupported) {
+            return null;
+        }
+        byte[] cmd = new byte[12];
+        cmd[0] = (byte) 0x22;
+        cmd[1] = (byte) 0x23;
+        System.arraycopy(ID, 0, cmd, 2, ID.length); // UID
+        cmd[10] = (byte) first;
+        cmd[11] = (byte) (count - 1);
+        byte[] res;
+        try {
+            res = mNfcV.transceive(cmd);
+        } catch (TagLossException e) {
+            throw e;
+        } catch (IOException e) {
+            // 部分标签对不支持的命令不应答
+            readMultipleSupported = false;
+            return null;
+        }
+        if (res == null || res.length == 0) {
+            return null;
+        }
+        if (res[0] != 0x00) {
+            // 0x01 命令不支持, 0x02 命令无法识别
+            if (res.length > 1 && (res[1] == 0x01 || res[1] == 0x02)) {
+                readMultipleSupported = false;
+            }
+            return null;
+        }
+        if (res.length - 1 != count * getOneBlockSize()) {
+            return null;
+        }
+        return res;
     }
 
     /**
      * 将数据写入到block,
      *
      * @param position 要写内容的block位置
-     * @param data     要写的内容,必须长度为blockOneSize
+     * @param data     要写的内容,必须长度为getOneBlockSize()
      * @return false为写入失败，true为写入成功
      * @throws IOException
      */
     public boolean writeBlock(int position, byte[] data) throws IOException {
-        byte cmd[] = new byte[15];
+        int blockSize = getOneBlockSize();
+        if (data.length != blockSize) {
+            throw new IllegalArgumentException("data必须为" + blockSize + "字节");
+        }
+        byte[] cmd = new byte[11 + blockSize];
         cmd[0] = (byte) 0x22;
         cmd[1] = (byte) 0x21;
         System.arraycopy(ID, 0, cmd, 2, ID.length); // UID
-//block
-        cmd[10] = (byte) position;
-//value
-        System.arraycopy(data, 0, cmd, 11, data.length);
+        cmd[10] = (byte) position; // block
+        System.arraycopy(data, 0, cmd, 11, blockSize); // value
         byte[] rsp = mNfcV.transceive(cmd);
-        if (rsp[0] == 0x00)
-            return true;
-        return false;
+        return rsp != null && rsp.length > 0 && rsp[0] == 0x00;
+    }
+
+    /**
+     * 设置一帧Write Multiple Blocks最多写入的block数, 1表示只使用Write Single Block
+     */
+    public void setMaxBlocksPerWrite(int maxBlocksPerWrite) {
+        this.maxBlocksPerWrite = Math.max(1, maxBlocksPerWrite);
+    }
+
+    /**
+     * 一帧Write Multiple Blocks最多写入的block数
+     * 受设置的上限和命令帧长度(标志 + 命令 + UID + 地址 + 块数 + 数据)限制
+     */
+    public int getMaxBlocksPerWrite() {
+        if (!writeMultipleSupported) {
+            return 1;
+        }
+        int blocks = (mNfcV.getMaxTransceiveLength() - 12) / getOneBlockSize();
+        return Math.max(1, Math.min(blocks, maxBlocksPerWrite));
+    }
+
+    /**
+     * 使用Write Multiple Blocks(0x24)写入从first开始的count个block
+     *
+     * @param first  开始的block位置
+     * @param src    数据
+     * @param srcOff 数据开始位置, 长度为count * getOneBlockSize()
+     * @param count  block数量
+     * @return 是否写入成功, 标签不支持0x24时返回false且之后不再尝试
+     * @throws IOException
+     */
+    public boolean writeMultipleBlocks(int first, byte[] src, int srcOff, int count) throws IOException {
+        if (!writeMultipleSupported) {
+            return false;
+        }
+        int length = count * getOneBlockSize();
+        byte[] cmd = new byte[12 + length];
+        cmd[0] = (byte) 0x22;
+        cmd[1] = (byte) 0x24;
+        System.arraycopy(ID, 0, cmd, 2, ID.length); // UID
+        cmd[10] = (byte) first;
+        cmd[11] = (byte) (count - 1);
+        System.arraycopy(src, srcOff, cmd, 12, length);
+        byte[] rsp;
+        try {
+            rsp = mNfcV.transceive(cmd);
+        } catch (TagLossException e) {
+            throw e;
+        } catch (IOException e) {
+            // 部分标签对不支持的命令不应答
+            writeMultipleSupported = false;
+            return false;
+        }
+        if (rsp == null || rsp.length == 0) {
+            return false;
+        }
+        if (rsp[0] != 0x00) {
+            // 0x01 命令不支持, 0x02 命令无法识别
+            if (rsp.length > 1 && (rsp[1] == 0x01 || rsp[1] == 0x02)) {
+                writeMultipleSupported = false;
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 把desired同步到从first开始的block
+     * 与known逐块比较, 只写入内容不同的block; 连续变化的block用Write Multiple Blocks合并写入,
+     * 标签不支持或写入被拒绝时逐块写入. 不相邻的变化block不会合并, EEPROM写入时间按block计算
+     *
+     * @param first   开始的block位置
+     * @param desired 期望内容, 长度为getOneBlockSize()的整数倍
+     * @param known   标签当前内容, 与desired等长; null时先从标签读取. 写入成功的block会同步更新
+     * @param failed  第i位表示第i个block写入失败, 可传null
+     * @return 写入成功的block数量
+     * @throws IOException
+     */
+    public int syncBlocks(int first, byte[] desired, byte[] known, BitSet failed) throws IOException {
+        int blockSize = getOneBlockSize();
+        if (desired.length % blockSize != 0) {
+            throw new IllegalArgumentException("desired长度必须为" + blockSize + "的整数倍");
+        }
+        int count = desired.length / blockSize;
+        BitSet unknown = new BitSet(count);
+        if (known == null) {
+            known = new byte[desired.length];
+            BitSet status = new BitSet(count);
+            readBlocks(first, count, known, 0, status);
+            // 读取失败的block内容未知, 一律写入
+            unknown.set(0, count);
+            unknown.andNot(status);
+        }
+        return syncBlocks(first, desired, known, unknown, failed);
+    }
+
+    /**
+     * 同syncBlocks(first, desired, known, failed), 但不读取标签: unknown中的block内容未知, 一律写入
+     *
+     * @param unknown 第i位表示第i个block在known中的内容未知
+     */
+    public int syncBlocks(int first, byte[] desired, byte[] known, BitSet unknown, BitSet failed) throws IOException {
+        int blockSize = getOneBlockSize();
+        if (desired.length % blockSize != 0) {
+            throw new IllegalArgumentException("desired长度必须为" + blockSize + "的整数倍");
+        }
+        if (known.length != desired.length) {
+            throw new IllegalArgumentException("known与desired长度不同");
+        }
+        int count = desired.length / blockSize;
+        BitSet changed = (BitSet) unknown.clone();
+        for (int i = 0; i < count; i++) {
+            if (!changed.get(i) && !rangeEquals(desired, known, i * blockSize, blockSize)) {
+                changed.set(i);
+            }
+        }
+        if (failed != null) {
+            failed.clear(0, count);
+        }
+        int written = 0;
+        byte[] block = new byte[blockSize];
+        for (int i = changed.nextSetBit(0); i >= 0 && i < count; i = changed.nextSetBit(i)) {
+            int end = changed.nextClearBit(i);
+            int n = Math.min(end - i, getMaxBlocksPerWrite());
+            if (n > 1 && writeMultipleBlocks(first + i, desired, i * blockSize, n)) {
+                System.arraycopy(desired, i * blockSize, known, i * blockSize, n * blockSize);
+                written += n;
+                i += n;
+                continue;
+            }
+            // 逐块写入本轮的n个block
+            for (int j = i; j < i + n; j++) {
+                System.arraycopy(desired, j * blockSize, block, 0, blockSize);
+                if (writeBlock(first + j, block)) {
+                    System.arraycopy(block, 0, known, j * blockSize, blockSize);
+                    written++;
+                } else if (failed != null) {
+                    failed.set(j);
+                }
+            }
+            i += n;
+        }
+        TagMetrics.getInstance().addBlocks(TagSession.Tech.NFC_V, written);
+        return written;
+    }
+
+    private static boolean rangeEquals(byte[] a, byte[] b, int off, int len) {
+        for (int i = off; i < off + len; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
     }
-}
\ No newline at end of file
+}
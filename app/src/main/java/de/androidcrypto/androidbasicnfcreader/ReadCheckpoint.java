@@ -0,0 +1,188 @@
+package de.androidcrypto.androidbasicnfcreader;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 按UID保存未读完的标签内容
+ * 读取中断(标签离开或重试用完)时保留已读到的每个block和下一个要读的位置, 同一张卡再次刷卡时从断点继续;
+ * 标签对单个block返回错误时记为失败, 剩下的block读完后再重读一次失败的block.
+ * 只保留最近的几张卡, 读完后删除
+ * 用法
+ * ReadCheckpoint.Progress progress = ReadCheckpoint.getInstance().resume(uid, TagSession.Tech.NFC_V, blockCount, blockSize);
+ * progress.readRemaining(64, (first, count, status) -> retry.execute(session,
+ *         () -> session.nfcV().readBlocks(first, count, progress.getImage(), first * blockSize, status)));
+ * ReadCheckpoint.getInstance().complete(uid);
+ */
+public class ReadCheckpoint {
+
+    private static final int MAX_CARDS = 8;
+
+    private static ReadCheckpoint instance;
+
+    private final Map<Long, Progress> progressByUid = new LinkedHashMap<Long, Progress>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Progress> eldest) {
+            return size() > MAX_CARDS;
+        }
+    };
+
+    public static synchronized ReadCheckpoint getInstance() {
+        if (instance == null) {
+            instance = new ReadCheckpoint();
+        }
+        return instance;
+    }
+
+    /**
+     * 取得UID的读取进度, 没有断点或标签布局不同时从头开始
+     *
+     * @param uid        Tag.getId()
+     * @param tech       读取使用的technology
+     * @param blockCount 要读取的block数量
+     * @param blockSize  每个block的字节数
+     */
+    public synchronized Progress resume(byte[] uid, TagSession.Tech tech, int blockCount, int blockSize) {
+        long key = UidUtil.toLong(uid);
+        Progress progress = progressByUid.get(key);
+        if (progress == null || progress.tech != tech
+                || progress.blockCount != blockCount || progress.blockSize != blockSize) {
+            progress = new Progress(tech, blockCount, blockSize);
+            progressByUid.put(key, progress);
+        }
+        return progress;
+    }
+
+    /**
+     * 读取完成, 删除断点
+     */
+    public synchronized void complete(byte[] uid) {
+        progressByUid.remove(UidUtil.toLong(uid));
+    }
+
+    public synchronized int size() {
+        return progressByUid.size();
+    }
+
+    /**
+     * 读取一段block到Progress.getImage()的对应位置
+     */
+    public interface ChunkReader {
+        /**
+         * @param status 第i位表示第first + i个block读取成功
+         */
+        void read(int first, int count, BitSet status) throws IOException;
+    }
+
+    /**
+     * 一张卡的读取进度, 只在NFC线程中使用
+     */
+    public static class Progress {
+
+        private final TagSession.Tech tech;
+        private final int blockCount;
+        private final int blockSize;
+        private final byte[] image;
+        private final BitSet read;
+        private int nextBlock;
+
+        Progress(TagSession.Tech tech, int blockCount, int blockSize) {
+            this.tech = tech;
+            this.blockCount = blockCount;
+            this.blockSize = blockSize;
+            this.image = new byte[blockCount * blockSize];
+            this.read = new BitSet(blockCount);
+        }
+
+        /**
+         * 整个标签的内容, 读取时直接写入这里
+         */
+        public byte[] getImage() {
+            return image;
+        }
+
+        public int getBlockCount() {
+            return blockCount;
+        }
+
+        public int getBlockSize() {
+            return blockSize;
+        }
+
+        /**
+         * 下一个要读取的block
+         */
+        public int getNextBlock() {
+            return nextBlock;
+        }
+
+        public boolean isComplete() {
+            return nextBlock >= blockCount;
+        }
+
+        /**
+         * block是否读取成功
+         */
+        public boolean isRead(int block) {
+            return read.get(block);
+        }
+
+        /**
+         * 已经读取过但标签返回错误的block数量
+         */
+        public int getFailedCount() {
+            return Math.min(nextBlock, blockCount) - read.cardinality();
+        }
+
+        /**
+         * 记录一段已读取的block, 断点移到这段之后
+         *
+         * @param first  第一个block
+         * @param count  block数量
+         * @param status 第i位表示第first + i个block读取成功
+         */
+        public void advance(int first, int count, BitSet status) {
+            for (int i = 0; i < count; i++) {
+                read.set(first + i, status.get(i));
+            }
+            nextBlock = Math.max(nextBlock, first + count);
+        }
+
+        /**
+         * 从断点开始分段读取剩下的block, 之后把失败的block按连续的段重读一次;
+         * 出错时保留这一段中已读到的block, 断点移到最后一个读到的block之后
+         *
+         * @param chunkBlocks 每段的block数量
+         */
+        public void readRemaining(int chunkBlocks, ChunkReader reader) throws IOException {
+            while (!isComplete()) {
+                int first = nextBlock;
+                readChunk(first, Math.min(chunkBlocks, blockCount - first), reader);
+            }
+            int block = read.nextClearBit(0);
+            while (block < blockCount) {
+                int end = read.nextSetBit(block);
+                int count = Math.min(chunkBlocks, (end < 0 ? blockCount : end) - block);
+                readChunk(block, count, reader);
+                block = read.nextClearBit(block + count);
+            }
+        }
+
+        private void readChunk(int first, int count, ChunkReader reader) throws IOException {
+            BitSet status = new BitSet(count);
+            boolean done = false;
+            try {
+                reader.read(first, count, status);
+                done = true;
+            } finally {
+                // 段内按顺序读取, 出错时status中已置位的block已经写入image
+                for (int i = status.nextSetBit(0); i >= 0 && i < count; i = status.nextSetBit(i + 1)) {
+                    read.set(first + i);
+                }
+                nextBlock = Math.max(nextBlock, first + (done ? count : Math.min(status.length(), count)));
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package de.androidcrypto.androidbasicnfcreader;
+
+import android.app.Activity;
+import android.nfc.NfcAdapter;
+import android.os.Bundle;
+
+/**
+ * 基于NfcAdapter.enableReaderMode的标签来源
+ * 只轮询需要的技术, 可以跳过系统的NDEF检查, 调整存在检测间隔; 发现的标签直接回调, 不经过Intent
+ * 需要在onResume中start, 在onPause中stop
+ */
+public class ReaderModeSource implements TagScanner.Source {
+
+    /**
+     * 系统默认的存在检测间隔(毫秒)
+     */
+    public static final int DEFAULT_PRESENCE_CHECK_DELAY = 125;
+
+    private final Activity activity;
+    private final NfcAdapter adapter;
+    private final int techFlags;
+    private boolean skipNdefCheck = true;
+    private boolean platformSounds = true;
+    private int presenceCheckDelay = DEFAULT_PRESENCE_CHECK_DELAY;
+
+    /**
+     * @param techs 要轮询的技术
+     */
+    public ReaderModeSource(Activity activity, NfcAdapter adapter, TagSession.Tech... techs) {
+        this.activity = activity;
+        this.adapter = adapter;
+        this.techFlags = techFlags(techs);
+    }
+
+    /**
+     * 技术对应的读卡器模式标志, Ultralight和Classic都是NfcA
+     */
+    static int techFlags(TagSession.Tech... techs) {
+        int flags = 0;
+        for (TagSession.Tech tech : techs) {
+            switch (tech) {
+                case NFC_V:
+                    flags |= NfcAdapter.FLAG_READER_NFC_V;
+                    break;
+                default:
+                    flags |= NfcAdapter.FLAG_READER_NFC_A;
+                    break;
+            }
+        }
+        return flags;
+    }
+
+    /**
+     * 是否跳过系统在回调之前读取NDEF, 默认跳过
+     */
+    public ReaderModeSource setSkipNdefCheck(boolean skipNdefCheck) {
+        this.skipNdefCheck = skipNdefCheck;
+        return this;
+    }
+
+    /**
+     * 是否播放系统的提示音
+     */
+    public ReaderModeSource setPlatformSounds(boolean platformSounds) {
+        this.platformSounds = platformSounds;
+        return this;
+    }
+
+    /**
+     * 检测标签是否还在磁场中的间隔(毫秒), 越大对正在进行的读写干扰越少, 标签离开后越晚发现
+     */
+    public ReaderModeSource setPresenceCheckDelay(int presenceCheckDelay) {
+        this.presenceCheckDelay = presenceCheckDelay;
+        return this;
+    }
+
+    @Override
+    public void start(TagScanner.Sink sink) {
+        int flags = techFlags;
+        if (skipNdefCheck) {
+            flags |= NfcAdapter.FLAG_READER_SKIP_NDEF_CHECK;
+        }
+        if (!platformSounds) {
+            flags |= NfcAdapter.FLAG_READER_NO_PLATFORM_SOUNDS;
+        }
+        Bundle extras = new Bundle();
+        extras.putInt(NfcAdapter.EXTRA_READER_PRESENCE_CHECK_DELAY, presenceCheckDelay);
+        adapter.enableReaderMode(activity,
+                tag -> sink.onTagDiscovered(tag.getId(), AndroidTagTransport.provider(tag)), flags, extras);
+    }
+
+    @Override
+    public void stop() {
+        adapter.disableReaderMode(activity);
+    }
+}
@@ -0,0 +1,83 @@
+package de.androidcrypto.androidbasicnfcreader;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * 标签操作的重试策略, 在NFC线程中执行
+ * 传输错误时断开连接, 按指数退避等待后重新连接重试; 标签离开(TagLossException)时不重试, 直接抛出
+ * 用法
+ * RetryPolicy retry = new RetryPolicy(3, 50, 400);
+ * String data = retry.execute(session, () -> session.nfcV().readBlocks(0, 4));
+ */
+public class RetryPolicy {
+
+    interface Sleeper {
+        void sleep(long millis) throws InterruptedException;
+    }
+
+    private final int maxAttempts;
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+    private final Sleeper sleeper;
+
+    /**
+     * @param maxAttempts        最多执行的次数, 包括第一次
+     * @param initialDelayMillis 第一次重试前的等待, 之后每次加倍
+     * @param maxDelayMillis     等待的上限
+     */
+    public RetryPolicy(int maxAttempts, long initialDelayMillis, long maxDelayMillis) {
+        this(maxAttempts, initialDelayMillis, maxDelayMillis, Thread::sleep);
+    }
+
+    RetryPolicy(int maxAttempts, long initialDelayMillis, long maxDelayMillis, Sleeper sleeper) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts至少为1");
+        }
+        this.maxAttempts = maxAttempts;
+        this.initialDelayMillis = initialDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.sleeper = sleeper;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * 第retry次重试前的等待(毫秒), retry从1开始
+     */
+    public long getDelay(int retry) {
+        long delay = initialDelayMillis << Math.min(retry - 1, 20);
+        return Math.min(delay, maxDelayMillis);
+    }
+
+    /**
+     * 在会话中执行操作, 传输错误时重试
+     * 每次失败后会话已断开连接, 操作中应通过session重新获取NfcVUtil等对象
+     *
+     * @throws TagLossException 标签离开
+     * @throws IOException      重试次数用完, 为最后一次的错误
+     */
+    public <T> T execute(TagSession session, TagSession.Operation<T> operation) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return session.execute(operation);
+            } catch (TagLossException e) {
+                throw e;
+            } catch (IOException e) {
+                if (attempt >= maxAttempts || session.isLost()) {
+                    throw e;
+                }
+                try {
+                    sleeper.sleep(getDelay(attempt));
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    InterruptedIOException ioe = new InterruptedIOException("重试被中断");
+                    ioe.initCause(e);
+                    throw ioe;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package de.androidcrypto.androidbasicnfcreader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 按UID缓存最近读取的标签内容和其中的NDEF消息
+ * 同一张卡再次刷卡时先探测: Type 2标签读取CC和数据区开头, NTAG之后再读取NFC计数器(READ_CNT, 未启用时只比较内容),
+ * ISO 15693读取CC和第一个数据block; 与缓存一致时直接使用缓存, 不再整卡读取.
+ * 同时保存GET_VERSION应答或系统信息, 会话中创建MifareUltralightUtil/NfcVUtil时不再发送.
+ * 内容探测只能发现数据区开头的变化, 本应用写入标签后应调用invalidate.
+ * 按字节数限制大小, 超出时删除最久未使用的卡; MIFARE Classic需要认证, 不缓存
+ * 用法
+ * TagCache.Entry cached = TagCache.getInstance().validate(session, TagSession.Tech.NFC_V);
+ * if (cached == null) {
+ *     byte[] image = ...; // 整卡读取
+ *     TagCache.getInstance().put(uid, TagSession.Tech.NFC_V, image, blockSize, nfcVUtil.getInfoRmation(), -1);
+ * }
+ */
+public class TagCache {
+
+    public static final long DEFAULT_MAX_BYTES = 256 * 1024;
+
+    /**
+     * 每条记录除内容外的大致开销
+     */
+    private static final int ENTRY_OVERHEAD = 96;
+
+    private static TagCache instance;
+
+    private final Map<Long, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long maxBytes;
+    private long bytes;
+    private long hitCount;
+    private long missCount;
+
+    public TagCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public static synchronized TagCache getInstance() {
+        if (instance == null) {
+            instance = new TagCache(DEFAULT_MAX_BYTES);
+        }
+        return instance;
+    }
+
+    /**
+     * 一张卡的缓存内容, 不可修改
+     */
+    public static class Entry {
+        private final TagSession.Tech tech;
+        private final byte[] image;
+        private final int blockSize;
+        private final byte[] info;
+        private volatile int counter;
+        private ByteBuffer ndef;
+        private boolean ndefParsed;
+
+        Entry(TagSession.Tech tech, byte[] image, int blockSize, byte[] info, int counter) {
+            this.tech = tech;
+            this.image = image.clone();
+            this.blockSize = blockSize;
+            this.info = info == null ? null : info.clone();
+            this.counter = counter;
+        }
+
+        public TagSession.Tech getTech() {
+            return tech;
+        }
+
+        /**
+         * 从第0页或block 0开始的标签内容
+         */
+        public byte[] getImage() {
+            return image.clone();
+        }
+
+        public int getImageLength() {
+            return image.length;
+        }
+
+        public int getBlockSize() {
+            return blockSize;
+        }
+
+        /**
+         * GET_VERSION应答(Type 2)或系统信息(ISO 15693), 没有时为null
+         */
+        public byte[] getInfo() {
+            return info == null ? null : info.clone();
+        }
+
+        /**
+         * NTAG的NFC计数器, 没有时为-1
+         */
+        public int getCounter() {
+            return counter;
+        }
+
+        /**
+         * 标签内容中的NDEF消息的只读视图, 第一次调用时解析; 没有消息或格式错误时为null
+         */
+        public synchronized ByteBuffer getNdefMessage() {
+            if (!ndefParsed) {
+                ndefParsed = true;
+                try {
+                    if (tech == TagSession.Tech.MIFARE_ULTRALIGHT) {
+                        Type2Ndef parsed = Type2Ndef.parse(image);
+                        ndef = parsed != null ? parsed.getMessage() : null;
+                    } else if (tech == TagSession.Tech.NFC_V) {
+                        Type5Ndef parsed = Type5Ndef.parse(image, blockSize);
+                        ndef = parsed != null ? parsed.getMessage() : null;
+                    }
+                } catch (IOException | IllegalArgumentException e) {
+                    ndef = null;
+                }
+            }
+            return ndef == null ? null : ndef.duplicate();
+        }
+
+        int size() {
+            return image.length + (info == null ? 0 : info.length) + ENTRY_OVERHEAD;
+        }
+    }
+
+    /**
+     * 保存整卡读取的结果, 替换同一UID之前的内容
+     *
+     * @param uid       Tag.getId()
+     * @param tech      读取使用的technology, MIFARE_ULTRALIGHT或NFC_V
+     * @param image     从第0页或block 0开始的完整内容
+     * @param blockSize 页或block的字节数
+     * @param info      GET_VERSION应答或系统信息, 可为null
+     * @param counter   NTAG的NFC计数器(本次上电已读取之后的值), 没有时为-1
+     */
+    public synchronized Entry put(byte[] uid, TagSession.Tech tech, byte[] image, int blockSize, byte[] info, int counter) {
+        Entry entry = new Entry(tech, image, blockSize, info, counter);
+        Entry old = entries.remove(UidUtil.toLong(uid));
+        if (old != null) {
+            bytes -= old.size();
+        }
+        if (entry.size() > maxBytes) {
+            return entry;
+        }
+        entries.put(UidUtil.toLong(uid), entry);
+        bytes += entry.size();
+        trim();
+        return entry;
+    }
+
+    /**
+     * 取得缓存内容, 不访问标签
+     */
+    public synchronized Entry get(byte[] uid, TagSession.Tech tech) {
+        Entry entry = entries.get(UidUtil.toLong(uid));
+        return entry != null && entry.tech == tech ? entry : null;
+    }
+
+    /**
+     * 用一帧探测确认标签内容没有变化, 在NFC线程中调用
+     *
+     * @return 内容未变时返回缓存, 没有缓存或已变化时返回null(并删除缓存)
+     */
+    public Entry validate(TagSession session, TagSession.Tech tech) throws IOException {
+        byte[] uid = session.getId();
+        Entry entry = get(uid, tech);
+        if (entry == null) {
+            countMiss();
+            return null;
+        }
+        boolean valid;
+        if (tech == TagSession.Tech.MIFARE_ULTRALIGHT) {
+            MifareUltralightUtil util = session.ultralight();
+            // READ返回第3到6页: CC和数据区开头12字节
+            valid = regionEquals(util.readPages(Type2Ndef.CC_PAGE), entry.image, Type2Ndef.CC_PAGE * MifareUltralightUtil.PAGE_SIZE);
+            if (valid && entry.counter >= 0) {
+                // 计数器每次上电后第一次READ时加一, 系统的NDEF检测可能已经READ过; 上面的READ保证本次上电已计数,
+                // 比保存的值正好多一说明之间没有其他读卡器读取过.
+                // 出厂时NFC_CNT_EN未启用, 计数器不变; 计数到FFFFFF后也不再变化. 这两种情况只能依靠上面的内容探测
+                int counter = util.readNfcCounter();
+                if (counter != entry.counter) {
+                    valid = counter == entry.counter + 1;
+                    if (valid) {
+                        entry.counter = counter;
+                    }
+                }
+            }
+        } else if (tech == TagSession.Tech.NFC_V) {
+            NfcVUtil util = session.nfcV();
+            // 最长8字节的CC和第一个数据block
+            int count = 8 / util.getOneBlockSize() + 1;
+            byte[] probe = new byte[count * util.getOneBlockSize()];
+            valid = util.readBlocks(0, count, probe, 0, new BitSet(count)) == count
+                    && regionEquals(probe, entry.image, 0);
+        } else {
+            valid = false;
+        }
+        if (!valid) {
+            invalidate(uid);
+            countMiss();
+            return null;
+        }
+        synchronized (this) {
+            hitCount++;
+        }
+        return entry;
+    }
+
+    private static boolean regionEquals(byte[] probe, byte[] image, int offset) {
+        if (offset + probe.length > image.length) {
+            return false;
+        }
+        for (int i = 0; i < probe.length; i++) {
+            if (probe[i] != image[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private synchronized void countMiss() {
+        missCount++;
+    }
+
+    /**
+     * 删除一张卡的缓存, 写入标签后调用
+     */
+    public synchronized void invalidate(byte[] uid) {
+        Entry old = entries.remove(UidUtil.toLong(uid));
+        if (old != null) {
+            bytes -= old.size();
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+        hitCount = 0;
+        missCount = 0;
+    }
+
+    public synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        trim();
+    }
+
+    private void trim() {
+        Iterator<Entry> it = entries.values().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            bytes -= it.next().size();
+            it.remove();
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+}
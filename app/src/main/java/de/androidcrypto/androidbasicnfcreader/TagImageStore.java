@@ -0,0 +1,665 @@
+package de.androidcrypto.androidbasicnfcreader;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+
+/**
+ * 标签镜像的只追加存储
+ * 每次读取的结果(UID, 技术, 时间, 原始数据)追加到当前段文件, 段文件超过上限时换新的段;
+ * 内存中用UID到位置的基本类型哈希表索引最新的一条, 查找只需一次定位读取.
+ * 换段时, 每追加SNAPSHOT_INTERVAL条记录时和关闭时保存索引快照(记录覆盖到的段和位置), 打开时只需扫描快照之后追加的记录;
+ * 快照引用的段已不存在时扫描所有段重建. 失效记录超过一半时在后台把仍然有效的记录复制到当前段, 删除旧段;
+ * 快照和整理都在后台线程执行, 不阻塞追加
+ * 用法
+ * TagImageStore store = TagImageStore.open(new File(context.getFilesDir(), "images"));
+ * store.append(tag.getId(), TagSession.Tech.NFC_V, System.currentTimeMillis(), image);
+ * TagImageStore.Record last = store.getLatest(tag.getId());
+ */
+public class TagImageStore implements Closeable {
+
+    private static final int SEGMENT_MAGIC = 0x54494D47; // "TIMG"
+    private static final int INDEX_MAGIC = 0x54494458; // "TIDX"
+    private static final int VERSION = 1;
+    private static final int SEGMENT_HEADER = 8;
+    /**
+     * 记录: 长度(4) UID长度(1) UID(8) 技术(1) 时间(8) 数据 CRC32(4), 长度不含自身
+     */
+    private static final int RECORD_OVERHEAD = 4 + 1 + 8 + 1 + 8 + 4;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+    private static final String INDEX_FILE = "index.dat";
+
+    public static final long DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+    /**
+     * 每追加这么多条记录保存一次索引快照
+     */
+    static final int SNAPSHOT_INTERVAL = 1024;
+    /**
+     * 整理时每次持有锁复制的记录数, 追加最多等待一批
+     */
+    private static final int COMPACT_BATCH = 64;
+
+    private static TagImageStore instance;
+
+    /**
+     * 一条镜像记录
+     */
+    public static final class Record {
+        public final byte[] uid;
+        public final TagSession.Tech tech;
+        public final long timestamp;
+        public final byte[] data;
+
+        Record(byte[] uid, TagSession.Tech tech, long timestamp, byte[] data) {
+            this.uid = uid;
+            this.tech = tech;
+            this.timestamp = timestamp;
+            this.data = data;
+        }
+    }
+
+    private final File dir;
+    private final long segmentSize;
+    /**
+     * 执行快照和整理的后台线程
+     */
+    private final Executor maintenance;
+    private final Object snapshotLock = new Object();
+    /**
+     * UID -> 段号 << 32 | 段内偏移
+     */
+    private final LongLongHashMap index = new LongLongHashMap(1024);
+    private final List<Segment> segments = new ArrayList<>();
+    private Segment active;
+    private long liveBytes;
+    private long totalBytes;
+    private int appendsSinceSnapshot;
+    private long snapshotSeq;
+    private long savedSnapshotSeq;
+    private boolean compacting;
+    private boolean closed;
+    private int loadScanCount;
+
+    private static final class Segment {
+        final int id;
+        final File file;
+        final FileChannel channel;
+        long length;
+
+        Segment(int id, File file, FileChannel channel, long length) {
+            this.id = id;
+            this.file = file;
+            this.channel = channel;
+            this.length = length;
+        }
+    }
+
+    private TagImageStore(File dir, long segmentSize, Executor maintenance) {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.maintenance = maintenance;
+    }
+
+    /**
+     * 应用共用的存储, 保存在应用私有目录的images下
+     */
+    public static synchronized TagImageStore getInstance() throws IOException {
+        if (instance == null) {
+            instance = open(new File(MyApplication.getInstance().getFilesDir(), "images"));
+        }
+        return instance;
+    }
+
+    public static TagImageStore open(File dir) throws IOException {
+        return open(dir, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * @param dir         存储目录, 不存在时创建
+     * @param segmentSize 每个段文件的大小上限
+     */
+    public static TagImageStore open(File dir, long segmentSize) throws IOException {
+        return open(dir, segmentSize, Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "image-store");
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    /**
+     * @param maintenance 执行快照和整理
+     */
+    static TagImageStore open(File dir, long segmentSize, Executor maintenance) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("无法创建目录 " + dir);
+        }
+        TagImageStore store = new TagImageStore(dir, segmentSize, maintenance);
+        store.load();
+        return store;
+    }
+
+    private void load() throws IOException {
+        File[] files = dir.listFiles((d, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+        int[] ids = new int[files == null ? 0 : files.length];
+        for (int i = 0; i < ids.length; i++) {
+            String name = files[i].getName();
+            ids[i] = Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        }
+        Arrays.sort(ids);
+        for (int id : ids) {
+            segments.add(openSegment(id));
+        }
+        if (segments.isEmpty()) {
+            segments.add(createSegment(0));
+        }
+        active = segments.get(segments.size() - 1);
+
+        // 快照有效时只扫描快照之后写入的部分(快照所在段的剩余部分和之后的段), 否则扫描全部
+        long covered = loadIndexSnapshot();
+        if (covered < 0) {
+            index.clear();
+            liveBytes = 0;
+        }
+        for (Segment segment : segments) {
+            int id = (int) (covered >>> 32);
+            if (covered < 0 || segment.id > id) {
+                scan(segment, SEGMENT_HEADER);
+            } else if (segment.id == id) {
+                scan(segment, covered & 0xFFFFFFFFL);
+            }
+        }
+        totalBytes = 0;
+        for (Segment segment : segments) {
+            totalBytes += segment.length - SEGMENT_HEADER;
+        }
+    }
+
+    private Segment openSegment(int id) throws IOException {
+        File file = segmentFile(id);
+        FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+        ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER);
+        channel.read(header, 0);
+        header.flip();
+        if (header.remaining() < SEGMENT_HEADER || header.getInt() != SEGMENT_MAGIC || header.getInt() != VERSION) {
+            channel.close();
+            throw new IOException("段文件格式错误 " + file);
+        }
+        return new Segment(id, file, channel, channel.size());
+    }
+
+    private Segment createSegment(int id) throws IOException {
+        File file = segmentFile(id);
+        FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+        channel.truncate(0);
+        ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER);
+        header.putInt(SEGMENT_MAGIC).putInt(VERSION).flip();
+        channel.write(header, 0);
+        return new Segment(id, file, channel, SEGMENT_HEADER);
+    }
+
+    private File segmentFile(int id) {
+        return new File(dir, SEGMENT_PREFIX + id + SEGMENT_SUFFIX);
+    }
+
+    /**
+     * 顺序扫描段文件建立索引, 末尾不完整或校验失败的记录(写入时断电)被截断
+     */
+    private void scan(Segment segment, long from) throws IOException {
+        long position = from;
+        ByteBuffer lengthBuffer = ByteBuffer.allocate(4);
+        while (position + 4 <= segment.length) {
+            lengthBuffer.clear();
+            segment.channel.read(lengthBuffer, position);
+            lengthBuffer.flip();
+            int length = lengthBuffer.getInt();
+            if (length < RECORD_OVERHEAD - 4 || position + 4 + length > segment.length) {
+                break;
+            }
+            ByteBuffer record = readFully(segment.channel, position, 4 + length);
+            if (!checkRecord(record)) {
+                break;
+            }
+            long key = UidUtil.toLong(record.array(), 5, record.get(4));
+            indexRecord(key, location(segment.id, position), 4 + length);
+            position += 4 + length;
+            loadScanCount++;
+        }
+        if (position < segment.length) {
+            segment.channel.truncate(position);
+            segment.length = position;
+        }
+    }
+
+    private void indexRecord(long key, long location, int size) throws IOException {
+        long previous = index.get(key, -1);
+        if (previous >= 0) {
+            liveBytes -= recordSize(previous);
+        }
+        index.put(key, location);
+        liveBytes += size;
+    }
+
+    private static long location(int segment, long offset) {
+        return (long) segment << 32 | offset;
+    }
+
+    private Segment segment(long location) {
+        int id = (int) (location >>> 32);
+        for (Segment segment : segments) {
+            if (segment.id == id) {
+                return segment;
+            }
+        }
+        throw new IllegalStateException("段不存在: " + id);
+    }
+
+    private int recordSize(long location) throws IOException {
+        ByteBuffer length = readFully(segment(location).channel, location & 0xFFFFFFFFL, 4);
+        return 4 + length.getInt();
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("记录不完整");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static boolean checkRecord(ByteBuffer record) {
+        int end = record.limit() - 4;
+        int uidLength = record.get(4);
+        if (uidLength < 1 || uidLength > 8) {
+            return false;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 4, end - 4);
+        return (int) crc.getValue() == record.getInt(end);
+    }
+
+    /**
+     * 追加一条记录, 成为该UID的最新镜像
+     *
+     * @param uid       1到8字节UID
+     * @param tech      读取时使用的技术
+     * @param timestamp 读取时间
+     * @param data      标签内容
+     * @throws IOException
+     */
+    public void append(byte[] uid, TagSession.Tech tech, long timestamp, byte[] data) throws IOException {
+        ByteBuffer snapshot = null;
+        long seq = 0;
+        boolean compact = false;
+        synchronized (this) {
+            boolean rolled = appendLocked(uid, tech, timestamp, data);
+            if (rolled || ++appendsSinceSnapshot >= SNAPSHOT_INTERVAL) {
+                snapshot = snapshot();
+                seq = snapshotSeq;
+            }
+            if (rolled && !compacting && segments.size() > 2 && liveBytes * 2 < totalBytes) {
+                compacting = compact = true;
+            }
+        }
+        // 快照和整理在后台执行, 不阻塞读卡
+        if (snapshot != null) {
+            scheduleSnapshot(snapshot, seq);
+        }
+        if (compact) {
+            maintenance.execute(() -> {
+                try {
+                    compact();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                } finally {
+                    synchronized (TagImageStore.this) {
+                        compacting = false;
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * @return 是否换了新的段
+     */
+    private boolean appendLocked(byte[] uid, TagSession.Tech tech, long timestamp, byte[] data) throws IOException {
+        if (closed) {
+            throw new IOException("存储已关闭");
+        }
+        long key = UidUtil.toLong(uid);
+        int size = RECORD_OVERHEAD + data.length;
+        boolean rolled = false;
+        if (active.length + size > segmentSize && active.length > SEGMENT_HEADER) {
+            rollover();
+            rolled = true;
+        }
+        ByteBuffer record = ByteBuffer.allocate(size);
+        record.putInt(size - 4);
+        record.put((byte) uid.length);
+        record.put(uid);
+        record.position(4 + 1 + 8);
+        // Tech的序号写入文件, 只能在末尾追加新的值
+        record.put((byte) tech.ordinal());
+        record.putLong(timestamp);
+        record.put(data);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 4, size - 8);
+        record.putInt((int) crc.getValue());
+        record.flip();
+        long position = active.length;
+        while (record.hasRemaining()) {
+            active.channel.write(record, position + record.position());
+        }
+        active.length += size;
+        totalBytes += size;
+        indexRecord(key, location(active.id, position), size);
+        return rolled;
+    }
+
+    /**
+     * 当前段写满, 换新的段
+     */
+    private void rollover() throws IOException {
+        active.channel.force(false);
+        active = createSegment(active.id + 1);
+        segments.add(active);
+    }
+
+    /**
+     * 取得UID最新的镜像
+     *
+     * @return 没有记录时返回null
+     */
+    public synchronized Record getLatest(byte[] uid) throws IOException {
+        long location = index.get(UidUtil.toLong(uid), -1);
+        if (location < 0) {
+            return null;
+        }
+        Segment segment = segment(location);
+        long position = location & 0xFFFFFFFFL;
+        int length = readFully(segment.channel, position, 4).getInt();
+        ByteBuffer record = readFully(segment.channel, position, 4 + length);
+        record.position(4);
+        byte[] recordUid = new byte[record.get()];
+        record.get(recordUid);
+        record.position(4 + 1 + 8);
+        TagSession.Tech tech = TagSession.Tech.values()[record.get()];
+        long timestamp = record.getLong();
+        byte[] data = new byte[record.remaining() - 4];
+        record.get(data);
+        return new Record(recordUid, tech, timestamp, data);
+    }
+
+    /**
+     * 有记录的UID数量
+     */
+    public synchronized int size() {
+        return index.size();
+    }
+
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * 所有段中记录占用的字节数, 包括已被新记录替代的
+     */
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * 每个UID最新记录占用的字节数
+     */
+    public synchronized long getLiveBytes() {
+        return liveBytes;
+    }
+
+    /**
+     * 把除当前段以外仍然有效的记录复制到当前段, 删除旧的段
+     * 每批记录持有一次锁, 整理期间可以继续追加; 复制前已被新记录替代的不再复制
+     */
+    public void compact() throws IOException {
+        final List<Segment> old;
+        final List<long[]> moves = new ArrayList<>();
+        synchronized (this) {
+            old = new ArrayList<>(segments);
+            old.remove(active);
+            if (closed || old.isEmpty()) {
+                return;
+            }
+            index.forEach((key, location) -> {
+                if ((int) (location >>> 32) != active.id) {
+                    moves.add(new long[]{key, location});
+                }
+            });
+        }
+        // 按位置顺序读取旧段
+        Collections.sort(moves, (a, b) -> Long.compare(a[1], b[1]));
+        for (int i = 0; i < moves.size(); i += COMPACT_BATCH) {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                for (long[] move : moves.subList(i, Math.min(i + COMPACT_BATCH, moves.size()))) {
+                    if (index.get(move[0], -1) != move[1]) {
+                        continue;
+                    }
+                    Segment from = segment(move[1]);
+                    long position = move[1] & 0xFFFFFFFFL;
+                    int size = 4 + readFully(from.channel, position, 4).getInt();
+                    ByteBuffer record = readFully(from.channel, position, size);
+                    if (active.length + size > segmentSize && active.length > SEGMENT_HEADER) {
+                        rollover();
+                    }
+                    long to = active.length;
+                    while (record.hasRemaining()) {
+                        active.channel.write(record, to + record.position());
+                    }
+                    active.length += size;
+                    index.put(move[0], location(active.id, to));
+                }
+            }
+        }
+        ByteBuffer snapshot;
+        long seq;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            active.channel.force(false);
+            for (Segment segment : old) {
+                segment.channel.close();
+                segment.file.delete();
+                segments.remove(segment);
+            }
+            totalBytes = 0;
+            for (Segment segment : segments) {
+                totalBytes += segment.length - SEGMENT_HEADER;
+            }
+            liveBytes = sumLiveBytes();
+            // 旧的快照引用已删除的段, 立即保存新的
+            snapshot = snapshot();
+            seq = snapshotSeq;
+        }
+        saveIndexSnapshot(snapshot, seq);
+    }
+
+    private long sumLiveBytes() throws IOException {
+        final long[] live = new long[1];
+        final IOException[] error = new IOException[1];
+        index.forEach((key, location) -> {
+            if (error[0] == null) {
+                try {
+                    live[0] += recordSize(location);
+                } catch (IOException e) {
+                    error[0] = e;
+                }
+            }
+        });
+        if (error[0] != null) {
+            throw error[0];
+        }
+        return live[0];
+    }
+
+    /**
+     * 索引快照: 魔数, 版本, 当前段号, 当前段长度, 有效字节数, 条目数, 条目(UID键, 位置)
+     *
+     * @return 快照覆盖到的当前段位置, 快照不存在或不匹配时返回-1
+     */
+    private long loadIndexSnapshot() throws IOException {
+        File file = new File(dir, INDEX_FILE);
+        if (!file.isFile()) {
+            return -1;
+        }
+        try (FileChannel channel = new RandomAccessFile(file, "r").getChannel()) {
+            ByteBuffer header = readFully(channel, 0, 36);
+            if (header.getInt() != INDEX_MAGIC || header.getInt() != VERSION) {
+                return -1;
+            }
+            int activeId = header.getInt();
+            long activeLength = header.getLong();
+            long live = header.getLong();
+            int count = header.getInt();
+            int check = header.getInt();
+            if (check != (count ^ activeId) || !hasSegment(activeId)
+                    || activeLength > segment(location(activeId, 0)).length) {
+                return -1;
+            }
+            ByteBuffer entries = readFully(channel, 36, count * 16);
+            for (int i = 0; i < count; i++) {
+                long key = entries.getLong();
+                long location = entries.getLong();
+                // 整理后删除的段
+                if (!hasSegment((int) (location >>> 32))) {
+                    index.clear();
+                    return -1;
+                }
+                index.put(key, location);
+            }
+            liveBytes = live;
+            return location(activeId, activeLength);
+        } catch (IOException e) {
+            index.clear();
+            return -1;
+        }
+    }
+
+    private boolean hasSegment(int id) {
+        for (Segment segment : segments) {
+            if (segment.id == id) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 在锁内复制当前索引, 文件在锁外写入
+     */
+    private ByteBuffer snapshot() {
+        int count = index.size();
+        final ByteBuffer buffer = ByteBuffer.allocate(36 + count * 16);
+        buffer.putInt(INDEX_MAGIC).putInt(VERSION).putInt(active.id).putLong(active.length)
+                .putLong(liveBytes).putInt(count).putInt(count ^ active.id);
+        index.forEach((key, location) -> buffer.putLong(key).putLong(location));
+        buffer.flip();
+        appendsSinceSnapshot = 0;
+        snapshotSeq++;
+        return buffer;
+    }
+
+    private void scheduleSnapshot(ByteBuffer snapshot, long seq) {
+        maintenance.execute(() -> {
+            try {
+                saveIndexSnapshot(snapshot, seq);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * 先把段文件写入磁盘, 再写临时文件并改名替换, 读取方不会看到写了一半的快照; 不会用旧的快照替换新的
+     */
+    private void saveIndexSnapshot(ByteBuffer snapshot, long seq) throws IOException {
+        synchronized (this) {
+            // 关闭时已保存了最新的快照
+            if (closed) {
+                return;
+            }
+            // 快照覆盖的记录必须已在磁盘上
+            for (Segment segment : segments) {
+                segment.channel.force(false);
+            }
+        }
+        synchronized (snapshotLock) {
+            if (seq <= savedSnapshotSeq) {
+                return;
+            }
+            File tmp = new File(dir, INDEX_FILE + ".tmp");
+            try (FileChannel channel = new RandomAccessFile(tmp, "rw").getChannel()) {
+                channel.truncate(0);
+                while (snapshot.hasRemaining()) {
+                    channel.write(snapshot);
+                }
+                channel.force(false);
+            }
+            if (!tmp.renameTo(new File(dir, INDEX_FILE))) {
+                throw new IOException("无法保存索引");
+            }
+            savedSnapshotSeq = seq;
+        }
+    }
+
+    /**
+     * 打开时扫描的记录数
+     */
+    synchronized int getLoadScanCount() {
+        return loadScanCount;
+    }
+
+    /**
+     * 保存索引快照并关闭所有段文件
+     */
+    @Override
+    public void close() throws IOException {
+        ByteBuffer snapshot;
+        long seq;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            snapshot = snapshot();
+            seq = snapshotSeq;
+        }
+        saveIndexSnapshot(snapshot, seq);
+        synchronized (this) {
+            closed = true;
+            for (Segment segment : segments) {
+                segment.channel.close();
+            }
+            segments.clear();
+        }
+        synchronized (TagImageStore.class) {
+            if (instance == this) {
+                instance = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package de.androidcrypto.androidbasicnfcreader;
+
+import java.io.IOException;
+
+/**
+ * 标签已离开磁场
+ * 与android.nfc.TagLostException含义相同, 由AndroidTagTransport转换,
+ * 读写逻辑只依赖这个类, 可以在纯JVM(单元测试, 基准测试)中编译
+ */
+public class TagLossException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public TagLossException() {
+        super("Tag was lost.");
+    }
+
+    public TagLossException(Throwable cause) {
+        super("Tag was lost.", cause);
+    }
+}
@@ -0,0 +1,488 @@
+package de.androidcrypto.androidbasicnfcreader;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 标签命令的耗时统计
+ * 每种technology的每种操作(连接, 收发, 认证, 读写块)一个延迟直方图, 另外统计错误次数, 收发字节数和读写的block数;
+ * 收发再按命令码(第一个字节, ISO 15693为标志字节之后的字节)分别统计, 区分读单块, 读多块, FAST_READ等;
+ * 命令码的直方图在第一次出现时分配, 其余计数在创建时分配好, 之后记录时不分配内存, 可以在正式版本中一直打开
+ * TagSession连接时通过wrap()包装传输层, 经过会话的命令都会被统计
+ * 用法
+ * TagMetrics metrics = TagMetrics.getInstance();
+ * long p99 = metrics.getHistogram(TagSession.Tech.NFC_V, TagMetrics.Op.TRANSCEIVE).getValueAtPercentile(99);
+ * LatencyHistogram readMultiple = metrics.getCommandHistogram(TagSession.Tech.NFC_V, 0x23);
+ * String report = metrics.format();
+ */
+public class TagMetrics {
+
+    /**
+     * 统计的操作
+     */
+    public enum Op {
+        CONNECT,
+        CLOSE,
+        TRANSCEIVE,
+        AUTHENTICATE,
+        READ_BLOCK,
+        WRITE_BLOCK
+    }
+
+    private static final TagSession.Tech[] TECHS = TagSession.Tech.values();
+    private static final Op[] OPS = Op.values();
+
+    private static final int COUNTER_ERRORS = 0;
+    private static final int COUNTER_BYTES_SENT = 1;
+    private static final int COUNTER_BYTES_RECEIVED = 2;
+    private static final int COUNTER_BLOCKS = 3;
+    private static final int COUNTERS = 4;
+
+    /**
+     * 命令码的个数, 一个字节
+     */
+    private static final int COMMANDS = 256;
+
+    private static TagMetrics instance;
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[TECHS.length * OPS.length];
+    private final AtomicLongArray errors = new AtomicLongArray(TECHS.length * OPS.length);
+    private final AtomicLongArray counters = new AtomicLongArray(TECHS.length * COUNTERS);
+    private final AtomicReferenceArray<LatencyHistogram> commandHistograms = new AtomicReferenceArray<>(TECHS.length * COMMANDS);
+    private final AtomicLongArray commandErrors = new AtomicLongArray(TECHS.length * COMMANDS);
+    private volatile boolean enabled = true;
+
+    public TagMetrics() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    public static synchronized TagMetrics getInstance() {
+        if (instance == null) {
+            instance = new TagMetrics();
+        }
+        return instance;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * 包装传输层, 统计经过它的每个命令; 关闭统计时直接返回transport
+     *
+     * @return 与transport实现相同的接口, transport为null时返回null
+     */
+    public TagTransport wrap(TagSession.Tech tech, TagTransport transport) {
+        if (transport == null || !enabled) {
+            return transport;
+        }
+        if (transport instanceof MifareClassicTransport) {
+            return new MeteredClassicTransport(this, tech, (MifareClassicTransport) transport);
+        }
+        return new MeteredTransport(this, tech, transport);
+    }
+
+    /**
+     * 记录一次操作
+     *
+     * @param startNanos 开始时的System.nanoTime()
+     * @param failed     是否抛出了异常
+     */
+    public void record(TagSession.Tech tech, Op op, long startNanos, boolean failed) {
+        recordMicros(tech, op, (System.nanoTime() - startNanos) / 1000, failed);
+    }
+
+    private void recordMicros(TagSession.Tech tech, Op op, long micros, boolean failed) {
+        int index = tech.ordinal() * OPS.length + op.ordinal();
+        histograms[index].record(micros);
+        if (failed) {
+            errors.incrementAndGet(index);
+        }
+    }
+
+    /**
+     * 记录一次收发, 同时计入TRANSCEIVE和命令码的统计
+     *
+     * @param data       发送的命令帧
+     * @param startNanos 开始时的System.nanoTime()
+     * @param failed     是否抛出了异常
+     */
+    public void recordTransceive(TagSession.Tech tech, byte[] data, long startNanos, boolean failed) {
+        long micros = (System.nanoTime() - startNanos) / 1000;
+        recordMicros(tech, Op.TRANSCEIVE, micros, failed);
+        int command = commandOf(tech, data);
+        if (command < 0) {
+            return;
+        }
+        int index = tech.ordinal() * COMMANDS + command;
+        LatencyHistogram h = commandHistograms.get(index);
+        if (h == null) {
+            commandHistograms.compareAndSet(index, null, new LatencyHistogram());
+            h = commandHistograms.get(index);
+        }
+        h.record(micros);
+        if (failed) {
+            commandErrors.incrementAndGet(index);
+        }
+    }
+
+    /**
+     * 命令帧的命令码: ISO 15693为标志字节之后的字节, 其他为第一个字节; 帧太短时返回-1
+     */
+    static int commandOf(TagSession.Tech tech, byte[] data) {
+        int offset = tech == TagSession.Tech.NFC_V ? 1 : 0;
+        return data.length > offset ? data[offset] & 0xFF : -1;
+    }
+
+    public void addBytes(TagSession.Tech tech, int sent, int received) {
+        counters.addAndGet(tech.ordinal() * COUNTERS + COUNTER_BYTES_SENT, sent);
+        counters.addAndGet(tech.ordinal() * COUNTERS + COUNTER_BYTES_RECEIVED, received);
+    }
+
+    /**
+     * 记录读写的block(或page)数量, 由读写工具类调用
+     */
+    public void addBlocks(TagSession.Tech tech, int blocks) {
+        if (enabled) {
+            counters.addAndGet(tech.ordinal() * COUNTERS + COUNTER_BLOCKS, blocks);
+        }
+    }
+
+    public LatencyHistogram getHistogram(TagSession.Tech tech, Op op) {
+        return histograms[tech.ordinal() * OPS.length + op.ordinal()];
+    }
+
+    public long getErrorCount(TagSession.Tech tech, Op op) {
+        return errors.get(tech.ordinal() * OPS.length + op.ordinal());
+    }
+
+    /**
+     * 一种命令码的收发延迟
+     *
+     * @param command 命令码, 0到255
+     * @return 还没有发送过该命令时返回null
+     */
+    public LatencyHistogram getCommandHistogram(TagSession.Tech tech, int command) {
+        return commandHistograms.get(tech.ordinal() * COMMANDS + command);
+    }
+
+    public long getCommandErrorCount(TagSession.Tech tech, int command) {
+        return commandErrors.get(tech.ordinal() * COMMANDS + command);
+    }
+
+    public long getBytesSent(TagSession.Tech tech) {
+        return counters.get(tech.ordinal() * COUNTERS + COUNTER_BYTES_SENT);
+    }
+
+    public long getBytesReceived(TagSession.Tech tech) {
+        return counters.get(tech.ordinal() * COUNTERS + COUNTER_BYTES_RECEIVED);
+    }
+
+    public long getBlocks(TagSession.Tech tech) {
+        return counters.get(tech.ordinal() * COUNTERS + COUNTER_BLOCKS);
+    }
+
+    /**
+     * 标签处理数据所用的时间(微秒), 即收发和块读写的耗时之和, 不含连接和认证
+     */
+    private long getIoMicros(TagSession.Tech tech) {
+        return getHistogram(tech, Op.TRANSCEIVE).getTotal()
+                + getHistogram(tech, Op.READ_BLOCK).getTotal()
+                + getHistogram(tech, Op.WRITE_BLOCK).getTotal();
+    }
+
+    /**
+     * 收发期间的平均吞吐量(字节/秒)
+     */
+    public long getBytesPerSecond(TagSession.Tech tech) {
+        long micros = getIoMicros(tech);
+        return micros == 0 ? 0 : (getBytesSent(tech) + getBytesReceived(tech)) * 1000000L / micros;
+    }
+
+    /**
+     * 收发期间的平均block数/秒
+     */
+    public long getBlocksPerSecond(TagSession.Tech tech) {
+        long micros = getIoMicros(tech);
+        return micros == 0 ? 0 : getBlocks(tech) * 1000000L / micros;
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+        for (int i = 0; i < errors.length(); i++) {
+            errors.set(i, 0);
+        }
+        for (int i = 0; i < counters.length(); i++) {
+            counters.set(i, 0);
+        }
+        for (int i = 0; i < commandHistograms.length(); i++) {
+            LatencyHistogram h = commandHistograms.get(i);
+            if (h != null) {
+                h.reset();
+            }
+            commandErrors.set(i, 0);
+        }
+    }
+
+    /**
+     * 供诊断界面显示的统计, 只列出有记录的项, 延迟单位为微秒
+     */
+    public String format() {
+        StringBuilder sb = new StringBuilder();
+        for (TagSession.Tech tech : TECHS) {
+            boolean any = false;
+            for (Op op : OPS) {
+                LatencyHistogram h = getHistogram(tech, op);
+                if (h.getCount() == 0) {
+                    continue;
+                }
+                if (!any) {
+                    sb.append(tech).append(String.format(Locale.ROOT, "  %d B/s  %d 块/s  收 %d B  发 %d B\n",
+                            getBytesPerSecond(tech), getBlocksPerSecond(tech),
+                            getBytesReceived(tech), getBytesSent(tech)));
+                    any = true;
+                }
+                sb.append(String.format(Locale.ROOT, "  %-12s n=%d 错误=%d 平均=%d p50=%d p99=%d 最大=%d\n",
+                        op, h.getCount(), getErrorCount(tech, op), h.getMean(),
+                        h.getValueAtPercentile(50), h.getValueAtPercentile(99), h.getMax()));
+                if (op == Op.TRANSCEIVE) {
+                    for (int command = 0; command < COMMANDS; command++) {
+                        LatencyHistogram c = getCommandHistogram(tech, command);
+                        if (c == null || c.getCount() == 0) {
+                            continue;
+                        }
+                        sb.append(String.format(Locale.ROOT, "    %-10s n=%d 错误=%d 平均=%d p50=%d p99=%d 最大=%d\n",
+                                formatCommand(command), c.getCount(), getCommandErrorCount(tech, command), c.getMean(),
+                                c.getValueAtPercentile(50), c.getValueAtPercentile(99), c.getMax()));
+                    }
+                }
+            }
+        }
+        return sb.length() == 0 ? "暂无数据\n" : sb.toString();
+    }
+
+    private static String formatCommand(int command) {
+        return String.format(Locale.ROOT, "0x%02X", command);
+    }
+
+    /**
+     * 导出为CSV, 每种technology的每种有记录的操作一行, command列为空;
+     * TRANSCEIVE之后每种发送过的命令码一行, command列为命令码
+     */
+    public void export(File file) throws IOException {
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            out.write("tech,op,command,count,errors,mean_us,p50_us,p90_us,p99_us,max_us,bytes_sent,bytes_received,blocks\n");
+            for (TagSession.Tech tech : TECHS) {
+                for (Op op : OPS) {
+                    LatencyHistogram h = getHistogram(tech, op);
+                    if (h.getCount() == 0) {
+                        continue;
+                    }
+                    writeRow(out, tech, op, "", h, getErrorCount(tech, op));
+                    if (op != Op.TRANSCEIVE) {
+                        continue;
+                    }
+                    for (int command = 0; command < COMMANDS; command++) {
+                        LatencyHistogram c = getCommandHistogram(tech, command);
+                        if (c != null && c.getCount() != 0) {
+                            writeRow(out, tech, op, formatCommand(command), c, getCommandErrorCount(tech, command));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void writeRow(Writer out, TagSession.Tech tech, Op op, String command, LatencyHistogram h, long errors)
+            throws IOException {
+        out.write(String.format(Locale.ROOT, "%s,%s,%s,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d\n",
+                tech, op, command, h.getCount(), errors, h.getMean(),
+                h.getValueAtPercentile(50), h.getValueAtPercentile(90), h.getValueAtPercentile(99),
+                h.getMax(), getBytesSent(tech), getBytesReceived(tech), getBlocks(tech)));
+    }
+
+    /**
+     * 统计耗时的传输层
+     */
+    static class MeteredTransport implements TagTransport {
+        final TagMetrics metrics;
+        final TagSession.Tech tech;
+        private final TagTransport transport;
+
+        MeteredTransport(TagMetrics metrics, TagSession.Tech tech, TagTransport transport) {
+            this.metrics = metrics;
+            this.tech = tech;
+            this.transport = transport;
+        }
+
+        @Override
+        public void connect() throws IOException {
+            long start = System.nanoTime();
+            boolean failed = true;
+            try {
+                transport.connect();
+                failed = false;
+            } finally {
+                metrics.record(tech, Op.CONNECT, start, failed);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            long start = System.nanoTime();
+            boolean failed = true;
+            try {
+                transport.close();
+                failed = false;
+            } finally {
+                metrics.record(tech, Op.CLOSE, start, failed);
+            }
+        }
+
+        @Override
+        public boolean isConnected() {
+            return transport.isConnected();
+        }
+
+        @Override
+        public byte[] getId() {
+            return transport.getId();
+        }
+
+        @Override
+        public byte[] transceive(byte[] data) throws IOException {
+            long start = System.nanoTime();
+            byte[] res = null;
+            try {
+                res = transport.transceive(data);
+                return res;
+            } finally {
+                metrics.recordTransceive(tech, data, start, res == null);
+                metrics.addBytes(tech, data.length, res == null ? 0 : res.length);
+            }
+        }
+
+        @Override
+        public int getMaxTransceiveLength() {
+            return transport.getMaxTransceiveLength();
+        }
+    }
+
+    /**
+     * 统计耗时的MIFARE Classic传输层, 认证失败(返回false)也计为错误
+     */
+    static class MeteredClassicTransport extends MeteredTransport implements MifareClassicTransport {
+        private final MifareClassicTransport mfc;
+
+        MeteredClassicTransport(TagMetrics metrics, TagSession.Tech tech, MifareClassicTransport mfc) {
+            super(metrics, tech, mfc);
+            this.mfc = mfc;
+        }
+
+        @Override
+        public int getType() {
+            return mfc.getType();
+        }
+
+        @Override
+        public int getSize() {
+            return mfc.getSize();
+        }
+
+        @Override
+        public int getSectorCount() {
+            return mfc.getSectorCount();
+        }
+
+        @Override
+        public int getBlockCount() {
+            return mfc.getBlockCount();
+        }
+
+        @Override
+        public int getBlockCountInSector(int sector) {
+            return mfc.getBlockCountInSector(sector);
+        }
+
+        @Override
+        public int sectorToBlock(int sector) {
+            return mfc.sectorToBlock(sector);
+        }
+
+        @Override
+        public int blockToSector(int block) {
+            return mfc.blockToSector(block);
+        }
+
+        @Override
+        public boolean authenticateSectorWithKeyA(int sector, byte[] key) throws IOException {
+            long start = System.nanoTime();
+            boolean auth = false;
+            try {
+                auth = mfc.authenticateSectorWithKeyA(sector, key);
+                return auth;
+            } finally {
+                metrics.record(tech, Op.AUTHENTICATE, start, !auth);
+            }
+        }
+
+        @Override
+        public boolean authenticateSectorWithKeyB(int sector, byte[] key) throws IOException {
+            long start = System.nanoTime();
+            boolean auth = false;
+            try {
+                auth = mfc.authenticateSectorWithKeyB(sector, key);
+                return auth;
+            } finally {
+                metrics.record(tech, Op.AUTHENTICATE, start, !auth);
+            }
+        }
+
+        @Override
+        public byte[] readBlock(int block) throws IOException {
+            long start = System.nanoTime();
+            byte[] data = null;
+            try {
+                data = mfc.readBlock(block);
+                return data;
+            } finally {
+                metrics.record(tech, Op.READ_BLOCK, start, data == null);
+                if (data != null) {
+                    metrics.addBytes(tech, 2, data.length);
+                    metrics.addBlocks(tech, 1);
+                }
+            }
+        }
+
+        @Override
+        public void writeBlock(int block, byte[] data) throws IOException {
+            long start = System.nanoTime();
+            boolean failed = true;
+            try {
+                mfc.writeBlock(block, data);
+                failed = false;
+            } finally {
+                metrics.record(tech, Op.WRITE_BLOCK, start, failed);
+                if (!failed) {
+                    metrics.addBytes(tech, 2 + data.length, 1);
+                    metrics.addBlocks(tech, 1);
+                }
+            }
+        }
+    }
+}
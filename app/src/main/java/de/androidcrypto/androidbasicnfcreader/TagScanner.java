@@ -0,0 +1,108 @@
+package de.androidcrypto.androidbasicnfcreader;
+
+/**
+ * 标签扫描流水线
+ * 标签来源(读卡器模式或模拟标签)发现标签后, 为它创建TagSession, 直接在NFC线程中交给listener处理,
+ * 不经过Intent和onNewIntent. 新标签到来时之前的会话在NFC线程中断开
+ * 用法
+ * TagScanner scanner = new TagScanner(new ReaderModeSource(activity, adapter, TagSession.Tech.NFC_V),
+ * NfcExecutor.getInstance(), session -> readTag(session), callback);
+ * scanner.start(); // onResume
+ * scanner.stop();  // onPause
+ */
+public class TagScanner {
+
+    /**
+     * 标签来源
+     */
+    public interface Source {
+        void start(Sink sink);
+
+        void stop();
+    }
+
+    /**
+     * 接收来源发现的标签, 可以在任意线程调用
+     */
+    public interface Sink {
+        /**
+         * @param id       Tag.getId()
+         * @param provider 为标签打开各technology的传输层
+         */
+        void onTagDiscovered(byte[] id, TagSession.Provider provider);
+    }
+
+    /**
+     * 在NFC线程中处理发现的标签
+     */
+    public interface Listener {
+        void onTag(TagSession session) throws Exception;
+    }
+
+    private final Source source;
+    private final NfcExecutor executor;
+    private final Listener listener;
+    private final NfcExecutor.Callback<Void> callback;
+    private volatile TagSession current;
+    private volatile boolean running;
+
+    /**
+     * @param source   标签来源
+     * @param executor 执行listener的NFC线程
+     * @param listener 处理标签
+     * @param callback 在主线程接收处理结果, 可以为null
+     */
+    public TagScanner(Source source, NfcExecutor executor, Listener listener, NfcExecutor.Callback<Void> callback) {
+        this.source = source;
+        this.executor = executor;
+        this.listener = listener;
+        this.callback = callback;
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        source.start(this::dispatch);
+    }
+
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        source.stop();
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * 最近发现的标签的会话, 还没有发现标签时为null
+     */
+    public TagSession getCurrentSession() {
+        return current;
+    }
+
+    private void dispatch(byte[] id, TagSession.Provider provider) {
+        if (!running) {
+            return;
+        }
+        final TagSession session = new TagSession(id, provider);
+        final TagSession previous;
+        synchronized (this) {
+            previous = current;
+            current = session;
+        }
+        if (previous != null) {
+            //断开之前的会话不受排队上限限制, 在排队的操作之前执行
+            executor.execute(previous::disconnect);
+        }
+        executor.submit(() -> {
+            listener.onTag(session);
+            return null;
+        }, callback);
+    }
+}
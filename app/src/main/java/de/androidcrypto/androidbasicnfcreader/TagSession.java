@@ -0,0 +1,203 @@
+package de.androidcrypto.androidbasicnfcreader;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 一次刷卡的标签会话
+ * 每发现一个Tag创建一次, 保持已连接的technology, NfcVUtil(只读取一次系统信息)
+ * 和MIFARE Classic已认证的扇区, 直到标签离开磁场. 所有操作都应在NFC线程中通过execute()执行
+ * 用法
+ * TagSession session = new TagSession(tag.getId(), AndroidTagTransport.provider(tag));
+ * String data = session.execute(() -> session.nfcV().readBlocks(0, 4));
+ */
+public class TagSession {
+
+    /**
+     * 序号保存在TagImageStore的记录中, 新的值只能加在末尾
+     */
+    public enum Tech {
+        NFC_A,
+        NFC_V,
+        MIFARE_ULTRALIGHT,
+        MIFARE_CLASSIC
+    }
+
+    /**
+     * 为标签创建指定technology的传输层
+     */
+    public interface Provider {
+        /**
+         * @return 未连接的传输层, 标签不支持该technology时返回null
+         */
+        TagTransport open(Tech tech);
+    }
+
+    public interface Operation<T> {
+        T run() throws IOException;
+    }
+
+    private static final AtomicLong SERIALS = new AtomicLong();
+
+    private final byte[] id;
+    private final long serial = SERIALS.incrementAndGet();
+    private final Provider provider;
+    private Tech tech;
+    private TagTransport transport;
+    private NfcVUtil nfcVUtil;
+    private MifareUltralightUtil ultralightUtil;
+    private int authenticatedSector = -1;
+    private boolean authenticatedWithKeyB;
+    private byte[] authenticatedKey;
+    private boolean lost;
+
+    public TagSession(byte[] id, Provider provider) {
+        this.id = id.clone();
+        this.provider = provider;
+        FrameTrace.getInstance().beginSession(this.id);
+    }
+
+    public byte[] getId() {
+        return id.clone();
+    }
+
+    /**
+     * 提交到NfcExecutor时合并操作用的key
+     * 包含会话序号: 同一张卡重新刷卡后的操作不会并入持有旧会话的未完成操作
+     *
+     * @param operation 操作名, 如"read"
+     */
+    public String key(String operation) {
+        return operation + ":" + HexUtil.toHexString(id) + "#" + serial;
+    }
+
+    /**
+     * 标签是否已离开磁场
+     */
+    public synchronized boolean isLost() {
+        return lost;
+    }
+
+    /**
+     * 执行一个操作; 标签离开时会话失效, 其他IO错误时断开连接, 下次操作重新连接
+     */
+    public <T> T execute(Operation<T> operation) throws IOException {
+        try {
+            return operation.run();
+        } catch (TagLossException e) {
+            synchronized (this) {
+                lost = true;
+                disconnect();
+            }
+            throw e;
+        } catch (IOException e) {
+            disconnect();
+            throw e;
+        }
+    }
+
+    /**
+     * 连接指定的technology, 已连接时直接返回
+     * 同一时刻标签只能连接一个technology, 切换时会断开之前的连接
+     */
+    public synchronized TagTransport connect(Tech tech) throws IOException {
+        if (lost) {
+            throw new TagLossException();
+        }
+        if (this.tech == tech && transport != null && transport.isConnected()) {
+            return transport;
+        }
+        disconnect();
+        //记录命令帧, 统计每个命令的耗时
+        TagTransport opened = TagMetrics.getInstance().wrap(tech, FrameTrace.getInstance().wrap(tech, provider.open(tech)));
+        if (opened == null) {
+            throw new IOException("标签不支持" + tech);
+        }
+        opened.connect();
+        this.tech = tech;
+        this.transport = opened;
+        return opened;
+    }
+
+    /**
+     * ISO 15693, 同一会话中共用一个NfcVUtil
+     */
+    public synchronized NfcVUtil nfcV() throws IOException {
+        TagTransport connected = connect(Tech.NFC_V);
+        if (nfcVUtil == null) {
+            //同一张卡读取过时使用缓存的系统信息
+            TagCache.Entry cached = TagCache.getInstance().get(id, Tech.NFC_V);
+            nfcVUtil = new NfcVUtil(connected, cached != null ? cached.getInfo() : null);
+        }
+        return nfcVUtil;
+    }
+
+    public synchronized MifareUltralightUtil ultralight() throws IOException {
+        TagTransport connected = connect(Tech.MIFARE_ULTRALIGHT);
+        if (ultralightUtil == null) {
+            ultralightUtil = new MifareUltralightUtil(connected);
+            TagCache.Entry cached = TagCache.getInstance().get(id, Tech.MIFARE_ULTRALIGHT);
+            if (cached != null) {
+                ultralightUtil.restore(cached.getInfo(), cached.getImageLength() / MifareUltralightUtil.PAGE_SIZE);
+            }
+        }
+        return ultralightUtil;
+    }
+
+    public synchronized MifareClassicTransport mifareClassic() throws IOException {
+        return (MifareClassicTransport) connect(Tech.MIFARE_CLASSIC);
+    }
+
+    /**
+     * 认证MIFARE Classic扇区, 该扇区已用同一密钥认证过时不再发送命令
+     *
+     * @param sector  扇区
+     * @param key     6字节密钥
+     * @param useKeyB true为KeyB, false为KeyA
+     * @return 是否认证成功
+     */
+    public synchronized boolean authenticate(int sector, byte[] key, boolean useKeyB) throws IOException {
+        MifareClassicTransport mfc = mifareClassic();
+        if (sector == authenticatedSector && useKeyB == authenticatedWithKeyB
+                && Arrays.equals(key, authenticatedKey)) {
+            return true;
+        }
+        authenticatedSector = -1;
+        boolean auth = useKeyB ? mfc.authenticateSectorWithKeyB(sector, key)
+                : mfc.authenticateSectorWithKeyA(sector, key);
+        if (auth) {
+            authenticatedSector = sector;
+            authenticatedWithKeyB = useKeyB;
+            authenticatedKey = key.clone();
+        }
+        return auth;
+    }
+
+    /**
+     * 当前已认证的扇区, 没有时为-1
+     */
+    public synchronized int getAuthenticatedSector() {
+        return authenticatedSector;
+    }
+
+    /**
+     * 断开当前technology的连接, 会话仍然有效
+     * 使用不经过会话的technology(如Ndef)之前需要调用
+     */
+    public synchronized void disconnect() {
+        if (transport != null) {
+            try {
+                transport.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        tech = null;
+        transport = null;
+        nfcVUtil = null;
+        ultralightUtil = null;
+        authenticatedSector = -1;
+        authenticatedKey = null;
+    }
+}
@@ -0,0 +1,42 @@
+package de.androidcrypto.androidbasicnfcreader;
+
+import java.io.IOException;
+
+/**
+ * 标签传输层
+ * 读写逻辑只依赖这个接口, 不直接使用android.nfc.tech的类,
+ * 真实标签由AndroidTagTransport适配, 测试和基准测试使用SimulatedTag
+ */
+public interface TagTransport {
+
+    /**
+     * 打开连接
+     */
+    void connect() throws IOException;
+
+    /**
+     * 关闭连接
+     */
+    void close() throws IOException;
+
+    boolean isConnected();
+
+    /**
+     * 标签UID, 与Tag.getId()的字节顺序相同
+     */
+    byte[] getId();
+
+    /**
+     * 发送原始命令帧并返回标签的完整响应
+     *
+     * @param data 命令帧
+     * @return 响应帧
+     * @throws IOException 标签无应答或已离开
+     */
+    byte[] transceive(byte[] data) throws IOException;
+
+    /**
+     * 一帧最多能收发的字节数
+     */
+    int getMaxTransceiveLength();
+}
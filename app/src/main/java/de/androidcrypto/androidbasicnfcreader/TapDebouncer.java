@@ -0,0 +1,127 @@
+package de.androidcrypto.androidbasicnfcreader;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按UID去除重复刷卡
+ * 同一张卡在时间窗口内再次被发现时丢弃, 窗口从最近一次发现开始计算, 卡一直放在读卡器上时只处理一次;
+ * 不同的卡互不影响, 立即通过. 不加锁, 任意线程都可以调用
+ * 用法
+ * TapDebouncer debouncer = new TapDebouncer(1000);
+ * if (!debouncer.accept(tag.getId())) {
+ *     return; // 重复刷卡
+ * }
+ */
+public class TapDebouncer {
+
+    public static final long DEFAULT_WINDOW_MS = 1000;
+
+    /**
+     * 超过这个数量时清理已过期的UID
+     */
+    private static final int PURGE_THRESHOLD = 256;
+
+    interface Clock {
+        long nowMillis();
+    }
+
+    private final ConcurrentHashMap<Long, AtomicLong> lastSeen = new ConcurrentHashMap<>();
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong suppressed = new AtomicLong();
+    private final Clock clock;
+    private volatile long windowMillis;
+
+    public TapDebouncer(long windowMillis) {
+        this(windowMillis, () -> System.nanoTime() / 1000000);
+    }
+
+    TapDebouncer(long windowMillis, Clock clock) {
+        this.windowMillis = windowMillis;
+        this.clock = clock;
+    }
+
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    public void setWindowMillis(long windowMillis) {
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * 记录一次发现
+     *
+     * @param uid Tag.getId()
+     * @return true需要处理, false为窗口内的重复发现
+     */
+    public boolean accept(byte[] uid) {
+        if (uid == null || uid.length < 1 || uid.length > 8) {
+            accepted.incrementAndGet();
+            return true;
+        }
+        long now = clock.nowMillis();
+        Long key = UidUtil.toLong(uid);
+        AtomicLong last = lastSeen.get(key);
+        if (last == null) {
+            last = lastSeen.putIfAbsent(key, new AtomicLong(now));
+            if (last == null) {
+                accepted.incrementAndGet();
+                purge(now);
+                return true;
+            }
+        }
+        long previous = last.getAndSet(now);
+        if (now - previous < windowMillis) {
+            suppressed.incrementAndGet();
+            return false;
+        }
+        accepted.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * 清除UID的记录, 下一次发现立即通过, 如处理失败需要重新读取时调用
+     */
+    public void forget(byte[] uid) {
+        if (uid != null && uid.length >= 1 && uid.length <= 8) {
+            lastSeen.remove(UidUtil.toLong(uid));
+        }
+    }
+
+    private void purge(long now) {
+        if (lastSeen.size() <= PURGE_THRESHOLD) {
+            return;
+        }
+        long window = windowMillis;
+        Iterator<Map.Entry<Long, AtomicLong>> it = lastSeen.entrySet().iterator();
+        while (it.hasNext()) {
+            if (now - it.next().getValue().get() >= window) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * 通过的次数
+     */
+    public long getAcceptedCount() {
+        return accepted.get();
+    }
+
+    /**
+     * 被丢弃的重复发现次数
+     */
+    public long getSuppressedCount() {
+        return suppressed.get();
+    }
+
+    /**
+     * 当前记录的UID数量
+     */
+    public int size() {
+        return lastSeen.size();
+    }
+}
@@ -0,0 +1,326 @@
+package de.androidcrypto.androidbasicnfcreader;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * 在JVM上回放FrameTrace的记录
+ * 每个会话作为TagSession.Provider, 按记录的顺序应答: 命令必须与记录一致, 否则抛出IllegalStateException,
+ * 说明读写逻辑的行为与记录时不同; 记录中的错误和标签离开会照样重现.
+ * 记录中的密钥已置0, 命令和写入的数据按同样置0后的形式核对, 读到的扇区尾块中的密钥为0.
+ * 回放MIFARE Classic时密钥字典的状态(每张卡上次成功的密钥)需要与记录时相同, 否则认证顺序不同
+ * 可以按记录的耗时等待(realTime), 作为基准测试用真实标签的时序衡量性能变化
+ * 用法
+ * for (TraceReplay.Session replay : TraceReplay.sessions(FrameTrace.read(file))) {
+ *     TagSession session = replay.newTagSession();
+ *     session.execute(() -> session.nfcV().readBlocks(0, 4));
+ * }
+ */
+public class TraceReplay {
+
+    private TraceReplay() {
+    }
+
+    /**
+     * 按刷卡拆分记录, 第一次刷卡之前的记录被忽略
+     */
+    public static List<Session> sessions(List<FrameTrace.Frame> frames) {
+        List<Session> sessions = new ArrayList<>();
+        Session current = null;
+        for (FrameTrace.Frame frame : frames) {
+            if (frame.op == FrameTrace.OP_SESSION) {
+                current = new Session(frame.data1);
+                sessions.add(current);
+            } else if (current != null) {
+                current.frames.add(frame);
+                if (frame.tech != null) {
+                    current.techs.add(frame.tech);
+                }
+            }
+        }
+        return sessions;
+    }
+
+    /**
+     * 一次刷卡的回放
+     */
+    public static class Session implements TagSession.Provider {
+
+        private final byte[] id;
+        private final List<FrameTrace.Frame> frames = new ArrayList<>();
+        private final EnumSet<TagSession.Tech> techs = EnumSet.noneOf(TagSession.Tech.class);
+        private int position;
+        private boolean realTime;
+
+        Session(byte[] id) {
+            this.id = id.clone();
+        }
+
+        public byte[] getId() {
+            return id.clone();
+        }
+
+        /**
+         * 回放用的TagSession
+         */
+        public TagSession newTagSession() {
+            return new TagSession(id, this);
+        }
+
+        /**
+         * 是否按记录的耗时等待, 默认不等待
+         */
+        public Session setRealTime(boolean realTime) {
+            this.realTime = realTime;
+            return this;
+        }
+
+        public List<FrameTrace.Frame> getFrames() {
+            return frames;
+        }
+
+        /**
+         * 已回放的记录数
+         */
+        public int getPosition() {
+            return position;
+        }
+
+        /**
+         * 除末尾的断开连接外, 所有记录都已回放
+         */
+        public boolean isFinished() {
+            int p = position;
+            while (p < frames.size() && frames.get(p).op == FrameTrace.OP_CLOSE) {
+                p++;
+            }
+            return p == frames.size();
+        }
+
+        /**
+         * 记录时标签操作的总耗时(微秒)
+         */
+        public long getRecordedMicros() {
+            long total = 0;
+            for (FrameTrace.Frame frame : frames) {
+                total += frame.durationMicros;
+            }
+            return total;
+        }
+
+        @Override
+        public TagTransport open(TagSession.Tech tech) {
+            if (!techs.contains(tech)) {
+                return null;
+            }
+            return tech == TagSession.Tech.MIFARE_CLASSIC ? new ReplayClassicTransport(this, tech)
+                    : new ReplayTransport(this, tech);
+        }
+
+        /**
+         * 取出下一条记录并核对, 代码没有调用的断开连接被跳过
+         */
+        synchronized FrameTrace.Frame next(int op, TagSession.Tech tech, int arg) throws IOException {
+            while (op != FrameTrace.OP_CLOSE && position < frames.size()
+                    && frames.get(position).op == FrameTrace.OP_CLOSE) {
+                position++;
+            }
+            if (position >= frames.size()) {
+                throw new IllegalStateException("回放偏离: 记录已结束, 仍有操作 op=" + op + " tech=" + tech);
+            }
+            FrameTrace.Frame frame = frames.get(position);
+            if (frame.op != op || frame.tech != tech || frame.arg != arg) {
+                throw new IllegalStateException("回放偏离: 第" + position + "条记录为 " + frame
+                        + ", 实际操作 op=" + op + " tech=" + tech + " arg=" + arg);
+            }
+            position++;
+            if (realTime && frame.durationMicros > 0) {
+                try {
+                    Thread.sleep(frame.durationMicros / 1000, (frame.durationMicros % 1000) * 1000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return frame;
+        }
+
+        /**
+         * 下一条是否为断开连接
+         */
+        synchronized boolean nextIsClose() {
+            return position < frames.size() && frames.get(position).op == FrameTrace.OP_CLOSE;
+        }
+    }
+
+    private static void check(FrameTrace.Frame frame) throws IOException {
+        if (frame.status == FrameTrace.STATUS_TAG_LOST) {
+            throw new TagLossException();
+        }
+        if (frame.status == FrameTrace.STATUS_IO_ERROR) {
+            throw new IOException("Transceive failed");
+        }
+    }
+
+    /**
+     * 按记录应答的传输层
+     */
+    static class ReplayTransport implements TagTransport {
+        final Session session;
+        final TagSession.Tech tech;
+        private boolean connected;
+        private int maxTransceiveLength = 253;
+        byte[] connectInfo = new byte[0];
+
+        ReplayTransport(Session session, TagSession.Tech tech) {
+            this.session = session;
+            this.tech = tech;
+            // 连接之前也能取得最大帧长: 使用这个technology第一次连接的记录
+            for (FrameTrace.Frame frame : session.frames) {
+                if (frame.op == FrameTrace.OP_CONNECT && frame.tech == tech) {
+                    maxTransceiveLength = frame.arg;
+                    connectInfo = frame.data1;
+                    break;
+                }
+            }
+        }
+
+        @Override
+        public void connect() throws IOException {
+            FrameTrace.Frame frame = session.next(FrameTrace.OP_CONNECT, tech, maxTransceiveLength);
+            check(frame);
+            connected = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            connected = false;
+            if (session.nextIsClose()) {
+                check(session.next(FrameTrace.OP_CLOSE, tech, 0));
+            }
+        }
+
+        @Override
+        public boolean isConnected() {
+            return connected;
+        }
+
+        @Override
+        public byte[] getId() {
+            return session.getId();
+        }
+
+        @Override
+        public byte[] transceive(byte[] data) throws IOException {
+            FrameTrace.Frame frame = session.next(FrameTrace.OP_TRANSCEIVE, tech, 0);
+            byte[] cmd = FrameTrace.redactCommand(tech, data);
+            if (!Arrays.equals(frame.data1, cmd)) {
+                throw new IllegalStateException("回放偏离: 命令为 " + HexUtil.toHexString(cmd)
+                        + ", 记录为 " + HexUtil.toHexString(frame.data1));
+            }
+            check(frame);
+            return frame.data2.clone();
+        }
+
+        @Override
+        public int getMaxTransceiveLength() {
+            return maxTransceiveLength;
+        }
+    }
+
+    /**
+     * 按记录应答的MIFARE Classic传输层, 容量和扇区布局来自连接记录
+     */
+    static class ReplayClassicTransport extends ReplayTransport implements MifareClassicTransport {
+
+        ReplayClassicTransport(Session session, TagSession.Tech tech) {
+            super(session, tech);
+        }
+
+        private int info(int offset) {
+            if (connectInfo.length < offset + 4) {
+                return 0;
+            }
+            return ((connectInfo[offset] & 0xFF) << 24) | ((connectInfo[offset + 1] & 0xFF) << 16)
+                    | ((connectInfo[offset + 2] & 0xFF) << 8) | (connectInfo[offset + 3] & 0xFF);
+        }
+
+        @Override
+        public int getType() {
+            return info(0);
+        }
+
+        @Override
+        public int getSize() {
+            return info(4);
+        }
+
+        @Override
+        public int getSectorCount() {
+            switch (getSize()) {
+                case 320:
+                    return 5;
+                case 2048:
+                    return 32;
+                case 4096:
+                    return 40;
+                default:
+                    return 16;
+            }
+        }
+
+        @Override
+        public int getBlockCount() {
+            return getSize() / 16;
+        }
+
+        @Override
+        public int getBlockCountInSector(int sector) {
+            return sector < 32 ? 4 : 16;
+        }
+
+        @Override
+        public int sectorToBlock(int sector) {
+            return sector < 32 ? sector * 4 : 32 * 4 + (sector - 32) * 16;
+        }
+
+        @Override
+        public int blockToSector(int block) {
+            return block < 32 * 4 ? block / 4 : 32 + (block - 32 * 4) / 16;
+        }
+
+        @Override
+        public boolean authenticateSectorWithKeyA(int sector, byte[] key) throws IOException {
+            FrameTrace.Frame frame = session.next(FrameTrace.OP_AUTH_A, tech, sector);
+            check(frame);
+            return frame.status == FrameTrace.STATUS_OK;
+        }
+
+        @Override
+        public boolean authenticateSectorWithKeyB(int sector, byte[] key) throws IOException {
+            FrameTrace.Frame frame = session.next(FrameTrace.OP_AUTH_B, tech, sector);
+            check(frame);
+            return frame.status == FrameTrace.STATUS_OK;
+        }
+
+        @Override
+        public byte[] readBlock(int block) throws IOException {
+            FrameTrace.Frame frame = session.next(FrameTrace.OP_READ_BLOCK, tech, block);
+            check(frame);
+            return frame.data2.clone();
+        }
+
+        @Override
+        public void writeBlock(int block, byte[] data) throws IOException {
+            FrameTrace.Frame frame = session.next(FrameTrace.OP_WRITE_BLOCK, tech, block);
+            byte[] written = FrameTrace.redactBlock(block, data);
+            if (!Arrays.equals(frame.data1, written)) {
+                throw new IllegalStateException("回放偏离: 块" + block + "写入 " + HexUtil.toHexString(written)
+                        + ", 记录为 " + HexUtil.toHexString(frame.data1));
+            }
+            check(frame);
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package de.androidcrypto.androidbasicnfcreader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * NFC Forum Type 2 Tag(NTAG, MIFARE Ultralight)的NDEF读取, 不经过android.nfc.tech.Ndef
+ * 第3页为能力容器(CC), 第4页起为数据区, 数据区中按TLV排列: Lock Control, Memory Control, NDEF消息和终止符.
+ * 支持FAST_READ时一帧读取CC和尽量多的数据区, 知道NDEF长度后一次读完剩余部分, 500字节的消息只需2到3帧;
+ * Lock/Memory Control TLV声明的保留字节在读取NDEF消息时跳过. 消息不跨保留区时直接返回缓冲中的视图, 不复制
+ * 用法
+ * Type2Ndef ndef = Type2Ndef.read(session.ultralight());
+ * if (ndef != null && ndef.hasMessage()) {
+ *     NdefParser parser = ndef.parser();
+ * }
+ */
+public class Type2Ndef {
+
+    public static final int CC_MAGIC = 0xE1;
+
+    static final int CC_PAGE = 3;
+    static final int FIRST_DATA_ADDRESS = 16;
+
+    static final int TLV_NULL = 0x00;
+    static final int TLV_LOCK_CONTROL = 0x01;
+    static final int TLV_MEMORY_CONTROL = 0x02;
+    static final int TLV_NDEF = 0x03;
+    static final int TLV_TERMINATOR = 0xFE;
+
+    private static final int MAX_RESERVED = 8;
+
+    private final byte[] cc;
+    private final int dataAreaSize;
+    private final int ndefTlvAddress;
+    private final ByteBuffer message;
+
+    private Type2Ndef(byte[] cc, int dataAreaSize, int ndefTlvAddress, ByteBuffer message) {
+        this.cc = cc;
+        this.dataAreaSize = dataAreaSize;
+        this.ndefTlvAddress = ndefTlvAddress;
+        this.message = message;
+    }
+
+    /**
+     * 从标签读取
+     *
+     * @return 标签没有NDEF格式化(CC魔数不是E1)时返回null
+     */
+    public static Type2Ndef read(MifareUltralightUtil util) throws IOException {
+        int pages;
+        if (util.supportsFastRead()) {
+            // 第一帧读取CC和尽量多的数据区, 不超过用户数据区
+            int maxPages = Math.max(1, util.getTransport().getMaxTransceiveLength() / MifareUltralightUtil.PAGE_SIZE);
+            pages = Math.max(1, Math.min(maxPages, util.getUserPageEnd() - CC_PAGE));
+        } else {
+            // READ一帧总是4页
+            pages = 4;
+        }
+        Memory memory = new Memory(util, CC_PAGE * MifareUltralightUtil.PAGE_SIZE, util.readPages(CC_PAGE, pages));
+        return parse(memory);
+    }
+
+    /**
+     * 解析已读取的整个标签内容, 不需要再访问标签
+     *
+     * @param image 从第0页开始的标签内容
+     * @return 没有NDEF格式化时返回null
+     */
+    public static Type2Ndef parse(byte[] image) throws IOException {
+        return parse(new Memory(null, 0, image));
+    }
+
+    private static Type2Ndef parse(Memory memory) throws IOException {
+        int ccAddress = CC_PAGE * MifareUltralightUtil.PAGE_SIZE;
+        if ((memory.get(ccAddress) & 0xFF) != CC_MAGIC) {
+            return null;
+        }
+        byte[] cc = new byte[4];
+        for (int i = 0; i < 4; i++) {
+            cc[i] = memory.get(ccAddress + i);
+        }
+        int dataAreaSize = (cc[2] & 0xFF) * 8;
+        int end = FIRST_DATA_ADDRESS + dataAreaSize;
+        Reserved reserved = new Reserved();
+        int address = FIRST_DATA_ADDRESS;
+        while ((address = reserved.skip(address)) < end) {
+            int tlvAddress = address;
+            int type = memory.get(address) & 0xFF;
+            address = reserved.skip(address + 1);
+            if (type == TLV_NULL) {
+                continue;
+            }
+            if (type == TLV_TERMINATOR) {
+                break;
+            }
+            int length = memory.get(address) & 0xFF;
+            address = reserved.skip(address + 1);
+            if (length == 0xFF) {
+                int high = memory.get(address) & 0xFF;
+                address = reserved.skip(address + 1);
+                length = (high << 8) | (memory.get(address) & 0xFF);
+                address = reserved.skip(address + 1);
+            }
+            if (type == TLV_LOCK_CONTROL || type == TLV_MEMORY_CONTROL) {
+                if (length != 3) {
+                    throw new IOException("Control TLV长度错误: " + length);
+                }
+                byte[] value = new byte[3];
+                for (int i = 0; i < 3; i++) {
+                    value[i] = memory.get(address);
+                    address = reserved.skip(address + 1);
+                }
+                reserved.add(value, type == TLV_LOCK_CONTROL);
+                continue;
+            }
+            int valueEnd = reserved.advance(address, length);
+            if (valueEnd > end) {
+                throw new IOException("TLV超出数据区: " + tlvAddress);
+            }
+            if (type == TLV_NDEF) {
+                // 一次读取消息跨越的所有页
+                memory.ensure(valueEnd);
+                return new Type2Ndef(cc, dataAreaSize, tlvAddress, memory.slice(address, length, reserved));
+            }
+            address = valueEnd;
+        }
+        return new Type2Ndef(cc, dataAreaSize, -1, null);
+    }
+
+    /**
+     * CC中的版本, 高4位为主版本
+     */
+    public int getVersion() {
+        return cc[1] & 0xFF;
+    }
+
+    /**
+     * 数据区字节数
+     */
+    public int getDataAreaSize() {
+        return dataAreaSize;
+    }
+
+    /**
+     * CC第4字节低4位为写入权限, 0时可写, 0x0F为只读
+     */
+    public boolean isWritable() {
+        return (cc[3] & 0x0F) == 0;
+    }
+
+    /**
+     * 是否找到NDEF TLV
+     */
+    public boolean hasMessage() {
+        return message != null;
+    }
+
+    /**
+     * NDEF TLV在标签中的字节地址, 没有时为-1
+     */
+    public int getNdefTlvAddress() {
+        return ndefTlvAddress;
+    }
+
+    public int getMessageLength() {
+        return message == null ? 0 : message.remaining();
+    }
+
+    /**
+     * NDEF消息的只读视图, 没有NDEF TLV时为null
+     */
+    public ByteBuffer getMessage() {
+        return message == null ? null : message.duplicate();
+    }
+
+    /**
+     * 消息的解析器, 没有NDEF TLV时为null
+     */
+    public NdefParser parser() {
+        return message == null ? null : new NdefParser(message.duplicate());
+    }
+
+    /**
+     * 已读取的标签内容, 不足时按页补读
+     */
+    private static class Memory {
+        private final MifareUltralightUtil util;
+        private final int base;
+        private byte[] data;
+
+        Memory(MifareUltralightUtil util, int base, byte[] data) {
+            this.util = util;
+            this.base = base;
+            this.data = data;
+        }
+
+        byte get(int address) throws IOException {
+            ensure(address + 1);
+            return data[address - base];
+        }
+
+        /**
+         * 保证读取到end(不含)为止
+         */
+        void ensure(int end) throws IOException {
+            if (end <= base + data.length) {
+                return;
+            }
+            if (util == null) {
+                throw new IOException("标签内容不完整, 需要读取到地址" + end);
+            }
+            int firstPage = (base + data.length) / MifareUltralightUtil.PAGE_SIZE;
+            int lastPage = (end - 1) / MifareUltralightUtil.PAGE_SIZE;
+            byte[] more = util.readPages(firstPage, lastPage - firstPage + 1);
+            byte[] grown = new byte[data.length + more.length];
+            System.arraycopy(data, 0, grown, 0, data.length);
+            System.arraycopy(more, 0, grown, data.length, more.length);
+            data = grown;
+        }
+
+        /**
+         * 从address开始length个可用字节; 不跨保留区时返回视图, 否则复制并跳过保留字节
+         */
+        ByteBuffer slice(int address, int length, Reserved reserved) {
+            if (!reserved.overlaps(address, address + length)) {
+                return ByteBuffer.wrap(data, address - base, length).slice().asReadOnlyBuffer();
+            }
+            byte[] out = new byte[length];
+            int p = address;
+            for (int i = 0; i < length; i++) {
+                p = reserved.skip(p);
+                out[i] = data[p - base];
+                p++;
+            }
+            return ByteBuffer.wrap(out).asReadOnlyBuffer();
+        }
+    }
+
+    /**
+     * Lock/Memory Control TLV声明的保留字节范围
+     */
+    private static class Reserved {
+        private final int[] starts = new int[MAX_RESERVED];
+        private final int[] ends = new int[MAX_RESERVED];
+        private int count;
+
+        void add(byte[] value, boolean lockBits) throws IOException {
+            if (count == MAX_RESERVED) {
+                throw new IOException("Control TLV过多");
+            }
+            int pageAddress = (value[0] >> 4) & 0x0F;
+            int byteOffset = value[0] & 0x0F;
+            int bytesPerPage = value[2] & 0x0F;
+            int size = value[1] & 0xFF;
+            if (size == 0) {
+                size = 256;
+            }
+            // Lock Control的大小以位为单位
+            int bytes = lockBits ? (size + 7) / 8 : size;
+            int start = (pageAddress << bytesPerPage) + byteOffset;
+            starts[count] = start;
+            ends[count] = start + bytes;
+            count++;
+        }
+
+        /**
+         * address在保留区中时移到保留区之后
+         */
+        int skip(int address) {
+            boolean moved = true;
+            while (moved) {
+                moved = false;
+                for (int i = 0; i < count; i++) {
+                    if (address >= starts[i] && address < ends[i]) {
+                        address = ends[i];
+                        moved = true;
+                    }
+                }
+            }
+            return address;
+        }
+
+        /**
+         * 从address开始跳过length个可用字节后的地址
+         */
+        int advance(int address, int length) {
+            if (count == 0) {
+                return address + length;
+            }
+            for (int i = 0; i < length; i++) {
+                address = skip(address) + 1;
+            }
+            return address;
+        }
+
+        boolean overlaps(int start, int end) {
+            for (int i = 0; i < count; i++) {
+                if (start < ends[i] && starts[i] < end) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package de.androidcrypto.androidbasicnfcreader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+/**
+ * NFC Forum Type 5 Tag(ISO 15693, 如ICODE SLIX, ST25DV)的NDEF读写, 不经过android.nfc.tech.Ndef
+ * block 0开始为能力容器(CC): 4字节, 或第3字节为0时8字节(数据区大小在第7, 8字节); 之后为TLV区,
+ * 按TLV排列NDEF消息和终止符. 先读取CC和TLV头所在的几个block, 知道NDEF长度后用Read Multiple Blocks
+ * 一次读取消息跨越的block; 写入时只同步覆盖新TLV的block, 已读取且内容相同的block不写入
+ * 用法
+ * Type5Ndef ndef = Type5Ndef.read(session.nfcV());
+ * if (ndef != null && ndef.hasMessage()) {
+ *     NdefParser parser = ndef.parser();
+ * }
+ * ndef.write(session.nfcV(), new NdefBuilder().addText("hello", "en").build());
+ */
+public class Type5Ndef {
+
+    public static final int CC_MAGIC = 0xE1;
+    public static final int CC_MAGIC_2_BYTE_ADDRESS = 0xE2;
+
+    static final int TLV_NULL = 0x00;
+    static final int TLV_NDEF = 0x03;
+    static final int TLV_TERMINATOR = 0xFE;
+
+    /**
+     * 第一次读取的字节数: 8字节CC和4字节NDEF TLV头, 短消息可以一帧读完
+     */
+    static final int FIRST_READ_BYTES = 32;
+
+    private final NfcVUtil util;
+    private final int blockSize;
+    private byte[] image;
+    private byte[] cc;
+    private int dataAreaEnd;
+    private int ndefTlvAddress;
+    private ByteBuffer message;
+
+    private Type5Ndef(NfcVUtil util, int blockSize, byte[] image) {
+        this.util = util;
+        this.blockSize = blockSize;
+        this.image = image;
+    }
+
+    /**
+     * 从标签读取
+     *
+     * @return 标签没有NDEF格式化(CC魔数不是E1或E2)时返回null
+     */
+    public static Type5Ndef read(NfcVUtil util) throws IOException {
+        int blockSize = util.getOneBlockSize();
+        int blocks = Math.min(util.getBlockNumber(), (FIRST_READ_BYTES + blockSize - 1) / blockSize);
+        Type5Ndef ndef = new Type5Ndef(util, blockSize, new byte[0]);
+        ndef.ensure(blocks * blockSize);
+        return ndef.parse() ? ndef : null;
+    }
+
+    /**
+     * 解析已读取的标签内容, 不需要再访问标签
+     *
+     * @param image     从block 0开始的标签内容
+     * @param blockSize block字节数
+     * @return 没有NDEF格式化时返回null
+     */
+    public static Type5Ndef parse(byte[] image, int blockSize) throws IOException {
+        Type5Ndef ndef = new Type5Ndef(null, blockSize, image);
+        return ndef.parse() ? ndef : null;
+    }
+
+    private boolean parse() throws IOException {
+        int magic = get(0) & 0xFF;
+        if (magic != CC_MAGIC && magic != CC_MAGIC_2_BYTE_ADDRESS) {
+            return false;
+        }
+        int ccLength = get(2) == 0 ? 8 : 4;
+        cc = new byte[ccLength];
+        for (int i = 0; i < ccLength; i++) {
+            cc[i] = get(i);
+        }
+        int mlen = ccLength == 8 ? ((cc[6] & 0xFF) << 8) | (cc[7] & 0xFF) : cc[2] & 0xFF;
+        dataAreaEnd = ccLength + mlen * 8;
+        if (util != null) {
+            dataAreaEnd = Math.min(dataAreaEnd, util.getBlockNumber() * blockSize);
+        }
+        ndefTlvAddress = -1;
+        message = null;
+        int address = ccLength;
+        while (address < dataAreaEnd) {
+            int tlvAddress = address;
+            int type = get(address++) & 0xFF;
+            if (type == TLV_NULL) {
+                continue;
+            }
+            if (type == TLV_TERMINATOR) {
+                break;
+            }
+            int length = get(address++) & 0xFF;
+            if (length == 0xFF) {
+                length = ((get(address) & 0xFF) << 8) | (get(address + 1) & 0xFF);
+                address += 2;
+            }
+            if (address + length > dataAreaEnd) {
+                throw new IOException("TLV超出数据区: " + tlvAddress);
+            }
+            if (type == TLV_NDEF) {
+                // 一次读取消息跨越的所有block
+                ensure(address + length);
+                ndefTlvAddress = tlvAddress;
+                message = ByteBuffer.wrap(image, address, length).slice().asReadOnlyBuffer();
+                break;
+            }
+            address += length;
+        }
+        return true;
+    }
+
+    private byte get(int address) throws IOException {
+        ensure(address + 1);
+        return image[address];
+    }
+
+    /**
+     * 保证读取到end(不含)为止, 不足时按block补读
+     */
+    private void ensure(int end) throws IOException {
+        if (end <= image.length) {
+            return;
+        }
+        if (util == null) {
+            throw new IOException("标签内容不完整, 需要读取到地址" + end);
+        }
+        int first = image.length / blockSize;
+        int count = (end + blockSize - 1) / blockSize - first;
+        byte[] grown = new byte[(first + count) * blockSize];
+        System.arraycopy(image, 0, grown, 0, image.length);
+        BitSet status = new BitSet(count);
+        if (util.readBlocks(first, count, grown, first * blockSize, status) != count) {
+            throw new IOException("读取block失败: " + (first + status.nextClearBit(0)));
+        }
+        image = grown;
+    }
+
+    /**
+     * CC第2字节高4位为主次版本
+     */
+    public int getVersion() {
+        return (cc[1] >> 4) & 0x0F;
+    }
+
+    /**
+     * CC长度, 4或8字节
+     */
+    public int getCcLength() {
+        return cc.length;
+    }
+
+    /**
+     * TLV区字节数
+     */
+    public int getDataAreaSize() {
+        return dataAreaEnd - cc.length;
+    }
+
+    /**
+     * CC第2字节低2位为写入权限, 0时可写
+     */
+    public boolean isWritable() {
+        return (cc[1] & 0x03) == 0;
+    }
+
+    /**
+     * CC第4字节第0位: 标签支持Read Multiple Blocks
+     */
+    public boolean supportsReadMultiple() {
+        return (cc[3] & 0x01) != 0;
+    }
+
+    /**
+     * 是否找到NDEF TLV
+     */
+    public boolean hasMessage() {
+        return message != null;
+    }
+
+    /**
+     * NDEF TLV的字节地址, 没有时为-1
+     */
+    public int getNdefTlvAddress() {
+        return ndefTlvAddress;
+    }
+
+    public int getMessageLength() {
+        return message == null ? 0 : message.remaining();
+    }
+
+    /**
+     * NDEF消息的只读视图, 没有NDEF TLV时为null
+     */
+    public ByteBuffer getMessage() {
+        return message == null ? null : message.duplicate();
+    }
+
+    /**
+     * 消息的解析器, 没有NDEF TLV时为null
+     */
+    public NdefParser parser() {
+        return message == null ? null : new NdefParser(message.duplicate());
+    }
+
+    /**
+     * 最多能写入的NDEF消息字节数
+     */
+    public int getMaxMessageSize() {
+        int space = dataAreaEnd - tlvAddress() - 1;
+        // TLV头2或4字节
+        return space - 2 > 0xFE ? space - 4 : Math.max(0, space - 2);
+    }
+
+    /**
+     * 写入的位置, 没有NDEF TLV时为数据区开始
+     */
+    private int tlvAddress() {
+        return ndefTlvAddress >= 0 ? ndefTlvAddress : cc.length;
+    }
+
+    /**
+     * 写入NDEF消息, 替换原有的消息
+     * TLV写在原NDEF TLV的位置(没有时在数据区开始), 之后是终止符; 只写入覆盖新TLV的block,
+     * 已读取且内容不变的block不写入
+     *
+     * @param util    当前会话中的NfcVUtil
+     * @param message NdefBuilder.build()的结果
+     * @return 写入的block数量
+     * @throws IOException 标签只读, 空间不足或写入失败
+     */
+    public int write(NfcVUtil util, byte[] message) throws IOException {
+        if (!isWritable()) {
+            throw new IOException("标签只读");
+        }
+        if (message.length > getMaxMessageSize()) {
+            throw new IOException("标签容量不足: " + message.length + " > " + getMaxMessageSize());
+        }
+        int start = tlvAddress();
+        int headerLength = message.length > 0xFE ? 4 : 2;
+        int end = start + headerLength + message.length + 1;
+        int firstBlock = start / blockSize;
+        int lastBlock = (end - 1) / blockSize;
+        int length = (lastBlock - firstBlock + 1) * blockSize;
+        int base = firstBlock * blockSize;
+
+        // 已读取的部分作为标签当前内容, 其余block内容未知, 一律写入
+        byte[] known = new byte[length];
+        int knownLength = Math.max(0, Math.min(image.length - base, length));
+        System.arraycopy(image, base, known, 0, knownLength);
+        BitSet unknown = new BitSet();
+        unknown.set(knownLength / blockSize, length / blockSize);
+
+        byte[] desired = known.clone();
+        int p = start - base;
+        desired[p++] = TLV_NDEF;
+        if (headerLength == 4) {
+            desired[p++] = (byte) 0xFF;
+            desired[p++] = (byte) (message.length >> 8);
+            desired[p++] = (byte) message.length;
+        } else {
+            desired[p++] = (byte) message.length;
+        }
+        System.arraycopy(message, 0, desired, p, message.length);
+        desired[p + message.length] = (byte) TLV_TERMINATOR;
+
+        BitSet failed = new BitSet();
+        int written = util.syncBlocks(firstBlock, desired, known, unknown, failed);
+        if (!failed.isEmpty()) {
+            throw new IOException("写入block失败: " + (firstBlock + failed.nextSetBit(0)));
+        }
+        // 更新已读取的内容
+        if (image.length < base + length) {
+            byte[] grown = new byte[base + length];
+            System.arraycopy(image, 0, grown, 0, image.length);
+            image = grown;
+        }
+        System.arraycopy(desired, 0, image, base, length);
+        ndefTlvAddress = start;
+        this.message = ByteBuffer.wrap(image, start + headerLength, message.length).slice().asReadOnlyBuffer();
+        return written;
+    }
+}
@@ -0,0 +1,192 @@
+package de.androidcrypto.androidbasicnfcreader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * 按UID查找工牌角色(医生/护士)
+ * UID打包成long作为键, 保存在基本类型的开放寻址哈希表中, 查找不分配内存, 不需要转换16进制字符串.
+ * 角色表从二进制文件加载: 魔数, 版本, 条目数, 每个条目为UID键(8字节)和角色(1字节);
+ * 重新加载时在自己的后台线程中建立新表, 完成后整体替换, 查找和NFC线程都不会被阻塞
+ * 用法
+ * int role = UidRoleIndex.getInstance().getRole(tag.getId());
+ * UidRoleIndex.getInstance().reloadInBackground(file);
+ */
+public class UidRoleIndex {
+
+    public static final int ROLE_NONE = 0;
+    public static final int ROLE_DOCTOR = 1;
+    public static final int ROLE_NURSE = 2;
+
+    private static final int MAGIC = 0x55494452; // "UIDR"
+    private static final int VERSION = 1;
+    /**
+     * 文件头: 魔数, 版本, 条目数
+     */
+    private static final int HEADER_SIZE = 12;
+    private static final int ENTRY_SIZE = 9;
+
+    private static final String[] DEFAULT_DOCTORS = {"6EB00ABD", "BEFE07BD", "350B29C9", "D5AC27C9"};
+    private static final String[] DEFAULT_NURSES = {"AC4EC9A0", "A5F635C9"};
+
+    private static UidRoleIndex instance;
+    private static Executor defaultLoader;
+
+    private final Executor loader;
+    private volatile LongLongHashMap roles;
+    private long loadedModified = -1;
+    private long loadedLength = -1;
+
+    public UidRoleIndex(LongLongHashMap roles) {
+        this(roles, null);
+    }
+
+    /**
+     * @param loader 执行reloadInBackground, null时使用共用的后台线程
+     */
+    UidRoleIndex(LongLongHashMap roles, Executor loader) {
+        this.roles = roles;
+        this.loader = loader;
+    }
+
+    private static synchronized Executor defaultLoader() {
+        if (defaultLoader == null) {
+            defaultLoader = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "uid-roles");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return defaultLoader;
+    }
+
+    /**
+     * 应用共用的角色表, 角色文件加载之前使用内置的UID
+     */
+    public static synchronized UidRoleIndex getInstance() {
+        if (instance == null) {
+            LongLongHashMap defaults = new LongLongHashMap();
+            for (String uid : DEFAULT_DOCTORS) {
+                defaults.put(UidUtil.toLong(HexUtil.decode(uid)), ROLE_DOCTOR);
+            }
+            for (String uid : DEFAULT_NURSES) {
+                defaults.put(UidUtil.toLong(HexUtil.decode(uid)), ROLE_NURSE);
+            }
+            instance = new UidRoleIndex(defaults);
+        }
+        return instance;
+    }
+
+    /**
+     * 应用私有目录中的角色文件
+     */
+    public static File defaultFile() {
+        return new File(MyApplication.getInstance().getFilesDir(), "uid_roles.bin");
+    }
+
+    /**
+     * @param uid Tag.getId()
+     * @return 角色, 不在表中时为ROLE_NONE
+     */
+    public int getRole(byte[] uid) {
+        if (uid == null || uid.length < 1 || uid.length > 8) {
+            return ROLE_NONE;
+        }
+        return (int) roles.get(UidUtil.toLong(uid), ROLE_NONE);
+    }
+
+    public int size() {
+        return roles.size();
+    }
+
+    /**
+     * 在后台线程中调用reloadIfChanged, 加载失败时保留原来的表
+     */
+    public void reloadInBackground(File file) {
+        (loader != null ? loader : defaultLoader()).execute(() -> {
+            try {
+                reloadIfChanged(file);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * 文件自上次加载后有变化时重新加载, 在后台线程中调用
+     *
+     * @return 是否重新加载
+     */
+    public synchronized boolean reloadIfChanged(File file) throws IOException {
+        if (!file.isFile()) {
+            return false;
+        }
+        long modified = file.lastModified();
+        long length = file.length();
+        if (modified == loadedModified && length == loadedLength) {
+            return false;
+        }
+        roles = read(file);
+        loadedModified = modified;
+        loadedLength = length;
+        return true;
+    }
+
+    /**
+     * 读取角色文件
+     *
+     * @throws IOException 文件格式错误, 或条目数与文件长度不符
+     */
+    public static LongLongHashMap read(File file) throws IOException {
+        long length = file.length();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("角色文件格式错误 " + file);
+            }
+            int count = in.readInt();
+            // 按条目数分配哈希表之前先与文件长度核对, 损坏的条目数不能导致分配过大的内存
+            if (count < 0 || HEADER_SIZE + (long) count * ENTRY_SIZE != length) {
+                throw new IOException("角色文件条目数 " + count + " 与文件长度 " + length + " 不符 " + file);
+            }
+            LongLongHashMap map = new LongLongHashMap(count);
+            for (int i = 0; i < count; i++) {
+                long key = in.readLong();
+                map.put(key, in.readUnsignedByte());
+            }
+            return map;
+        } catch (EOFException e) {
+            throw new IOException("角色文件不完整 " + file, e);
+        }
+    }
+
+    /**
+     * 写入角色文件, 先写临时文件再替换, 读取方不会看到写了一半的文件
+     *
+     * @param uids  UID键, 由UidUtil.toLong生成
+     * @param roles 与uids对应的角色
+     */
+    public static void write(File file, long[] uids, int[] roles) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 64 * 1024))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(uids.length);
+            for (int i = 0; i < uids.length; i++) {
+                out.writeLong(uids[i]);
+                out.writeByte(roles[i]);
+            }
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("无法替换角色文件 " + file);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package de.androidcrypto.androidbasicnfcreader;
+
+/**
+ * 标签UID与long之间的转换, 用作基本类型哈希表的键, 查找时不需要生成16进制字符串
+ * 按Tag.getId()的顺序从低字节开始存放; 4字节和7字节UID在最高字节保存长度,
+ * 8字节UID(ISO 15693, 最后一个字节为E0)占满64位, 最高字节不会是1到7, 与短UID不会冲突
+ * 用法
+ * long key = UidUtil.toLong(tag.getId());
+ */
+public class UidUtil {
+
+    private UidUtil() {
+    }
+
+    /**
+     * @param uid 与Tag.getId()相同顺序的1到8字节UID
+     * @return 打包后的long
+     * @throws IllegalArgumentException UID超过8字节
+     */
+    public static long toLong(byte[] uid) {
+        return toLong(uid, 0, uid.length);
+    }
+
+    public static long toLong(byte[] uid, int off, int len) {
+        if (len < 1 || len > 8) {
+            throw new IllegalArgumentException("UID长度必须为1到8字节: " + len);
+        }
+        // 按Tag.getId()的顺序从低字节开始, ISO 15693的E0落在最高字节
+        long value = 0;
+        for (int i = 0; i < len; i++) {
+            value |= (long) (uid[off + i] & 0xFF) << (8 * i);
+        }
+        return len == 8 ? value : (long) len << 56 | value;
+    }
+
+    /**
+     * toLong的逆运算
+     */
+    public static byte[] toBytes(long key) {
+        int len = (int) (key >>> 56);
+        if (len == 0 || len >= 8) {
+            len = 8;
+        }
+        byte[] uid = new byte[len];
+        for (int i = 0; i < len; i++) {
+            uid[i] = (byte) (key >>> (8 * i));
+        }
+        return uid;
+    }
+}
@@ -0,0 +1,256 @@
+package de.androidcrypto.androidbasicnfcreader;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 帧记录和回放
+ */
+public class FrameTraceTest {
+
+    private static final byte[] UID = {1, 2, 3, 4, 5, 6, 7, (byte) 0xE0};
+
+    @Before
+    public void setUp() {
+        FrameTrace.getInstance().clear();
+    }
+
+    private static List<TraceReplay.Session> replay() throws IOException {
+        byte[] file = FrameTrace.getInstance().toByteArray();
+        return TraceReplay.sessions(FrameTrace.read(new ByteArrayInputStream(file)));
+    }
+
+    private static byte[] readAll(TagSession session, int blocks) throws IOException {
+        byte[] image = new byte[blocks * 4];
+        session.execute(() -> session.nfcV().readBlocks(0, blocks, image, 0, new BitSet()));
+        return image;
+    }
+
+    @Test
+    public void nfcV_replaysSameImage() throws Exception {
+        SimulatedNfcVTag tag = new SimulatedNfcVTag(UID, 64, 4);
+        for (int i = 0; i < tag.getMemory().length; i++) {
+            tag.getMemory()[i] = (byte) (i * 7);
+        }
+        tag.setReadMultiple(true, 16);
+        byte[] recorded = readAll(new TagSession(UID, tech -> tech == TagSession.Tech.NFC_V ? tag : null), 64);
+
+        List<TraceReplay.Session> sessions = replay();
+        assertEquals(1, sessions.size());
+        TraceReplay.Session replay = sessions.get(0);
+        assertArrayEquals(UID, replay.getId());
+        assertNull(replay.open(TagSession.Tech.MIFARE_CLASSIC));
+        assertArrayEquals(recorded, readAll(replay.newTagSession(), 64));
+        assertTrue(replay.isFinished());
+    }
+
+    @Test
+    public void classicDump_replaysWithSameKeyringState() throws Exception {
+        SimulatedMifareClassicTag tag = new SimulatedMifareClassicTag(new byte[]{1, 2, 3, 4}, SimulatedMifareClassicTag.SIZE_1K);
+        tag.setSectorKeys(3, MifareClassicKeyring.KEY_NFC_FORUM, MifareClassicKeyring.KEY_NFC_FORUM);
+        TagSession recordedSession = new TagSession(tag.getId(), tech -> tech == TagSession.Tech.MIFARE_CLASSIC ? tag : null);
+        MifareClassicDump recorded = MifareClassicDump.read(recordedSession, new MifareClassicKeyring());
+
+        TraceReplay.Session replay = replay().get(0);
+        MifareClassicDump replayed = MifareClassicDump.read(replay.newTagSession(), new MifareClassicKeyring());
+        // 记录中扇区尾块的密钥为0
+        assertArrayEquals(redactTrailers(recorded.getImage()), redactTrailers(replayed.getImage()));
+        assertEquals(recorded.getAuthentications(), replayed.getAuthentications());
+        assertTrue(replay.isFinished());
+    }
+
+    @Test
+    public void tagLost_isReproduced() throws Exception {
+        SimulatedNfcVTag tag = new SimulatedNfcVTag(UID, 16, 4);
+        tag.failAtFrame(2, true);
+        try {
+            readAll(new TagSession(UID, tech -> tag), 16);
+            fail();
+        } catch (TagLossException expected) {
+        }
+        try {
+            readAll(replay().get(0).newTagSession(), 16);
+            fail();
+        } catch (TagLossException expected) {
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void differentCommand_divergesFromTrace() throws Exception {
+        SimulatedNfcVTag tag = new SimulatedNfcVTag(UID, 16, 4);
+        TagSession session = new TagSession(UID, tech -> tag);
+        session.execute(() -> session.nfcV().readBlocks(0, 1));
+        TagSession replayed = replay().get(0).newTagSession();
+        replayed.execute(() -> replayed.nfcV().readBlocks(1, 1));
+    }
+
+    private static boolean contains(byte[] data, byte[] part) {
+        outer:
+        for (int i = 0; i + part.length <= data.length; i++) {
+            for (int j = 0; j < part.length; j++) {
+                if (data[i + j] != part[j]) {
+                    continue outer;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    @Test
+    public void pwdAuth_isRedactedAndReplays() throws Exception {
+        SimulatedTag tag = new SimulatedTag(new byte[]{4, 1, 2, 3, 4, 5, 6}) {
+            @Override
+            protected byte[] process(byte[] cmd) {
+                return cmd[0] == 0x1B ? new byte[]{(byte) 0x80, (byte) 0x80} : null;
+            }
+        };
+        byte[] password = {0x12, 0x34, 0x56, 0x78};
+        byte[] pwdAuth = {0x1B, 0x12, 0x34, 0x56, 0x78};
+        TagSession session = new TagSession(tag.getId(), tech -> tech == TagSession.Tech.NFC_A ? tag : null);
+        session.execute(() -> session.connect(TagSession.Tech.NFC_A).transceive(pwdAuth));
+
+        assertFalse(contains(FrameTrace.getInstance().toByteArray(), password));
+        TraceReplay.Session replay = replay().get(0);
+        TagSession replayed = replay.newTagSession();
+        byte[] pack = replayed.execute(() -> replayed.connect(TagSession.Tech.NFC_A).transceive(pwdAuth));
+        assertArrayEquals(new byte[]{(byte) 0x80, (byte) 0x80}, pack);
+        assertTrue(replay.isFinished());
+    }
+
+    @Test
+    public void sectorTrailerWrite_isRedactedAndReplays() throws Exception {
+        SimulatedMifareClassicTag tag = new SimulatedMifareClassicTag(new byte[]{1, 2, 3, 4}, SimulatedMifareClassicTag.SIZE_1K);
+        byte[] keyA = {0x11, 0x12, 0x13, 0x14, 0x15, 0x16};
+        byte[] keyB = {0x21, 0x22, 0x23, 0x24, 0x25, 0x26};
+        byte[] access = {(byte) 0xFF, 0x07, (byte) 0x80, 0x69};
+        byte[] trailer = new byte[16];
+        System.arraycopy(keyA, 0, trailer, 0, 6);
+        System.arraycopy(access, 0, trailer, 6, 4);
+        System.arraycopy(keyB, 0, trailer, 10, 6);
+        byte[] data = new byte[16];
+        Arrays.fill(data, (byte) 0x5A);
+        TagSession session = new TagSession(tag.getId(), tech -> tech == TagSession.Tech.MIFARE_CLASSIC ? tag : null);
+        session.execute(() -> {
+            MifareClassicTransport mfc = (MifareClassicTransport) session.connect(TagSession.Tech.MIFARE_CLASSIC);
+            assertTrue(mfc.authenticateSectorWithKeyA(1, MifareClassicKeyring.KEY_DEFAULT));
+            mfc.writeBlock(4, data);
+            mfc.writeBlock(7, trailer);
+            return null;
+        });
+
+        byte[] file = FrameTrace.getInstance().toByteArray();
+        assertFalse(contains(file, keyA));
+        assertFalse(contains(file, keyB));
+        assertTrue(contains(file, access));
+        assertTrue(contains(file, data));
+        TraceReplay.Session replay = replay().get(0);
+        TagSession replayed = replay.newTagSession();
+        replayed.execute(() -> {
+            MifareClassicTransport mfc = (MifareClassicTransport) replayed.connect(TagSession.Tech.MIFARE_CLASSIC);
+            assertTrue(mfc.authenticateSectorWithKeyA(1, MifareClassicKeyring.KEY_DEFAULT));
+            mfc.writeBlock(4, data);
+            mfc.writeBlock(7, trailer);
+            return null;
+        });
+        assertTrue(replay.isFinished());
+    }
+
+    private static byte[] redactTrailers(byte[] image) {
+        byte[] out = image.clone();
+        for (int block = 0; block < image.length / 16; block++) {
+            byte[] redacted = FrameTrace.redactBlock(block, Arrays.copyOfRange(image, block * 16, block * 16 + 16));
+            System.arraycopy(redacted, 0, out, block * 16, 16);
+        }
+        return out;
+    }
+
+    @Test
+    public void sectorTrailerRead_isRedacted() throws Exception {
+        SimulatedMifareClassicTag tag = new SimulatedMifareClassicTag(new byte[]{1, 2, 3, 4}, SimulatedMifareClassicTag.SIZE_1K);
+        byte[] keyB = {0x21, 0x22, 0x23, 0x24, 0x25, 0x26};
+        tag.setSectorKeys(1, MifareClassicKeyring.KEY_DEFAULT, keyB);
+        TagSession session = new TagSession(tag.getId(), tech -> tech == TagSession.Tech.MIFARE_CLASSIC ? tag : null);
+        byte[][] read = session.execute(() -> {
+            MifareClassicTransport mfc = (MifareClassicTransport) session.connect(TagSession.Tech.MIFARE_CLASSIC);
+            assertTrue(mfc.authenticateSectorWithKeyA(1, MifareClassicKeyring.KEY_DEFAULT));
+            return new byte[][]{mfc.readBlock(7), mfc.transceive(new byte[]{0x30, 7})};
+        });
+        assertTrue(contains(read[0], keyB));
+        assertTrue(contains(read[1], keyB));
+
+        byte[] file = FrameTrace.getInstance().toByteArray();
+        assertFalse(contains(file, keyB));
+        TraceReplay.Session replay = replay().get(0);
+        TagSession replayed = replay.newTagSession();
+        byte[][] replayedRead = replayed.execute(() -> {
+            MifareClassicTransport mfc = (MifareClassicTransport) replayed.connect(TagSession.Tech.MIFARE_CLASSIC);
+            assertTrue(mfc.authenticateSectorWithKeyA(1, MifareClassicKeyring.KEY_DEFAULT));
+            return new byte[][]{mfc.readBlock(7), mfc.transceive(new byte[]{0x30, 7})};
+        });
+        assertArrayEquals(FrameTrace.redactBlock(7, read[0]), replayedRead[0]);
+        assertArrayEquals(FrameTrace.redactBlock(7, read[1]), replayedRead[1]);
+        assertTrue(replay.isFinished());
+    }
+
+    @Test
+    public void ntagPasswordPageWrite_isRedacted() {
+        byte[] password = {0x12, 0x34, 0x56, 0x78};
+        for (int page : new int[]{0x12, 0x13, 0x27, 0x28, 0x2B, 0x2C, 0x85, 0x86, 0xE5, 0xE6}) {
+            byte[] cmd = {(byte) 0xA2, (byte) page, 0x12, 0x34, 0x56, 0x78};
+            byte[] redacted = FrameTrace.redactCommand(TagSession.Tech.MIFARE_ULTRALIGHT, cmd);
+            assertFalse(contains(redacted, password));
+            assertEquals(page, redacted[1] & 0xFF);
+        }
+        byte[] data = {(byte) 0xA2, 0x04, 0x12, 0x34, 0x56, 0x78};
+        assertSame(data, FrameTrace.redactCommand(TagSession.Tech.MIFARE_ULTRALIGHT, data));
+        assertSame(data, FrameTrace.redactCommand(TagSession.Tech.NFC_V, data));
+    }
+
+    @Test
+    public void redactBlock_masksOnlySectorTrailers() {
+        byte[] block = new byte[16];
+        Arrays.fill(block, (byte) 0x33);
+        assertSame(block, FrameTrace.redactBlock(4, block));
+        assertSame(block, FrameTrace.redactBlock(131, block));
+        assertNotSame(block, FrameTrace.redactBlock(3, block));
+        assertNotSame(block, FrameTrace.redactBlock(127, block));
+        // 4K的后8个扇区每扇区16块
+        assertNotSame(block, FrameTrace.redactBlock(143, block));
+        assertNotSame(block, FrameTrace.redactBlock(255, block));
+        byte[] redacted = FrameTrace.redactBlock(3, block);
+        assertEquals(0, redacted[5]);
+        assertEquals(0x33, redacted[6]);
+        assertEquals(0x33, redacted[9]);
+        assertEquals(0, redacted[10]);
+    }
+
+    @Test
+    public void fullRing_dropsOldestRecords() throws Exception {
+        FrameTrace trace = new FrameTrace(200);
+        byte[] frame = new byte[10];
+        for (int i = 0; i < 20; i++) {
+            frame[0] = (byte) i;
+            trace.record(FrameTrace.OP_TRANSCEIVE, TagSession.Tech.NFC_A, FrameTrace.STATUS_OK, 0, 0, 1000,
+                    frame, frame.length, frame, 1);
+        }
+        assertTrue(trace.getDroppedCount() > 0);
+        List<FrameTrace.Frame> frames = FrameTrace.read(new ByteArrayInputStream(trace.toByteArray()));
+        assertEquals(trace.getRecordCount(), frames.size());
+        FrameTrace.Frame last = frames.get(frames.size() - 1);
+        assertEquals(19, last.data1[0]);
+        assertEquals(1, last.data2.length);
+        assertEquals(1, last.durationMicros);
+        for (int i = 1; i < frames.size(); i++) {
+            assertEquals(frames.get(i - 1).data1[0] + 1, frames.get(i).data1[0]);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package de.androidcrypto.androidbasicnfcreader;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * HexUtil的编码和严格解码
+ */
+public class HexUtilTest {
+
+    private static final byte[] DATA = {0x00, 0x0A, (byte) 0xB1, (byte) 0xFF};
+
+    @Test
+    public void toHexString_caseAndSeparator() {
+        assertEquals("000AB1FF", HexUtil.toHexString(DATA));
+        assertEquals("0a b1", HexUtil.toHexString(DATA, 1, 2, true, ' '));
+        assertEquals("", HexUtil.toHexString(null));
+    }
+
+    @Test
+    public void encode_intoCallerBuffers() {
+        char[] chars = new char[10];
+        assertEquals(10, HexUtil.encode(DATA, 0, 4, chars, 2, false, HexUtil.NO_SEPARATOR));
+        assertEquals("000AB1FF", new String(chars, 2, 8));
+
+        ByteBuffer buffer = ByteBuffer.allocate(11);
+        HexUtil.encode(DATA, 0, 4, buffer, true, ':');
+        assertEquals("00:0a:b1:ff", new String(buffer.array(), StandardCharsets.US_ASCII));
+
+        StringBuilder sb = new StringBuilder("0x");
+        assertEquals("0x000ab1ff", HexUtil.append(sb, DATA, 0, 4, true, HexUtil.NO_SEPARATOR).toString());
+    }
+
+    @Test
+    public void decode_roundTrip() {
+        assertArrayEquals(DATA, HexUtil.decode("000ab1FF"));
+        assertArrayEquals(new byte[0], HexUtil.decode(""));
+        byte[] dst = new byte[3];
+        assertEquals(2, HexUtil.decode("xxB1FF", 2, 4, dst, 1));
+        assertArrayEquals(new byte[]{0, (byte) 0xB1, (byte) 0xFF}, dst);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decode_rejectsOddLength() {
+        HexUtil.decode("ABC");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decode_rejectsInvalidCharacter() {
+        HexUtil.decode("0G");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decode_rejectsPrefix() {
+        HexUtil.decode("0x0A");
+    }
+}
@@ -0,0 +1,66 @@
+package de.androidcrypto.androidbasicnfcreader;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * LogSink的行数/字符数上限和按帧合并刷新
+ */
+public class LogSinkTest {
+
+    private final List<Runnable> frames = new ArrayList<>();
+    private final List<CharSequence> shown = new ArrayList<>();
+
+    private LogSink sink(int maxLines, int maxChars) {
+        return new LogSink(maxLines, maxChars, shown::add, frames::add);
+    }
+
+    @Test
+    public void log_flushesOncePerFrame() {
+        LogSink sink = sink(10, 1000);
+        sink.log("a");
+        sink.log("b");
+        sink.log("c");
+        assertEquals(1, frames.size());
+        frames.remove(0).run();
+        assertEquals(1, shown.size());
+        assertEquals("a\nb\nc\n", shown.get(0).toString());
+
+        sink.log("d");
+        assertEquals(1, frames.size());
+    }
+
+    @Test
+    public void log_dropsOldestLines() {
+        LogSink sink = sink(3, 1000);
+        sink.log("1\n2\n3\n4\n");
+        assertEquals(3, sink.getLineCount());
+        assertEquals("2\n3\n4\n", sink.getText());
+    }
+
+    @Test
+    public void log_capsRetainedCharacters() {
+        LogSink sink = sink(100, 10);
+        sink.log("abcd");
+        sink.log("efgh");
+        sink.log("ijkl");
+        assertEquals("efgh\nijkl\n", sink.getText());
+        sink.log("0123456789abcdef");
+        assertEquals("0123456789\n", sink.getText());
+    }
+
+    @Test
+    public void close_stopsFlushing() {
+        LogSink sink = sink(10, 1000);
+        sink.log("a");
+        sink.close();
+        frames.remove(0).run();
+        sink.log("b");
+        assertTrue(shown.isEmpty());
+        assertTrue(frames.isEmpty());
+    }
+}
@@ -0,0 +1,83 @@
+package de.androidcrypto.androidbasicnfcreader;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * MifareClassicDump在模拟的1K/4K卡片上整卡读取
+ */
+public class MifareClassicDumpTest {
+
+    private static final byte[] KEY_UNKNOWN = {6, 5, 4, 3, 2, 1};
+
+    private static TagSession session(SimulatedMifareClassicTag tag) {
+        return new TagSession(tag.getId(), tech -> tech == TagSession.Tech.MIFARE_CLASSIC ? tag : null);
+    }
+
+    @Test
+    public void read_1k_authenticatesOncePerSector() throws Exception {
+        SimulatedMifareClassicTag tag = new SimulatedMifareClassicTag(new byte[]{1, 2, 3, 4}, SimulatedMifareClassicTag.SIZE_1K);
+        tag.getMemory()[17] = 0x42;
+        MifareClassicDump dump = MifareClassicDump.read(session(tag), new MifareClassicKeyring());
+        assertEquals(16, dump.getAuthentications());
+        // 16次认证 + 64块
+        assertEquals(16 + 64, tag.getFrameCount());
+        assertArrayEquals(tag.getMemory(), dump.getImage());
+        for (int sector = 0; sector < 16; sector++) {
+            assertEquals(MifareClassicDump.SECTOR_OK, dump.getSectorStatus(sector));
+        }
+    }
+
+    @Test
+    public void read_4k_readsSixteenBlockSectors() throws Exception {
+        SimulatedMifareClassicTag tag = new SimulatedMifareClassicTag(new byte[]{1, 2, 3, 4}, SimulatedMifareClassicTag.SIZE_4K);
+        tag.getMemory()[4095 - 16] = 0x42;
+        MifareClassicDump dump = MifareClassicDump.read(session(tag), new MifareClassicKeyring());
+        assertEquals(40, dump.getSectorCount());
+        assertEquals(40, dump.getAuthentications());
+        assertEquals(16, dump.getBlockCountInSector(39));
+        assertEquals(240, dump.getFirstBlock(39));
+        assertArrayEquals(tag.getMemory(), dump.getImage());
+    }
+
+    @Test
+    public void read_reportsSectorsWithoutKey() throws Exception {
+        SimulatedMifareClassicTag tag = new SimulatedMifareClassicTag(new byte[]{1, 2, 3, 4}, SimulatedMifareClassicTag.SIZE_1K);
+        tag.setSectorKeys(2, KEY_UNKNOWN, KEY_UNKNOWN);
+        MifareClassicDump dump = MifareClassicDump.read(session(tag), new MifareClassicKeyring());
+        assertEquals(MifareClassicDump.SECTOR_AUTH_FAILED, dump.getSectorStatus(2));
+        assertNull(dump.getKey(2));
+        assertFalse(dump.isBlockRead(8));
+        assertEquals(MifareClassicDump.SECTOR_OK, dump.getSectorStatus(3));
+    }
+
+    @Test
+    public void read_skipsBlocksWithoutReadPermission() throws Exception {
+        SimulatedMifareClassicTag tag = new SimulatedMifareClassicTag(new byte[]{1, 2, 3, 4}, SimulatedMifareClassicTag.SIZE_1K);
+        // 扇区1第0块只能用KeyB读
+        byte[] access = MifareClassicDump.Trailer.encodeAccessBits(new int[]{0b011, 0, 0, 0b001});
+        System.arraycopy(access, 0, tag.getMemory(), 7 * 16 + 6, 3);
+        MifareClassicDump dump = MifareClassicDump.read(session(tag), new MifareClassicKeyring());
+        assertEquals(MifareClassicDump.SECTOR_PARTIAL, dump.getSectorStatus(1));
+        assertFalse(dump.isBlockRead(4));
+        assertTrue(dump.isBlockRead(5));
+    }
+
+    @Test
+    public void trailer_decodesTransportAccessBits() {
+        byte[] trailer = new byte[16];
+        trailer[6] = (byte) 0xFF;
+        trailer[7] = 0x07;
+        trailer[8] = (byte) 0x80;
+        MifareClassicDump.Trailer parsed = MifareClassicDump.Trailer.parse(trailer, 0);
+        assertTrue(parsed.isValid());
+        assertEquals(0, parsed.getCondition(0));
+        assertEquals(0b001, parsed.getCondition(3));
+        assertArrayEquals(new byte[]{(byte) 0xFF, 0x07, (byte) 0x80},
+                MifareClassicDump.Trailer.encodeAccessBits(new int[]{0, 0, 0, 0b001}));
+
+        trailer[6] = 0;
+        assertFalse(MifareClassicDump.Trailer.parse(trailer, 0).isValid());
+    }
+}
@@ -0,0 +1,64 @@
+package de.androidcrypto.androidbasicnfcreader;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * MifareClassicKeyring在模拟卡片上记住成功的密钥并调整字典顺序
+ */
+public class MifareClassicKeyringTest {
+
+    private static final byte[] KEY_CUSTOM = {1, 2, 3, 4, 5, 6};
+    private static final byte[] KEY_OTHER = {6, 5, 4, 3, 2, 1};
+
+    private static TagSession session(SimulatedMifareClassicTag tag) {
+        return new TagSession(tag.getId(), tech -> tech == TagSession.Tech.MIFARE_CLASSIC ? tag : null);
+    }
+
+    @Test
+    public void authenticate_triesKeyBAfterAllKeyA() throws Exception {
+        SimulatedMifareClassicTag tag = new SimulatedMifareClassicTag(new byte[]{1, 2, 3, 4}, SimulatedMifareClassicTag.SIZE_1K);
+        tag.setSectorKeys(1, KEY_OTHER, MifareClassicKeyring.KEY_NFC_FORUM);
+        MifareClassicKeyring keyring = new MifareClassicKeyring();
+        MifareClassicKeyring.Match match = keyring.authenticate(session(tag), 1);
+        assertNotNull(match);
+        assertTrue(match.keyB);
+        assertArrayEquals(MifareClassicKeyring.KEY_NFC_FORUM, match.key.getValue());
+    }
+
+    @Test
+    public void authenticate_remembersKeyPerCardAndSector() throws Exception {
+        SimulatedMifareClassicTag tag = new SimulatedMifareClassicTag(new byte[]{1, 2, 3, 4}, SimulatedMifareClassicTag.SIZE_1K);
+        tag.setSectorKeys(3, KEY_CUSTOM, KEY_CUSTOM);
+        MifareClassicKeyring keyring = new MifareClassicKeyring();
+        keyring.addKey(KEY_CUSTOM);
+        assertNotNull(keyring.authenticate(session(tag), 3));
+
+        // 新会话(重新贴卡)只需一次认证
+        tag.resetFrameCount();
+        MifareClassicKeyring.Match match = keyring.authenticate(session(tag), 3);
+        assertArrayEquals(KEY_CUSTOM, match.key.getValue());
+        assertEquals(1, tag.getFrameCount());
+    }
+
+    @Test
+    public void authenticate_unknownKeyFails() throws Exception {
+        SimulatedMifareClassicTag tag = new SimulatedMifareClassicTag(new byte[]{1, 2, 3, 4}, SimulatedMifareClassicTag.SIZE_1K);
+        tag.setSectorKeys(0, KEY_OTHER, KEY_OTHER);
+        assertNull(new MifareClassicKeyring().authenticate(session(tag), 0));
+    }
+
+    @Test
+    public void dictionary_isOrderedByHitRate() throws Exception {
+        MifareClassicKeyring keyring = new MifareClassicKeyring();
+        keyring.addKey(KEY_CUSTOM);
+        for (int i = 0; i < 3; i++) {
+            SimulatedMifareClassicTag tag = new SimulatedMifareClassicTag(new byte[]{1, 2, 3, (byte) i}, SimulatedMifareClassicTag.SIZE_1K);
+            tag.setSectorKeys(0, KEY_CUSTOM, KEY_CUSTOM);
+            assertNotNull(keyring.authenticate(session(tag), 0));
+        }
+        assertArrayEquals(KEY_CUSTOM, keyring.getDictionary().get(0).getValue());
+        assertEquals(3, keyring.getDictionary().get(0).getHits());
+    }
+}
@@ -0,0 +1,69 @@
+package de.androidcrypto.androidbasicnfcreader;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * MifareUltralightBuffer在模拟NTAG213上合并写入
+ */
+public class MifareUltralightBufferTest {
+
+    private static final byte[] UID = {0x04, 0x11, 0x22, 0x33, 0x44, 0x55, 0x66};
+
+    private SimulatedUltralightTag tag;
+    private MifareUltralightUtil util;
+
+    @Before
+    public void setUp() throws Exception {
+        tag = new SimulatedUltralightTag(UID, SimulatedUltralightTag.Type.NTAG213);
+        util = new MifareUltralightUtil(tag);
+        util.connect();
+    }
+
+    @Test
+    public void flush_writesEachChangedPageOnce() throws Exception {
+        MifareUltralightBuffer buffer = MifareUltralightBuffer.load(UID, util);
+        for (int address = 16; address < 24; address++) {
+            buffer.set(address, (byte) address);
+        }
+        buffer.set(40, (byte) 0);
+        buffer.set(100, (byte) 1);
+        assertEquals(3, buffer.getDirtyPageCount());
+        tag.resetFrameCount();
+        assertEquals(3, buffer.flush(util));
+        assertEquals(3, tag.getFrameCount());
+        assertEquals(23, tag.getMemory()[23]);
+        assertEquals(1, tag.getMemory()[100]);
+        assertEquals(0, buffer.flush(util));
+    }
+
+    @Test
+    public void set_sameValue_isNotWritten() throws Exception {
+        tag.getMemory()[16] = 0x42;
+        MifareUltralightBuffer buffer = MifareUltralightBuffer.load(UID, util);
+        buffer.set(16, (byte) 0x42);
+        assertEquals(0, buffer.getDirtyPageCount());
+    }
+
+    @Test
+    public void put_rejectsLockAndConfigPages() throws Exception {
+        MifareUltralightBuffer buffer = MifareUltralightBuffer.load(UID, util);
+        assertFalse(buffer.isWritable(3));
+        assertTrue(buffer.isWritable(39));
+        assertFalse(buffer.isWritable(40));
+        try {
+            buffer.set(12, (byte) 0);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            buffer.put(156, new byte[8], 0, 8);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        // 被拒绝的写入不修改缓冲
+        assertEquals(0, buffer.getDirtyPageCount());
+    }
+}
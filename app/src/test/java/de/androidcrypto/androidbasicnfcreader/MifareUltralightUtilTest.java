@@ -0,0 +1,88 @@
+package de.androidcrypto.androidbasicnfcreader;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * MifareUltralightUtil在模拟标签上识别容量并整卡读取
+ */
+public class MifareUltralightUtilTest {
+
+    private static final byte[] UID = {0x04, 0x11, 0x22, 0x33, 0x44, 0x55, 0x66};
+
+    private static MifareUltralightUtil connect(SimulatedUltralightTag tag) throws Exception {
+        MifareUltralightUtil util = new MifareUltralightUtil(tag);
+        util.connect();
+        return util;
+    }
+
+    @Test
+    public void ntag216_readsWholeMemoryInFewFrames() throws Exception {
+        SimulatedUltralightTag tag = new SimulatedUltralightTag(UID, SimulatedUltralightTag.Type.NTAG216);
+        Arrays.fill(tag.getMemory(), 16, 200, (byte) 0x5A);
+        MifareUltralightUtil util = connect(tag);
+        assertEquals(231, util.getPageCount());
+        assertEquals("NTAG216", util.getProductName());
+        assertArrayEquals(tag.getMemory(), util.readPages(0, util.getPageCount()));
+        // GET_VERSION + 4帧FAST_READ(每帧最多63页)
+        assertEquals(5, tag.getFrameCount());
+    }
+
+    @Test
+    public void ultralight_withoutGetVersion_fallsBackToRead() throws Exception {
+        SimulatedUltralightTag tag = new SimulatedUltralightTag(UID, SimulatedUltralightTag.Type.ULTRALIGHT);
+        tag.getMemory()[63] = 0x42;
+        MifareUltralightUtil util = connect(tag);
+        assertNull(util.getVersion());
+        assertFalse(util.supportsFastRead());
+        assertEquals(16, util.getPageCount());
+        assertArrayEquals(tag.getMemory(), util.readPages(0, 16));
+        assertTrue(tag.isConnected());
+    }
+
+    @Test
+    public void readPages_partialRange() throws Exception {
+        SimulatedUltralightTag tag = new SimulatedUltralightTag(UID, SimulatedUltralightTag.Type.NTAG213);
+        for (int i = 0; i < tag.getMemory().length; i++) {
+            tag.getMemory()[i] = (byte) i;
+        }
+        byte[] pages = connect(tag).readPages(5, 3);
+        assertArrayEquals(Arrays.copyOfRange(tag.getMemory(), 20, 32), pages);
+    }
+
+    private static int userPageEnd(SimulatedUltralightTag.Type type) throws Exception {
+        SimulatedUltralightTag tag = new SimulatedUltralightTag(UID, type);
+        int end = connect(tag).getUserPageEnd();
+        assertEquals(4 + tag.getUserPageCount(), end);
+        return end;
+    }
+
+    @Test
+    public void ntag210_userAreaEndsBeforeConfigPages() throws Exception {
+        // NTAG210没有动态锁定页, 第16页起就是配置页
+        assertEquals(16, userPageEnd(SimulatedUltralightTag.Type.NTAG210));
+    }
+
+    @Test
+    public void ntag212_userAreaEndsBeforeDynamicLock() throws Exception {
+        assertEquals(36, userPageEnd(SimulatedUltralightTag.Type.NTAG212));
+    }
+
+    @Test
+    public void ntag213_userAreaEndsBeforeDynamicLock() throws Exception {
+        assertEquals(40, userPageEnd(SimulatedUltralightTag.Type.NTAG213));
+    }
+
+    @Test
+    public void ntag215_userAreaEndsBeforeDynamicLock() throws Exception {
+        assertEquals(130, userPageEnd(SimulatedUltralightTag.Type.NTAG215));
+    }
+
+    @Test
+    public void ntag216_userAreaEndsBeforeDynamicLock() throws Exception {
+        assertEquals(226, userPageEnd(SimulatedUltralightTag.Type.NTAG216));
+    }
+}
@@ -0,0 +1,40 @@
+package de.androidcrypto.androidbasicnfcreader;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * NdefActivity.describe对标签上格式错误的数据不抛出异常
+ */
+public class NdefActivityTest {
+
+    @Test
+    public void describe_malformedTextRecord_showsPlaceholderAndNextRecord() {
+        byte[] message = {
+                // 文本记录, 负载为空
+                (byte) 0x91, 0x01, 0x00, 'T',
+                // URI记录 https://ex.com
+                0x51, 0x01, 0x07, 'U', 0x04, 'e', 'x', '.', 'c', 'o', 'm'
+        };
+        String text = NdefActivity.describe(ByteBuffer.wrap(message));
+        String[] lines = text.split("\n");
+        assertEquals(2, lines.length);
+        assertTrue(lines[0].startsWith("[格式错误的记录"));
+        assertEquals("https://ex.com", lines[1]);
+    }
+
+    @Test
+    public void describe_languageLengthBeyondPayload_showsPlaceholder() {
+        byte[] message = {(byte) 0xD1, 0x01, 0x02, 'T', 0x3F, 'e'};
+        assertTrue(NdefActivity.describe(ByteBuffer.wrap(message)).startsWith("[格式错误的记录"));
+    }
+
+    @Test
+    public void describe_truncatedMessage_reportsFormatError() {
+        byte[] message = {(byte) 0xD1, 0x01, 0x10, 'T', 0x02, 'e', 'n'};
+        assertTrue(NdefActivity.describe(ByteBuffer.wrap(message)).startsWith("[NDEF 格式错误"));
+    }
+}
@@ -0,0 +1,80 @@
+package de.androidcrypto.androidbasicnfcreader;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * NDEF消息构建
+ */
+public class NdefBuilderTest {
+
+    @Test
+    public void sizeIsExact_andRoundTrips() {
+        byte[] big = new byte[1000];
+        NdefBuilder builder = new NdefBuilder()
+                .addText("温度 23℃ 😀", "zh")
+                .addUri("https://www.example.com/p?q=1")
+                .addMime("application/octet-stream", big)
+                .addRecord(NdefParser.TNF_EXTERNAL_TYPE, "example.com:t".getBytes(StandardCharsets.US_ASCII),
+                        new byte[]{7}, new byte[]{1, 2});
+        byte[] message = builder.build();
+        assertEquals(builder.getEncodedSize(), message.length);
+
+        NdefParser parser = new NdefParser(ByteBuffer.wrap(message));
+        assertTrue(parser.next());
+        assertEquals("温度 23℃ 😀", parser.getText());
+        assertEquals("zh", parser.getLanguage());
+        assertTrue(parser.next());
+        assertEquals("https://www.example.com/p?q=1", parser.getUri());
+        assertEquals(1 + "example.com/p?q=1".length(), parser.getPayloadLength());
+        assertTrue(parser.next());
+        assertEquals(1000, parser.getPayloadLength());
+        assertTrue(parser.next());
+        assertTrue(parser.idEquals(new byte[]{7}));
+        assertFalse(parser.next());
+    }
+
+    @Test
+    public void shortRecord_withoutId_usesMinimalHeader() {
+        byte[] message = new NdefBuilder().addUri("tel:123").build();
+        // 头(MB ME SR TNF=1) 类型长度 负载长度 'U' 前缀5 "123"
+        assertArrayEquals(new byte[]{(byte) 0xD1, 1, 4, 'U', 0x05, '1', '2', '3'}, message);
+    }
+
+    @Test
+    public void longestPrefix_isChosen() {
+        assertEquals(2, NdefUri.prefixCode("https://www.a.b"));
+        assertEquals(4, NdefUri.prefixCode("https://a.b"));
+        assertEquals(30, NdefUri.prefixCode("urn:epc:id:sgtin"));
+        assertEquals(0, NdefUri.prefixCode("geo:1,2"));
+    }
+
+    @Test
+    public void emptyBuilder_isEmptyMessage() {
+        NdefBuilder builder = new NdefBuilder();
+        assertEquals(3, builder.getEncodedSize());
+        NdefParser parser = new NdefParser(ByteBuffer.wrap(builder.build()));
+        assertTrue(parser.next());
+        assertEquals(NdefParser.TNF_EMPTY, parser.getTnf());
+        assertFalse(parser.next());
+    }
+
+    @Test
+    public void utf8Length_matchesGetBytes() {
+        String[] samples = {"", "abc", "é", "中文", "😀x", "a\uD800b", "\uDC00"};
+        for (String s : samples) {
+            assertEquals(s, s.getBytes(StandardCharsets.UTF_8).length, NdefBuilder.utf8Length(s));
+        }
+        String mixed = "a\uD800b😀";
+        NdefBuilder builder = new NdefBuilder().addText(mixed, "en");
+        byte[] payloadOnTag = new byte[builder.getEncodedSize()];
+        builder.writeTo(ByteBuffer.wrap(payloadOnTag));
+        NdefParser parser = new NdefParser(ByteBuffer.wrap(payloadOnTag));
+        assertTrue(parser.next());
+        assertEquals(new String(mixed.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8), parser.getText());
+    }
+}
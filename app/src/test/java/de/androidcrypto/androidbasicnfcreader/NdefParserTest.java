@@ -0,0 +1,150 @@
+package de.androidcrypto.androidbasicnfcreader;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * 流式NDEF解析
+ */
+public class NdefParserTest {
+
+    private static byte[] record(int flags, int tnf, byte[] type, byte[] id, byte[] payload, boolean shortRecord) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int header = flags | tnf | (shortRecord ? NdefParser.FLAG_SR : 0) | (id != null ? NdefParser.FLAG_IL : 0);
+        out.write(header);
+        out.write(type.length);
+        if (shortRecord) {
+            out.write(payload.length);
+        } else {
+            out.write(payload.length >>> 24);
+            out.write(payload.length >>> 16);
+            out.write(payload.length >>> 8);
+            out.write(payload.length);
+        }
+        if (id != null) {
+            out.write(id.length);
+        }
+        out.write(type, 0, type.length);
+        if (id != null) {
+            out.write(id, 0, id.length);
+        }
+        out.write(payload, 0, payload.length);
+        return out.toByteArray();
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part, 0, part.length);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void multiRecordMessage() {
+        byte[] text = NdefText.encode("你好", "zh");
+        byte[] uri = concat(new byte[]{0x04}, "example.com/a".getBytes(StandardCharsets.UTF_8));
+        byte[] mime = new byte[300];
+        byte[] message = concat(
+                record(NdefParser.FLAG_MB, NdefParser.TNF_WELL_KNOWN, new byte[]{'T'}, null, text, true),
+                record(0, NdefParser.TNF_WELL_KNOWN, new byte[]{'U'}, new byte[]{'#', '1'}, uri, true),
+                record(0, NdefParser.TNF_MIME_MEDIA, "application/octet-stream".getBytes(StandardCharsets.US_ASCII), null, mime, false),
+                record(NdefParser.FLAG_ME, NdefParser.TNF_EMPTY, new byte[0], null, new byte[0], true));
+
+        NdefParser parser = new NdefParser(ByteBuffer.wrap(message));
+        assertTrue(parser.next());
+        assertTrue(parser.isMessageBegin());
+        assertTrue(parser.isText());
+        assertEquals("你好", parser.getText());
+        assertEquals("zh", parser.getLanguage());
+
+        assertTrue(parser.next());
+        assertTrue(parser.isUri());
+        assertTrue(parser.idEquals(new byte[]{'#', '1'}));
+        assertEquals("https://example.com/a", parser.getUri());
+
+        assertTrue(parser.next());
+        assertEquals(NdefParser.TNF_MIME_MEDIA, parser.getTnf());
+        assertTrue(parser.typeEquals("application/octet-stream".getBytes(StandardCharsets.US_ASCII)));
+        assertEquals(300, parser.getPayloadLength());
+
+        assertTrue(parser.next());
+        assertEquals(NdefParser.TNF_EMPTY, parser.getTnf());
+        assertTrue(parser.isMessageEnd());
+        assertEquals(3, parser.getIndex());
+        assertFalse(parser.next());
+    }
+
+    @Test
+    public void payloadView_sharesBuffer() {
+        byte[] message = record(NdefParser.FLAG_MB | NdefParser.FLAG_ME, NdefParser.TNF_UNKNOWN,
+                new byte[0], null, new byte[]{1, 2, 3}, true);
+        NdefParser parser = new NdefParser(ByteBuffer.wrap(message));
+        assertTrue(parser.next());
+        ByteBuffer payload = parser.payload();
+        message[parser.getPayloadOffset()] = 9;
+        assertEquals(9, payload.get(0));
+        assertEquals(3, payload.remaining());
+    }
+
+    @Test
+    public void chunkedRecord_isOneLogicalRecord() {
+        byte[] text = NdefText.encode("abcdefghij", "en");
+        byte[] part1 = java.util.Arrays.copyOfRange(text, 0, 5);
+        byte[] part2 = java.util.Arrays.copyOfRange(text, 5, 9);
+        byte[] part3 = java.util.Arrays.copyOfRange(text, 9, text.length);
+        byte[] message = concat(
+                record(NdefParser.FLAG_MB | NdefParser.FLAG_CF, NdefParser.TNF_WELL_KNOWN, new byte[]{'T'}, null, part1, true),
+                record(NdefParser.FLAG_CF, NdefParser.TNF_UNCHANGED, new byte[0], null, part2, false),
+                record(0, NdefParser.TNF_UNCHANGED, new byte[0], null, part3, true),
+                record(NdefParser.FLAG_ME, NdefParser.TNF_WELL_KNOWN, new byte[]{'U'}, null, new byte[]{0x06, 'a', '@', 'b'}, true));
+        NdefParser parser = new NdefParser(ByteBuffer.wrap(message));
+        assertTrue(parser.next());
+        assertTrue(parser.isChunked());
+        assertEquals(3, parser.getChunkCount());
+        assertEquals(text.length, parser.getPayloadLength());
+        assertFalse(parser.isMessageEnd());
+        assertEquals("abcdefghij", parser.getText());
+        assertTrue(parser.next());
+        assertEquals("mailto:a@b", parser.getUri());
+        assertFalse(parser.next());
+    }
+
+    @Test
+    public void parserStartsAtBufferPosition() {
+        byte[] record = record(NdefParser.FLAG_MB | NdefParser.FLAG_ME, NdefParser.TNF_WELL_KNOWN,
+                new byte[]{'T'}, null, NdefText.encode("x", "en"), true);
+        ByteBuffer buffer = ByteBuffer.wrap(concat(new byte[]{0x03, (byte) record.length}, record, new byte[]{(byte) 0xFE}));
+        buffer.position(2).limit(2 + record.length);
+        NdefParser parser = new NdefParser(buffer);
+        assertTrue(parser.next());
+        assertEquals("x", parser.getText());
+        assertFalse(parser.next());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void truncatedPayload_isRejected() {
+        byte[] message = record(NdefParser.FLAG_MB | NdefParser.FLAG_ME, NdefParser.TNF_UNKNOWN,
+                new byte[0], null, new byte[10], true);
+        new NdefParser(ByteBuffer.wrap(message, 0, message.length - 1)).next();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void missingMessageEnd_isRejected() {
+        byte[] message = record(NdefParser.FLAG_MB, NdefParser.TNF_UNKNOWN, new byte[0], null, new byte[2], true);
+        NdefParser parser = new NdefParser(ByteBuffer.wrap(message));
+        assertTrue(parser.next());
+        parser.next();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unchangedOutsideChunk_isRejected() {
+        byte[] message = record(NdefParser.FLAG_MB | NdefParser.FLAG_ME, NdefParser.TNF_UNCHANGED, new byte[0], null, new byte[2], true);
+        new NdefParser(ByteBuffer.wrap(message)).next();
+    }
+}
@@ -0,0 +1,145 @@
+package de.androidcrypto.androidbasicnfcreader;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * NfcExecutor的合并和排队上限
+ */
+public class NfcExecutorTest {
+
+    private final NfcExecutor executor = new NfcExecutor(Runnable::run);
+
+    @Test
+    public void sameKey_sharesOneRun() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger runs = new AtomicInteger();
+        AtomicInteger results = new AtomicInteger();
+        NfcExecutor.Task<Integer> task = () -> {
+            release.await();
+            return runs.incrementAndGet();
+        };
+        Future<Integer> first = executor.submit("read", task, callback(results, null));
+        Future<Integer> second = executor.submit("read", task, callback(results, null));
+        assertSame(first, second);
+        release.countDown();
+        assertEquals(Integer.valueOf(1), first.get(1, TimeUnit.SECONDS));
+        assertEquals(1, runs.get());
+        waitFor(() -> results.get() == 2);
+    }
+
+    @Test
+    public void fullQueue_isRejected() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicReference<Exception> error = new AtomicReference<>();
+        for (int i = 0; i < 5; i++) {
+            executor.submit(() -> {
+                release.await();
+                return 0;
+            }, null);
+        }
+        executor.submit(() -> 0, callback(new AtomicInteger(), error));
+        assertTrue(error.get() instanceof RejectedExecutionException);
+        release.countDown();
+    }
+
+    @Test
+    public void lifecycleTask_isNotRejected_andRunsBeforeQueuedTasks() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        StringBuffer order = new StringBuffer();
+        executor.submit(() -> {
+            started.countDown();
+            release.await();
+            return 0;
+        }, null);
+        started.await(1, TimeUnit.SECONDS);
+        for (int i = 0; i < 4; i++) {
+            executor.submit(() -> order.append('r'), null);
+        }
+        // 队列已满, 生命周期操作仍然执行, 且在排队的操作之前
+        executor.execute(() -> order.append('d'));
+        release.countDown();
+        waitFor(() -> order.length() == 5);
+        assertEquals("drrrr", order.toString());
+    }
+
+    @Test
+    public void taskException_isDelivered() throws Exception {
+        AtomicReference<Exception> error = new AtomicReference<>();
+        executor.submit(() -> {
+            throw new java.io.IOException("Tag was lost.");
+        }, callback(new AtomicInteger(), error));
+        waitFor(() -> error.get() != null);
+        assertEquals("Tag was lost.", error.get().getMessage());
+    }
+
+    @Test
+    public void taskException_withoutCallback_isReported() throws Exception {
+        AtomicReference<String> key = new AtomicReference<>();
+        AtomicReference<Exception> error = new AtomicReference<>();
+        NfcExecutor reporting = new NfcExecutor(Runnable::run) {
+            @Override
+            void onUnhandledError(String k, Exception e) {
+                key.set(k);
+                error.set(e);
+            }
+        };
+        reporting.submit("write", () -> Integer.parseInt("x"), null);
+        waitFor(() -> error.get() != null);
+        assertEquals("write", key.get());
+        assertTrue(error.get() instanceof NumberFormatException);
+    }
+
+    @Test
+    public void sessionKey_doesNotJoinCallOfEarlierSession() throws Exception {
+        byte[] uid = {1, 2, 3, 4};
+        TagSession old = new TagSession(uid, tech -> null);
+        TagSession current = new TagSession(uid, tech -> null);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger runs = new AtomicInteger();
+        executor.submit(old.key("read"), () -> {
+            release.await(1, TimeUnit.SECONDS);
+            return runs.incrementAndGet();
+        }, null);
+        Future<Integer> second = executor.submit(current.key("read"), runs::incrementAndGet, null);
+        release.countDown();
+        second.get(1, TimeUnit.SECONDS);
+        assertEquals(2, runs.get());
+        assertNotEquals(old.key("read"), current.key("read"));
+    }
+
+    private static <T> NfcExecutor.Callback<T> callback(AtomicInteger successes, AtomicReference<Exception> error) {
+        return new NfcExecutor.Callback<T>() {
+            @Override
+            public void onSuccess(T result) {
+                successes.incrementAndGet();
+            }
+
+            @Override
+            public void onError(Exception e) {
+                error.set(e);
+            }
+        };
+    }
+
+    private interface Condition {
+        boolean met();
+    }
+
+    private static void waitFor(Condition condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 1000;
+        while (!condition.met() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(condition.met());
+    }
+}
@@ -0,0 +1,136 @@
+package de.androidcrypto.androidbasicnfcreader;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import static org.junit.Assert.*;
+
+/**
+ * 在模拟标签上测试NfcVUtil
+ */
+public class NfcVUtilTest {
+
+    private static final byte[] UID = {0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, (byte) 0xE0};
+
+    private SimulatedNfcVTag tag;
+
+    @Before
+    public void setUp() throws Exception {
+        tag = new SimulatedNfcVTag(UID, 64, 4);
+        byte[] memory = tag.getMemory();
+        for (int i = 0; i < memory.length; i++) {
+            memory[i] = (byte) i;
+        }
+        tag.connect();
+    }
+
+    @Test
+    public void systemInformation_isParsed() throws Exception {
+        NfcVUtil nfcVUtil = new NfcVUtil(tag);
+        assertEquals(64, nfcVUtil.getBlockNumber());
+        assertEquals(4, nfcVUtil.getOneBlockSize());
+        assertEquals("e007060504030201", nfcVUtil.getUID());
+    }
+
+    @Test
+    public void readBlockArray_matchesSingleBlockReads() throws Exception {
+        NfcVUtil nfcVUtil = new NfcVUtil(tag);
+        String[] single = new String[64];
+        for (int i = 0; i < single.length; i++) {
+            single[i] = nfcVUtil.readOneBlock(i);
+        }
+        tag.resetFrameCount();
+        assertArrayEquals(single, nfcVUtil.readBlockArray(0, 64));
+        assertEquals(2, tag.getFrameCount());
+    }
+
+    @Test
+    public void readBlockArray_fallsBackWithoutReadMultiple() throws Exception {
+        tag.setReadMultiple(false, 0);
+        NfcVUtil nfcVUtil = new NfcVUtil(tag);
+        String[] blocks = nfcVUtil.readBlockArray(0, 8);
+        assertEquals("00010203", blocks[0]);
+        assertEquals("1c1d1e1f", blocks[7]);
+        assertEquals(1, nfcVUtil.getMaxBlocksPerRead());
+    }
+
+    @Test
+    public void readBlockArray_pastEndReturnsNull() throws Exception {
+        NfcVUtil nfcVUtil = new NfcVUtil(tag);
+        String[] blocks = nfcVUtil.readBlockArray(60, 8);
+        assertEquals("f0f1f2f3", blocks[0]);
+        assertEquals("fcfdfeff", blocks[3]);
+        assertNull(blocks[4]);
+    }
+
+    @Test
+    public void readBlocks_fillsImageAndStatus() throws Exception {
+        NfcVUtil nfcVUtil = new NfcVUtil(tag);
+        byte[] image = new byte[2 + 8 * 4];
+        Arrays.fill(image, (byte) 0x55);
+        BitSet status = new BitSet();
+        assertEquals(4, nfcVUtil.readBlocks(60, 8, image, 2, status));
+        assertEquals(0x55, image[1]);
+        assertArrayEquals(Arrays.copyOfRange(tag.getMemory(), 240, 256), Arrays.copyOfRange(image, 2, 18));
+        assertArrayEquals(new byte[16], Arrays.copyOfRange(image, 18, 34));
+        assertEquals(4, status.cardinality());
+        assertEquals(4, status.nextClearBit(0));
+    }
+
+    @Test
+    public void readBlocks_advancesByteBuffer() throws Exception {
+        NfcVUtil nfcVUtil = new NfcVUtil(tag);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 4 + 1);
+        buffer.put((byte) 1);
+        BitSet status = new BitSet();
+        assertEquals(64, nfcVUtil.readBlocks(0, 64, buffer, status));
+        assertEquals(64 * 4 + 1, buffer.position());
+        assertEquals((byte) 0xFF, buffer.get(64 * 4));
+    }
+
+    @Test
+    public void writeBlock_updatesTag() throws Exception {
+        NfcVUtil nfcVUtil = new NfcVUtil(tag);
+        assertTrue(nfcVUtil.writeBlock(3, new byte[]{1, 2, 3, 4}));
+        assertEquals("01020304", nfcVUtil.readOneBlock(3));
+    }
+
+    @Test
+    public void syncBlocks_writesOnlyChangedBlocks() throws Exception {
+        NfcVUtil nfcVUtil = new NfcVUtil(tag);
+        byte[] known = Arrays.copyOf(tag.getMemory(), 64);
+        byte[] desired = known.clone();
+        desired[5] = 0x55;
+        desired[9] = 0x55;
+        desired[13] = 0x55;
+        desired[40] = 0x55;
+        tag.resetFrameCount();
+        assertEquals(4, nfcVUtil.syncBlocks(0, desired, known, null));
+        // 第1-3块一帧Write Multiple, 第10块单独一帧
+        assertEquals(2, tag.getFrameCount());
+        assertArrayEquals(desired, Arrays.copyOf(tag.getMemory(), 64));
+        assertArrayEquals(desired, known);
+
+        tag.resetFrameCount();
+        assertEquals(0, nfcVUtil.syncBlocks(0, desired, known, null));
+        assertEquals(0, tag.getFrameCount());
+    }
+
+    @Test
+    public void syncBlocks_withoutWriteMultiple_writesSingleBlocks() throws Exception {
+        tag.setWriteMultiple(false, 0);
+        tag.lockBlock(3);
+        NfcVUtil nfcVUtil = new NfcVUtil(tag);
+        byte[] desired = new byte[4 * 4];
+        BitSet failed = new BitSet();
+        assertEquals(3, nfcVUtil.syncBlocks(0, desired, null, failed));
+        assertEquals(1, nfcVUtil.getMaxBlocksPerWrite());
+        assertTrue(failed.get(3));
+        assertEquals(1, failed.cardinality());
+        assertEquals(0, tag.getMemory()[8]);
+    }
+}
@@ -0,0 +1,175 @@
+package de.androidcrypto.androidbasicnfcreader;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 退避重试和按UID断点续读
+ */
+public class ReadCheckpointTest {
+
+    private static final byte[] UID = {1, 2, 3, 4, 5, 6, 7, (byte) 0xE0};
+
+    private final List<Long> sleeps = new ArrayList<>();
+    private final RetryPolicy retry = new RetryPolicy(3, 50, 80, sleeps::add);
+
+    private SimulatedNfcVTag newTag() {
+        SimulatedNfcVTag tag = new SimulatedNfcVTag(UID, 64, 4);
+        byte[] memory = tag.getMemory();
+        for (int i = 0; i < memory.length; i++) {
+            memory[i] = (byte) i;
+        }
+        tag.setReadMultiple(true, 8);
+        return tag;
+    }
+
+    private static void read(TagSession session, RetryPolicy retry, ReadCheckpoint.Progress progress) throws IOException {
+        byte[] image = progress.getImage();
+        progress.readRemaining(8, (first, count, status) -> retry.execute(session,
+                () -> session.nfcV().readBlocks(first, count, image, first * 4, status)));
+    }
+
+    @Test
+    public void transientError_isRetriedWithBackoff() throws Exception {
+        SimulatedNfcVTag tag = newTag();
+        TagSession session = new TagSession(UID, tech -> tag);
+        session.execute(session::nfcV);
+        tag.resetFrameCount();
+        tag.failAtFrame(1, false);
+        String block = retry.execute(session, () -> session.nfcV().readBlocks(0, 1));
+        assertNotNull(block);
+        assertEquals(1, sleeps.size());
+        assertEquals(50L, retry.getDelay(1));
+        assertEquals(80L, retry.getDelay(3));
+    }
+
+    @Test
+    public void retriesExhausted_throwsLastError() throws Exception {
+        TagSession session = new TagSession(UID, tech -> {
+            throw new IllegalStateException("不应打开");
+        });
+        int[] attempts = {0};
+        try {
+            retry.execute(session, () -> {
+                attempts[0]++;
+                throw new IOException("Transceive failed");
+            });
+            fail();
+        } catch (IOException e) {
+            assertEquals("Transceive failed", e.getMessage());
+        }
+        assertEquals(3, attempts[0]);
+        assertEquals(2, sleeps.size());
+    }
+
+    @Test
+    public void tagLost_isNotRetried_andReadResumes() throws Exception {
+        ReadCheckpoint checkpoint = new ReadCheckpoint();
+        SimulatedNfcVTag tag = newTag();
+        TagSession first = new TagSession(UID, tech -> tag);
+        first.execute(first::nfcV);
+        tag.resetFrameCount();
+        // 第3段读取时标签离开
+        tag.failAtFrame(3, true);
+        ReadCheckpoint.Progress progress = checkpoint.resume(UID, TagSession.Tech.NFC_V, 64, 4);
+        try {
+            read(first, retry, progress);
+            fail();
+        } catch (TagLossException expected) {
+        }
+        assertTrue(sleeps.isEmpty());
+        assertEquals(16, progress.getNextBlock());
+
+        // 同一张卡再次刷卡, 从block 16继续
+        tag.present();
+        tag.resetFrameCount();
+        TagSession second = new TagSession(UID, t -> tag);
+        ReadCheckpoint.Progress resumed = checkpoint.resume(UID, TagSession.Tech.NFC_V, 64, 4);
+        assertSame(progress, resumed);
+        read(second, retry, resumed);
+        assertTrue(resumed.isComplete());
+        assertArrayEquals(tag.getMemory(), resumed.getImage());
+        for (int i = 0; i < 64; i++) {
+            assertTrue(resumed.isRead(i));
+        }
+        // 系统信息1帧 + 剩下6段
+        assertEquals(7, tag.getFrameCount());
+
+        checkpoint.complete(UID);
+        assertEquals(0, checkpoint.size());
+    }
+
+    @Test
+    public void tagLostMidChunk_keepsBlocksAlreadyRead() throws Exception {
+        ReadCheckpoint checkpoint = new ReadCheckpoint();
+        SimulatedNfcVTag tag = newTag();
+        tag.setReadMultiple(false, 1);
+        TagSession session = new TagSession(UID, t -> tag);
+        session.execute(session::nfcV);
+        tag.resetFrameCount();
+        // 第1帧Read Multiple Blocks不支持, 之后逐块读取; 第5帧(block 3)时标签离开
+        tag.failAtFrame(5, true);
+        ReadCheckpoint.Progress progress = checkpoint.resume(UID, TagSession.Tech.NFC_V, 64, 4);
+        try {
+            read(session, retry, progress);
+            fail();
+        } catch (TagLossException expected) {
+        }
+        assertEquals(3, progress.getNextBlock());
+        for (int i = 0; i < 3; i++) {
+            assertTrue(progress.isRead(i));
+        }
+        assertFalse(progress.isRead(3));
+        assertEquals(0, progress.getFailedCount());
+    }
+
+    @Test
+    public void failedBlocks_areRetriedAfterRemainingBlocks() throws Exception {
+        ReadCheckpoint.Progress progress = new ReadCheckpoint().resume(UID, TagSession.Tech.NFC_V, 32, 4);
+        List<String> reads = new ArrayList<>();
+        progress.readRemaining(8, (first, count, status) -> {
+            reads.add(first + "+" + count);
+            for (int i = 0; i < count; i++) {
+                // 第一次读取时block 5和6返回错误
+                boolean failed = (first + i == 5 || first + i == 6) && reads.size() == 1;
+                status.set(i, !failed);
+            }
+        });
+        assertTrue(progress.isComplete());
+        assertEquals(0, progress.getFailedCount());
+        assertTrue(progress.isRead(5));
+        // 4段, 之后只重读失败的两个block
+        assertEquals(java.util.Arrays.asList("0+8", "8+8", "16+8", "24+8", "5+2"), reads);
+    }
+
+    @Test
+    public void permanentlyFailedBlocks_areRetriedOnce() throws Exception {
+        ReadCheckpoint.Progress progress = new ReadCheckpoint().resume(UID, TagSession.Tech.NFC_V, 16, 4);
+        int[] calls = {0};
+        progress.readRemaining(8, (first, count, status) -> {
+            calls[0]++;
+            for (int i = 0; i < count; i++) {
+                status.set(i, first + i != 15);
+            }
+        });
+        assertEquals(1, progress.getFailedCount());
+        assertFalse(progress.isRead(15));
+        assertEquals(3, calls[0]);
+    }
+
+    @Test
+    public void differentLayout_startsOver() {
+        ReadCheckpoint checkpoint = new ReadCheckpoint();
+        ReadCheckpoint.Progress progress = checkpoint.resume(UID, TagSession.Tech.NFC_V, 64, 4);
+        java.util.BitSet status = new java.util.BitSet();
+        status.set(0, 8);
+        progress.advance(0, 8, status);
+        assertNotSame(progress, checkpoint.resume(UID, TagSession.Tech.NFC_V, 32, 4));
+        assertEquals(0, checkpoint.resume(UID, TagSession.Tech.NFC_V, 32, 4).getNextBlock());
+    }
+}
@@ -0,0 +1,48 @@
+package de.androidcrypto.androidbasicnfcreader;
+
+/**
+ * 模拟的标签来源, 用于在JVM上测试扫描流水线
+ * 用法
+ * SimulatedTagSource source = new SimulatedTagSource();
+ * new TagScanner(source, executor, listener, null).start();
+ * source.present(tag, TagSession.Tech.NFC_V);
+ */
+public class SimulatedTagSource implements TagScanner.Source {
+
+    private volatile TagScanner.Sink sink;
+
+    @Override
+    public void start(TagScanner.Sink sink) {
+        this.sink = sink;
+    }
+
+    @Override
+    public void stop() {
+        sink = null;
+    }
+
+    public boolean isStarted() {
+        return sink != null;
+    }
+
+    /**
+     * 模拟标签进入磁场
+     *
+     * @param tag   模拟标签
+     * @param techs 标签支持的技术
+     */
+    public void present(SimulatedTag tag, TagSession.Tech... techs) {
+        TagScanner.Sink current = sink;
+        if (current == null) {
+            return;
+        }
+        current.onTagDiscovered(tag.getId(), tech -> {
+            for (TagSession.Tech supported : techs) {
+                if (supported == tech) {
+                    return tag;
+                }
+            }
+            return null;
+        });
+    }
+}
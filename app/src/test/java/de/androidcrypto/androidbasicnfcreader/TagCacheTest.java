@@ -0,0 +1,181 @@
+package de.androidcrypto.androidbasicnfcreader;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.BitSet;
+
+import static org.junit.Assert.*;
+
+/**
+ * TagCache按UID缓存标签内容, 用一帧探测确认内容未变
+ */
+public class TagCacheTest {
+
+    private static final byte[] UID_A = {0x04, 0x11, 0x22, 0x33, 0x44, 0x55, 0x66};
+    private static final byte[] UID_V = {1, 2, 3, 4, 5, 6, 7, (byte) 0xE0};
+
+    @After
+    public void tearDown() {
+        TagCache.getInstance().clear();
+    }
+
+    private static TagSession session(SimulatedTag tag, TagSession.Tech tech) {
+        tag.close();
+        tag.resetFrameCount();
+        return new TagSession(tag.getId(), t -> t == tech ? tag : null);
+    }
+
+    private static void dumpUltralight(SimulatedUltralightTag tag) throws Exception {
+        TagSession session = session(tag, TagSession.Tech.MIFARE_ULTRALIGHT);
+        MifareUltralightUtil util = session.ultralight();
+        byte[] image = util.readPages(0, util.getPageCount());
+        TagCache.getInstance().put(tag.getId(), TagSession.Tech.MIFARE_ULTRALIGHT, image,
+                MifareUltralightUtil.PAGE_SIZE, util.getVersion(), util.readNfcCounter());
+    }
+
+    @Test
+    public void ntag_nfcCounterProbe() throws Exception {
+        SimulatedUltralightTag tag = new SimulatedUltralightTag(UID_A, SimulatedUltralightTag.Type.NTAG216);
+        tag.setNfcCounter(41);
+        dumpUltralight(tag);
+        assertEquals(42, TagCache.getInstance().get(UID_A, TagSession.Tech.MIFARE_ULTRALIGHT).getCounter());
+
+        TagSession session = session(tag, TagSession.Tech.MIFARE_ULTRALIGHT);
+        TagCache.Entry entry = TagCache.getInstance().validate(session, TagSession.Tech.MIFARE_ULTRALIGHT);
+        assertNotNull(entry);
+        assertEquals(231 * 4, entry.getImageLength());
+        // 只有READ和READ_CNT, GET_VERSION和页数来自缓存
+        assertEquals(231, session.ultralight().getPageCount());
+        assertEquals("NTAG216", session.ultralight().getProductName());
+        assertEquals(2, tag.getFrameCount());
+        assertEquals(43, entry.getCounter());
+
+        // 再次刷卡, 计数器从上次探测的值继续
+        assertNotNull(TagCache.getInstance().validate(session(tag, TagSession.Tech.MIFARE_ULTRALIGHT),
+                TagSession.Tech.MIFARE_ULTRALIGHT));
+
+        // 其他读卡器读取过标签, 计数器多加了一次
+        session(tag, TagSession.Tech.MIFARE_ULTRALIGHT).ultralight().readPages(4);
+        assertNull(TagCache.getInstance().validate(session(tag, TagSession.Tech.MIFARE_ULTRALIGHT),
+                TagSession.Tech.MIFARE_ULTRALIGHT));
+        assertEquals(0, TagCache.getInstance().size());
+        assertEquals(2, TagCache.getInstance().getHitCount());
+        assertEquals(1, TagCache.getInstance().getMissCount());
+    }
+
+    @Test
+    public void ntag_readBeforeValidate_stillHits() throws Exception {
+        SimulatedUltralightTag tag = new SimulatedUltralightTag(UID_A, SimulatedUltralightTag.Type.NTAG216);
+        dumpUltralight(tag);
+
+        for (int tap = 0; tap < 3; tap++) {
+            // 系统的NDEF检测在应用之前READ, 本次上电的计数已经加一
+            TagSession session = session(tag, TagSession.Tech.MIFARE_ULTRALIGHT);
+            session.ultralight().readPages(0);
+            assertNotNull(TagCache.getInstance().validate(session, TagSession.Tech.MIFARE_ULTRALIGHT));
+        }
+        assertEquals(3, TagCache.getInstance().getHitCount());
+        assertEquals(0, TagCache.getInstance().getMissCount());
+    }
+
+    @Test
+    public void ntag_counterDisabled_fallsBackToContentProbe() throws Exception {
+        SimulatedUltralightTag tag = new SimulatedUltralightTag(UID_A, SimulatedUltralightTag.Type.NTAG213);
+        tag.setNfcCounterEnabled(false);
+        dumpUltralight(tag);
+        assertEquals(0, TagCache.getInstance().get(UID_A, TagSession.Tech.MIFARE_ULTRALIGHT).getCounter());
+
+        for (int tap = 0; tap < 3; tap++) {
+            assertNotNull(TagCache.getInstance().validate(session(tag, TagSession.Tech.MIFARE_ULTRALIGHT),
+                    TagSession.Tech.MIFARE_ULTRALIGHT));
+        }
+        assertEquals(3, TagCache.getInstance().getHitCount());
+
+        // 计数器不可用时内容变化仍然能发现
+        tag.getMemory()[16] = 0x03;
+        assertNull(TagCache.getInstance().validate(session(tag, TagSession.Tech.MIFARE_ULTRALIGHT),
+                TagSession.Tech.MIFARE_ULTRALIGHT));
+    }
+
+    @Test
+    public void ntag_counterSaturated_fallsBackToContentProbe() throws Exception {
+        SimulatedUltralightTag tag = new SimulatedUltralightTag(UID_A, SimulatedUltralightTag.Type.NTAG213);
+        tag.setNfcCounter(0xFFFFFE);
+        dumpUltralight(tag);
+        assertEquals(0xFFFFFF, TagCache.getInstance().get(UID_A, TagSession.Tech.MIFARE_ULTRALIGHT).getCounter());
+
+        // 计数器停在FFFFFF, 不会回到0
+        for (int tap = 0; tap < 2; tap++) {
+            TagCache.Entry entry = TagCache.getInstance().validate(session(tag, TagSession.Tech.MIFARE_ULTRALIGHT),
+                    TagSession.Tech.MIFARE_ULTRALIGHT);
+            assertNotNull(entry);
+            assertEquals(0xFFFFFF, entry.getCounter());
+        }
+        assertEquals(0, TagCache.getInstance().getMissCount());
+    }
+
+    @Test
+    public void ultralight_contentProbe() throws Exception {
+        SimulatedUltralightTag tag = new SimulatedUltralightTag(UID_A, SimulatedUltralightTag.Type.ULTRALIGHT);
+        dumpUltralight(tag);
+        assertEquals(-1, TagCache.getInstance().get(UID_A, TagSession.Tech.MIFARE_ULTRALIGHT).getCounter());
+
+        TagSession session = session(tag, TagSession.Tech.MIFARE_ULTRALIGHT);
+        assertNotNull(TagCache.getInstance().validate(session, TagSession.Tech.MIFARE_ULTRALIGHT));
+        assertEquals(16, session.ultralight().getPageCount());
+        assertEquals(1, tag.getFrameCount());
+
+        tag.getMemory()[16] = 0x03;
+        assertNull(TagCache.getInstance().validate(session(tag, TagSession.Tech.MIFARE_ULTRALIGHT),
+                TagSession.Tech.MIFARE_ULTRALIGHT));
+    }
+
+    @Test
+    public void nfcV_probeSkipsSystemInformation_andParsesNdef() throws Exception {
+        SimulatedNfcVTag tag = new SimulatedNfcVTag(UID_V, 64, 4);
+        byte[] message = new NdefBuilder().addUri("https://example.com").build();
+        System.arraycopy(new byte[]{(byte) 0xE1, 0x40, 0x1F, 0x01, 0x03, (byte) message.length}, 0, tag.getMemory(), 0, 6);
+        System.arraycopy(message, 0, tag.getMemory(), 6, message.length);
+
+        TagSession first = session(tag, TagSession.Tech.NFC_V);
+        NfcVUtil util = first.nfcV();
+        byte[] image = new byte[64 * 4];
+        util.readBlocks(0, 64, image, 0, new BitSet(64));
+        TagCache.getInstance().put(UID_V, TagSession.Tech.NFC_V, image, 4, util.getInfoRmation(), -1);
+
+        TagSession session = session(tag, TagSession.Tech.NFC_V);
+        TagCache.Entry entry = TagCache.getInstance().validate(session, TagSession.Tech.NFC_V);
+        assertNotNull(entry);
+        assertEquals(64, session.nfcV().getBlockNumber());
+        // 一帧Read Multiple Blocks, 不再发送Get System Information
+        assertEquals(1, tag.getFrameCount());
+        NdefParser parser = new NdefParser(entry.getNdefMessage());
+        assertTrue(parser.next());
+        assertEquals("https://example.com", parser.getUri());
+
+        assertNull(TagCache.getInstance().validate(session, TagSession.Tech.MIFARE_ULTRALIGHT));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedByBytes() {
+        TagCache cache = new TagCache(1000);
+        byte[] a = {1};
+        byte[] b = {2};
+        byte[] c = {3};
+        cache.put(a, TagSession.Tech.NFC_V, new byte[400], 4, null, -1);
+        cache.put(b, TagSession.Tech.NFC_V, new byte[400], 4, null, -1);
+        assertNotNull(cache.get(a, TagSession.Tech.NFC_V));
+        cache.put(c, TagSession.Tech.NFC_V, new byte[400], 4, null, -1);
+        assertEquals(2, cache.size());
+        assertNull(cache.get(b, TagSession.Tech.NFC_V));
+        assertNotNull(cache.get(a, TagSession.Tech.NFC_V));
+        assertTrue(cache.getBytes() <= 1000);
+
+        // 超过上限的单张卡不缓存
+        cache.put(b, TagSession.Tech.NFC_V, new byte[2000], 4, null, -1);
+        assertNull(cache.get(b, TagSession.Tech.NFC_V));
+        cache.invalidate(a);
+        assertEquals(1, cache.size());
+    }
+}
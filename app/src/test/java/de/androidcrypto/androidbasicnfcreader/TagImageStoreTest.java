@@ -0,0 +1,164 @@
+package de.androidcrypto.androidbasicnfcreader;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import static org.junit.Assert.*;
+
+/**
+ * TagImageStore的追加, 查找, 重新打开和整理
+ */
+public class TagImageStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] uid(int i) {
+        return new byte[]{0x04, (byte) (i >> 16), (byte) (i >> 8), (byte) i, 0x10, 0x20, 0x30};
+    }
+
+    private static byte[] image(int i, int length) {
+        byte[] data = new byte[length];
+        for (int j = 0; j < length; j++) {
+            data[j] = (byte) (i + j);
+        }
+        return data;
+    }
+
+    @Test
+    public void getLatest_returnsLastAppendedImage() throws Exception {
+        TagImageStore store = TagImageStore.open(folder.getRoot());
+        store.append(uid(1), TagSession.Tech.NFC_V, 100, image(1, 64));
+        store.append(uid(2), TagSession.Tech.MIFARE_CLASSIC, 200, image(2, 1024));
+        store.append(uid(1), TagSession.Tech.NFC_V, 300, image(3, 64));
+        TagImageStore.Record record = store.getLatest(uid(1));
+        assertArrayEquals(uid(1), record.uid);
+        assertEquals(TagSession.Tech.NFC_V, record.tech);
+        assertEquals(300, record.timestamp);
+        assertArrayEquals(image(3, 64), record.data);
+        assertNull(store.getLatest(uid(3)));
+        assertEquals(2, store.size());
+        store.close();
+    }
+
+    @Test
+    public void reopen_usesSnapshotAndScansNewRecords() throws Exception {
+        TagImageStore store = TagImageStore.open(folder.getRoot());
+        for (int i = 0; i < 100; i++) {
+            store.append(uid(i), TagSession.Tech.MIFARE_ULTRALIGHT, i, image(i, 180));
+        }
+        store.close();
+
+        store = TagImageStore.open(folder.getRoot());
+        assertEquals(100, store.size());
+        store.append(uid(5), TagSession.Tech.MIFARE_ULTRALIGHT, 1000, image(55, 180));
+        // 没有关闭时使用上次关闭的快照, 只扫描之后追加的记录
+        TagImageStore reopened = TagImageStore.open(folder.getRoot());
+        assertEquals(100, reopened.size());
+        assertEquals(1000, reopened.getLatest(uid(5)).timestamp);
+        assertArrayEquals(image(99, 180), reopened.getLatest(uid(99)).data);
+        assertEquals(1, reopened.getLoadScanCount());
+        assertTrue(new File(folder.getRoot(), "index.dat").exists());
+        reopened.close();
+    }
+
+    @Test
+    public void snapshot_isSavedEveryIntervalWithoutClose() throws Exception {
+        TagImageStore store = TagImageStore.open(folder.getRoot(), TagImageStore.DEFAULT_SEGMENT_SIZE, Runnable::run);
+        for (int i = 0; i < TagImageStore.SNAPSHOT_INTERVAL + 10; i++) {
+            store.append(uid(i), TagSession.Tech.NFC_V, i, image(i, 16));
+        }
+        // 进程被杀, 没有关闭
+        TagImageStore reopened = TagImageStore.open(folder.getRoot(), TagImageStore.DEFAULT_SEGMENT_SIZE, Runnable::run);
+        assertEquals(TagImageStore.SNAPSHOT_INTERVAL + 10, reopened.size());
+        assertEquals(10, reopened.getLoadScanCount());
+        assertArrayEquals(image(3, 16), reopened.getLatest(uid(3)).data);
+        reopened.close();
+        store.close();
+    }
+
+    @Test
+    public void reopen_fallsBackToScanWhenSnapshotSegmentWasCompacted() throws Exception {
+        TagImageStore store = TagImageStore.open(folder.getRoot(), 4096, Runnable::run);
+        for (int i = 0; i < 4; i++) {
+            store.append(uid(i), TagSession.Tech.MIFARE_ULTRALIGHT, 0, image(i, 200));
+        }
+        store.close();
+        File snapshot = new File(folder.getRoot(), "index.dat");
+        File stale = new File(folder.getRoot(), "stale.dat");
+        Files.copy(snapshot.toPath(), stale.toPath());
+
+        store = TagImageStore.open(folder.getRoot(), 4096, Runnable::run);
+        for (int round = 1; round < 20; round++) {
+            for (int i = 0; i < 4; i++) {
+                store.append(uid(i), TagSession.Tech.MIFARE_ULTRALIGHT, round, image(round + i, 200));
+            }
+        }
+        store.close();
+        assertFalse(new File(folder.getRoot(), "segment-0.dat").exists());
+
+        // 旧快照引用已删除的段
+        Files.copy(stale.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        TagImageStore reopened = TagImageStore.open(folder.getRoot(), 4096, Runnable::run);
+        assertEquals(4, reopened.size());
+        for (int i = 0; i < 4; i++) {
+            assertArrayEquals(image(19 + i, 200), reopened.getLatest(uid(i)).data);
+        }
+        reopened.close();
+    }
+
+    @Test
+    public void reopen_truncatesIncompleteTail() throws Exception {
+        TagImageStore store = TagImageStore.open(folder.getRoot());
+        store.append(uid(1), TagSession.Tech.NFC_V, 1, image(1, 32));
+        store.append(uid(2), TagSession.Tech.NFC_V, 2, image(2, 32));
+        File segment = new File(folder.getRoot(), "segment-0.dat");
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.setLength(file.length() - 10);
+        }
+        TagImageStore reopened = TagImageStore.open(folder.getRoot());
+        assertEquals(1, reopened.size());
+        assertNull(reopened.getLatest(uid(2)));
+        reopened.append(uid(2), TagSession.Tech.NFC_V, 3, image(3, 32));
+        assertEquals(3, reopened.getLatest(uid(2)).timestamp);
+        reopened.close();
+    }
+
+    @Test
+    public void rollover_compactsSupersededRecords() throws Exception {
+        // 整理直接在追加的线程执行, 便于检查结果
+        TagImageStore store = TagImageStore.open(folder.getRoot(), 4096, Runnable::run);
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 4; i++) {
+                store.append(uid(i), TagSession.Tech.MIFARE_ULTRALIGHT, round, image(round + i, 200));
+            }
+        }
+        assertTrue(store.getSegmentCount() <= 3);
+        assertTrue(store.getLiveBytes() * 2 >= store.getTotalBytes() / 2);
+        for (int i = 0; i < 4; i++) {
+            TagImageStore.Record record = store.getLatest(uid(i));
+            assertEquals(19, record.timestamp);
+            assertArrayEquals(image(19 + i, 200), record.data);
+        }
+        store.close();
+
+        TagImageStore reopened = TagImageStore.open(folder.getRoot(), 4096);
+        assertArrayEquals(image(19 + 3, 200), reopened.getLatest(uid(3)).data);
+        reopened.close();
+    }
+
+    @Test
+    public void uid_roundTripsThroughLong() {
+        byte[][] uids = {{1, 2, 3, 4}, uid(7), {1, 2, 3, 4, 5, 6, 7, (byte) 0xE0}};
+        for (byte[] uid : uids) {
+            assertArrayEquals(uid, UidUtil.toBytes(UidUtil.toLong(uid)));
+        }
+        assertNotEquals(UidUtil.toLong(new byte[]{0, 0, 0, 1}), UidUtil.toLong(new byte[]{0, 0, 0, 0, 0, 0, 1}));
+    }
+}
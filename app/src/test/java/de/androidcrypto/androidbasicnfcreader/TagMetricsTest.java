@@ -0,0 +1,140 @@
+package de.androidcrypto.androidbasicnfcreader;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 延迟直方图和传输层统计
+ */
+public class TagMetricsTest {
+
+    private static final byte[] UID = {1, 2, 3, 4, 5, 6, 7, (byte) 0xE0};
+
+    @Test
+    public void histogram_bucketsWithinRelativeError() {
+        for (long v = 0; v < 1000000; v = v * 3 / 2 + 1) {
+            long high = LatencyHistogram.highestValueOf(LatencyHistogram.bucketOf(v));
+            assertTrue(v + " -> " + high, high >= v);
+            assertTrue(v + " -> " + high, high - v <= Math.max(1, v / 8));
+        }
+    }
+
+    @Test
+    public void histogram_percentiles() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            h.record(i * 100);
+        }
+        assertEquals(100, h.getCount());
+        assertEquals(5050, h.getMean());
+        assertEquals(10000, h.getMax());
+        long p50 = h.getValueAtPercentile(50);
+        assertTrue(String.valueOf(p50), p50 >= 5000 && p50 <= 5000 * 9 / 8);
+        assertEquals(10000, h.getValueAtPercentile(100));
+        h.reset();
+        assertEquals(0, h.getValueAtPercentile(99));
+    }
+
+    @Test
+    public void wrappedTransport_countsCommandsBytesAndErrors() throws Exception {
+        TagMetrics metrics = new TagMetrics();
+        SimulatedNfcVTag tag = new SimulatedNfcVTag(UID, 16, 4);
+        TagTransport transport = metrics.wrap(TagSession.Tech.NFC_V, tag);
+        transport.connect();
+        byte[] res = transport.transceive(new byte[]{0x22, 0x20, 1, 2, 3, 4, 5, 6, 7, (byte) 0xE0, 0});
+        tag.failAtFrame(tag.getFrameCount() + 1, false);
+        try {
+            transport.transceive(new byte[]{0x22, 0x20, 1, 2, 3, 4, 5, 6, 7, (byte) 0xE0, 1});
+            fail();
+        } catch (IOException expected) {
+        }
+        LatencyHistogram h = metrics.getHistogram(TagSession.Tech.NFC_V, TagMetrics.Op.TRANSCEIVE);
+        assertEquals(2, h.getCount());
+        assertEquals(1, metrics.getErrorCount(TagSession.Tech.NFC_V, TagMetrics.Op.TRANSCEIVE));
+        assertEquals(1, metrics.getHistogram(TagSession.Tech.NFC_V, TagMetrics.Op.CONNECT).getCount());
+        assertEquals(22, metrics.getBytesSent(TagSession.Tech.NFC_V));
+        assertEquals(res.length, metrics.getBytesReceived(TagSession.Tech.NFC_V));
+        assertTrue(metrics.format().contains("TRANSCEIVE"));
+    }
+
+    @Test
+    public void transceive_isBrokenDownByCommandCode() throws Exception {
+        TagMetrics metrics = new TagMetrics();
+        SimulatedNfcVTag tag = new SimulatedNfcVTag(UID, 16, 4);
+        TagTransport transport = metrics.wrap(TagSession.Tech.NFC_V, tag);
+        transport.connect();
+        // Read Single Block两次, Read Multiple Blocks一次; 命令码在标志字节之后
+        transport.transceive(new byte[]{0x22, 0x20, 1, 2, 3, 4, 5, 6, 7, (byte) 0xE0, 0});
+        transport.transceive(new byte[]{0x22, 0x20, 1, 2, 3, 4, 5, 6, 7, (byte) 0xE0, 1});
+        transport.transceive(new byte[]{0x22, 0x23, 1, 2, 3, 4, 5, 6, 7, (byte) 0xE0, 0, 3});
+        assertEquals(3, metrics.getHistogram(TagSession.Tech.NFC_V, TagMetrics.Op.TRANSCEIVE).getCount());
+        assertEquals(2, metrics.getCommandHistogram(TagSession.Tech.NFC_V, 0x20).getCount());
+        assertEquals(1, metrics.getCommandHistogram(TagSession.Tech.NFC_V, 0x23).getCount());
+        assertNull(metrics.getCommandHistogram(TagSession.Tech.NFC_V, 0x22));
+        assertTrue(metrics.format().contains("0x23"));
+
+        File file = File.createTempFile("metrics", ".csv");
+        try {
+            metrics.export(file);
+            List<String> lines = Files.readAllLines(file.toPath());
+            assertTrue(lines.stream().anyMatch(l -> l.startsWith("NFC_V,TRANSCEIVE,0x20,2,0,")));
+            assertTrue(lines.stream().anyMatch(l -> l.startsWith("NFC_V,TRANSCEIVE,0x23,1,0,")));
+        } finally {
+            file.delete();
+        }
+
+        metrics.reset();
+        assertEquals(0, metrics.getCommandHistogram(TagSession.Tech.NFC_V, 0x20).getCount());
+    }
+
+    @Test
+    public void commandCode_isFirstByteExceptNfcV() {
+        assertEquals(0x3A, TagMetrics.commandOf(TagSession.Tech.MIFARE_ULTRALIGHT, new byte[]{0x3A, 0, 4}));
+        assertEquals(0x30, TagMetrics.commandOf(TagSession.Tech.NFC_A, new byte[]{0x30, 4}));
+        assertEquals(0x2B, TagMetrics.commandOf(TagSession.Tech.NFC_V, new byte[]{0x02, 0x2B}));
+        assertEquals(-1, TagMetrics.commandOf(TagSession.Tech.NFC_V, new byte[]{0x02}));
+    }
+
+    @Test
+    public void classicTransport_keepsInterface() throws Exception {
+        TagMetrics metrics = new TagMetrics();
+        SimulatedMifareClassicTag tag = new SimulatedMifareClassicTag(new byte[]{1, 2, 3, 4}, SimulatedMifareClassicTag.SIZE_1K);
+        TagTransport transport = metrics.wrap(TagSession.Tech.MIFARE_CLASSIC, tag);
+        assertTrue(transport instanceof MifareClassicTransport);
+        MifareClassicTransport mfc = (MifareClassicTransport) transport;
+        mfc.connect();
+        assertTrue(mfc.authenticateSectorWithKeyA(1, MifareClassicKeyring.KEY_DEFAULT));
+        assertEquals(16, mfc.readBlock(4).length);
+        assertEquals(1, metrics.getBlocks(TagSession.Tech.MIFARE_CLASSIC));
+        assertEquals(0, metrics.getErrorCount(TagSession.Tech.MIFARE_CLASSIC, TagMetrics.Op.AUTHENTICATE));
+    }
+
+    @Test
+    public void disabled_returnsTransportUnwrapped() {
+        TagMetrics metrics = new TagMetrics();
+        metrics.setEnabled(false);
+        SimulatedNfcVTag tag = new SimulatedNfcVTag(UID, 16, 4);
+        assertSame(tag, metrics.wrap(TagSession.Tech.NFC_V, tag));
+    }
+
+    @Test
+    public void export_writesCsv() throws Exception {
+        TagMetrics metrics = new TagMetrics();
+        metrics.record(TagSession.Tech.NFC_V, TagMetrics.Op.TRANSCEIVE, System.nanoTime(), false);
+        File file = File.createTempFile("metrics", ".csv");
+        try {
+            metrics.export(file);
+            List<String> lines = Files.readAllLines(file.toPath());
+            assertEquals(2, lines.size());
+            assertTrue(lines.get(1).startsWith("NFC_V,TRANSCEIVE,,1,0,"));
+        } finally {
+            file.delete();
+        }
+    }
+}
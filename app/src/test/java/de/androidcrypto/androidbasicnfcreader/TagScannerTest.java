@@ -0,0 +1,81 @@
+package de.androidcrypto.androidbasicnfcreader;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * 模拟标签来源经过扫描流水线
+ */
+public class TagScannerTest {
+
+    private static final byte[] UID_1 = {1, 2, 3, 4, 5, 6, 7, (byte) 0xE0};
+    private static final byte[] UID_2 = {8, 7, 6, 5, 4, 3, 2, (byte) 0xE0};
+
+    private final NfcExecutor executor = new NfcExecutor(Runnable::run);
+    private final SimulatedTagSource source = new SimulatedTagSource();
+    private final List<String> blocks = new CopyOnWriteArrayList<>();
+    private final AtomicReference<Thread> worker = new AtomicReference<>();
+    private TagScanner scanner;
+
+    @Before
+    public void setUp() {
+        scanner = new TagScanner(source, executor, session -> {
+            worker.set(Thread.currentThread());
+            blocks.add(session.execute(() -> session.nfcV().readBlocks(0, 1)));
+        }, null);
+    }
+
+    @Test
+    public void discoveredTag_isReadOnWorker() throws Exception {
+        SimulatedNfcVTag tag = new SimulatedNfcVTag(UID_1, 16, 4);
+        scanner.start();
+        assertTrue(source.isStarted());
+        source.present(tag, TagSession.Tech.NFC_V);
+        waitFor(() -> blocks.size() == 1);
+        assertNotSame(Thread.currentThread(), worker.get());
+        assertArrayEquals(UID_1, scanner.getCurrentSession().getId());
+    }
+
+    @Test
+    public void nextTag_disconnectsPrevious() throws Exception {
+        SimulatedNfcVTag first = new SimulatedNfcVTag(UID_1, 16, 4);
+        SimulatedNfcVTag second = new SimulatedNfcVTag(UID_2, 16, 4);
+        scanner.start();
+        source.present(first, TagSession.Tech.NFC_V);
+        waitFor(() -> blocks.size() == 1);
+        assertTrue(first.isConnected());
+        source.present(second, TagSession.Tech.NFC_V);
+        waitFor(() -> blocks.size() == 2);
+        assertFalse(first.isConnected());
+        assertArrayEquals(UID_2, scanner.getCurrentSession().getId());
+    }
+
+    @Test
+    public void stopped_ignoresTags() throws Exception {
+        scanner.start();
+        scanner.stop();
+        assertFalse(source.isStarted());
+        source.present(new SimulatedNfcVTag(UID_1, 16, 4), TagSession.Tech.NFC_V);
+        Thread.sleep(50);
+        assertTrue(blocks.isEmpty());
+        assertNull(scanner.getCurrentSession());
+    }
+
+    private interface Condition {
+        boolean met();
+    }
+
+    private static void waitFor(Condition condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 1000;
+        while (!condition.met() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(condition.met());
+    }
+}
@@ -0,0 +1,62 @@
+package de.androidcrypto.androidbasicnfcreader;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * TagSession在模拟标签上复用连接和认证状态
+ */
+public class TagSessionTest {
+
+    private static final byte[] KEY_DEFAULT = {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF};
+
+    @Test
+    public void nfcV_connectsAndReadsSystemInformationOnce() throws Exception {
+        SimulatedNfcVTag tag = new SimulatedNfcVTag(new byte[]{1, 2, 3, 4, 5, 6, 7, (byte) 0xE0}, 16, 4);
+        TagSession session = new TagSession(tag.getId(), tech -> tech == TagSession.Tech.NFC_V ? tag : null);
+        NfcVUtil first = session.nfcV();
+        first.readOneBlock(0);
+        assertSame(first, session.nfcV());
+        // Get System Information + Read Single Block
+        assertEquals(2, tag.getFrameCount());
+    }
+
+    @Test
+    public void authenticate_isReusedForSameSector() throws Exception {
+        SimulatedMifareClassicTag tag = new SimulatedMifareClassicTag(new byte[]{1, 2, 3, 4}, SimulatedMifareClassicTag.SIZE_1K);
+        TagSession session = new TagSession(tag.getId(), tech -> tech == TagSession.Tech.MIFARE_CLASSIC ? tag : null);
+        assertTrue(session.authenticate(1, KEY_DEFAULT, false));
+        session.mifareClassic().readBlock(4);
+        assertTrue(session.authenticate(1, KEY_DEFAULT, false));
+        session.mifareClassic().readBlock(5);
+        assertEquals(3, tag.getFrameCount());
+
+        assertTrue(session.authenticate(2, KEY_DEFAULT, false));
+        assertEquals(2, session.getAuthenticatedSector());
+        assertEquals(4, tag.getFrameCount());
+    }
+
+    @Test
+    public void ioError_disconnectsUntilNextOperation() throws Exception {
+        SimulatedNfcVTag tag = new SimulatedNfcVTag(new byte[]{1, 2, 3, 4, 5, 6, 7, (byte) 0xE0}, 16, 4);
+        TagSession session = new TagSession(tag.getId(), tech -> tech == TagSession.Tech.NFC_V ? tag : null);
+        try {
+            session.execute(() -> session.connect(TagSession.Tech.NFC_V).transceive(new byte[300]));
+            fail();
+        } catch (IOException expected) {
+            assertFalse(tag.isConnected());
+        }
+        assertFalse(session.isLost());
+        assertNotNull(session.nfcV());
+        assertTrue(tag.isConnected());
+    }
+
+    @Test(expected = IOException.class)
+    public void unsupportedTech_throws() throws Exception {
+        SimulatedNfcVTag tag = new SimulatedNfcVTag(new byte[]{1, 2, 3, 4, 5, 6, 7, (byte) 0xE0}, 16, 4);
+        new TagSession(tag.getId(), tech -> tech == TagSession.Tech.NFC_V ? tag : null).mifareClassic();
+    }
+}
@@ -0,0 +1,64 @@
+package de.androidcrypto.androidbasicnfcreader;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * 按UID去除重复刷卡
+ */
+public class TapDebouncerTest {
+
+    private static final byte[] BADGE_1 = {0x6E, (byte) 0xB0, 0x0A, (byte) 0xBD};
+    private static final byte[] BADGE_2 = {(byte) 0xAC, 0x4E, (byte) 0xC9, (byte) 0xA0};
+
+    private final AtomicLong now = new AtomicLong(10000);
+    private final TapDebouncer debouncer = new TapDebouncer(1000, now::get);
+
+    @Test
+    public void repeatWithinWindow_isSuppressed() {
+        assertTrue(debouncer.accept(BADGE_1));
+        now.addAndGet(300);
+        assertFalse(debouncer.accept(BADGE_1));
+        assertEquals(1, debouncer.getAcceptedCount());
+        assertEquals(1, debouncer.getSuppressedCount());
+    }
+
+    @Test
+    public void otherTag_passesImmediately() {
+        assertTrue(debouncer.accept(BADGE_1));
+        assertTrue(debouncer.accept(BADGE_2));
+        assertFalse(debouncer.accept(BADGE_1));
+    }
+
+    @Test
+    public void windowSlides_whileTagStaysInField() {
+        assertTrue(debouncer.accept(BADGE_1));
+        for (int i = 0; i < 5; i++) {
+            now.addAndGet(500);
+            assertFalse(debouncer.accept(BADGE_1));
+        }
+        now.addAndGet(1000);
+        assertTrue(debouncer.accept(BADGE_1));
+        assertEquals(5, debouncer.getSuppressedCount());
+    }
+
+    @Test
+    public void forget_letsNextTapThrough() {
+        assertTrue(debouncer.accept(BADGE_1));
+        debouncer.forget(BADGE_1);
+        assertTrue(debouncer.accept(BADGE_1));
+    }
+
+    @Test
+    public void expiredEntries_arePurged() {
+        for (int i = 0; i < 300; i++) {
+            assertTrue(debouncer.accept(new byte[]{(byte) i, (byte) (i >> 8), 1, 2}));
+        }
+        now.addAndGet(2000);
+        assertTrue(debouncer.accept(BADGE_1));
+        assertEquals(1, debouncer.size());
+    }
+}
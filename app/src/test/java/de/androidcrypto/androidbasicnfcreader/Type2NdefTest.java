@@ -0,0 +1,126 @@
+package de.androidcrypto.androidbasicnfcreader;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Type 2标签按TLV读取NDEF消息
+ */
+public class Type2NdefTest {
+
+    private static final byte[] UID = {0x04, 0x11, 0x22, 0x33, 0x44, 0x55, 0x66};
+
+    private static String text(int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) ('a' + i % 26);
+        }
+        return new String(chars);
+    }
+
+    private static MifareUltralightUtil connect(SimulatedUltralightTag tag) throws Exception {
+        MifareUltralightUtil util = new MifareUltralightUtil(tag);
+        util.connect();
+        return util;
+    }
+
+    @Test
+    public void ntag216_500ByteMessage_readsInFewFrames() throws Exception {
+        SimulatedUltralightTag tag = new SimulatedUltralightTag(UID, SimulatedUltralightTag.Type.NTAG216);
+        byte[] message = new NdefBuilder().addText(text(490), "en").build();
+        assertEquals(500, message.length);
+        byte[] memory = tag.getMemory();
+        System.arraycopy(new byte[]{(byte) 0xE1, 0x10, 0x6D, 0x00}, 0, memory, 12, 4);
+        System.arraycopy(new byte[]{0x03, (byte) 0xFF, 0x01, (byte) 0xF4}, 0, memory, 16, 4);
+        System.arraycopy(message, 0, memory, 20, message.length);
+        memory[520] = (byte) 0xFE;
+
+        Type2Ndef ndef = Type2Ndef.read(connect(tag));
+        assertNotNull(ndef);
+        assertEquals(0x10, ndef.getVersion());
+        assertEquals(872, ndef.getDataAreaSize());
+        assertTrue(ndef.isWritable());
+        assertEquals(16, ndef.getNdefTlvAddress());
+        assertEquals(500, ndef.getMessageLength());
+        NdefParser parser = ndef.parser();
+        assertTrue(parser.next());
+        assertEquals(text(490), parser.getText());
+        // GET_VERSION + 3帧FAST_READ(每帧最多63页), 只读取到消息末尾
+        assertEquals(4, tag.getFrameCount());
+    }
+
+    @Test
+    public void lockControlTlv_reservedBytesAreSkipped() throws Exception {
+        SimulatedUltralightTag tag = new SimulatedUltralightTag(UID, SimulatedUltralightTag.Type.NTAG213);
+        byte[] message = new NdefBuilder().addText(text(120), "en").build();
+        byte[] memory = tag.getMemory();
+        System.arraycopy(new byte[]{(byte) 0xE1, 0x10, 0x12, 0x00}, 0, memory, 12, 4);
+        // Lock Control: 第6页(每页16字节)偏移4, 即地址100起16位
+        System.arraycopy(new byte[]{0x01, 0x03, 0x64, 0x10, 0x44}, 0, memory, 16, 5);
+        memory[21] = 0x00; // NULL TLV
+        memory[22] = 0x03;
+        memory[23] = (byte) message.length;
+        int address = 24;
+        for (byte b : message) {
+            if (address == 100) {
+                address = 102;
+            }
+            memory[address++] = b;
+        }
+        memory[100] = (byte) 0xAA;
+        memory[101] = (byte) 0xBB;
+        memory[address] = (byte) 0xFE;
+
+        MifareUltralightUtil util = connect(tag);
+        Type2Ndef ndef = Type2Ndef.read(util);
+        assertEquals(message.length, ndef.getMessageLength());
+        ByteBuffer read = ndef.getMessage();
+        byte[] copy = new byte[read.remaining()];
+        read.get(copy);
+        assertArrayEquals(message, copy);
+
+        Type2Ndef parsed = Type2Ndef.parse(util.readPages(0, util.getPageCount()));
+        assertEquals(22, parsed.getNdefTlvAddress());
+        assertTrue(parsed.parser().next());
+    }
+
+    @Test
+    public void unformattedOrEmpty() throws Exception {
+        SimulatedUltralightTag tag = new SimulatedUltralightTag(UID, SimulatedUltralightTag.Type.NTAG213);
+        // 出厂时CC已写入, 数据区全为NULL TLV
+        assertFalse(Type2Ndef.read(connect(tag)).hasMessage());
+        tag.getMemory()[12] = 0x00;
+        assertNull(Type2Ndef.read(connect(tag)));
+
+        byte[] image = Arrays.copyOf(tag.getMemory(), tag.getMemory().length);
+        System.arraycopy(new byte[]{(byte) 0xE1, 0x10, 0x12, 0x0F, 0x03, 0x00, (byte) 0xFE}, 0, image, 12, 7);
+        Type2Ndef ndef = Type2Ndef.parse(image);
+        assertFalse(ndef.isWritable());
+        assertTrue(ndef.hasMessage());
+        assertEquals(0, ndef.getMessageLength());
+
+        image[16] = (byte) 0xFE;
+        assertFalse(Type2Ndef.parse(image).hasMessage());
+    }
+
+    @Test
+    public void ultralight_withoutFastRead_readsOnlyMessagePages() throws Exception {
+        SimulatedUltralightTag tag = new SimulatedUltralightTag(UID, SimulatedUltralightTag.Type.ULTRALIGHT);
+        byte[] message = new NdefBuilder().addUri("https://example.com").build();
+        byte[] memory = tag.getMemory();
+        System.arraycopy(new byte[]{(byte) 0xE1, 0x10, 0x06, 0x00, 0x03, (byte) message.length}, 0, memory, 12, 6);
+        System.arraycopy(message, 0, memory, 18, message.length);
+        memory[18 + message.length] = (byte) 0xFE;
+
+        Type2Ndef ndef = Type2Ndef.read(connect(tag));
+        NdefParser parser = ndef.parser();
+        assertTrue(parser.next());
+        assertEquals("https://example.com", parser.getUri());
+        // GET_VERSION失败后READ: CC所在的4页, 再读消息剩余的4页
+        assertEquals(3, tag.getFrameCount());
+    }
+}
@@ -0,0 +1,124 @@
+package de.androidcrypto.androidbasicnfcreader;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Type 5标签按CC和TLV读写NDEF消息
+ */
+public class Type5NdefTest {
+
+    private static final byte[] UID = {0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, (byte) 0xE0};
+
+    private static String text(int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) ('a' + i % 26);
+        }
+        return new String(chars);
+    }
+
+    private static SimulatedNfcVTag formatted(int blocks, byte[] cc) throws Exception {
+        SimulatedNfcVTag tag = new SimulatedNfcVTag(UID, blocks, 4);
+        System.arraycopy(cc, 0, tag.getMemory(), 0, cc.length);
+        tag.connect();
+        return tag;
+    }
+
+    @Test
+    public void longMessage_readsOnlySpanningBlocks() throws Exception {
+        SimulatedNfcVTag tag = formatted(256, new byte[]{(byte) 0xE1, 0x40, 0x7F, 0x01});
+        byte[] message = new NdefBuilder().addText(text(490), "en").build();
+        byte[] memory = tag.getMemory();
+        System.arraycopy(new byte[]{0x03, (byte) 0xFF, 0x01, (byte) 0xF4}, 0, memory, 4, 4);
+        System.arraycopy(message, 0, memory, 8, message.length);
+        memory[508] = (byte) 0xFE;
+        NfcVUtil util = new NfcVUtil(tag);
+        tag.resetFrameCount();
+
+        Type5Ndef ndef = Type5Ndef.read(util);
+        assertEquals(4, ndef.getVersion());
+        assertEquals(4, ndef.getCcLength());
+        assertEquals(1016, ndef.getDataAreaSize());
+        assertTrue(ndef.isWritable());
+        assertTrue(ndef.supportsReadMultiple());
+        assertEquals(500, ndef.getMessageLength());
+        NdefParser parser = ndef.parser();
+        assertTrue(parser.next());
+        assertEquals(text(490), parser.getText());
+        // CC所在的8个block一帧, 消息剩余的120个block两帧(每帧最多63个block), 之后的block不读取
+        assertEquals(3, tag.getFrameCount());
+    }
+
+    @Test
+    public void eightByteCc_shortMessageInOneFrame() throws Exception {
+        SimulatedNfcVTag tag = formatted(64, new byte[]{(byte) 0xE1, 0x40, 0x00, 0x01, 0x00, 0x00, 0x00, (byte) 0xFF});
+        byte[] message = new NdefBuilder().addUri("https://example.com").build();
+        tag.getMemory()[8] = 0x03;
+        tag.getMemory()[9] = (byte) message.length;
+        System.arraycopy(message, 0, tag.getMemory(), 10, message.length);
+        NfcVUtil util = new NfcVUtil(tag);
+        tag.resetFrameCount();
+
+        Type5Ndef ndef = Type5Ndef.read(util);
+        assertEquals(8, ndef.getCcLength());
+        // MLEN超出标签容量时以标签为准
+        assertEquals(64 * 4 - 8, ndef.getDataAreaSize());
+        assertEquals(8, ndef.getNdefTlvAddress());
+        NdefParser parser = Type5Ndef.parse(tag.getMemory(), 4).parser();
+        assertTrue(parser.next());
+        assertEquals("https://example.com", parser.getUri());
+        assertEquals(1, tag.getFrameCount());
+    }
+
+    @Test
+    public void write_touchesOnlyTlvBlocks() throws Exception {
+        SimulatedNfcVTag tag = formatted(64, new byte[]{(byte) 0xE1, 0x40, 0x1F, 0x01, 0x03, 0x00, (byte) 0xFE});
+        Arrays.fill(tag.getMemory(), 100, 256, (byte) 0x5A);
+        NfcVUtil util = new NfcVUtil(tag);
+        Type5Ndef ndef = Type5Ndef.read(util);
+        assertTrue(ndef.hasMessage());
+        assertEquals(0, ndef.getMessageLength());
+
+        byte[] message = new NdefBuilder().addText(text(60), "en").build();
+        tag.resetFrameCount();
+        // TLV从地址4到4 + 2 + 67 + 1 = 74, 即block 1到18, 第8个block之后内容未知, 不读取直接写入
+        assertEquals(18, ndef.write(util, message));
+        assertEquals(5, tag.getFrameCount());
+        assertEquals(message.length, ndef.getMessageLength());
+        assertEquals((byte) 0xFE, tag.getMemory()[4 + 2 + message.length]);
+        assertEquals((byte) 0x5A, tag.getMemory()[100]);
+
+        NdefParser parser = Type5Ndef.read(util).parser();
+        assertTrue(parser.next());
+        assertEquals(text(60), parser.getText());
+
+        // 内容不变时不写入
+        tag.resetFrameCount();
+        assertEquals(0, ndef.write(util, message));
+        assertEquals(0, tag.getFrameCount());
+    }
+
+    @Test
+    public void unformattedOrReadOnly() throws Exception {
+        SimulatedNfcVTag tag = formatted(16, new byte[4]);
+        assertNull(Type5Ndef.read(new NfcVUtil(tag)));
+
+        tag.getMemory()[0] = (byte) 0xE1;
+        tag.getMemory()[1] = 0x43;
+        tag.getMemory()[2] = 0x07;
+        NfcVUtil util = new NfcVUtil(tag);
+        Type5Ndef ndef = Type5Ndef.read(util);
+        assertFalse(ndef.isWritable());
+        assertFalse(ndef.hasMessage());
+        try {
+            ndef.write(util, new NdefBuilder().addUri("https://example.com").build());
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+}
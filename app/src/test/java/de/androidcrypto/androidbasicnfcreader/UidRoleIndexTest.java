@@ -0,0 +1,91 @@
+package de.androidcrypto.androidbasicnfcreader;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+/**
+ * UidRoleIndex的内置UID, 角色文件加载和重新加载
+ */
+public class UidRoleIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void defaults_matchBuiltInBadges() {
+        UidRoleIndex index = UidRoleIndex.getInstance();
+        assertEquals(UidRoleIndex.ROLE_DOCTOR, index.getRole(HexUtil.decode("6EB00ABD")));
+        assertEquals(UidRoleIndex.ROLE_NURSE, index.getRole(HexUtil.decode("A5F635C9")));
+        assertEquals(UidRoleIndex.ROLE_NONE, index.getRole(HexUtil.decode("BDA0B06E")));
+        assertEquals(UidRoleIndex.ROLE_NONE, index.getRole(new byte[10]));
+    }
+
+    @Test
+    public void reloadIfChanged_swapsInNewTable() throws Exception {
+        File file = folder.newFile("roles.bin");
+        int count = 50000;
+        long[] uids = new long[count];
+        int[] roles = new int[count];
+        for (int i = 0; i < count; i++) {
+            uids[i] = UidUtil.toLong(new byte[]{0x04, (byte) (i >> 16), (byte) (i >> 8), (byte) i, 1, 2, 3});
+            roles[i] = i % 2 == 0 ? UidRoleIndex.ROLE_DOCTOR : UidRoleIndex.ROLE_NURSE;
+        }
+        UidRoleIndex.write(file, uids, roles);
+
+        UidRoleIndex index = new UidRoleIndex(new LongLongHashMap());
+        assertTrue(index.reloadIfChanged(file));
+        assertFalse(index.reloadIfChanged(file));
+        assertEquals(count, index.size());
+        assertEquals(UidRoleIndex.ROLE_NURSE, index.getRole(new byte[]{0x04, 0, 0x03, (byte) 0xE7, 1, 2, 3}));
+
+        UidRoleIndex.write(file, new long[]{uids[0]}, new int[]{UidRoleIndex.ROLE_NURSE});
+        file.setLastModified(file.lastModified() + 2000);
+        assertTrue(index.reloadIfChanged(file));
+        assertEquals(1, index.size());
+        assertEquals(UidRoleIndex.ROLE_NURSE, index.getRole(UidUtil.toBytes(uids[0])));
+    }
+
+    @Test(expected = IOException.class)
+    public void read_rejectsTruncatedFile() throws Exception {
+        File file = folder.newFile("roles.bin");
+        UidRoleIndex.write(file, new long[]{1, 2}, new int[]{1, 2});
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 3);
+        }
+        UidRoleIndex.read(file);
+    }
+
+    @Test(expected = IOException.class)
+    public void read_rejectsCountLargerThanFile() throws Exception {
+        File file = folder.newFile("roles.bin");
+        UidRoleIndex.write(file, new long[]{1, 2}, new int[]{1, 2});
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            // 条目数改为Integer.MAX_VALUE, 不能按它分配哈希表
+            raf.seek(8);
+            raf.writeInt(Integer.MAX_VALUE);
+        }
+        UidRoleIndex.read(file);
+    }
+
+    @Test
+    public void reloadInBackground_keepsTableOnCorruptFile() throws Exception {
+        File file = folder.newFile("roles.bin");
+        UidRoleIndex.write(file, new long[]{1}, new int[]{UidRoleIndex.ROLE_DOCTOR});
+        UidRoleIndex index = new UidRoleIndex(new LongLongHashMap(), Runnable::run);
+        index.reloadInBackground(file);
+        assertEquals(UidRoleIndex.ROLE_DOCTOR, index.getRole(UidUtil.toBytes(1)));
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() + 1);
+        }
+        index.reloadInBackground(file);
+        assertEquals(1, index.size());
+    }
+}
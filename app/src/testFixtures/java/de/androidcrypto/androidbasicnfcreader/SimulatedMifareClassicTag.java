@@ -0,0 +1,185 @@
+package de.androidcrypto.androidbasicnfcreader;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * 模拟的MIFARE Classic 1K/4K标签
+ * 扇区和块的划分与android.nfc.tech.MifareClassic相同,
+ * 4K卡前32个扇区每扇区4块, 后8个扇区每扇区16块, 每扇区最后一块为扇区尾(KeyA, 访问位, KeyB)
+ * 认证失败后标签进入HALT状态, 与安卓一样自动重新连接, 多计一帧的时间
+ */
+public class SimulatedMifareClassicTag extends SimulatedTag implements MifareClassicTransport {
+
+    public static final int SIZE_1K = 1024;
+    public static final int SIZE_4K = 4096;
+    public static final int BLOCK_SIZE = 16;
+
+    private static final byte[] KEY_DEFAULT = {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF};
+    /**
+     * 出厂访问位 FF 07 80 和通用字节 69
+     */
+    private static final byte[] ACCESS_DEFAULT = {(byte) 0xFF, 0x07, (byte) 0x80, 0x69};
+
+    private final int size;
+    private final byte[] memory;
+    private final byte[][] keyA;
+    private final byte[][] keyB;
+    private int authenticatedSector = -1;
+
+    /**
+     * @param id   4字节或7字节UID
+     * @param size SIZE_1K或SIZE_4K
+     */
+    public SimulatedMifareClassicTag(byte[] id, int size) {
+        super(id);
+        this.size = size;
+        this.memory = new byte[size];
+        int sectors = getSectorCount();
+        keyA = new byte[sectors][];
+        keyB = new byte[sectors][];
+        for (int sector = 0; sector < sectors; sector++) {
+            setSectorKeys(sector, KEY_DEFAULT, KEY_DEFAULT);
+        }
+        // 厂商块: UID, BCC
+        System.arraycopy(id, 0, memory, 0, Math.min(id.length, 4));
+        memory[4] = (byte) (memory[0] ^ memory[1] ^ memory[2] ^ memory[3]);
+    }
+
+    /**
+     * 标签存储的原始内容, 包括扇区尾中的密钥
+     */
+    public byte[] getMemory() {
+        return memory;
+    }
+
+    /**
+     * 设置扇区密钥并写入扇区尾, 访问位恢复为出厂值
+     */
+    public void setSectorKeys(int sector, byte[] a, byte[] b) {
+        keyA[sector] = a.clone();
+        keyB[sector] = b.clone();
+        int trailer = (sectorToBlock(sector) + getBlockCountInSector(sector) - 1) * BLOCK_SIZE;
+        System.arraycopy(a, 0, memory, trailer, 6);
+        System.arraycopy(ACCESS_DEFAULT, 0, memory, trailer + 6, 4);
+        System.arraycopy(b, 0, memory, trailer + 10, 6);
+    }
+
+    @Override
+    public void connect() throws IOException {
+        super.connect();
+        authenticatedSector = -1;
+    }
+
+    @Override
+    public int getType() {
+        // MifareClassic.TYPE_CLASSIC
+        return 0;
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public int getSectorCount() {
+        return size == SIZE_4K ? 40 : 16;
+    }
+
+    @Override
+    public int getBlockCount() {
+        return size / BLOCK_SIZE;
+    }
+
+    @Override
+    public int getBlockCountInSector(int sector) {
+        return sector < 32 ? 4 : 16;
+    }
+
+    @Override
+    public int sectorToBlock(int sector) {
+        return sector < 32 ? sector * 4 : 32 * 4 + (sector - 32) * 16;
+    }
+
+    @Override
+    public int blockToSector(int block) {
+        return block < 32 * 4 ? block / 4 : 32 + (block - 32 * 4) / 16;
+    }
+
+    @Override
+    public boolean authenticateSectorWithKeyA(int sector, byte[] key) throws IOException {
+        return authenticate(sector, key, keyA);
+    }
+
+    @Override
+    public boolean authenticateSectorWithKeyB(int sector, byte[] key) throws IOException {
+        return authenticate(sector, key, keyB);
+    }
+
+    private boolean authenticate(int sector, byte[] key, byte[][] keys) throws IOException {
+        if (!isConnected()) {
+            throw new IllegalStateException("Call connect() first!");
+        }
+        frame();
+        if (Arrays.equals(keys[sector], key)) {
+            authenticatedSector = sector;
+            return true;
+        }
+        authenticatedSector = -1;
+        // 重新连接
+        frame();
+        return false;
+    }
+
+    @Override
+    public byte[] readBlock(int block) throws IOException {
+        return transceive(new byte[]{0x30, (byte) block});
+    }
+
+    @Override
+    public void writeBlock(int block, byte[] data) throws IOException {
+        if (data.length != BLOCK_SIZE) {
+            throw new IllegalArgumentException("must write 16-bytes");
+        }
+        byte[] cmd = new byte[2 + BLOCK_SIZE];
+        cmd[0] = (byte) 0xA0;
+        cmd[1] = (byte) block;
+        System.arraycopy(data, 0, cmd, 2, BLOCK_SIZE);
+        transceive(cmd);
+    }
+
+    @Override
+    protected byte[] process(byte[] cmd) {
+        if (cmd.length < 2) {
+            return null;
+        }
+        int block = cmd[1] & 0xFF;
+        if (block >= getBlockCount() || blockToSector(block) != authenticatedSector) {
+            return null;
+        }
+        int offset = block * BLOCK_SIZE;
+        boolean trailer = block == sectorToBlock(authenticatedSector) + getBlockCountInSector(authenticatedSector) - 1;
+        switch (cmd[0]) {
+            case 0x30:
+                byte[] res = Arrays.copyOfRange(memory, offset, offset + BLOCK_SIZE);
+                if (trailer) {
+                    // KeyA永远读不出来
+                    Arrays.fill(res, 0, 6, (byte) 0);
+                }
+                return res;
+            case (byte) 0xA0:
+                if (cmd.length != 2 + BLOCK_SIZE || block == 0) {
+                    return null;
+                }
+                System.arraycopy(cmd, 2, memory, offset, BLOCK_SIZE);
+                if (trailer) {
+                    keyA[authenticatedSector] = Arrays.copyOfRange(cmd, 2, 8);
+                    keyB[authenticatedSector] = Arrays.copyOfRange(cmd, 12, 18);
+                }
+                return new byte[]{0x0A};
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package de.androidcrypto.androidbasicnfcreader;
+
+/**
+ * 模拟的ISO 15693 (NfcV) 标签
+ * 支持Get System Information(0x2B), Read Single Block(0x20), Write Single Block(0x21),
+ * Read Multiple Blocks(0x23), Write Multiple Blocks(0x24), Lock Block(0x22)
+ * 用法
+ * SimulatedNfcVTag tag = new SimulatedNfcVTag(uid, 64, 4);
+ * tag.connect();
+ * NfcVUtil nfcVUtil = new NfcVUtil(tag);
+ */
+public class SimulatedNfcVTag extends SimulatedTag {
+
+    /**
+     * 错误码
+     */
+    public static final byte ERROR_NOT_SUPPORTED = 0x01;
+    public static final byte ERROR_NOT_RECOGNIZED = 0x02;
+    public static final byte ERROR_BLOCK_NOT_AVAILABLE = 0x10;
+    public static final byte ERROR_BLOCK_LOCKED = 0x12;
+
+    private static final int FLAG_ADDRESSED = 0x20;
+    private static final int FLAG_OPTION = 0x40;
+
+    private final byte[] memory;
+    private final boolean[] locked;
+    private final int blockCount;
+    private final int blockSize;
+    private byte dsfid;
+    private byte afi;
+    private byte icReference;
+    private boolean readMultipleSupported = true;
+    private boolean writeMultipleSupported = true;
+    private int maxBlocksPerRead = 256;
+    private int maxBlocksPerWrite = 4;
+
+    /**
+     * @param id         UID, 与Tag.getId()相同的低字节在前的8字节
+     * @param blockCount block个数, 1到256
+     * @param blockSize  一个block的字节数, 1到32
+     */
+    public SimulatedNfcVTag(byte[] id, int blockCount, int blockSize) {
+        super(id);
+        this.blockCount = blockCount;
+        this.blockSize = blockSize;
+        this.memory = new byte[blockCount * blockSize];
+        this.locked = new boolean[blockCount];
+    }
+
+    /**
+     * 标签存储的原始内容, 可直接修改以准备测试数据
+     */
+    public byte[] getMemory() {
+        return memory;
+    }
+
+    public void setDsfid(byte dsfid) {
+        this.dsfid = dsfid;
+    }
+
+    public void setAfi(byte afi) {
+        this.afi = afi;
+    }
+
+    public void setIcReference(byte icReference) {
+        this.icReference = icReference;
+    }
+
+    public void lockBlock(int block) {
+        locked[block] = true;
+    }
+
+    /**
+     * 设置是否支持Read Multiple Blocks, 以及一帧最多读取的block数
+     */
+    public void setReadMultiple(boolean supported, int maxBlocks) {
+        this.readMultipleSupported = supported;
+        this.maxBlocksPerRead = maxBlocks;
+    }
+
+    /**
+     * 设置是否支持Write Multiple Blocks, 以及一帧最多写入的block数
+     */
+    public void setWriteMultiple(boolean supported, int maxBlocks) {
+        this.writeMultipleSupported = supported;
+        this.maxBlocksPerWrite = maxBlocks;
+    }
+
+    @Override
+    protected byte[] process(byte[] cmd) {
+        if (cmd.length < 2) {
+            return null;
+        }
+        int flags = cmd[0] & 0xFF;
+        int index = 2;
+        if ((flags & FLAG_ADDRESSED) != 0) {
+            if (cmd.length < 10 || !matchesId(cmd)) {
+                // 寻址模式下UID不匹配的标签不应答
+                return null;
+            }
+            index = 10;
+        }
+        boolean option = (flags & FLAG_OPTION) != 0;
+        switch (cmd[1]) {
+            case 0x2B:
+                return systemInformation();
+            case 0x20:
+                if (cmd.length < index + 1) {
+                    return error(ERROR_NOT_RECOGNIZED);
+                }
+                return readBlocks(cmd[index] & 0xFF, 1, option);
+            case 0x23:
+                if (!readMultipleSupported) {
+                    return error(ERROR_NOT_SUPPORTED);
+                }
+                if (cmd.length < index + 2) {
+                    return error(ERROR_NOT_RECOGNIZED);
+                }
+                int count = (cmd[index + 1] & 0xFF) + 1;
+                if (count > maxBlocksPerRead) {
+                    return error(ERROR_BLOCK_NOT_AVAILABLE);
+                }
+                return readBlocks(cmd[index] & 0xFF, count, option);
+            case 0x21:
+                return writeBlocks(cmd, index + 1, cmd.length > index ? cmd[index] & 0xFF : -1, 1);
+            case 0x24:
+                if (!writeMultipleSupported) {
+                    return error(ERROR_NOT_SUPPORTED);
+                }
+                if (cmd.length < index + 2) {
+                    return error(ERROR_NOT_RECOGNIZED);
+                }
+                int writeCount = (cmd[index + 1] & 0xFF) + 1;
+                if (writeCount > maxBlocksPerWrite) {
+                    return error(ERROR_BLOCK_NOT_AVAILABLE);
+                }
+                return writeBlocks(cmd, index + 2, cmd[index] & 0xFF, writeCount);
+            case 0x22:
+                if (cmd.length < index + 1 || (cmd[index] & 0xFF) >= blockCount) {
+                    return error(ERROR_BLOCK_NOT_AVAILABLE);
+                }
+                locked[cmd[index] & 0xFF] = true;
+                return new byte[]{0x00};
+            default:
+                return error(ERROR_NOT_SUPPORTED);
+        }
+    }
+
+    private boolean matchesId(byte[] cmd) {
+        byte[] id = getId();
+        for (int i = 0; i < 8; i++) {
+            if (cmd[2 + i] != id[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private byte[] systemInformation() {
+        byte[] res = new byte[15];
+        res[0] = 0x00;
+        res[1] = 0x0F; // DSFID, AFI, 存储大小, IC参考都存在
+        System.arraycopy(getId(), 0, res, 2, 8);
+        res[10] = dsfid;
+        res[11] = afi;
+        res[12] = (byte) (blockCount - 1);
+        res[13] = (byte) ((blockSize - 1) & 0x1F);
+        res[14] = icReference;
+        return res;
+    }
+
+    private byte[] readBlocks(int first, int count, boolean option) {
+        if (first + count > blockCount) {
+            return error(ERROR_BLOCK_NOT_AVAILABLE);
+        }
+        int stride = option ? blockSize + 1 : blockSize;
+        byte[] res = new byte[1 + count * stride];
+        for (int i = 0; i < count; i++) {
+            int offset = 1 + i * stride;
+            if (option) {
+                res[offset++] = (byte) (locked[first + i] ? 0x01 : 0x00);
+            }
+            System.arraycopy(memory, (first + i) * blockSize, res, offset, blockSize);
+        }
+        return res;
+    }
+
+    private byte[] writeBlocks(byte[] cmd, int dataIndex, int first, int count) {
+        if (first < 0 || cmd.length != dataIndex + count * blockSize) {
+            return error(ERROR_NOT_RECOGNIZED);
+        }
+        if (first + count > blockCount) {
+            return error(ERROR_BLOCK_NOT_AVAILABLE);
+        }
+        for (int i = 0; i < count; i++) {
+            if (locked[first + i]) {
+                return error(ERROR_BLOCK_LOCKED);
+            }
+        }
+        System.arraycopy(cmd, dataIndex, memory, first * blockSize, count * blockSize);
+        return new byte[]{0x00};
+    }
+
+    private static byte[] error(byte code) {
+        return new byte[]{0x01, code};
+    }
+}
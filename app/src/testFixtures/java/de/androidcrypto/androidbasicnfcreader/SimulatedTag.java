@@ -0,0 +1,142 @@
+package de.androidcrypto.androidbasicnfcreader;
+
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 纯JVM的模拟标签, 用于单元测试和基准测试
+ * 子类实现process()处理命令帧, 这里负责连接状态, 帧长度限制, 每帧延迟和帧计数
+ */
+public abstract class SimulatedTag implements TagTransport {
+
+    private final byte[] id;
+    private int maxTransceiveLength = 253;
+    private long frameLatencyNanos;
+    private boolean connected;
+    private long frameCount;
+    private long faultFrame = -1;
+    private boolean faultLost;
+    private boolean lost;
+
+    protected SimulatedTag(byte[] id) {
+        this.id = id.clone();
+    }
+
+    /**
+     * 处理一帧命令
+     *
+     * @param cmd 命令帧
+     * @return 响应帧, null表示标签不应答
+     */
+    protected abstract byte[] process(byte[] cmd);
+
+    @Override
+    public void connect() throws IOException {
+        connected = true;
+    }
+
+    @Override
+    public void close() {
+        connected = false;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return connected;
+    }
+
+    @Override
+    public byte[] getId() {
+        return id.clone();
+    }
+
+    @Override
+    public byte[] transceive(byte[] data) throws IOException {
+        if (!connected) {
+            throw new IllegalStateException("Call connect() first!");
+        }
+        if (data.length > maxTransceiveLength) {
+            throw new IOException("Transceive length exceeds supported maximum");
+        }
+        if (lost) {
+            throw new TagLossException();
+        }
+        frame();
+        if (frameCount == faultFrame) {
+            faultFrame = -1;
+            if (faultLost) {
+                lost = true;
+                throw new TagLossException();
+            }
+            throw new IOException("Transceive failed");
+        }
+        byte[] res = process(data);
+        if (res == null) {
+            throw new IOException("Transceive failed");
+        }
+        if (res.length > maxTransceiveLength) {
+            throw new IOException("Transceive length exceeds supported maximum");
+        }
+        return res;
+    }
+
+    @Override
+    public int getMaxTransceiveLength() {
+        return maxTransceiveLength;
+    }
+
+    public void setMaxTransceiveLength(int maxTransceiveLength) {
+        this.maxTransceiveLength = maxTransceiveLength;
+    }
+
+    /**
+     * 设置每帧的空中传输延迟
+     *
+     * @param micros 微秒, 0为不延迟
+     */
+    public void setFrameLatency(long micros) {
+        this.frameLatencyNanos = micros * 1000L;
+    }
+
+    /**
+     * 已收发的帧数
+     */
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    public void resetFrameCount() {
+        frameCount = 0;
+    }
+
+    /**
+     * 在第frame帧(从1开始计数)模拟一次故障
+     *
+     * @param lost true为标签离开, 之后的帧都失败, 直到调用present(); false为一次传输错误
+     */
+    public void failAtFrame(long frame, boolean lost) {
+        this.faultFrame = frame;
+        this.faultLost = lost;
+    }
+
+    /**
+     * 离开的标签重新进入磁场
+     */
+    public void present() {
+        lost = false;
+    }
+
+    /**
+     * 计一帧并等待设定的延迟, 供不经过transceive()的命令(如认证)使用
+     */
+    protected void frame() {
+        frameCount++;
+        if (frameLatencyNanos > 0) {
+            long deadline = System.nanoTime() + frameLatencyNanos;
+            long remaining;
+            while ((remaining = deadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(remaining);
+            }
+        }
+    }
+}
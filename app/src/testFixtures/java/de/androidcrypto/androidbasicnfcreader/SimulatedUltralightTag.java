@@ -0,0 +1,197 @@
+package de.androidcrypto.androidbasicnfcreader;
+
+import java.io.IOException;
+
+/**
+ * 模拟的NFC Forum Type 2 (MIFARE Ultralight / NTAG21x) 标签
+ * 支持READ(0x30), WRITE(0xA2), 以及NTAG的GET_VERSION(0x60), FAST_READ(0x3A), READ_CNT(0x39)
+ * 每页4字节, 第0-2页为UID和锁定字节, 第3页为OTP/CC
+ */
+public class SimulatedUltralightTag extends SimulatedTag {
+
+    public enum Type {
+        ULTRALIGHT(16, 0, 0),
+        NTAG210(20, 0x0B, 0x06),
+        NTAG212(41, 0x0E, 0x10),
+        NTAG213(45, 0x0F, 0x12),
+        NTAG215(135, 0x11, 0x3E),
+        NTAG216(231, 0x13, 0x6D);
+
+        /**
+         * 总页数
+         */
+        final int pageCount;
+        /**
+         * GET_VERSION中的存储大小字节, 0表示不支持GET_VERSION
+         */
+        final int storageSize;
+        /**
+         * 出厂能力容器中的数据区大小(字节数/8)
+         */
+        final int ccSize;
+
+        Type(int pageCount, int storageSize, int ccSize) {
+            this.pageCount = pageCount;
+            this.storageSize = storageSize;
+            this.ccSize = ccSize;
+        }
+
+        boolean isNtag() {
+            return storageSize != 0;
+        }
+    }
+
+    private static final byte ACK = 0x0A;
+
+    private final Type type;
+    private final byte[] memory;
+    private int nfcCounter;
+    private boolean nfcCounterEnabled = true;
+    private boolean counted;
+
+    /**
+     * @param id   7字节UID
+     * @param type 标签型号
+     */
+    public SimulatedUltralightTag(byte[] id, Type type) {
+        super(id);
+        this.type = type;
+        this.memory = new byte[type.pageCount * 4];
+        // 第0-2页: UID0-2, BCC0, UID3-6, BCC1
+        memory[0] = id[0];
+        memory[1] = id[1];
+        memory[2] = id[2];
+        memory[3] = (byte) (0x88 ^ id[0] ^ id[1] ^ id[2]);
+        System.arraycopy(id, 3, memory, 4, 4);
+        memory[8] = (byte) (id[3] ^ id[4] ^ id[5] ^ id[6]);
+        if (type.isNtag()) {
+            // 能力容器: NDEF, 版本1.0, 数据区大小/8, 可读写
+            memory[12] = (byte) 0xE1;
+            memory[13] = 0x10;
+            memory[14] = (byte) type.ccSize;
+            memory[15] = 0x00;
+        }
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * 标签存储的原始内容, 可直接修改以准备测试数据
+     */
+    public byte[] getMemory() {
+        return memory;
+    }
+
+    public int getPageCount() {
+        return type.pageCount;
+    }
+
+    /**
+     * 用户数据区页数, 从第4页开始
+     */
+    public int getUserPageCount() {
+        // NTAG最后5页为动态锁定字节和配置页, NTAG210没有动态锁定页
+        if (!type.isNtag()) {
+            return type.pageCount - 4;
+        }
+        return type.pageCount - 4 - (type.pageCount == 20 ? 4 : 5);
+    }
+
+    public void setNfcCounter(int nfcCounter) {
+        this.nfcCounter = nfcCounter;
+    }
+
+    /**
+     * 配置页ACCESS中的NFC_CNT_EN, 出厂时未启用, 计数器保持不变
+     */
+    public void setNfcCounterEnabled(boolean nfcCounterEnabled) {
+        this.nfcCounterEnabled = nfcCounterEnabled;
+    }
+
+    @Override
+    public void connect() throws IOException {
+        super.connect();
+        // 重新上电, 下一次READ/FAST_READ时NFC计数器加一
+        counted = false;
+    }
+
+    @Override
+    protected byte[] process(byte[] cmd) {
+        if (cmd.length == 0) {
+            return null;
+        }
+        switch (cmd[0]) {
+            case 0x30:
+                return cmd.length == 2 ? read(cmd[1] & 0xFF) : null;
+            case (byte) 0xA2:
+                return cmd.length == 6 ? write(cmd[1] & 0xFF, cmd) : null;
+            case 0x60:
+                return type.isNtag() ? version() : null;
+            case 0x3A:
+                return type.isNtag() && cmd.length == 3 ? fastRead(cmd[1] & 0xFF, cmd[2] & 0xFF) : null;
+            case 0x39:
+                if (!type.isNtag() || cmd.length != 2 || cmd[1] != 0x02) {
+                    return null;
+                }
+                return new byte[]{(byte) nfcCounter, (byte) (nfcCounter >> 8), (byte) (nfcCounter >> 16)};
+            default:
+                // 不支持的命令回NAK, 安卓上表现为transceive失败
+                return null;
+        }
+    }
+
+    private byte[] read(int page) {
+        if (page >= type.pageCount) {
+            return null;
+        }
+        count();
+        // 读到末尾后从第0页继续
+        byte[] res = new byte[16];
+        for (int i = 0; i < 16; i++) {
+            res[i] = memory[(page * 4 + i) % memory.length];
+        }
+        return res;
+    }
+
+    private byte[] fastRead(int start, int end) {
+        if (start > end || end >= type.pageCount) {
+            return null;
+        }
+        count();
+        byte[] res = new byte[(end - start + 1) * 4];
+        System.arraycopy(memory, start * 4, res, 0, res.length);
+        return res;
+    }
+
+    private byte[] write(int page, byte[] cmd) {
+        if (page < 2 || page >= type.pageCount) {
+            return null;
+        }
+        if (page == 2 || page == 3) {
+            // 锁定字节和OTP页只能置位, 不能清零
+            int from = page == 2 ? 2 : 0;
+            for (int i = from; i < 4; i++) {
+                memory[page * 4 + i] |= cmd[2 + i];
+            }
+            return new byte[]{ACK};
+        }
+        System.arraycopy(cmd, 2, memory, page * 4, 4);
+        return new byte[]{ACK};
+    }
+
+    private void count() {
+        if (type.isNtag() && nfcCounterEnabled && !counted) {
+            // 计数到FFFFFF后不再增加
+            if (nfcCounter < 0xFFFFFF) {
+                nfcCounter++;
+            }
+            counted = true;
+        }
+    }
+
+    private byte[] version() {
+        return new byte[]{0x00, 0x04, 0x04, 0x02, 0x01, 0x00, (byte) type.storageSize, 0x03};
+    }
+}
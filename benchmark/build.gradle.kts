@@ -0,0 +1,57 @@
+plugins {
+    `java-library`
+    alias(libs.plugins.jmh)
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_1_8
+    targetCompatibility = JavaVersion.VERSION_1_8
+}
+
+// 直接编译app中不依赖android的源码, 基准测试与应用使用同一份实现
+val sharedSources = listOf(
+    "HexUtil.java",
+    "NFCUtil.java",
+    "NdefText.java",
+    "NdefUri.java",
+    "NdefParser.java",
+    "UidUtil.java",
+    "TagTransport.java",
+    "MifareClassicTransport.java",
+    "TagLossException.java",
+    "TagSession.java",
+    "TagMetrics.java",
+    "LatencyHistogram.java",
+    "TagCache.java",
+    "FrameTrace.java",
+    "TraceReplay.java",
+    "NfcVUtil.java",
+    "MifareUltralightUtil.java",
+    "MifareClassicDump.java",
+    "MifareClassicKeyring.java",
+    "Type2Ndef.java",
+    "Type5Ndef.java",
+)
+
+sourceSets {
+    main {
+        java {
+            srcDir("../app/src/main/java")
+            sharedSources.forEach { include("de/androidcrypto/androidbasicnfcreader/$it") }
+        }
+    }
+    // 与app的单元测试共用模拟标签
+    named("jmh") {
+        java.srcDir("../app/src/testFixtures/java")
+    }
+}
+
+jmh {
+    jmhVersion = libs.versions.jmh
+    fork = 1
+    warmupIterations = 3
+    iterations = 5
+    // 机器可读的结果, 用于比较不同版本
+    resultFormat = "JSON"
+    resultsFile = layout.buildDirectory.file("reports/jmh/results.json")
+}
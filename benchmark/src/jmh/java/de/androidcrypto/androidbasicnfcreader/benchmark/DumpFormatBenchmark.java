@@ -0,0 +1,75 @@
+package de.androidcrypto.androidbasicnfcreader.benchmark;
+
+import de.androidcrypto.androidbasicnfcreader.HexUtil;
+import de.androidcrypto.androidbasicnfcreader.NFCUtil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 把整个标签镜像格式化成"地址 数据"的显示文本
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DumpFormatBenchmark {
+
+    /**
+     * MIFARE Classic 1K和8K的ISO 15693标签
+     */
+    @Param({"1024", "8192"})
+    public int imageSize;
+
+    /**
+     * 每行的字节数, 4为ISO 15693/Ultralight, 16为MIFARE Classic
+     */
+    @Param({"4", "16"})
+    public int blockSize;
+
+    private byte[] image;
+    private StringBuilder builder;
+
+    @Setup
+    public void setUp() {
+        image = new byte[imageSize];
+        new Random(42).nextBytes(image);
+        builder = new StringBuilder();
+    }
+
+    /**
+     * 每块复制一次并生成中间字符串
+     */
+    @Benchmark
+    public String format() {
+        StringBuilder msg = new StringBuilder();
+        for (int offset = 0; offset < image.length; offset += blockSize) {
+            byte[] block = Arrays.copyOfRange(image, offset, offset + blockSize);
+            msg.append("地址 ").append(offset).append(" 数据: ").append(NFCUtil.byte2HexString(block)).append("\n");
+        }
+        return msg.toString();
+    }
+
+    /**
+     * 直接从镜像编码到复用的StringBuilder
+     */
+    @Benchmark
+    public StringBuilder formatInPlace() {
+        StringBuilder msg = builder;
+        msg.setLength(0);
+        for (int offset = 0; offset < image.length; offset += blockSize) {
+            msg.append("地址 ").append(offset).append(" 数据: ");
+            HexUtil.append(msg, image, offset, blockSize, false, HexUtil.NO_SEPARATOR).append('\n');
+        }
+        return msg;
+    }
+}
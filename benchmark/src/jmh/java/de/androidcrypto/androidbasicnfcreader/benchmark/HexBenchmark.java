@@ -0,0 +1,76 @@
+package de.androidcrypto.androidbasicnfcreader.benchmark;
+
+import de.androidcrypto.androidbasicnfcreader.HexUtil;
+import de.androidcrypto.androidbasicnfcreader.NFCUtil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 十六进制编码和解码
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HexBenchmark {
+
+    /**
+     * UID, 一个MIFARE Classic块, 1K和8K标签
+     */
+    @Param({"7", "16", "1024", "8192"})
+    public int size;
+
+    private byte[] bytes;
+    private String hex;
+    private char[] chars;
+    private ByteBuffer buffer;
+    private byte[] decoded;
+
+    @Setup
+    public void setUp() {
+        bytes = new byte[size];
+        new Random(42).nextBytes(bytes);
+        hex = NFCUtil.byte2HexString(bytes);
+        chars = new char[size * 2];
+        buffer = ByteBuffer.allocate(size * 2);
+        decoded = new byte[size];
+    }
+
+    @Benchmark
+    public String encode() {
+        return NFCUtil.byte2HexString(bytes);
+    }
+
+    @Benchmark
+    public byte[] decode() {
+        return NFCUtil.string2byte(hex);
+    }
+
+    @Benchmark
+    public char[] encodeIntoCharArray() {
+        HexUtil.encode(bytes, 0, bytes.length, chars, 0, false, HexUtil.NO_SEPARATOR);
+        return chars;
+    }
+
+    @Benchmark
+    public ByteBuffer encodeIntoByteBuffer() {
+        buffer.clear();
+        return HexUtil.encode(bytes, 0, bytes.length, buffer, false, HexUtil.NO_SEPARATOR);
+    }
+
+    @Benchmark
+    public byte[] decodeIntoByteArray() {
+        HexUtil.decode(hex, 0, hex.length(), decoded, 0);
+        return decoded;
+    }
+}
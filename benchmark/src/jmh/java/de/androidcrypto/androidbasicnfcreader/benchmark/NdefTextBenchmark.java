@@ -0,0 +1,53 @@
+package de.androidcrypto.androidbasicnfcreader.benchmark;
+
+import de.androidcrypto.androidbasicnfcreader.NdefText;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * NDEF文本记录负载的编码和解析
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class NdefTextBenchmark {
+
+    /**
+     * 文本字符数, 短标签内容和接近NTAG216容量的内容
+     */
+    @Param({"16", "800"})
+    public int length;
+
+    private String text;
+    private byte[] payload;
+
+    @Setup
+    public void setUp() {
+        StringBuilder builder = new StringBuilder();
+        String sample = "NFC标签Tag0123";
+        while (builder.length() < length) {
+            builder.append(sample);
+        }
+        text = builder.substring(0, length);
+        payload = NdefText.encode(text, "zh");
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return NdefText.encode(text, "zh");
+    }
+
+    @Benchmark
+    public String parse() {
+        return NdefText.decode(payload);
+    }
+}
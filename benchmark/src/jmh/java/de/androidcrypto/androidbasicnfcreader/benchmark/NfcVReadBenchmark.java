@@ -0,0 +1,66 @@
+package de.androidcrypto.androidbasicnfcreader.benchmark;
+
+import de.androidcrypto.androidbasicnfcreader.NfcVUtil;
+import de.androidcrypto.androidbasicnfcreader.SimulatedNfcVTag;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 用模拟标签读取整个ISO 15693标签, 每帧加上空中传输延迟
+ * 结果主要由帧数决定, 用于比较Read Multiple Blocks和逐个读取
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class NfcVReadBenchmark {
+
+    @Param({"64", "256"})
+    public int blockCount;
+
+    /**
+     * 标签是否支持Read Multiple Blocks, 支持时一帧的block数只受帧长度限制
+     */
+    @Param({"false", "true"})
+    public boolean readMultiple;
+
+    /**
+     * 每帧的延迟(微秒), 0时只计算协议处理的开销
+     */
+    @Param({"0", "300"})
+    public long frameLatencyMicros;
+
+    private NfcVUtil util;
+    private byte[] image;
+    private BitSet status;
+
+    @Setup
+    public void setUp() throws IOException {
+        SimulatedNfcVTag tag = new SimulatedNfcVTag(
+                new byte[]{0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, (byte) 0xE0}, blockCount, 4);
+        new Random(42).nextBytes(tag.getMemory());
+        tag.setReadMultiple(readMultiple, 256);
+        tag.setFrameLatency(frameLatencyMicros);
+        tag.connect();
+        util = new NfcVUtil(tag);
+        image = new byte[blockCount * 4];
+        status = new BitSet(blockCount);
+    }
+
+    @Benchmark
+    public int readAll() throws IOException {
+        status.clear();
+        return util.readBlocks(0, blockCount, image, 0, status);
+    }
+}
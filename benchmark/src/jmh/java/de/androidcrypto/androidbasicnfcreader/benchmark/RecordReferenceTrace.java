@@ -0,0 +1,57 @@
+package de.androidcrypto.androidbasicnfcreader.benchmark;
+
+import de.androidcrypto.androidbasicnfcreader.FrameTrace;
+import de.androidcrypto.androidbasicnfcreader.MifareClassicKeyring;
+import de.androidcrypto.androidbasicnfcreader.SimulatedMifareClassicTag;
+import de.androidcrypto.androidbasicnfcreader.SimulatedNfcVTag;
+import de.androidcrypto.androidbasicnfcreader.SimulatedUltralightTag;
+import de.androidcrypto.androidbasicnfcreader.TagCache;
+import de.androidcrypto.androidbasicnfcreader.TagSession;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * 用模拟标签生成ReplayBenchmark的记录, 每帧的耗时按典型的空中传输时间模拟
+ * 用法
+ * java -cp ... RecordReferenceTrace benchmark/src/jmh/resources/de/androidcrypto/androidbasicnfcreader/benchmark/reference.trace
+ */
+public class RecordReferenceTrace {
+
+    public static void main(String[] args) throws IOException {
+        FrameTrace trace = FrameTrace.getInstance();
+        trace.clear();
+        trace.setEnabled(true);
+        TagCache.getInstance().clear();
+        Random random = new Random(42);
+
+        SimulatedNfcVTag nfcV = new SimulatedNfcVTag(
+                new byte[]{0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, (byte) 0xE0}, ReplayBenchmark.NFC_V_BLOCKS, 4);
+        random.nextBytes(nfcV.getMemory());
+        nfcV.setFrameLatency(5000);
+        ReplayBenchmark.readNfcV(new TagSession(nfcV.getId(), tech -> tech == TagSession.Tech.NFC_V ? nfcV : null));
+
+        SimulatedUltralightTag ntag = new SimulatedUltralightTag(
+                new byte[]{0x04, 0x11, 0x22, 0x33, 0x44, 0x55, 0x66}, SimulatedUltralightTag.Type.NTAG216);
+        ntag.setFrameLatency(2000);
+        ReplayBenchmark.readUltralight(new TagSession(ntag.getId(),
+                tech -> tech == TagSession.Tech.MIFARE_ULTRALIGHT ? ntag : null));
+
+        // 大部分扇区为出厂密钥, 部分为NFC Forum密钥, 一个扇区的密钥不在字典中
+        SimulatedMifareClassicTag classic = new SimulatedMifareClassicTag(
+                new byte[]{0x11, 0x22, 0x33, 0x44}, SimulatedMifareClassicTag.SIZE_1K);
+        for (int sector = 1; sector < 4; sector++) {
+            classic.setSectorKeys(sector, MifareClassicKeyring.KEY_NFC_FORUM, MifareClassicKeyring.KEY_NFC_FORUM);
+        }
+        byte[] unknown = {0x13, 0x57, (byte) 0x9B, (byte) 0xDF, 0x02, 0x46};
+        classic.setSectorKeys(15, unknown, unknown);
+        classic.setFrameLatency(3000);
+        ReplayBenchmark.readMifareClassic(new TagSession(classic.getId(),
+                tech -> tech == TagSession.Tech.MIFARE_CLASSIC ? classic : null));
+
+        File file = new File(args[0]);
+        trace.dump(file);
+        System.out.println(trace.getRecordCount() + " records, " + file.length() + " bytes -> " + file);
+    }
+}
@@ -0,0 +1,100 @@
+package de.androidcrypto.androidbasicnfcreader.benchmark;
+
+import de.androidcrypto.androidbasicnfcreader.FrameTrace;
+import de.androidcrypto.androidbasicnfcreader.MifareClassicDump;
+import de.androidcrypto.androidbasicnfcreader.MifareClassicKeyring;
+import de.androidcrypto.androidbasicnfcreader.MifareUltralightUtil;
+import de.androidcrypto.androidbasicnfcreader.NfcVUtil;
+import de.androidcrypto.androidbasicnfcreader.TagCache;
+import de.androidcrypto.androidbasicnfcreader.TagSession;
+import de.androidcrypto.androidbasicnfcreader.TraceReplay;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 回放记录的刷卡(TRACE), 衡量读写逻辑在主机侧的开销, 不等待记录的耗时
+ * 命令与记录不一致时回放抛出IllegalStateException, 基准测试失败: 读取流程改变后需要用RecordReferenceTrace重新生成记录
+ * 第1个会话读取ISO 15693标签, 第2个读取NTAG216, 第3个读取MIFARE Classic 1K
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ReplayBenchmark {
+
+    static final String TRACE = "reference.trace";
+    static final int NFC_V_BLOCKS = 256;
+
+    private List<FrameTrace.Frame> frames;
+
+    @Setup
+    public void setUp() throws IOException {
+        try (InputStream in = ReplayBenchmark.class.getResourceAsStream(TRACE)) {
+            if (in == null) {
+                throw new IOException("缺少记录 " + TRACE);
+            }
+            frames = FrameTrace.read(in);
+        }
+        // 只衡量读取本身: 不再记录回放的帧, 也不使用上次读取的缓存
+        FrameTrace.getInstance().setEnabled(false);
+        TagCache.getInstance().clear();
+    }
+
+    /**
+     * 每次调用使用新的回放, 从会话开头应答
+     */
+    private TagSession session(int index) {
+        TraceReplay.Session replay = TraceReplay.sessions(frames).get(index);
+        replay.setRealTime(false);
+        return replay.newTagSession();
+    }
+
+    @Benchmark
+    public byte[] nfcV() throws IOException {
+        return readNfcV(session(0));
+    }
+
+    @Benchmark
+    public byte[] ultralight() throws IOException {
+        return readUltralight(session(1));
+    }
+
+    @Benchmark
+    public byte[] mifareClassic() throws IOException {
+        return readMifareClassic(session(2));
+    }
+
+    static byte[] readNfcV(TagSession session) throws IOException {
+        return session.execute(() -> {
+            NfcVUtil util = session.nfcV();
+            byte[] image = new byte[util.getBlockNumber() * util.getOneBlockSize()];
+            util.readBlocks(0, util.getBlockNumber(), image, 0, new BitSet());
+            return image;
+        });
+    }
+
+    static byte[] readUltralight(TagSession session) throws IOException {
+        return session.execute(() -> {
+            MifareUltralightUtil util = session.ultralight();
+            return util.readPages(0, util.getPageCount());
+        });
+    }
+
+    /**
+     * 每次使用新的密钥环, 认证顺序与记录时相同
+     */
+    static byte[] readMifareClassic(TagSession session) throws IOException {
+        return MifareClassicDump.read(session, new MifareClassicKeyring()).getImage();
+    }
+}
@@ -21,3 +21,4 @@ dependencyResolutionManagement {
 
 rootProject.name = "AndroidBasicNfcReader"
 include(":app")
+include(":benchmark")